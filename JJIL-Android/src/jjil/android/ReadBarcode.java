@@ -8,6 +8,9 @@ import android.os.Handler;
 import android.util.Log;
 import android.widget.CheckBox;
 import android.widget.TextView;
+import jjil.algorithm.Ean13Scanner;
+import jjil.core.ParallelExecutor;
+import jjil.core.Point;
 
 public class ReadBarcode implements android.hardware.Camera.PreviewCallback,
         android.hardware.Camera.AutoFocusCallback {
@@ -17,7 +20,19 @@ public class ReadBarcode implements android.hardware.Camera.PreviewCallback,
     private Handler handler = new Handler();
     
     public ReadBarcode(double dPerpPos, TextView tv, CheckBox ck, CrosshairOverlay co) {
-        me13b = new Ean13Barcode1D();
+        mScanner = new Ean13Scanner();
+        // JJIL runs serially unless told how many processors to use
+        ParallelExecutor pe = ParallelExecutor.getDefault();
+        int cProcessors = Runtime.getRuntime().availableProcessors();
+        if (pe.getThreads() != cProcessors) {
+            try {
+                pe = new ParallelExecutor(cProcessors);
+                ParallelExecutor.setDefault(pe);
+            } catch (jjil.core.Error e) {
+                Log.e(TAG, "cannot create executor", e);
+            }
+        }
+        mScanner.setParallel(pe);
         mdBarcodePerpPos = dPerpPos;
         mTextViewResult = tv;
         mCheckBoxResult = ck;
@@ -76,56 +91,32 @@ public class ReadBarcode implements android.hardware.Camera.PreviewCallback,
                     width = nv21Image.getWidth();
                     height = nv21Image.getHeight();
                 }
-                int[] nValues;
-                int nRow, nCol;
-                // First search for the barcode columnwise
-                nRow = (int) (mdBarcodePerpPos * height);
-                int nStartCol = 0;
-                int nEndCol = width;
-                nValues = new int[nEndCol - nStartCol];
-                int nRowOffset = width * nRow;
-                /**
-                 * Byte values run from -128 (0x80) to + 127 (0x7f) but image
-                 * values run from 0x00 to 0xff. It will be easier to do the
-                 * math if we convert to integer. We also compute the max and
-                 * min value to use in thresholding
-                 */
-                int i = 0;
-                for (nCol = nStartCol; nCol < nEndCol; nCol++) {
-                    int nValue = 0xff & (int) data[nRowOffset + nCol];
-                    nValues[i++] = nValue;
-                }
-                String szBarcode = me13b.searchForBarcode(nValues, mCrosshairOverlay, true);
-                // show the barcode and exit
-                if (szBarcode != null && mTextViewResult != null) {
-                    mTextViewResult.setText(szBarcode);
-                    mbFoundBarcode = Ean13Barcode1D.verifyCheckDigit(szBarcode);
-                    mCheckBoxResult.setChecked(mbFoundBarcode);
-                    return;
-                }
-                // now search rowwsize
-                nCol = (int) (mdBarcodePerpPos * width);
-                int nStartRow = 0;
-                int nEndRow = height;
-                nValues = new int[nEndRow - nStartRow];
-                int nColOffset = nCol;
                 /**
-                 * Byte values run from -128 (0x80) to + 127 (0x7f) but image
-                 * values run from 0x00 to 0xff. It will be easier to do the
-                 * math if we convert to integer. We also compute the max and
-                 * min value to use in thresholding
+                 * Scan the intensity plane in place, along several lines at
+                 * several angles through the expected barcode position. The
+                 * scanner keeps its buffers and the reads from recent frames,
+                 * and reports a code only once it has been read on enough
+                 * lines, so a code it returns has been verified.
                  */
-                i = 0;
-                for (nRow = nStartRow; nRow < nEndRow; nRow++) {
-                    int nValue = 0xff & (int) data[nColOffset + nRow
-                            * width];
-                    nValues[i++] = nValue;
-                }
-                szBarcode = me13b.searchForBarcode(nValues, mCrosshairOverlay, false);
-                if (mTextViewResult != null && szBarcode != null) {
-                    mTextViewResult.setText(szBarcode);
-                    mbFoundBarcode = Ean13Barcode1D.verifyCheckDigit(szBarcode);
-                    mCheckBoxResult.setChecked(mbFoundBarcode);
+                mScanner.setCenter((int) (mdBarcodePerpPos * width),
+                        (int) (mdBarcodePerpPos * height));
+                String szBarcode = mScanner.scan(data, 0, width, width, height);
+                if (szBarcode != null) {
+                    if (mCrosshairOverlay != null) {
+                        Point start = mScanner.getStart();
+                        Point end = mScanner.getEnd();
+                        if (Math.abs(end.getX() - start.getX()) >=
+                            Math.abs(end.getY() - start.getY())) {
+                            mCrosshairOverlay.setHorizLimits(start.getX(), end.getX());
+                        } else {
+                            mCrosshairOverlay.setVertLimits(start.getY(), end.getY());
+                        }
+                    }
+                    mbFoundBarcode = true;
+                    if (mTextViewResult != null) {
+                        mTextViewResult.setText(szBarcode);
+                        mCheckBoxResult.setChecked(mbFoundBarcode);
+                    }
                     Log.d(TAG, "bar code");
                     return;
                 }
@@ -134,6 +125,8 @@ public class ReadBarcode implements android.hardware.Camera.PreviewCallback,
                     Log.d(TAG, "no bar code");
                 }
             }
+        } catch (jjil.core.Error e) {
+            Log.e(TAG, "scan failed " + e.toString());
         } finally {
             if (bUseAutoFocus && (--mnFocused == 0 && !mbFoundBarcode)) {
                 Log.d(TAG, "refocusing");
@@ -175,7 +168,7 @@ public class ReadBarcode implements android.hardware.Camera.PreviewCallback,
     /**
      * 1D Barcode decoder
      */
-    Ean13Barcode1D me13b;
+    Ean13Scanner mScanner;
 
     /**
      * The expected position of the barcode, measured perpendicular
@@ -15,7 +15,7 @@
  */
 package root.gast.playground.image.detectlogobetter;
 
-import jjil.algorithm.Gray8ConnComp;
+import jjil.algorithm.Gray8RunConnComp;
 import jjil.algorithm.Gray8HistEq;
 import jjil.algorithm.Gray8Reduce;
 import jjil.algorithm.Gray8Rgb;
@@ -44,7 +44,7 @@ public class DetectLogo implements android.hardware.Camera.PreviewCallback
     private static final int MIN_LOGO_SIZE = 50;
 
     private FindBrightestPoint mFbp;
-    private Gray8ConnComp mG8cc;
+    private Gray8RunConnComp mG8cc;
     private PipelineStage mDisplay;
     private LogoView mLogoView;
     private RgbAbsDiffGrayWb mRadg;
@@ -65,12 +65,17 @@ public class DetectLogo implements android.hardware.Camera.PreviewCallback
         g8r = new Gray8Reduce(2, 2);
         // then pass all pixels less than -96
         Gray8Threshold g8t = new Gray8Threshold(-96, true);
+        // equalize using a histogram of every other pixel, keeping the
+        // previous frame's table while the histogram barely changes
+        Gray8HistEq g8he = new Gray8HistEq();
+        g8he.setSubsample(2);
+        g8he.setReuseTolerance(2);
         // Now build the pipeline
         mSeqThreshold = new Sequence(mRadg);
         mSeqThreshold.add(g8r);
-        mSeqThreshold.add(new Gray8HistEq());
+        mSeqThreshold.add(g8he);
         mSeqThreshold.add(g8t);
-        mG8cc = new Gray8ConnComp();
+        mG8cc = new Gray8RunConnComp();
         // for measuring the brightest pixel in the scene
         // we sample every 8th pixel horizontally and vertically
         mFbp = new FindBrightestPoint(8, 8);
@@ -130,8 +135,10 @@ public class DetectLogo implements android.hardware.Camera.PreviewCallback
                 mG8cc.push(imThresholded);
                 // calculate connected components. We make this a member
                 // variable
-                // so we can access the connected components
-                // take the largest connected component
+                // so we can access the connected components. The area,
+                // perimeter, and bounds are all measured as the components
+                // are found
+                // take the most compact large connected component
                 int nBestCompactness = Integer.MAX_VALUE, nBestComponent = -1;
                 for (int i = 0; i < mG8cc.getComponentCount()
                         && mG8cc.getPixelCount(i) > MIN_LOGO_SIZE; i++)
@@ -0,0 +1,151 @@
+/*
+ * Ean13Frames.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.util.Random;
+
+/**
+ * Draws synthetic luminance frames containing an EAN-13 barcode, for
+ * Ean13ScannerBenchmark and the Ean13Scanner tests. The barcode is dark on
+ * light, three pixels per module, centered in the frame, and may be rotated;
+ * the frame has Gaussian noise added.
+ * @author webb
+ */
+public class Ean13Frames {
+    private static final double MODULE_WIDTH = 3.0;
+    private static final double NOISE = 8.0;
+    /**
+     * Left-hand digit patterns, odd parity, as 7 modules with the first in
+     * bit 6. Even parity patterns are these reversed and complemented, and
+     * right-hand patterns are these complemented.
+     */
+    private static final int[] L_CODES =
+        {0x0d, 0x19, 0x13, 0x3d, 0x23, 0x31, 0x2f, 0x3b, 0x37, 0x0b};
+    /**
+     * Parity of the six left-hand digits, odd as 1, for each first digit.
+     */
+    private static final int[] PARITY =
+        {0x3f, 0x34, 0x32, 0x31, 0x2c, 0x26, 0x23, 0x2a, 0x29, 0x25};
+
+    /**
+     * Appends the EAN-13 check digit to twelve digits.
+     * @param sz12 the digits.
+     * @return the 13-digit code.
+     */
+    public static String addCheckDigit(String sz12) {
+        int nSum = 0;
+        for (int i=0; i<12; i++) {
+            int nDigit = sz12.charAt(i) - '0';
+            nSum += (i % 2 == 1) ? 3 * nDigit : nDigit;
+        }
+        return sz12 + (char) ('0' + (10 - nSum % 10) % 10);
+    }
+
+    /**
+     * Returns a random code with a correct check digit.
+     * @param r the source of the digits.
+     * @return the 13-digit code.
+     */
+    public static String randomCode(Random r) {
+        StringBuffer sb = new StringBuffer();
+        for (int j=0; j<12; j++) {
+            sb.append((char) ('0' + r.nextInt(10)));
+        }
+        return addCheckDigit(sb.toString());
+    }
+
+    /**
+     * Returns the 95 modules of a code, 1 for a bar.
+     */
+    private static int[] modules(String szCode) {
+        int[] rnModules = new int[95];
+        int n = 0;
+        rnModules[n++] = 1;
+        rnModules[n++] = 0;
+        rnModules[n++] = 1;
+        int nParity = PARITY[szCode.charAt(0) - '0'];
+        for (int d=0; d<6; d++) {
+            int nCode = L_CODES[szCode.charAt(d+1) - '0'];
+            if (((nParity >> (5 - d)) & 1) == 0) {
+                // even parity: reverse the complement
+                int nReversed = 0;
+                for (int b=0; b<7; b++) {
+                    nReversed = (nReversed << 1) | ((~nCode >> b) & 1);
+                }
+                nCode = nReversed;
+            }
+            for (int b=6; b>=0; b--) {
+                rnModules[n++] = (nCode >> b) & 1;
+            }
+        }
+        for (int j=0; j<5; j++) {
+            rnModules[n++] = j % 2;
+        }
+        for (int d=0; d<6; d++) {
+            int nCode = ~L_CODES[szCode.charAt(d+7) - '0'];
+            for (int b=6; b>=0; b--) {
+                rnModules[n++] = (nCode >> b) & 1;
+            }
+        }
+        rnModules[n++] = 1;
+        rnModules[n++] = 0;
+        rnModules[n++] = 1;
+        return rnModules;
+    }
+
+    /**
+     * Draws a barcode, dark on light, at the center of a noisy frame. The
+     * check digit of the code is drawn as given, right or wrong.
+     * @param szCode the code, or null for a frame with no barcode.
+     * @param nAngle angle of the barcode in degrees; 180 draws it reversed.
+     * @param cWidth frame width.
+     * @param cHeight frame height.
+     * @param r source of the noise.
+     * @return the frame, one unsigned byte per pixel.
+     */
+    public static byte[] render(
+            String szCode, 
+            int nAngle, 
+            int cWidth, 
+            int cHeight, 
+            Random r) {
+        byte[] rbFrame = new byte[cWidth * cHeight];
+        int[] rnModules = szCode == null ? null : modules(szCode);
+        double dCos = Math.cos(Math.toRadians(nAngle));
+        double dSin = Math.sin(Math.toRadians(nAngle));
+        double dHalfHeight = 30 * MODULE_WIDTH;
+        for (int y=0; y<cHeight; y++) {
+            for (int x=0; x<cWidth; x++) {
+                double dU = (x - cWidth / 2) * dCos + (y - cHeight / 2) * dSin;
+                double dV = (y - cHeight / 2) * dCos - (x - cWidth / 2) * dSin;
+                int nModule = (int) Math.floor(dU / MODULE_WIDTH + 47.5);
+                double dValue = 200;
+                if (rnModules != null && Math.abs(dV) < dHalfHeight &&
+                        nModule >= 0 && nModule < 95 &&
+                        rnModules[nModule] == 1) {
+                    dValue = 40;
+                }
+                dValue += r.nextGaussian() * NOISE;
+                rbFrame[y*cWidth+x] = (byte) Math.max(0, Math.min(255, (int) dValue));
+            }
+        }
+        return rbFrame;
+    }
+}
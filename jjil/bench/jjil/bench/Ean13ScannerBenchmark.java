@@ -0,0 +1,111 @@
+/*
+ * Ean13ScannerBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.util.Random;
+
+import jjil.algorithm.Ean13Scanner;
+import jjil.core.ParallelExecutor;
+
+/**
+ * Measures Ean13Scanner on 640x480 luminance frames for 1, 2, ... N threads,
+ * where N is the number of processors unless given as the first argument.
+ * Three kinds of frame are scanned: a frame with a barcode that is read on
+ * the first scanlines, a frame with the barcode rotated 30 degrees, and a
+ * frame of noise, where every scanline has to be tried. Every frame gets new
+ * noise and a new code, so votes from earlier frames do not help. The time
+ * per frame and the fraction of frames read correctly are printed. The
+ * frames are drawn by Ean13Frames.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.Ean13ScannerBenchmark [threads]
+ * </pre>
+ * @author webb
+ */
+public class Ean13ScannerBenchmark {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 200;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional maximum thread count.
+     * @throws jjil.core.Error if the scanner fails.
+     */
+    public static void main(String[] args) throws jjil.core.Error {
+        int cMaxThreads = args.length > 0 ?
+                Integer.parseInt(args[0]) :
+                Runtime.getRuntime().availableProcessors();
+        System.out.println("frame\tthreads\tus/frame\tread\tspeedup");
+        run("straight", 0, cMaxThreads);
+        run("rotated", 30, cMaxThreads);
+        run("blank", -1, cMaxThreads);
+    }
+
+    /**
+     * Times the scanner for each thread count.
+     * @param szName name of the kind of frame.
+     * @param nAngle angle of the barcode in degrees, or -1 for no barcode.
+     * @param cMaxThreads largest thread count to try.
+     * @throws jjil.core.Error if the scanner fails.
+     */
+    private static void run(String szName, int nAngle, int cMaxThreads)
+        throws jjil.core.Error
+    {
+        Random r = new Random(1);
+        byte[][] rrbFrames = new byte[FRAMES][];
+        String[] rszCodes = new String[FRAMES];
+        for (int i=0; i<FRAMES; i++) {
+            rszCodes[i] = Ean13Frames.randomCode(r);
+            rrbFrames[i] = Ean13Frames.render(nAngle < 0 ? null : rszCodes[i],
+                    nAngle, WIDTH, HEIGHT, r);
+        }
+        double dSerial = 0;
+        for (int cThreads=1; cThreads<=cMaxThreads; cThreads++) {
+            ParallelExecutor pe = new ParallelExecutor(cThreads);
+            Ean13Scanner scanner = new Ean13Scanner();
+            scanner.setParallel(pe);
+            scanner.setRequiredVotes(1);
+            // warm up
+            for (int i=0; i<FRAMES; i++) {
+                scanner.scan(rrbFrames[i], 0, WIDTH, WIDTH, HEIGHT);
+            }
+            int cRead = 0;
+            long lStart = System.nanoTime();
+            for (int i=0; i<FRAMES; i++) {
+                scanner.reset();
+                String szCode = scanner.scan(
+                        rrbFrames[i], 0, WIDTH, WIDTH, HEIGHT);
+                if (szCode != null && szCode.equals(rszCodes[i])) {
+                    cRead++;
+                }
+            }
+            double dUs = (System.nanoTime() - lStart) / 1e3 / FRAMES;
+            if (cThreads == 1) {
+                dSerial = dUs;
+            }
+            System.out.println(szName + "\t" + cThreads + "\t" +
+                    Math.round(dUs) + "\t" +
+                    Math.round(cRead * 100.0 / FRAMES) / 100.0 + "\t" +
+                    Math.round(dSerial / dUs * 100) / 100.0);
+            pe.shutdown();
+        }
+    }
+}
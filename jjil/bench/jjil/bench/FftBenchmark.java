@@ -0,0 +1,173 @@
+/*
+ * FftBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jjil.bench;
+
+import java.util.Random;
+
+import jjil.algorithm.FftInt;
+import jjil.algorithm.Gray8Fft;
+import jjil.core.ParallelExecutor;
+
+/**
+ * Measures the throughput of the 2-D FFT used by Gray8Fft and Complex32IFft
+ * on square images from 256x256 to 2048x2048. For each size the time per
+ * transform and transforms per second are printed for the column-buffer
+ * transform ("serial") and for the transposing transform with 1, 2, ... N
+ * threads, where N is the number of processors unless given as the first
+ * argument. The images are scaled as Gray8Fft scales them. After each run
+ * the DC term of the transform and its inverse are checked against the
+ * image, and a run whose output is wrong is reported as such, without its
+ * time.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.FftBenchmark [threads]
+ * </pre>
+ * @author webb
+ */
+public class FftBenchmark {
+    private static final int MIN_SIZE = 256;
+    private static final int MAX_SIZE = 2048;
+    private static final long MIN_MS = 1000;
+    /**
+     * Largest difference from the image allowed after the inverse transform,
+     * in gray levels. The fixed point roots of unity leave an error which
+     * grows slowly with the size; an overflow makes it as large as the image.
+     */
+    private static final int MAX_ERROR = 32;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional maximum thread count.
+     * @throws jjil.core.Error if a transform fails.
+     */
+    public static void main(String[] args) throws jjil.core.Error {
+        int cMaxThreads = args.length > 0 ?
+                Integer.parseInt(args[0]) :
+                Runtime.getRuntime().availableProcessors();
+        Random r = new Random(1);
+        System.out.println("size\tthreads\tms/fft\tfft/s\tspeedup");
+        for (int nSize=MIN_SIZE; nSize<=MAX_SIZE; nSize*=2) {
+            int nShift = Gray8Fft.getShift(nSize, nSize);
+            int[] rnImage = new int[2 * nSize * nSize];
+            for (int i=0; i<rnImage.length; i+=2) {
+                rnImage[i] = r.nextInt(256) << nShift;
+            }
+            int[] rnData = new int[rnImage.length];
+            FftInt fft = new FftInt(nSize);
+            double dSerial = run(fft, rnImage, rnData, nSize, null);
+            if (!check(fft, rnImage, rnData, nSize, nShift, null)) {
+                System.out.println(nSize + "\tserial\twrong output");
+                continue;
+            }
+            print(nSize, "serial", dSerial, dSerial);
+            for (int cThreads=1; cThreads<=cMaxThreads; cThreads++) {
+                ParallelExecutor pe = new ParallelExecutor(cThreads);
+                double dMs = run(fft, rnImage, rnData, nSize, pe);
+                if (check(fft, rnImage, rnData, nSize, nShift, pe)) {
+                    print(nSize, Integer.toString(cThreads), dMs, dSerial);
+                } else {
+                    System.out.println(nSize + "\t" + cThreads + 
+                            "\twrong output");
+                }
+                pe.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Times the transform of one image, repeating it until MIN_MS have
+     * passed.
+     * @param fft the transform.
+     * @param rnImage the image, which is copied before each transform.
+     * @param rnData buffer to transform in.
+     * @param nSize image width and height.
+     * @param pe the executor, or null for the column-buffer transform.
+     * @return milliseconds per transform.
+     * @throws jjil.core.Error if the transform fails.
+     */
+    private static double run(
+            FftInt fft,
+            int[] rnImage,
+            int[] rnData,
+            int nSize,
+            ParallelExecutor pe) throws jjil.core.Error {
+        // warm up
+        System.arraycopy(rnImage, 0, rnData, 0, rnData.length);
+        fft.fft2d(rnData, nSize, nSize, pe);
+        int cTransforms = 0;
+        long lStart = System.nanoTime();
+        long lElapsed;
+        do {
+            System.arraycopy(rnImage, 0, rnData, 0, rnData.length);
+            fft.fft2d(rnData, nSize, nSize, pe);
+            cTransforms++;
+            lElapsed = System.nanoTime() - lStart;
+        } while (lElapsed < MIN_MS * 1000000L);
+        return lElapsed / 1e6 / cTransforms;
+    }
+
+    /**
+     * Checks a transform: its DC term must be the sum of the image, and its
+     * inverse must be within MAX_ERROR gray levels of the image, and within
+     * 2 on average.
+     * @param fft the transform.
+     * @param rnImage the image.
+     * @param rnData the transform of the image, which is overwritten.
+     * @param nSize image width and height.
+     * @param nShift the shift applied to the image.
+     * @param pe the executor, or null.
+     * @return true iff the transform is correct.
+     * @throws jjil.core.Error if the inverse transform fails.
+     */
+    private static boolean check(
+            FftInt fft,
+            int[] rnImage,
+            int[] rnData,
+            int nSize,
+            int nShift,
+            ParallelExecutor pe) throws jjil.core.Error {
+        long lSum = 0;
+        for (int i=0; i<rnImage.length; i+=2) {
+            lSum += rnImage[i];
+        }
+        if (rnData[0] != lSum || rnData[1] != 0) {
+            return false;
+        }
+        fft.ifft2d(rnData, nSize, nSize, pe);
+        long lTotal = 0;
+        for (int i=0; i<rnImage.length; i+=2) {
+            int nDiff = Math.abs(rnData[i] - rnImage[i]) >> nShift;
+            if (nDiff > MAX_ERROR || Math.abs(rnData[i+1]) >> nShift > MAX_ERROR) {
+                return false;
+            }
+            lTotal += nDiff;
+        }
+        return lTotal <= 2L * nSize * nSize;
+    }
+
+    /**
+     * Prints one result line.
+     */
+    private static void print(int nSize, String szThreads, double dMs, double dSerial) {
+        System.out.println(nSize + "\t" + szThreads + "\t" +
+                Math.round(dMs * 100) / 100.0 + "\t" +
+                Math.round(1000 / dMs * 10) / 10.0 + "\t" +
+                Math.round(dSerial / dMs * 100) / 100.0);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * GaussSmoothBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.util.Random;
+
+import jjil.algorithm.Gray8GaussHoriz;
+import jjil.algorithm.Gray8GaussSmooth;
+import jjil.algorithm.Gray8GaussSmoothVert;
+import jjil.algorithm.RgbGaussSmooth;
+import jjil.algorithm.RgbHorizGaussSmooth;
+import jjil.algorithm.RgbVertGaussSmooth;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+import jjil.core.PipelineStage;
+import jjil.core.RgbImage;
+import jjil.core.Sequence;
+
+/**
+ * Compares the two-stage Gaussian blur, a Sequence of the horizontal and
+ * vertical stages, with Gray8GaussSmooth and RgbGaussSmooth in GAUSSIAN and
+ * BOX modes, for sigma from 1.0 to 8.0 on 1024x1024 gray and RGB images.
+ * The images are square because Gray8GaussSmoothVert handles only square
+ * images correctly. For the two-stage blur and GAUSSIAN mode the largest
+ * difference between their outputs is also printed; it should be 0.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.GaussSmoothBenchmark
+ * </pre>
+ * @author webb
+ */
+public class GaussSmoothBenchmark {
+    private static final int SIZE = 1024;
+    private static final long MIN_MS = 1000;
+    private static final int[] SIGMAS = {10, 20, 40, 80};
+
+    /**
+     * Runs the benchmark.
+     * @param args not used.
+     * @throws jjil.core.Error if a stage fails.
+     */
+    public static void main(String[] args) throws jjil.core.Error {
+        Random r = new Random(1);
+        Gray8Image gray = new Gray8Image(SIZE, SIZE);
+        r.nextBytes(gray.getData());
+        RgbImage rgb = new RgbImage(SIZE, SIZE);
+        int[] rgbData = rgb.getData();
+        for (int i=0; i<rgbData.length; i++) {
+            rgbData[i] = r.nextInt();
+        }
+        System.out.println("image\tsigma\tsequence\tgaussian\tbox\tspeedup\tmaxdiff");
+        for (int i=0; i<SIGMAS.length; i++) {
+            int cSigma = SIGMAS[i];
+            Sequence seq = new Sequence(new Gray8GaussHoriz(cSigma));
+            seq.add(new Gray8GaussSmoothVert(cSigma));
+            compare("gray", cSigma, seq,
+                    new Gray8GaussSmooth(cSigma),
+                    new Gray8GaussSmooth(cSigma, Gray8GaussSmooth.BOX),
+                    gray);
+            Sequence seqRgb = new Sequence(new RgbHorizGaussSmooth(cSigma));
+            seqRgb.add(new RgbVertGaussSmooth(cSigma));
+            compare("rgb", cSigma, seqRgb,
+                    new RgbGaussSmooth(cSigma),
+                    new RgbGaussSmooth(cSigma, Gray8GaussSmooth.BOX),
+                    rgb);
+        }
+    }
+
+    /**
+     * Times the three ways of blurring an image and prints a result line.
+     */
+    private static void compare(
+            String szImage,
+            int cSigma,
+            PipelineStage seq,
+            PipelineStage gauss,
+            PipelineStage box,
+            Image image) throws jjil.core.Error {
+        gauss.setReuseOutput(true);
+        box.setReuseOutput(true);
+        double dSeq = run(seq, image);
+        double dGauss = run(gauss, image);
+        double dBox = run(box, image);
+        seq.push(image);
+        gauss.push(image);
+        int nMaxDiff = maxDiff(seq.getFront(), gauss.getFront());
+        System.out.println(szImage + "\t" + cSigma / 10.0 + "\t" +
+                Math.round(dSeq * 100) / 100.0 + "\t" +
+                Math.round(dGauss * 100) / 100.0 + "\t" +
+                Math.round(dBox * 100) / 100.0 + "\t" +
+                Math.round(dSeq / dGauss * 100) / 100.0 + "\t" +
+                nMaxDiff);
+    }
+
+    /**
+     * Returns the largest difference between corresponding values of two
+     * images of the same type and size. RGB values are compared by band.
+     */
+    private static int maxDiff(Image im1, Image im2) {
+        int nMax = 0;
+        if (im1 instanceof Gray8Image) {
+            byte[] b1 = ((Gray8Image) im1).getData();
+            byte[] b2 = ((Gray8Image) im2).getData();
+            for (int i=0; i<b1.length; i++) {
+                nMax = Math.max(nMax, Math.abs(b1[i] - b2[i]));
+            }
+        } else {
+            int[] n1 = ((RgbImage) im1).getData();
+            int[] n2 = ((RgbImage) im2).getData();
+            for (int i=0; i<n1.length; i++) {
+                for (int nShift=0; nShift<24; nShift+=8) {
+                    nMax = Math.max(nMax, Math.abs(
+                            ((n1[i] >> nShift) & 0xff) -
+                            ((n2[i] >> nShift) & 0xff)));
+                }
+            }
+        }
+        return nMax;
+    }
+
+    /**
+     * Times one stage, repeating it until MIN_MS have passed.
+     * @return milliseconds per image.
+     */
+    private static double run(PipelineStage stage, Image image)
+        throws jjil.core.Error
+    {
+        // warm up
+        stage.push(image);
+        stage.getFront();
+        int cImages = 0;
+        long lStart = System.nanoTime();
+        long lElapsed;
+        do {
+            stage.push(image);
+            stage.getFront();
+            cImages++;
+            lElapsed = System.nanoTime() - lStart;
+        } while (lElapsed < MIN_MS * 1000000L);
+        return lElapsed / 1e6 / cImages;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * HaarCascadeBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+import jjil.algorithm.Gray8Crop;
+import jjil.algorithm.Gray8IntegralImage;
+import jjil.algorithm.HaarClassifierCascade;
+import jjil.core.Gray8Image;
+
+/**
+ * Compares the windows per second achieved by the ways of evaluating a Haar
+ * cascade: the object graph evaluator on a copy of each window, as the
+ * detector used to do; the object graph evaluator on shared integral images;
+ * and the compiled cascade on shared integral images.<p>
+ * The cascade is read from the file given as the first argument, in the
+ * format read by HaarClassifierCascade.fromStream(). Without an argument a
+ * synthetic 24x24 cascade with 20 stages and 1000 weak classifiers is used,
+ * with stage thresholds that every window passes, so every window is run
+ * through the whole cascade.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.HaarCascadeBenchmark [cascade]
+ * </pre>
+ * @author webb
+ */
+public class HaarCascadeBenchmark {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int STEP = 2;
+    private static final long MIN_MS = 2000;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional cascade file name.
+     * @throws jjil.core.Error if the cascade cannot be parsed.
+     * @throws IOException if the cascade cannot be read.
+     */
+    public static void main(String[] args)
+        throws jjil.core.Error, IOException {
+        InputStream is = args.length > 0 ?
+                (InputStream) new FileInputStream(args[0]) :
+                new ByteArrayInputStream(
+                        synthetic(new Random(1), 20, 5, 95).getBytes());
+        HaarClassifierCascade hcc =
+                HaarClassifierCascade.fromStream(new InputStreamReader(is));
+        is.close();
+        HaarClassifierCascade hccCompiled = hcc.compile();
+        Gray8Image image = new Gray8Image(WIDTH, HEIGHT);
+        new Random(2).nextBytes(image.getData());
+        System.out.println("evaluator\twindows/s\tpassed");
+        run("object graph, window copy", hcc, image, true);
+        run("object graph, integral", hcc, image, false);
+        run("compiled, integral", hccCompiled, image, false);
+    }
+
+    /**
+     * Times one evaluator over all windows of the image, repeating until
+     * MIN_MS have passed.
+     * @param szName evaluator name to print.
+     * @param hcc the cascade.
+     * @param image the image.
+     * @param fCopy if true each window is copied and passed to eval(Image),
+     * otherwise eval(Gray8IntegralImage, int, int) is used.
+     * @throws jjil.core.Error if evaluation fails.
+     */
+    private static void run(
+            String szName,
+            HaarClassifierCascade hcc,
+            Gray8Image image,
+            boolean fCopy) throws jjil.core.Error {
+        Gray8IntegralImage ii = new Gray8IntegralImage();
+        Gray8Crop crop = new Gray8Crop(0, 0, hcc.getWidth(), hcc.getHeight());
+        crop.setReuseOutput(true);
+        // copy each window, as the detector used to
+        crop.setCopy(true);
+        // warm up
+        pass(hcc, image, ii, crop, fCopy);
+        long cWindows = 0;
+        int cPassed = 0;
+        long lStart = System.currentTimeMillis();
+        long lElapsed;
+        do {
+            int[] rnCounts = pass(hcc, image, ii, crop, fCopy);
+            cWindows += rnCounts[0];
+            cPassed = rnCounts[1];
+            lElapsed = System.currentTimeMillis() - lStart;
+        } while (lElapsed < MIN_MS);
+        System.out.println(szName + "\t" + cWindows * 1000 / lElapsed +
+                "\t" + cPassed);
+    }
+
+    /**
+     * Evaluates the cascade at every window position.
+     * @return the number of windows and the number that passed.
+     */
+    private static int[] pass(
+            HaarClassifierCascade hcc,
+            Gray8Image image,
+            Gray8IntegralImage ii,
+            Gray8Crop crop,
+            boolean fCopy) throws jjil.core.Error {
+        int cWindows = 0;
+        int cPassed = 0;
+        if (!fCopy) {
+            ii.push(image);
+        }
+        for (int nY=0; nY+hcc.getHeight()<=HEIGHT; nY+=STEP) {
+            for (int nX=0; nX+hcc.getWidth()<=WIDTH; nX+=STEP) {
+                boolean fPass;
+                if (fCopy) {
+                    crop.setWindow(nX, nY, hcc.getWidth(), hcc.getHeight());
+                    crop.push(image);
+                    fPass = hcc.eval(crop.getFront());
+                } else {
+                    fPass = hcc.eval(ii, nX, nY);
+                }
+                cWindows++;
+                if (fPass) {
+                    cPassed++;
+                }
+            }
+        }
+        return new int[] {cWindows, cPassed};
+    }
+
+    /**
+     * Makes a random 24x24 cascade with stages of increasing size, like a
+     * frontal face cascade, in the format read by fromStream().
+     * @param r random number generator.
+     * @param cStages number of stages.
+     * @param cWeakFirst number of weak classifiers in the first stage.
+     * @param cWeakLast number of weak classifiers in the last stage.
+     * @return the cascade text.
+     */
+    static String synthetic(
+            Random r, 
+            int cStages, 
+            int cWeakFirst, 
+            int cWeakLast) {
+        final int cSize = 24;
+        StringBuffer sb = new StringBuffer();
+        sb.append("(hcsb " + cSize + " " + cSize + " " + cStages + " ");
+        for (int i=0; i<cStages; i++) {
+            int cWeak = cWeakFirst + 
+                    i * (cWeakLast - cWeakFirst) / Math.max(1, cStages - 1);
+            sb.append("(hcs " + cWeak + " ");
+            for (int j=0; j<cWeak; j++) {
+                sb.append("(hwcs (hf ");
+                int cRects = 2 + r.nextInt(2);
+                for (int k=0; k<3; k++) {
+                    if (k >= cRects) {
+                        sb.append("(hr 0 0 0 0 0)");
+                        continue;
+                    }
+                    int x = r.nextInt(cSize - 1);
+                    int y = r.nextInt(cSize - 1);
+                    int w = 1 + r.nextInt(cSize - x);
+                    int h = 1 + r.nextInt(cSize - y);
+                    sb.append("(hr " + x + " " + y + " " + w + " " + h + " " +
+                            (k == 0 ? -1 : 2) + ")");
+                }
+                sb.append("0)" + (r.nextInt(2000) - 1000) + " " +
+                        -r.nextInt(1000) + " " + r.nextInt(1000) + ")");
+            }
+            // every window passes
+            sb.append(-1000 * cWeak + ")");
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * HaarLoadBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+import jjil.algorithm.HaarClassifierCascade;
+import jjil.algorithm.HaarClassifierCompiled;
+
+/**
+ * Compares the time to load a Haar cascade from the text form, with
+ * HaarClassifierCascade.fromStream() followed by compile(), with the time to
+ * load the same cascade from the binary form with
+ * HaarClassifierCompiled.fromBinaryStream(). Both are loaded from memory so
+ * that only parsing is measured.<p>
+ * The cascade is read from the text file given as the first argument.
+ * Without an argument a synthetic cascade the size of the OpenCV frontal face
+ * cascade (25 stages, about 2900 weak classifiers) is used.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.HaarLoadBenchmark [cascade]
+ * </pre>
+ * @author webb
+ */
+public class HaarLoadBenchmark {
+    private static final int LOADS = 20;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional text cascade file name.
+     * @throws jjil.core.Error if the cascade cannot be parsed.
+     * @throws IOException if the cascade cannot be read.
+     */
+    public static void main(String[] args)
+        throws jjil.core.Error, IOException {
+        byte[] rbText;
+        if (args.length > 0) {
+            InputStream is = new FileInputStream(args[0]);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] rb = new byte[8192];
+            int n;
+            while ((n = is.read(rb)) > 0) {
+                baos.write(rb, 0, n);
+            }
+            is.close();
+            rbText = baos.toByteArray();
+        } else {
+            rbText = HaarCascadeBenchmark.synthetic(
+                    new Random(1), 25, 9, 211).getBytes();
+        }
+        HaarClassifierCompiled hcc = (HaarClassifierCompiled)
+                HaarClassifierCascade.fromStream(new InputStreamReader(
+                        new ByteArrayInputStream(rbText))).compile();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        hcc.toBinaryStream(baos);
+        byte[] rbBinary = baos.toByteArray();
+        System.out.println("format\tbytes\tms/load");
+        // run twice; the first round warms up the JIT
+        for (int nRound=0; nRound<2; nRound++) {
+            long lStart = System.nanoTime();
+            for (int i=0; i<LOADS; i++) {
+                HaarClassifierCascade.fromStream(new InputStreamReader(
+                        new ByteArrayInputStream(rbText))).compile();
+            }
+            double dText = (System.nanoTime() - lStart) / 1e6 / LOADS;
+            lStart = System.nanoTime();
+            for (int i=0; i<LOADS; i++) {
+                HaarClassifierCompiled.fromBinaryStream(
+                        new ByteArrayInputStream(rbBinary));
+            }
+            double dBinary = (System.nanoTime() - lStart) / 1e6 / LOADS;
+            if (nRound == 1) {
+                System.out.println("text\t" + rbText.length + "\t" +
+                        Math.round(dText * 100) / 100.0);
+                System.out.println("binary\t" + rbBinary.length + "\t" +
+                        Math.round(dBinary * 100) / 100.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Nv21ConvertBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.util.Random;
+
+import jjil.algorithm.Nv21Converter;
+import jjil.core.Gray8Image;
+import jjil.core.ParallelExecutor;
+import jjil.core.RgbImage;
+
+/**
+ * Measures Nv21Converter on 640x480, 1280x720 and 1920x1080 frames against
+ * the per-pixel conversion done by jjil.android.Nv212RgbImage, which is
+ * copied here so the benchmark runs without Android. For each size it times
+ * the reference conversion, the converter at full resolution for 1, 2, ... N
+ * threads, where N is the number of processors unless given as the first
+ * argument, the converter at half resolution against the reference's 2x2
+ * reduction, and copying the luminance to gray against wrapping it. The
+ * largest difference from the reference in any channel is printed and
+ * should be 0.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.Nv21ConvertBenchmark [threads]
+ * </pre>
+ * @author webb
+ */
+public class Nv21ConvertBenchmark {
+    private static final int[][] SIZES = {{640, 480}, {1280, 720}, {1920, 1080}};
+    private static final int REPEATS = 30;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional maximum thread count.
+     * @throws jjil.core.Error if the converter fails.
+     */
+    public static void main(String[] args) throws jjil.core.Error {
+        int cMaxThreads = args.length > 0 ?
+                Integer.parseInt(args[0]) :
+                Runtime.getRuntime().availableProcessors();
+        System.out.println("size\tconversion\tthreads\tms/frame\tspeedup\tmaxdiff");
+        for (int i=0; i<SIZES.length; i++) {
+            run(SIZES[i][0], SIZES[i][1], cMaxThreads);
+        }
+    }
+
+    /**
+     * Times every conversion at one frame size.
+     * @param cWidth frame width.
+     * @param cHeight frame height.
+     * @param cMaxThreads largest thread count to try.
+     * @throws jjil.core.Error if the converter fails.
+     */
+    private static void run(int cWidth, int cHeight, int cMaxThreads)
+        throws jjil.core.Error
+    {
+        String szSize = cWidth + "x" + cHeight;
+        byte[] rbFrame = new byte[cWidth * cHeight * 3 / 2];
+        new Random(1).nextBytes(rbFrame);
+
+        int[] rnRef = new int[cWidth * cHeight];
+        long lStart = 0;
+        for (int n=0; n<2*REPEATS; n++) {
+            if (n == REPEATS) {
+                lStart = System.nanoTime();
+            }
+            referenceRgb(rbFrame, cWidth, cHeight, rnRef);
+        }
+        double dRef = (System.nanoTime() - lStart) / 1e6 / REPEATS;
+        print(szSize, "reference", 1, dRef, dRef, -1);
+
+        RgbImage rgb = null;
+        for (int cThreads=1; cThreads<=cMaxThreads; cThreads++) {
+            ParallelExecutor pe = new ParallelExecutor(cThreads);
+            Nv21Converter conv = new Nv21Converter();
+            conv.setParallel(pe);
+            for (int n=0; n<2*REPEATS; n++) {
+                if (n == REPEATS) {
+                    lStart = System.nanoTime();
+                }
+                rgb = conv.toRgb(rbFrame, cWidth, cHeight, rgb);
+            }
+            double dMs = (System.nanoTime() - lStart) / 1e6 / REPEATS;
+            print(szSize, "rgb", cThreads, dMs, dRef,
+                    maxDiff(rnRef, rgb.getData()));
+            pe.shutdown();
+        }
+
+        int[] rnRefHalf = new int[cWidth * cHeight / 4];
+        for (int n=0; n<2*REPEATS; n++) {
+            if (n == REPEATS) {
+                lStart = System.nanoTime();
+            }
+            referenceRgbReduced(rbFrame, cWidth, cHeight, rnRefHalf);
+        }
+        double dRefHalf = (System.nanoTime() - lStart) / 1e6 / REPEATS;
+        print(szSize, "reference/2", 1, dRefHalf, dRefHalf, -1);
+        Nv21Converter convHalf = new Nv21Converter(2);
+        RgbImage rgbHalf = null;
+        for (int n=0; n<2*REPEATS; n++) {
+            if (n == REPEATS) {
+                lStart = System.nanoTime();
+            }
+            rgbHalf = convHalf.toRgb(rbFrame, cWidth, cHeight, rgbHalf);
+        }
+        double dMs = (System.nanoTime() - lStart) / 1e6 / REPEATS;
+        print(szSize, "rgb/2", 1, dMs, dRefHalf,
+                maxDiff(rnRefHalf, rgbHalf.getData()));
+
+        Nv21Converter conv = new Nv21Converter();
+        Gray8Image gray = null;
+        for (int n=0; n<2*REPEATS; n++) {
+            if (n == REPEATS) {
+                lStart = System.nanoTime();
+            }
+            gray = conv.toGray8(rbFrame, cWidth, cHeight, gray);
+        }
+        double dCopy = (System.nanoTime() - lStart) / 1e6 / REPEATS;
+        print(szSize, "gray copy", 1, dCopy, dCopy, -1);
+        // wrapping flips the luminance in place, so each pass is a wrap and
+        // an unwrap and the frame is unchanged afterward
+        for (int n=0; n<2*REPEATS; n++) {
+            if (n == REPEATS) {
+                lStart = System.nanoTime();
+            }
+            gray = Nv21Converter.wrapLuma(rbFrame, cWidth, cHeight);
+            Nv21Converter.unwrapLuma(rbFrame, cWidth, cHeight);
+        }
+        dMs = (System.nanoTime() - lStart) / 1e6 / REPEATS;
+        print(szSize, "gray wrap", 1, dMs, dCopy, -1);
+    }
+
+    /**
+     * Prints one line of results; a negative difference is left blank.
+     */
+    private static void print(
+            String szSize,
+            String szName,
+            int cThreads,
+            double dMs,
+            double dBaseline,
+            int nDiff) {
+        System.out.println(szSize + "\t" + szName + "\t" + cThreads + "\t" +
+                Math.round(dMs * 100) / 100.0 + "\t" +
+                Math.round(dBaseline / dMs * 100) / 100.0 + "\t" +
+                (nDiff < 0 ? "" : Integer.toString(nDiff)));
+    }
+
+    /**
+     * Returns the largest difference in any channel between two RGB arrays.
+     */
+    private static int maxDiff(int[] rnA, int[] rnB) {
+        int nMax = 0;
+        for (int i=0; i<rnA.length; i++) {
+            for (int nShift=0; nShift<24; nShift+=8) {
+                int nDiff = Math.abs(((rnA[i] >> nShift) & 0xff) -
+                        ((rnB[i] >> nShift) & 0xff));
+                nMax = Math.max(nMax, nDiff);
+            }
+        }
+        return nMax;
+    }
+
+    /**
+     * Per-pixel conversion as in Nv212RgbImage.getRgbImage.
+     */
+    private static void referenceRgb(
+            byte[] data,
+            int width,
+            int height,
+            int[] rgb) {
+        int nVuOffset = width * height;
+        for (int i=0; i<height; i++) {
+            for (int j=0; j<width; j++) {
+                int nY = data[i*width+j] & 0xff;
+                int nV = data[nVuOffset+(i/2)*width+(j/2)*2] & 0xff;
+                int nU = data[nVuOffset+(i/2)*width+(j/2)*2+1] & 0xff;
+                rgb[i*width+j] = yuv2Color(nY, nU, nV);
+            }
+        }
+    }
+
+    /**
+     * Half resolution conversion as in Nv212RgbImage.getRgbImageReduced.
+     */
+    private static void referenceRgbReduced(
+            byte[] data,
+            int width,
+            int height,
+            int[] rgb) {
+        int nVuOffset = width * height;
+        for (int i=0; i<height/2; i++) {
+            for (int j=0; j<width/2; j++) {
+                int nY = ((data[2*i*width+2*j] & 0xff) +
+                        (data[2*i*width+2*j+1] & 0xff) +
+                        (data[(2*i+1)*width+2*j] & 0xff) +
+                        (data[(2*i+1)*width+2*j+1] & 0xff)) / 4;
+                int nV = data[nVuOffset+i*width+2*j] & 0xff;
+                int nU = data[nVuOffset+i*width+2*j+1] & 0xff;
+                rgb[i*(width/2)+j] = yuv2Color(nY, nU, nV);
+            }
+        }
+    }
+
+    /**
+     * The conversion in jjil.android.AndroidColors.yuv2Color.
+     */
+    private static int yuv2Color(int nY, int nU, int nV) {
+        int nC = nY - 16;
+        int nD = nU - 128;
+        int nE = nV - 128;
+        int nR = clamp((298 * nC + 409 * nE + 128) >> 8);
+        int nG = clamp((298 * nC - 100 * nD - 208 * nE + 128) >> 8);
+        int nB = clamp((298 * nC + 516 * nD + 128) >> 8);
+        return 0xff000000 | (nR << 16) | (nG << 8) | nB;
+    }
+
+    private static int clamp(int n) {
+        return Math.max(0, Math.min(255, n));
+    }
+}
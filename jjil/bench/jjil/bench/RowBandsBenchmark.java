@@ -0,0 +1,122 @@
+/*
+ * RowBandsBenchmark.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.bench;
+
+import java.util.Random;
+
+import jjil.algorithm.Gray8GaussHoriz;
+import jjil.algorithm.Gray8Lookup;
+import jjil.algorithm.Gray8Shrink;
+import jjil.algorithm.Gray8Threshold;
+import jjil.algorithm.RgbAbsDiffGray;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+import jjil.core.ParallelExecutor;
+import jjil.core.PipelineStage;
+import jjil.core.RgbImage;
+
+/**
+ * Measures how the row-band stages scale with the number of threads on
+ * 1920x1080 frames. For each stage the time per frame is printed for
+ * 1, 2, ... N threads, where N is the number of processors unless given
+ * as the first argument.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:bench jjil.bench.RowBandsBenchmark [threads]
+ * </pre>
+ * @author webb
+ */
+public class RowBandsBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int FRAMES = 20;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional maximum thread count.
+     * @throws jjil.core.Error if a stage fails.
+     */
+    public static void main(String[] args) throws jjil.core.Error {
+        int cMaxThreads = args.length > 0 ?
+                Integer.parseInt(args[0]) :
+                Runtime.getRuntime().availableProcessors();
+        Random r = new Random(1);
+        Gray8Image gray = new Gray8Image(WIDTH, HEIGHT);
+        r.nextBytes(gray.getData());
+        RgbImage rgb = new RgbImage(WIDTH, HEIGHT);
+        int[] rgbData = rgb.getData();
+        for (int i=0; i<rgbData.length; i++) {
+            rgbData[i] = r.nextInt();
+        }
+        byte[] table = new byte[256];
+        for (int i=0; i<256; i++) {
+            table[i] = (byte) (255 - i);
+        }
+        System.out.println("stage\tthreads\tms/frame\tspeedup");
+        // Gray8Lookup and Gray8Threshold work in place, so they are run
+        // on a copy; the lookup table and threshold accept their own output.
+        Gray8Image grayCopy = (Gray8Image) gray.clone();
+        run("Gray8Lookup", new Gray8Lookup(table), grayCopy, cMaxThreads);
+        run("Gray8Threshold", new Gray8Threshold(0, true), grayCopy, cMaxThreads);
+        run("Gray8GaussHoriz", new Gray8GaussHoriz(20), gray, cMaxThreads);
+        run("Gray8Shrink", new Gray8Shrink(640, 1080), gray, cMaxThreads);
+        run("RgbAbsDiffGray", new RgbAbsDiffGray(0), rgb, cMaxThreads);
+    }
+
+    /**
+     * Times one stage for each thread count.
+     * @param szName stage name to print.
+     * @param stage the stage.
+     * @param image the input image.
+     * @param cMaxThreads largest thread count to try.
+     * @throws jjil.core.Error if the stage fails.
+     */
+    private static void run(
+            String szName,
+            PipelineStage stage,
+            Image image,
+            int cMaxThreads) throws jjil.core.Error {
+        stage.setReuseOutput(true);
+        double dSerial = 0;
+        for (int cThreads=1; cThreads<=cMaxThreads; cThreads++) {
+            ParallelExecutor pe = new ParallelExecutor(cThreads);
+            stage.setParallel(pe);
+            // warm up
+            for (int i=0; i<FRAMES/2; i++) {
+                stage.push(image);
+                stage.getFront();
+            }
+            long lStart = System.nanoTime();
+            for (int i=0; i<FRAMES; i++) {
+                stage.push(image);
+                stage.getFront();
+            }
+            double dMs = (System.nanoTime() - lStart) / 1e6 / FRAMES;
+            if (cThreads == 1) {
+                dSerial = dMs;
+            }
+            System.out.println(szName + "\t" + cThreads + "\t" +
+                    Math.round(dMs * 100) / 100.0 + "\t" +
+                    Math.round(dSerial / dMs * 100) / 100.0);
+            pe.shutdown();
+        }
+        stage.setParallel(null);
+    }
+}
@@ -57,7 +57,7 @@ public class Complex32Gray32 extends PipelineStage {
                 			null,
                 			null);
         }
-        Gray32Image imResult = new Gray32Image(im.getWidth(), im.getHeight());
+        Gray32Image imResult = super.getOutputGray32Image(im.getWidth(), im.getHeight());
         Complex cData[] = ((Complex32Image) im).getData();
         int nData[] = imResult.getData();
         for (int i=0; i<im.getWidth()*im.getHeight(); i++) {
@@ -27,7 +27,6 @@ package jjil.algorithm;
 import jjil.core.Complex;
 import jjil.core.Complex32Image;
 import jjil.core.Error;
-import jjil.core.Gray32Image;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
@@ -36,12 +35,16 @@ import jjil.core.PipelineStage;
  * Computes the inverse FFT of the input Complex32Image. The output is a Gray8Image,
  * which is the magnitude of the inverse FFT. The output can be scaled so the
  * maximum and minimum values of the magnitude are mapped to Byte.MAX_VALUE and
- * Byte.MIN_VALUE.
+ * Byte.MIN_VALUE.<p>
+ * If an executor is set with setParallel() the rows and columns are
+ * transformed concurrently.
  * @author webb
  */
 public class Complex32IFft extends PipelineStage {
     private boolean bScale;
-    private Fft1d fft = null;
+    private FftInt fft = null;
+    private int nMagnitude[] = new int[0]; // magnitude of inverse transform
+    private int rnData[] = new int[0]; // interleaved complex input
     
     /**
      * Creates a new instance of Complex32IFft
@@ -83,52 +86,63 @@ public class Complex32IFft extends PipelineStage {
             				im.toString(),
             				null,
             				null);
-        }
-        // initialize FFT
-        if (this.fft == null) {
-            this.fft = new Fft1d(Math.max(nWidth, nHeight));
-        } else {
-            this.fft.setMaxWidth(Math.max(nWidth, nHeight));
         }
          // get access to the complex image
         Complex32Image cxmIn = (Complex32Image) im;
         Complex data[] = cxmIn.getData();
-        // create output
-        Complex32Image cxmResult = new Complex32Image(nWidth, nHeight);
-        // take inverse FFT of each row
-        Complex cxRow[] = new Complex[nWidth];
-        for (int i=0; i<nHeight; i++) {
-            System.arraycopy(data, i*nWidth, cxRow, 0, nWidth);
-            // compute inverse FFT
-            Complex cxResult[] = this.fft.ifft(cxRow);
-            // save result
-            System.arraycopy(cxResult, 0, cxmResult.getData(), i*nWidth, nWidth);
+        if (this.rnData.length != 2 * nWidth * nHeight) {
+            this.rnData = new int[2 * nWidth * nHeight];
         }
-        // take inverse FFT of each column
-        Complex cxCol[] = new Complex[nHeight];
-        for (int j=0; j<nWidth; j++) {
-            // copy column into a 1-D array
-            for (int i=0; i<nHeight; i++) {
-                cxCol[i] = cxmResult.getData()[i*nWidth+j];
-            }
-            // compute inverse FFT
-            Complex cxResult[] = this.fft.ifft(cxCol);
-            // save result back into column
-             for (int i=0; i<nHeight; i++) {
-                cxmResult.getData()[i*nWidth+j] = cxResult[i];
-            }
+        int rnData[] = this.rnData;
+        for (int i=0; i<nWidth*nHeight; i++) {
+            rnData[2*i] = data[i].real();
+            rnData[2*i+1] = data[i].imag();
+        }
+        super.setOutput(inverse(rnData, nWidth, nHeight));
+    }
+    
+    /**
+     * Computes the inverse FFT of an interleaved complex int array (see
+     * FftInt) in place, and converts its magnitude to a Gray8Image as push()
+     * does.
+     * @param rnData the transform. Its contents are overwritten.
+     * @param nWidth the image width, a power of 2.
+     * @param nHeight the image height, a power of 2.
+     * @return the magnitude of the inverse transform.
+     * @throws jjil.core.Error if the image is too large.
+     */
+    Gray8Image inverse(int[] rnData, int nWidth, int nHeight) 
+        throws jjil.core.Error
+    {
+        // the transform was scaled by Gray8Fft; undo that
+        int nShift = Gray8Fft.getShift(nWidth, nHeight);
+        if (nShift < 0) {
+            throw new Error(
+            				Error.PACKAGE.ALGORITHM,
+            				ErrorCodes.FFT_SIZE_LARGER_THAN_MAX,
+            				nWidth + "x" + nHeight, //$NON-NLS-1$
+            				null,
+            				null);
         }
+        // initialize FFT
+        if (this.fft == null) {
+            this.fft = new FftInt(Math.max(nWidth, nHeight));
+        } else {
+            this.fft.setMaxWidth(Math.max(nWidth, nHeight));
+        }
+        this.fft.ifft2d(rnData, nWidth, nHeight, super.getParallel());
         // convert back to a gray image
         // first convert it to an integer image
-        Gray32Image imInteger = new Gray32Image(nWidth, nHeight);
-        Complex cxData[] = cxmResult.getData();
-        int nData[] = imInteger.getData();
+        if (this.nMagnitude.length < nWidth * nHeight) {
+            this.nMagnitude = new int[nWidth * nHeight];
+        }
+        int nData[] = this.nMagnitude;
         int nMinVal = Integer.MAX_VALUE;
         int nMaxVal = Integer.MIN_VALUE;
         for (int i = 0; i < nWidth * nHeight; i++) {
-            // magnitude is always guaranteed to be >= 0 so we only have to clamp
-            // below Byte.MAX_VALUE
-            nData[i] = cxData[i].rsh(Gray8Fft.SCALE).magnitude();
+            nData[i] = FftInt.magnitude(
+                    rnData[2*i] >> nShift, 
+                    rnData[2*i+1] >> nShift);
             if (this.bScale) {
                 nMinVal = Math.min(nMinVal, nData[i]);
                 nMaxVal = Math.max(nMaxVal, nData[i]);
@@ -154,6 +168,6 @@ public class Complex32IFft extends PipelineStage {
                 bData[i] = (byte) Math.min(Byte.MAX_VALUE, nData[i] + Byte.MIN_VALUE);
             }
         }
-        super.setOutput(imResult);
+        return imResult;
     }
 }
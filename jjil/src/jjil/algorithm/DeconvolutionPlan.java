@@ -0,0 +1,265 @@
+/*
+ * DeconvolutionPlan.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import java.util.Vector;
+
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.MathPlus;
+
+/**
+ * A DeconvolutionPlan holds a point spread function and the frequency domain
+ * filters computed from it, for Gray8WienerDeconv and Gray8InverseFilter.
+ * The filters depend on the image size, since the point spread function is
+ * padded with background to the image size before it is transformed, so they
+ * are computed the first time an image of a given size is deconvolved and
+ * cached. The cache holds the most recently used sizes, up to a fixed
+ * number, so a stream of frames of the same size pays for only the frame's
+ * own transforms.<p>
+ * The filters do not depend on the noise level or gamma parameter, which are
+ * applied per frame, so one plan can be shared by deconvolution stages with
+ * different parameters, and, since its methods are synchronized, by stages
+ * running on different threads.
+ * @author webb
+ */
+public class DeconvolutionPlan {
+    /**
+     * Number of image sizes cached by default.
+     */
+    public static final int DEFAULT_CAPACITY = 4;
+    /**
+     * The Wiener filter does not divide by frequency components whose
+     * absolute square is smaller than this, to avoid enhancing noise too
+     * much.
+     */
+    private static final int WIENER_THRESHOLD = 5;
+
+    /**
+     * The filters computed for one image size. The arrays are not changed
+     * once they have been computed, so they can be read without locking.
+     */
+    static class Filter {
+        final int nWidth, nHeight;
+        final int rnFft[]; // interleaved complex transform of the PSF
+        int nMag[] = null; // magnitude of the PSF transform
+        int rnInv[] = null; // interleaved complex Wiener inverse of the PSF
+        int nSq[] = null; // absolute square used by the Wiener filter
+
+        Filter(int nWidth, int nHeight, int[] rnFft) {
+            this.nWidth = nWidth;
+            this.nHeight = nHeight;
+            this.rnFft = rnFft;
+        }
+    }
+
+    private final int nCapacity;
+    private final Gray8Fft fft = new Gray8Fft();
+    private final Gray8Image psf;
+    private final Vector vFilters = new Vector(); // most recently used first
+
+    /**
+     * Creates a new DeconvolutionPlan which caches DEFAULT_CAPACITY sizes.
+     * @param psf the point spread function. Must be square and a power of 2
+     * in size.
+     * @throws jjil.core.Error if the point spread function is not square.
+     */
+    public DeconvolutionPlan(Gray8Image psf) throws jjil.core.Error {
+        this(psf, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new DeconvolutionPlan.
+     * @param psf the point spread function. Must be square and a power of 2
+     * in size.
+     * @param nCapacity the number of image sizes to cache filters for.
+     * @throws jjil.core.Error if the point spread function is not square or
+     * the capacity is less than 1.
+     */
+    public DeconvolutionPlan(Gray8Image psf, int nCapacity)
+        throws jjil.core.Error
+    {
+        if (psf.getWidth() != psf.getHeight()) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.IMAGE_NOT_SQUARE,
+                            psf.toString(),
+                            null,
+                            null);
+        }
+        if (nCapacity < 1) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(nCapacity),
+                            "1", //$NON-NLS-1$
+                            null);
+        }
+        this.psf = psf;
+        this.nCapacity = nCapacity;
+    }
+
+    /**
+     * Discards all cached filters.
+     */
+    public synchronized void clear() {
+        this.vFilters.removeAllElements();
+    }
+
+    /**
+     * Returns the number of image sizes filters are cached for.
+     * @return the cache capacity.
+     */
+    public int getCapacity() {
+        return this.nCapacity;
+    }
+
+    /**
+     * Returns the filters for an image size, with the inverse filter's
+     * magnitudes computed.
+     * @param nWidth image width.
+     * @param nHeight image height.
+     * @return the filters.
+     * @throws jjil.core.Error if the image is smaller than the point spread
+     * function or not a power of 2 in size.
+     */
+    synchronized Filter getInverseFilter(int nWidth, int nHeight)
+        throws jjil.core.Error
+    {
+        Filter f = getFilter(nWidth, nHeight);
+        if (f.nMag == null) {
+            int nMag[] = new int[nWidth * nHeight];
+            for (int i=0; i<nMag.length; i++) {
+                nMag[i] = FftInt.magnitude(f.rnFft[2*i], f.rnFft[2*i+1]);
+            }
+            f.nMag = nMag;
+        }
+        return f;
+    }
+
+    /**
+     * Returns the point spread function.
+     * @return the point spread function.
+     */
+    public Gray8Image getPsf() {
+        return this.psf;
+    }
+
+    /**
+     * Returns the filters for an image size, with the Wiener filter's inverse
+     * and squares computed.
+     * @param nWidth image width.
+     * @param nHeight image height.
+     * @return the filters.
+     * @throws jjil.core.Error if the image is smaller than the point spread
+     * function or not a power of 2 in size.
+     */
+    synchronized Filter getWienerFilter(int nWidth, int nHeight)
+        throws jjil.core.Error
+    {
+        Filter f = getFilter(nWidth, nHeight);
+        if (f.rnInv == null) {
+            int nSize = nWidth * nHeight;
+            int rnInv[] = new int[2 * nSize];
+            int nSq[] = new int[nSize];
+            for (int i=0; i<nSize; i++) {
+                int nR = f.rnFft[2*i], nI = f.rnFft[2*i+1];
+                if (Math.abs(nR) > MathPlus.SCALE ||
+                    Math.abs(nI) > MathPlus.SCALE) {
+                    // rnInv is already 0
+                    nSq[i] = 1;
+                } else {
+                    nSq[i] = nR * nR + nI * nI;
+                    if (nSq[i] < WIENER_THRESHOLD) {
+                        // if the square value is too small we will be
+                        // enhancing noise too much
+                        rnInv[2*i] = MathPlus.SCALE;
+                        nSq[i] = 1;
+                    } else {
+                        FftInt.divide(MathPlus.SCALE, 0, nR, nI, rnInv, 2*i);
+                    }
+                }
+            }
+            f.nSq = nSq;
+            f.rnInv = rnInv;
+        }
+        return f;
+    }
+
+    /**
+     * Looks up the filters for an image size, moving them to the front of
+     * the cache, or computes the point spread function's transform at that
+     * size if they are not cached.
+     * @param nWidth image width.
+     * @param nHeight image height.
+     * @return the filters.
+     * @throws jjil.core.Error if the image is smaller than the point spread
+     * function or not a power of 2 in size.
+     */
+    private Filter getFilter(int nWidth, int nHeight) throws jjil.core.Error {
+        for (int i=0; i<this.vFilters.size(); i++) {
+            Filter f = (Filter) this.vFilters.elementAt(i);
+            if (f.nWidth == nWidth && f.nHeight == nHeight) {
+                if (i > 0) {
+                    this.vFilters.removeElementAt(i);
+                    this.vFilters.insertElementAt(f, 0);
+                }
+                return f;
+            }
+        }
+        if (nWidth < this.psf.getWidth() || nHeight < this.psf.getHeight()) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.IMAGE_TOO_SMALL,
+                            nWidth + "x" + nHeight, //$NON-NLS-1$
+                            this.psf.toString(),
+                            null);
+        }
+        // pad the point spread function with background to the image size
+        Gray8Image imPadded = this.psf;
+        if (nWidth != this.psf.getWidth() || nHeight != this.psf.getHeight()) {
+            imPadded = new Gray8Image(nWidth, nHeight, Byte.MIN_VALUE);
+            for (int i=0; i<this.psf.getHeight(); i++) {
+                System.arraycopy(
+                        this.psf.getData(),
+                        i * this.psf.getWidth(),
+                        imPadded.getData(),
+                        i * nWidth,
+                        this.psf.getWidth());
+            }
+        }
+        int rnFft[] = new int[2 * nWidth * nHeight];
+        System.arraycopy(this.fft.transform(imPadded), 0, rnFft, 0, rnFft.length);
+        Filter f = new Filter(nWidth, nHeight, rnFft);
+        this.vFilters.insertElementAt(f, 0);
+        if (this.vFilters.size() > this.nCapacity) {
+            this.vFilters.removeElementAt(this.vFilters.size() - 1);
+        }
+        return f;
+    }
+
+    /**
+     * Returns a string describing the plan.
+     * @return the class name, point spread function, and cache capacity.
+     */
+    public String toString() {
+        return super.toString() + "(" + this.psf.toString() + "," + //$NON-NLS-1$ //$NON-NLS-2$
+                this.nCapacity + ")"; //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,1051 @@
+/*
+ * Ean13Scanner.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.MathPlus;
+import jjil.core.ParallelExecutor;
+import jjil.core.Point;
+
+/**
+ * Ean13Scanner finds and decodes EAN-13 barcodes in a sequence of frames,
+ * such as camera previews. Each frame is sampled along several parallel
+ * scanlines at each of a few angles, read directly from the luminance
+ * buffer. The edges along each scanline are located to a fraction of a
+ * pixel, giving runs of bars and spaces, which are decoded in both
+ * directions with lookup tables indexed by the widths of the four runs of
+ * each digit. Barcodes need to be about two pixels per module or more.<p>
+ * A read only counts if its check digit is correct. Reads then vote: a code
+ * is returned once it has been read on getRequiredVotes() scanlines, counting
+ * reads in this frame and recent frames. As soon as a code has enough votes
+ * the remaining scanlines of the frame are skipped. Votes from earlier frames
+ * decay by one for every frame in which the code is not read.<p>
+ * Scanlines are divided among the threads of an executor if one has been set
+ * with setParallel. The scanline geometry and all buffers are kept from one
+ * frame to the next, so scanning frames of the same size allocates nothing
+ * except the returned string.
+ * @author webb
+ */
+public class Ean13Scanner {
+    /**
+     * Default number of parallel scanlines at each angle.
+     */
+    public static final int DEFAULT_SCANLINES = 5;
+    /**
+     * Default number of votes needed to return a code.
+     */
+    public static final int DEFAULT_VOTES = 2;
+    /**
+     * Number of runs in an EAN-13 barcode: three in each outer guard, four
+     * in each of the twelve encoded digits, and five in the middle guard.
+     */
+    private static final int BARCODE_RUNS = 59;
+    /**
+     * The most codes counted at once, in a frame or in the history.
+     */
+    private static final int MAX_CODES = 8;
+    /**
+     * Neighbouring pixels must differ by this much somewhere in an edge, so
+     * noise does not make runs.
+     */
+    private static final int MIN_EDGE = 24;
+    /**
+     * The same, once the scanline has been smoothed.
+     */
+    private static final int MIN_SMOOTHED_EDGE = 20;
+    /**
+     * Edges are located to 1 / (1 &lt;&lt; SUBPIXEL_BITS) of a pixel, and
+     * run widths are measured in these units.
+     */
+    private static final int SUBPIXEL_BITS = 4;
+    /**
+     * Angles, in degrees, scanned by default. 0 is along the rows.
+     */
+    private static final int[] DEFAULT_ANGLES = {0, 90, 45, -45};
+
+    /**
+     * Digit for each pattern of run widths. The index is made from the four
+     * widths, in modules, as ((w1-1) &lt;&lt; 6) | ((w2-1) &lt;&lt; 4) |
+     * ((w3-1) &lt;&lt; 2) | (w4-1). The value is the digit for odd parity
+     * (character set A) patterns, the digit + 10 for even parity (set B),
+     * and -1 for patterns that are not digits. Right-hand (set C) digits are
+     * the complements of set A, so they have the same run widths.
+     */
+    private static final byte[] rbDigit = new byte[256];
+    /**
+     * Implied first digit for each parity pattern of the left-hand digits,
+     * with odd parity as 1, or -1 if the pattern is not used.
+     */
+    private static final byte[] rbFirstDigit = new byte[64];
+
+    static {
+        // the patterns are the 7-bit codes in Ean13Barcode1D, 1 = bar
+        final int[] rnOdd =
+            {0x0d, 0x19, 0x13, 0x3d, 0x23, 0x31, 0x2f, 0x3b, 0x37, 0x0b};
+        final int[] rnEven =
+            {0x27, 0x33, 0x1b, 0x21, 0x1d, 0x39, 0x05, 0x11, 0x09, 0x17};
+        final int[] rnParity =
+            {0x3f, 0x34, 0x32, 0x31, 0x2c, 0x26, 0x23, 0x2a, 0x29, 0x25};
+        for (int i=0; i<rbDigit.length; i++) {
+            rbDigit[i] = -1;
+        }
+        for (int i=0; i<rbFirstDigit.length; i++) {
+            rbFirstDigit[i] = -1;
+        }
+        for (int i=0; i<10; i++) {
+            rbDigit[runIndex(rnOdd[i])] = (byte) i;
+            rbDigit[runIndex(rnEven[i])] = (byte) (i + 10);
+            rbFirstDigit[rnParity[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * Scans part of the scanlines of a frame, with its own buffers so that
+     * several can run at once.
+     */
+    private class Worker {
+        /** Samples along the current scanline. */
+        private int[] rnSamples = new int[0];
+
+        /** Widths of the runs along the scanline, in subpixels. */
+        private int[] rnRuns = new int[0];
+        /** Width of each run in modules, and scaled by 256. */
+        private final int[] rnModules = new int[4];
+        private final int[] rnScaled = new int[4];
+        /**
+         * How much wider the bars are than the spaces in the barcode being
+         * decoded, as 60 times half the difference in subpixels.
+         */
+        private int nSpread;
+        /**
+         * Start and end of the last barcode decoded, in subpixels along the
+         * scanline.
+         */
+        private int nFirst, nLimit;
+
+        /**
+         * Makes sure the buffers can hold a scanline.
+         * @param cSamples the longest scanline.
+         */
+        void allocate(int cSamples) {
+            if (this.rnSamples.length < cSamples) {
+                this.rnSamples = new int[cSamples];
+                this.rnRuns = new int[cSamples];
+            }
+        }
+
+        /**
+         * Decodes scanlines nFirstLine, nFirstLine + nStep, ... until all
+         * have been tried or a code has enough votes.
+         * @param nFirstLine first scanline to decode.
+         * @param nStep distance to the next scanline.
+         */
+        void scanLines(int nFirstLine, int nStep) {
+            for (int k=nFirstLine; k<Ean13Scanner.this.cLines; k+=nStep) {
+                if (isDone()) {
+                    return;
+                }
+                long lCode = decodeLine(k);
+                if (lCode >= 0) {
+                    int nX = Ean13Scanner.this.rnX0[k];
+                    int nY = Ean13Scanner.this.rnY0[k];
+                    int nDx = Ean13Scanner.this.rnDx[k];
+                    int nDy = Ean13Scanner.this.rnDy[k];
+                    int nFirst = this.nFirst >> SUBPIXEL_BITS;
+                    int nLast = (this.nLimit - 1) >> SUBPIXEL_BITS;
+                    vote(lCode,
+                            (nX + nFirst * nDx) >> 16,
+                            (nY + nFirst * nDy) >> 16,
+                            (nX + nLast * nDx) >> 16,
+                            (nY + nLast * nDy) >> 16);
+                }
+            }
+        }
+
+        /**
+         * Samples, finds the edges along, and decodes one scanline.
+         * @param k the scanline.
+         * @return the code read, or -1.
+         */
+        private long decodeLine(int k) {
+            int cSamples = Ean13Scanner.this.rnCount[k];
+            if (cSamples < Ean13Barcode1D.TotalWidth) {
+                return -1;
+            }
+            byte[] rbData = Ean13Scanner.this.rbData;
+            int nOffset = Ean13Scanner.this.nOffset;
+            int cStride = Ean13Scanner.this.cStride;
+            int nFlip = Ean13Scanner.this.nFlip;
+            int nX = Ean13Scanner.this.rnX0[k];
+            int nY = Ean13Scanner.this.rnY0[k];
+            int nDx = Ean13Scanner.this.rnDx[k];
+            int nDy = Ean13Scanner.this.rnDy[k];
+            int[] rnSamples = this.rnSamples;
+            for (int i=0; i<cSamples; i++) {
+                rnSamples[i] = (rbData[nOffset + (nY >> 16) * cStride + (nX >> 16)] ^
+                        nFlip) & 0xff;
+                nX += nDx;
+                nY += nDy;
+            }
+            long lCode = decodeSamples(cSamples, MIN_EDGE);
+            if (lCode >= 0) {
+                return lCode;
+            }
+            // noise may have made pairs of edges inside bars and spaces, so
+            // smooth with 1 2 1, which leaves the values scaled by 4, and try
+            // again. Smoothing first every time would lose the narrowest
+            // bars and spaces of small, blurred barcodes.
+            int nPrev = rnSamples[0];
+            for (int i=0; i<cSamples; i++) {
+                int nValue = rnSamples[i];
+                int nNext = (i + 1 < cSamples) ? rnSamples[i+1] : nValue;
+                rnSamples[i] = nPrev + 2 * nValue + nNext;
+                nPrev = nValue;
+            }
+            return decodeSamples(cSamples, 4 * MIN_SMOOTHED_EDGE);
+        }
+
+        /**
+         * Finds the edges along the samples of a scanline and decodes the
+         * runs between them in both directions.
+         * @param cSamples number of samples.
+         * @param nMinEdge neighbouring samples must differ by this much
+         * somewhere in an edge.
+         * @return the code read, or -1.
+         */
+        private long decodeSamples(int cSamples, int nMinEdge) {
+            // an edge is a run of differences between neighbouring samples
+            // with the same sign, at least one of them nMinEdge or more, and
+            // lies at their centroid. This does not depend on a threshold,
+            // which in a blurred image the narrowest bars and spaces may not
+            // cross.
+            int[] rnSamples = this.rnSamples;
+            int[] rnRuns = this.rnRuns;
+            int cRuns = 0;
+            boolean fFirstBar = false;
+            int nLast = 0, nLastSign = 0, nLastWeight = 0;
+            int i = 0;
+            while (i < cSamples - 1) {
+                int nDiff = rnSamples[i+1] - rnSamples[i];
+                if (nDiff > -nMinEdge / 2 && nDiff < nMinEdge / 2) {
+                    i++;
+                    continue;
+                }
+                int nSign = nDiff > 0 ? 1 : -1;
+                int nWeight = 0, nMoment = 0, nPeak = 0;
+                for (; i < cSamples - 1; i++) {
+                    int nAbs = nSign * (rnSamples[i+1] - rnSamples[i]);
+                    if (nAbs < nMinEdge / 2) {
+                        break;
+                    }
+                    nWeight += nAbs;
+                    nMoment += nAbs * (2 * i + 1);
+                    nPeak = Math.max(nPeak, nAbs);
+                }
+                if (nPeak < nMinEdge) {
+                    continue;
+                }
+                int nEdge = (nMoment << SUBPIXEL_BITS) / (2 * nWeight);
+                if (nSign == nLastSign) {
+                    // two edges the same way with nothing between them
+                    // strong enough to be an edge; keep the stronger
+                    if (nWeight > nLastWeight) {
+                        rnRuns[cRuns-1] += nEdge - nLast;
+                        nLast = nEdge;
+                        nLastWeight = nWeight;
+                    }
+                    continue;
+                }
+                if (cRuns == 0) {
+                    // bars are dark, so a rising first edge ends a bar
+                    fFirstBar = nSign > 0;
+                    rnRuns[cRuns++] = nEdge;
+                } else {
+                    rnRuns[cRuns++] = nEdge - nLast;
+                }
+                nLast = nEdge;
+                nLastSign = nSign;
+                nLastWeight = nWeight;
+            }
+            if (cRuns == 0) {
+                return -1;
+            }
+            rnRuns[cRuns++] = (cSamples << SUBPIXEL_BITS) - nLast;
+            long lCode = search(cRuns, fFirstBar);
+            if (lCode >= 0) {
+                return lCode;
+            }
+            // try the other direction; the colour of the first run becomes
+            // the colour of the last
+            for (int nLo=0, nHi=cRuns-1; nLo<nHi; nLo++, nHi--) {
+                int n = rnRuns[nLo];
+                rnRuns[nLo] = rnRuns[nHi];
+                rnRuns[nHi] = n;
+            }
+            lCode = search(cRuns, (cRuns % 2 == 1) ? fFirstBar : !fFirstBar);
+            if (lCode >= 0) {
+                int nFirst = this.nFirst;
+                this.nFirst = (cSamples << SUBPIXEL_BITS) - this.nLimit;
+                this.nLimit = (cSamples << SUBPIXEL_BITS) - nFirst;
+            }
+            return lCode;
+        }
+
+        /**
+         * Looks for a barcode starting at each bar in the runs.
+         * @param cRuns number of runs.
+         * @param fFirstBar true if the first run is a bar.
+         * @return the first code read, or -1.
+         */
+        private long search(int cRuns, boolean fFirstBar) {
+            int[] rnRuns = this.rnRuns;
+            // a barcode needs a quiet zone on both sides, so it cannot
+            // start with the first run or end with the last
+            int i = fFirstBar ? 2 : 1;
+            if (i + BARCODE_RUNS >= cRuns) {
+                return -1;
+            }
+            int nStart = 0;
+            for (int j=0; j<i; j++) {
+                nStart += rnRuns[j];
+            }
+            // width of runs i to i + BARCODE_RUNS - 1, kept up to date as i
+            // moves
+            int nTotal = 0;
+            for (int j=i; j<i+BARCODE_RUNS; j++) {
+                nTotal += rnRuns[j];
+            }
+            for (;;) {
+                long lCode = decodeAt(i, nTotal);
+                if (lCode >= 0) {
+                    this.nFirst = nStart;
+                    this.nLimit = nStart + nTotal;
+                    return lCode;
+                }
+                if (i + 2 + BARCODE_RUNS >= cRuns) {
+                    return -1;
+                }
+                nStart += rnRuns[i] + rnRuns[i+1];
+                nTotal += rnRuns[i+BARCODE_RUNS] + rnRuns[i+BARCODE_RUNS+1] -
+                        rnRuns[i] - rnRuns[i+1];
+                i += 2;
+            }
+        }
+
+        /**
+         * Decodes a barcode whose left guard starts at run i.
+         * @param i index of the first bar of the left guard.
+         * @param nTotal width of runs i to i + BARCODE_RUNS - 1.
+         * @return the code, or -1 if there is no valid barcode here.
+         */
+        private long decodeAt(int i, int nTotal) {
+            int[] rnRuns = this.rnRuns;
+            final int cModules = Ean13Barcode1D.TotalWidth;
+            if (nTotal < cModules << SUBPIXEL_BITS) {
+                return -1;
+            }
+            // guard bars must be about one module wide, and the quiet zones
+            // at least three modules
+            if (!isGuard(i, 3, nTotal) ||
+                    !isGuard(i + 27, 5, nTotal) ||
+                    !isGuard(i + 56, 3, nTotal) ||
+                    rnRuns[i-1] * cModules < 3 * nTotal ||
+                    rnRuns[i+BARCODE_RUNS] * cModules < 3 * nTotal) {
+                return -1;
+            }
+            // blur and ink spread widen bars and narrow spaces alike, or
+            // the reverse; the guards have six one-module bars and five
+            // one-module spaces, which tells by how much
+            int nBars = rnRuns[i] + rnRuns[i+2] + rnRuns[i+28] + rnRuns[i+30] +
+                    rnRuns[i+56] + rnRuns[i+58];
+            int nSpaces = rnRuns[i+1] + rnRuns[i+27] + rnRuns[i+29] +
+                    rnRuns[i+31] + rnRuns[i+57];
+            this.nSpread = 5 * nBars - 6 * nSpaces;
+            long lCode = 0;
+            int nParity = 0;
+            int nCheck = 0;
+            for (int d=0; d<Ean13Barcode1D.LeftDigits; d++) {
+                int nDigit = digitAt(i + 3 + 4*d, false, nTotal);
+                if (nDigit < 0) {
+                    return -1;
+                }
+                nParity = nParity * 2 + (nDigit < 10 ? 1 : 0);
+                nDigit %= 10;
+                lCode = lCode * 10 + nDigit;
+                // digit d is position d+1 of the code
+                nCheck += (d % 2 == 0) ? 3 * nDigit : nDigit;
+            }
+            int nFirstDigit = rbFirstDigit[nParity];
+            if (nFirstDigit < 0) {
+                return -1;
+            }
+            lCode += nFirstDigit * 1000000L;
+            nCheck += nFirstDigit;
+            for (int d=0; d<Ean13Barcode1D.RightDigits; d++) {
+                int nDigit = digitAt(i + 32 + 4*d, true, nTotal);
+                if (nDigit < 0 || nDigit >= 10) {
+                    return -1;
+                }
+                lCode = lCode * 10 + nDigit;
+                // digit d is position d+7 of the code
+                nCheck += (d % 2 == 0) ? 3 * nDigit : nDigit;
+            }
+            if (nCheck % 10 != 0) {
+                return -1;
+            }
+            return lCode;
+        }
+
+        /**
+         * Decodes the digit made by four runs.
+         * @param nBase index of the first run.
+         * @param fBarFirst true if the first run is a bar.
+         * @param nTotal width of the whole barcode, 95 modules.
+         * @return the digit, + 10 for even parity, or -1.
+         */
+        private int digitAt(int nBase, boolean fBarFirst, int nTotal) {
+            int[] rnRuns = this.rnRuns;
+            final int cModules = Ean13Barcode1D.TotalWidth;
+            final int cDigit = Ean13Barcode1D.DigitWidth;
+            int nWidth = rnRuns[nBase] + rnRuns[nBase+1] +
+                    rnRuns[nBase+2] + rnRuns[nBase+3];
+            // a digit is 7 modules; allow it to be half again too narrow or
+            // too wide
+            if (2 * nWidth * cModules < cDigit * nTotal ||
+                    2 * nWidth * cModules > 3 * cDigit * nTotal) {
+                return -1;
+            }
+            int[] rnModules = this.rnModules;
+            int[] rnScaled = this.rnScaled;
+            int nSum = 0;
+            int nSpread = fBarFirst ? this.nSpread : -this.nSpread;
+            for (int j=0; j<4; j++) {
+                // take out the spread; the digit's width does not change
+                // since it has two bars and two spaces
+                int nRun = 60 * rnRuns[nBase+j] - nSpread;
+                nSpread = -nSpread;
+                rnScaled[j] = (int) (((long) nRun * cDigit * 256) /
+                        (60 * nWidth));
+                int nModules = (rnScaled[j] + 128) >> 8;
+                rnModules[j] = Math.max(1, Math.min(4, nModules));
+                nSum += rnModules[j];
+            }
+            // rounding may not give 7 modules; move the run that was rounded
+            // furthest in the wrong direction until it does
+            while (nSum != cDigit) {
+                int nSign = nSum < cDigit ? 1 : -1;
+                int nBest = -1, nBestErr = Integer.MIN_VALUE;
+                for (int j=0; j<4; j++) {
+                    int nNew = rnModules[j] + nSign;
+                    if (nNew < 1 || nNew > 4) {
+                        continue;
+                    }
+                    int nErr = nSign * (rnScaled[j] - rnModules[j] * 256);
+                    if (nErr > nBestErr) {
+                        nBestErr = nErr;
+                        nBest = j;
+                    }
+                }
+                if (nBest < 0) {
+                    return -1;
+                }
+                rnModules[nBest] += nSign;
+                nSum += nSign;
+            }
+            return rbDigit[((rnModules[0] - 1) << 6) | ((rnModules[1] - 1) << 4) |
+                    ((rnModules[2] - 1) << 2) | (rnModules[3] - 1)];
+        }
+
+        /**
+         * Tests whether runs form a guard pattern of one-module runs.
+         * @param nBase index of the first run.
+         * @param cRuns number of runs in the guard.
+         * @param nTotal width of the whole barcode, 95 modules.
+         * @return true if every run is between a half and two modules.
+         */
+        private boolean isGuard(int nBase, int cRuns, int nTotal) {
+            final int cModules = Ean13Barcode1D.TotalWidth;
+            for (int j=nBase; j<nBase+cRuns; j++) {
+                int nRun = this.rnRuns[j] * cModules;
+                if (2 * nRun < nTotal || nRun > 2 * nTotal) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Parallel scanlines at each angle. */
+    private final int cScanlines;
+    /** Angles scanned, in degrees. */
+    private final int[] rnAngles;
+    /** Point the scanlines are centered on, or -1 for the frame center. */
+    private int nCenterX = -1, nCenterY = -1;
+    /** Votes needed to return a code. */
+    private int nRequiredVotes = DEFAULT_VOTES;
+    /** Executor for the scanlines, or null. */
+    private ParallelExecutor pe = null;
+    private Worker[] rgWorkers = new Worker[0];
+    private ParallelExecutor.Job[] rgJobs = new ParallelExecutor.Job[0];
+
+    /** Frame size the scanlines were computed for. */
+    private int cWidth = 0, cHeight = 0;
+    /** Number of scanlines. */
+    private int cLines = 0;
+    /** Start and step of each scanline, in 16.16 fixed point, and the
+     * number of samples on it. */
+    private int[] rnX0, rnY0, rnDx, rnDy, rnCount;
+
+    /** The frame being scanned. */
+    private byte[] rbData;
+    private int nOffset, cStride;
+    /** XORed with each pixel so that signed Gray8Image pixels compare like
+     * unsigned luminance. */
+    private int nFlip;
+
+    /** Codes read in this frame, and their votes and last location. */
+    private final long[] rlFrame = new long[MAX_CODES];
+    private final int[] rnFrameVotes = new int[MAX_CODES];
+    private int cFrame = 0;
+    /** Codes read in earlier frames, and their votes. */
+    private final long[] rlHistory = new long[MAX_CODES];
+    private final int[] rnHistoryVotes = new int[MAX_CODES];
+    private int cHistory = 0;
+    /** Set when a code has enough votes in this frame. */
+    private boolean fDone = false;
+    /** The code returned, and its end points. */
+    private long lResult = -1;
+    private final int[] rnResultEnds = new int[4];
+
+    /**
+     * Creates a new instance of Ean13Scanner with the default scanlines.
+     */
+    public Ean13Scanner() {
+        this.cScanlines = DEFAULT_SCANLINES;
+        this.rnAngles = DEFAULT_ANGLES;
+    }
+
+    /**
+     * Creates a new instance of Ean13Scanner.
+     * @param cScanlines number of parallel scanlines at each angle, spread
+     * evenly across the frame.
+     * @param rnAngles the angles to scan, in degrees clockwise from the
+     * rows. 0 scans along rows and 90 along columns; each scanline is read
+     * in both directions, so angles 180 degrees apart are the same.
+     * @throws jjil.core.Error if cScanlines is not positive or no angles
+     * are given.
+     */
+    public Ean13Scanner(int cScanlines, int[] rnAngles) throws jjil.core.Error {
+        if (cScanlines <= 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(cScanlines),
+                            "1", //$NON-NLS-1$
+                            null);
+        }
+        if (rnAngles == null || rnAngles.length == 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_RANGE_NULL_OR_NEGATIVE,
+                            "rnAngles", //$NON-NLS-1$
+                            null,
+                            null);
+        }
+        this.cScanlines = cScanlines;
+        this.rnAngles = new int[rnAngles.length];
+        System.arraycopy(rnAngles, 0, this.rnAngles, 0, rnAngles.length);
+    }
+
+    /**
+     * Returns the end of the last code returned, where the scanline that
+     * read it left the barcode.
+     * @return the end point, or null if no code has been returned.
+     */
+    public Point getEnd() {
+        if (this.lResult < 0) {
+            return null;
+        }
+        return new Point(this.rnResultEnds[2], this.rnResultEnds[3]);
+    }
+
+    /**
+     * Returns the number of votes needed to return a code.
+     * @return the number of votes.
+     */
+    public int getRequiredVotes() {
+        return this.nRequiredVotes;
+    }
+
+    /**
+     * Returns the start of the last code returned, where the scanline that
+     * read it entered the barcode.
+     * @return the start point, or null if no code has been returned.
+     */
+    public Point getStart() {
+        if (this.lResult < 0) {
+            return null;
+        }
+        return new Point(this.rnResultEnds[0], this.rnResultEnds[1]);
+    }
+
+    /**
+     * Forgets the votes from earlier frames, for example when the camera
+     * is pointed at a new item.
+     */
+    public synchronized void reset() {
+        this.cHistory = 0;
+        this.lResult = -1;
+    }
+
+    /**
+     * Scans a frame of luminance values, such as the Y plane of an NV21
+     * camera preview. Pixels are unsigned, 0 black to 255 white.
+     * @param rbLuma the luminance values.
+     * @param nOffset index of the top-left pixel in rbLuma.
+     * @param cStride distance in rbLuma from one row to the next.
+     * @param cWidth frame width.
+     * @param cHeight frame height.
+     * @return the 13-digit code if one has enough votes, otherwise null.
+     * @throws jjil.core.Error if the frame does not lie in rbLuma.
+     */
+    public String scan(
+            byte[] rbLuma,
+            int nOffset,
+            int cStride,
+            int cWidth,
+            int cHeight) throws jjil.core.Error {
+        return scan(rbLuma, nOffset, cStride, cWidth, cHeight, 0);
+    }
+
+    /**
+     * Scans a gray image. The image may be a view, for example a region
+     * cropped around where a barcode is expected; it is not copied.
+     * @param image the image.
+     * @return the 13-digit code if one has enough votes, otherwise null.
+     * @throws jjil.core.Error if the scan fails.
+     */
+    public String scan(Gray8Image image) throws jjil.core.Error {
+        return scan(
+                image.getBuffer(),
+                image.getOffset(),
+                image.getStride(),
+                image.getWidth(),
+                image.getHeight(),
+                0x80);
+    }
+
+    /**
+     * Centers the scanlines on a point of the frame instead of its center.
+     * Takes effect at the next scan.
+     * @param nX the horizontal position, or -1 for the center.
+     * @param nY the vertical position, or -1 for the center.
+     */
+    public void setCenter(int nX, int nY) {
+        if (nX != this.nCenterX || nY != this.nCenterY) {
+            this.nCenterX = nX;
+            this.nCenterY = nY;
+            // the scanlines are recomputed at the next scan
+            this.cWidth = 0;
+        }
+    }
+
+    /**
+     * Sets the executor used to scan lines in parallel.
+     * @param pe the executor, or null to scan on the calling thread.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        this.pe = pe;
+    }
+
+    /**
+     * Sets the number of votes needed to return a code. With 1 every read
+     * with a correct check digit is returned at once.
+     * @param nVotes the number of votes.
+     * @throws jjil.core.Error if nVotes is not positive.
+     */
+    public void setRequiredVotes(int nVotes) throws jjil.core.Error {
+        if (nVotes <= 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(nVotes),
+                            "1", //$NON-NLS-1$
+                            null);
+        }
+        this.nRequiredVotes = nVotes;
+    }
+
+    /**
+     * Returns a string describing the scanner.
+     * @return the class name, scanlines, and angles.
+     */
+    public String toString() {
+        String sz = super.toString() + " (" + this.cScanlines; //$NON-NLS-1$
+        for (int i=0; i<this.rnAngles.length; i++) {
+            sz += "," + this.rnAngles[i]; //$NON-NLS-1$
+        }
+        return sz + ")"; //$NON-NLS-1$
+    }
+
+    /**
+     * Formats a code as 13 digits.
+     * @param lCode the code.
+     * @return the digits, with leading zeroes.
+     */
+    private static String format(long lCode) {
+        char[] rc = new char[13];
+        for (int i=12; i>=0; i--) {
+            rc[i] = (char) ('0' + (int) (lCode % 10));
+            lCode /= 10;
+        }
+        return new String(rc);
+    }
+
+    /**
+     * Merges the votes of this frame into the history. Codes read in this
+     * frame add their votes; the others lose one vote and are dropped when
+     * they have none left. Votes are capped so that a code that is no
+     * longer in view is forgotten after a few frames.
+     */
+    private void endFrame() {
+        int cKept = 0;
+        for (int i=0; i<this.cHistory; i++) {
+            long lCode = this.rlHistory[i];
+            int nVotes = this.rnHistoryVotes[i] - 1;
+            int j = find(this.rlFrame, this.cFrame, lCode);
+            if (j >= 0) {
+                nVotes += 1 + this.rnFrameVotes[j];
+                // mark as merged
+                this.rnFrameVotes[j] = 0;
+            }
+            if (nVotes > 0) {
+                this.rlHistory[cKept] = lCode;
+                this.rnHistoryVotes[cKept] =
+                        Math.min(nVotes, 2 * this.nRequiredVotes);
+                cKept++;
+            }
+        }
+        for (int j=0; j<this.cFrame && cKept<MAX_CODES; j++) {
+            if (this.rnFrameVotes[j] > 0) {
+                this.rlHistory[cKept] = this.rlFrame[j];
+                this.rnHistoryVotes[cKept] =
+                        Math.min(this.rnFrameVotes[j], 2 * this.nRequiredVotes);
+                cKept++;
+            }
+        }
+        this.cHistory = cKept;
+    }
+
+    /**
+     * Finds a code in a list.
+     * @return its index, or -1.
+     */
+    private static int find(long[] rlCodes, int cCodes, long lCode) {
+        for (int i=0; i<cCodes; i++) {
+            if (rlCodes[i] == lCode) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the rbDigit index of a 7-bit digit pattern.
+     * @param nCode the pattern, 1 = bar, first module in the high bit.
+     * @return the index made from the widths of its four runs.
+     */
+    private static int runIndex(int nCode) {
+        int nIndex = 0, cRun = 1;
+        for (int b=5; b>=0; b--) {
+            if (((nCode >> b) & 1) == ((nCode >> (b+1)) & 1)) {
+                cRun++;
+            } else {
+                nIndex = (nIndex << 2) | (cRun - 1);
+                cRun = 1;
+            }
+        }
+        return (nIndex << 2) | (cRun - 1);
+    }
+
+    /**
+     * Tells the workers whether a code already has enough votes.
+     * @return true if scanning of this frame can stop.
+     */
+    private synchronized boolean isDone() {
+        return this.fDone;
+    }
+
+    /**
+     * Computes the scanlines for a frame size. Scanline k at each angle is
+     * offset perpendicular to the angle by 0, +1, -1, +2, ... times the
+     * spacing from the center, so the central scanlines, where a barcode is
+     * most likely to be, are tried first. Each scanline runs across the whole
+     * frame, one sample per row or column, whichever it crosses more of.
+     * @param cWidth frame width.
+     * @param cHeight frame height.
+     */
+    private void makeScanlines(int cWidth, int cHeight) {
+        int cLines = this.cScanlines * this.rnAngles.length;
+        this.rnX0 = new int[cLines];
+        this.rnY0 = new int[cLines];
+        this.rnDx = new int[cLines];
+        this.rnDy = new int[cLines];
+        this.rnCount = new int[cLines];
+        // the center, as everything below, is in 16.16 fixed point
+        long lCx = this.nCenterX >= 0 ? 
+                ((long) this.nCenterX << 16) : ((long) cWidth << 15);
+        long lCy = this.nCenterY >= 0 ? 
+                ((long) this.nCenterY << 16) : ((long) cHeight << 15);
+        int[] rnDir = new int[2];
+        int cMax = 0;
+        int nLine = 0;
+        for (int k=0; k<this.cScanlines; k++) {
+            int nSlot = ((k + 1) / 2) * ((k % 2 == 1) ? 1 : -1);
+            for (int a=0; a<this.rnAngles.length; a++, nLine++) {
+                direction(this.rnAngles[a], rnDir);
+                long lCos = rnDir[0], lSin = rnDir[1];
+                // the spacing divides the frame's extent across the angle
+                long lSpan = Math.abs(lSin) * cWidth + Math.abs(lCos) * cHeight;
+                long lPerp = nSlot * lSpan / (this.cScanlines + 1);
+                // a point on the line, plus one half so that shifting a
+                // sample position right by 16 rounds it to a pixel
+                long lPx = lCx - ((lPerp * lSin) >> 16) + 0x8000;
+                long lPy = lCy + ((lPerp * lCos) >> 16) + 0x8000;
+                // step one pixel along the major axis per sample
+                long lMajor = Math.max(Math.abs(lCos), Math.abs(lSin));
+                int nDx = (int) ((lCos << 16) / lMajor);
+                int nDy = (int) ((lSin << 16) / lMajor);
+                // clip the line to the frame: find the range of samples s,
+                // counted from (lPx, lPy), that round to a pixel inside it
+                long[] rlRange = {Long.MIN_VALUE, Long.MAX_VALUE};
+                clip(lPx, nDx, cWidth, rlRange);
+                clip(lPy, nDy, cHeight, rlRange);
+                if (rlRange[0] > rlRange[1]) {
+                    this.rnCount[nLine] = 0;
+                    continue;
+                }
+                int nX0 = (int) (lPx + rlRange[0] * nDx);
+                int nY0 = (int) (lPy + rlRange[0] * nDy);
+                int cSamples = (int) (rlRange[1] - rlRange[0] + 1);
+                this.rnX0[nLine] = nX0;
+                this.rnY0[nLine] = nY0;
+                this.rnDx[nLine] = nDx;
+                this.rnDy[nLine] = nDy;
+                this.rnCount[nLine] = cSamples;
+                cMax = Math.max(cMax, cSamples);
+            }
+        }
+        this.cLines = cLines;
+        this.cWidth = cWidth;
+        this.cHeight = cHeight;
+        for (int i=0; i<this.rgWorkers.length; i++) {
+            this.rgWorkers[i].allocate(cMax);
+        }
+    }
+
+    /**
+     * Computes the direction of a scanline with MathPlus. MathPlus.sin and
+     * cos are most accurate for small positive arguments, so the angle is
+     * reduced to 0..45 degrees by symmetry and the result is reflected and
+     * rotated back; the axis directions come out exact.
+     * @param nDegrees the angle in degrees clockwise from the x axis.
+     * @param rnDir receives the cosine and sine, in 16.16 fixed point.
+     */
+    private static void direction(int nDegrees, int[] rnDir) {
+        int nAngle = ((nDegrees % 360) + 360) % 360;
+        int nQuadrant = nAngle / 90;
+        int nRest = nAngle % 90;
+        boolean fReflect = nRest > 45;
+        if (fReflect) {
+            nRest = 90 - nRest;
+        }
+        int nRadians = nRest * MathPlus.PI / 180;
+        int nCos = MathPlus.cos(nRadians), nSin = MathPlus.sin(nRadians);
+        if (fReflect) {
+            int n = nCos;
+            nCos = nSin;
+            nSin = n;
+        }
+        for (int i=0; i<nQuadrant; i++) {
+            // rotate by 90 degrees
+            int n = nCos;
+            nCos = -nSin;
+            nSin = n;
+        }
+        rnDir[0] = nCos;
+        rnDir[1] = nSin;
+    }
+
+    /**
+     * Narrows a range of sample numbers s to those where the coordinate
+     * lP + s * nD, shifted right by 16, lies in 0..cLimit-1.
+     * @param lP the coordinate at sample 0, in 16.16 fixed point.
+     * @param nD the change in the coordinate per sample.
+     * @param cLimit the frame size along the coordinate.
+     * @param rlRange the first and last sample, narrowed in place.
+     */
+    private static void clip(long lP, int nD, int cLimit, long[] rlRange) {
+        long lMax = ((long) cLimit << 16) - 1;
+        long lFirst, lLast;
+        if (nD == 0) {
+            if (lP >= 0 && lP <= lMax) {
+                return;
+            }
+            lFirst = 1;
+            lLast = 0;
+        } else if (nD > 0) {
+            lFirst = -floorDiv(lP, nD);
+            lLast = floorDiv(lMax - lP, nD);
+        } else {
+            lFirst = -floorDiv(lMax - lP, -nD);
+            lLast = floorDiv(lP, -nD);
+        }
+        rlRange[0] = Math.max(rlRange[0], lFirst);
+        rlRange[1] = Math.min(rlRange[1], lLast);
+    }
+
+    /**
+     * Divides, rounding toward negative infinity.
+     * @param lNum the numerator.
+     * @param nDen the denominator, which must be positive.
+     * @return the floor of lNum / nDen.
+     */
+    private static long floorDiv(long lNum, int nDen) {
+        long lQ = lNum / nDen;
+        return (lNum % nDen < 0) ? lQ - 1 : lQ;
+    }
+
+    /**
+     * Makes the workers and the jobs that run them.
+     * @param cWorkers number of workers.
+     */
+    private void makeWorkers(int cWorkers) {
+        int cMax = 0;
+        for (int i=0; i<this.cLines; i++) {
+            cMax = Math.max(cMax, this.rnCount[i]);
+        }
+        this.rgWorkers = new Worker[cWorkers];
+        this.rgJobs = new ParallelExecutor.Job[cWorkers];
+        for (int i=0; i<cWorkers; i++) {
+            final Worker w = new Worker();
+            final int nFirst = i;
+            final int nStep = cWorkers;
+            w.allocate(cMax);
+            this.rgWorkers[i] = w;
+            this.rgJobs[i] = new ParallelExecutor.Job() {
+                public void run() {
+                    w.scanLines(nFirst, nStep);
+                }
+            };
+        }
+    }
+
+    /**
+     * Scans a frame.
+     * @param nFlip XORed with each pixel before it is used.
+     */
+    private String scan(
+            byte[] rbData,
+            int nOffset,
+            int cStride,
+            int cWidth,
+            int cHeight,
+            int nFlip) throws jjil.core.Error {
+        if (cWidth <= 0 || cHeight <= 0 || nOffset < 0 || cStride < cWidth ||
+                nOffset + (cHeight - 1) * cStride + cWidth > rbData.length) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            jjil.core.ErrorCodes.BOUNDS_OUTSIDE_IMAGE,
+                            cWidth + "x" + cHeight, //$NON-NLS-1$
+                            Integer.toString(nOffset),
+                            Integer.toString(cStride));
+        }
+        if (cWidth != this.cWidth || cHeight != this.cHeight) {
+            makeScanlines(cWidth, cHeight);
+        }
+        int cWorkers = 1;
+        if (this.pe != null) {
+            cWorkers = Math.max(1, Math.min(this.pe.getThreads(), this.cLines));
+        }
+        if (this.rgWorkers.length != cWorkers) {
+            makeWorkers(cWorkers);
+        }
+        synchronized (this) {
+            this.rbData = rbData;
+            this.nOffset = nOffset;
+            this.cStride = cStride;
+            this.nFlip = nFlip;
+            this.cFrame = 0;
+            this.fDone = false;
+        }
+        try {
+            if (cWorkers == 1) {
+                this.rgWorkers[0].scanLines(0, 1);
+            } else {
+                this.pe.run(this.rgJobs);
+            }
+        } finally {
+            this.rbData = null;
+        }
+        synchronized (this) {
+            boolean fDone = this.fDone;
+            endFrame();
+            return fDone ? format(this.lResult) : null;
+        }
+    }
+
+    /**
+     * Records a read of a code on one scanline.
+     * @param lCode the code.
+     * @param nX0 where the scanline entered the barcode, horizontally.
+     * @param nY0 where it entered, vertically.
+     * @param nX1 where it left, horizontally.
+     * @param nY1 where it left, vertically.
+     */
+    private synchronized void vote(long lCode, int nX0, int nY0, int nX1, int nY1) {
+        if (this.fDone) {
+            return;
+        }
+        int j = find(this.rlFrame, this.cFrame, lCode);
+        if (j < 0) {
+            if (this.cFrame == MAX_CODES) {
+                return;
+            }
+            j = this.cFrame++;
+            this.rlFrame[j] = lCode;
+            this.rnFrameVotes[j] = 0;
+        }
+        this.rnFrameVotes[j]++;
+        int nVotes = this.rnFrameVotes[j];
+        int h = find(this.rlHistory, this.cHistory, lCode);
+        if (h >= 0) {
+            nVotes += this.rnHistoryVotes[h];
+        }
+        if (nVotes >= this.nRequiredVotes) {
+            this.fDone = true;
+            this.lResult = lCode;
+            this.rnResultEnds[0] = nX0;
+            this.rnResultEnds[1] = nY0;
+            this.rnResultEnds[2] = nX1;
+            this.rnResultEnds[3] = nY1;
+        }
+    }
+}
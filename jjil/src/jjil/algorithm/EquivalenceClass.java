@@ -34,6 +34,9 @@ package jjil.algorithm;
  * e.getLabel() returns the integer label for e.
  * e.getLabel() == f.getLabel() iff e and f are in the same
  * equivalence class. 
+ * <br>
+ * The label counter is static, so only one set of equivalence classes can be
+ * defined at a time in a process. EquivalenceTable has no such restriction.
  * @author webb
  *
  */
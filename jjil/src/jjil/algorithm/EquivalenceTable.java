@@ -0,0 +1,157 @@
+/*
+ * EquivalenceTable.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+/**
+ * EquivalenceTable implements equivalence classes of integer labels using the
+ * union-find algorithm, like EquivalenceClass, but keeps the classes in
+ * int arrays owned by the table instead of in one object per label and a
+ * static label counter. Each user has its own table, so several can label
+ * at the same time on different threads, and the arrays are reused when the
+ * table is reset, so labeling a new image allocates nothing once the table
+ * has grown large enough.<p>
+ * Labels are numbered from 1; 0 is left free to mean "no label".<br>
+ * t.newLabel() creates a new class and returns its label.<br>
+ * t.union(a, b) unions the classes of labels a and b.<br>
+ * t.find(a) == t.find(b) iff a and b are in the same class.<br>
+ * t.resolve() numbers the classes consecutively from 1, after which
+ * t.getFinalLabel(a) returns the number of a's class.
+ * @author webb
+ */
+public class EquivalenceTable {
+    private static final int INITIAL_LABELS = 256;
+    private int nNextLabel = 1;
+    private int rnParent[] = new int[INITIAL_LABELS];
+    private byte rbRank[] = new byte[INITIAL_LABELS];
+    private int rnFinal[] = null;
+
+    /**
+     * Creates a new, empty, EquivalenceTable.
+     */
+    public EquivalenceTable() {
+    }
+
+    /**
+     * Looks up the class of a label.
+     * @param nLabel the label.
+     * @return the label at the root of nLabel's class.
+     */
+    public int find(int nLabel) {
+        // path halving: point every other label on the path at its
+        // grandparent
+        while (this.rnParent[nLabel] != nLabel) {
+            int nParent = this.rnParent[nLabel];
+            this.rnParent[nLabel] = this.rnParent[nParent];
+            nLabel = this.rnParent[nLabel];
+        }
+        return nLabel;
+    }
+
+    /**
+     * Returns the consecutive number assigned to a label's class by
+     * resolve().
+     * @param nLabel the label.
+     * @return the class number, from 1 to the value returned by resolve().
+     */
+    public int getFinalLabel(int nLabel) {
+        return this.rnFinal[nLabel];
+    }
+
+    /**
+     * Returns number of labels assigned since reset, plus one.
+     * @return max number of distinct labels, plus one.
+     */
+    public int getLabels() {
+        return this.nNextLabel;
+    }
+
+    /**
+     * Creates a new class.
+     * @return the new class's label.
+     */
+    public int newLabel() {
+        if (this.nNextLabel == this.rnParent.length) {
+            int rnParentNew[] = new int[2 * this.rnParent.length];
+            System.arraycopy(this.rnParent, 0, rnParentNew, 0, this.nNextLabel);
+            this.rnParent = rnParentNew;
+            byte rbRankNew[] = new byte[rnParentNew.length];
+            System.arraycopy(this.rbRank, 0, rbRankNew, 0, this.nNextLabel);
+            this.rbRank = rbRankNew;
+        }
+        this.rnParent[this.nNextLabel] = this.nNextLabel;
+        this.rbRank[this.nNextLabel] = 0;
+        return this.nNextLabel++;
+    }
+
+    /**
+     * Must be called once when a new set of equivalence classes is
+     * to be defined. Keeps the arrays for reuse.
+     */
+    public void reset() {
+        this.nNextLabel = 1;
+    }
+
+    /**
+     * Numbers the classes consecutively from 1, in order of the smallest
+     * label in each class. Afterwards getFinalLabel() returns the number of
+     * the class of any label.
+     * @return the number of classes.
+     */
+    public int resolve() {
+        if (this.rnFinal == null || this.rnFinal.length < this.nNextLabel) {
+            this.rnFinal = new int[this.rnParent.length];
+        }
+        for (int i=1; i<this.nNextLabel; i++) {
+            this.rnFinal[i] = 0;
+        }
+        int nClasses = 0;
+        for (int i=1; i<this.nNextLabel; i++) {
+            int nRoot = find(i);
+            // the class is numbered when its smallest label is reached
+            if (this.rnFinal[nRoot] == 0) {
+                this.rnFinal[nRoot] = ++nClasses;
+            }
+            this.rnFinal[i] = this.rnFinal[nRoot];
+        }
+        return nClasses;
+    }
+
+    /**
+     * Unifies two classes. After this operation nLabel and nOther will be
+     * in the same equivalence class.
+     * @param nLabel a label in the first class.
+     * @param nOther a label in the second class.
+     */
+    public void union(int nLabel, int nOther) {
+        int nRoot = find(nLabel);
+        int nOtherRoot = find(nOther);
+        if (nRoot == nOtherRoot) {
+            return;
+        }
+        if (this.rbRank[nRoot] > this.rbRank[nOtherRoot]) {
+            this.rnParent[nOtherRoot] = nRoot;
+        } else if (this.rbRank[nRoot] < this.rbRank[nOtherRoot]) {
+            this.rnParent[nRoot] = nOtherRoot;
+        } else {
+            this.rnParent[nOtherRoot] = nRoot;
+            this.rbRank[nRoot]++;
+        }
+    }
+}
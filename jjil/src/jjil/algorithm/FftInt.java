@@ -0,0 +1,517 @@
+/*
+ * FftInt.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Complex;
+import jjil.core.Error;
+import jjil.core.MathPlus;
+import jjil.core.ParallelExecutor;
+import jjil.core.RowBands;
+
+/**
+ * Computes 1- and 2-dimensional fixed point FFTs in place on complex data held
+ * in an int array, with the real and imaginary parts of each element
+ * interleaved: element k is at [2k] (real) and [2k+1] (imaginary). This
+ * computes the same transform as Fft1d, but iteratively, with the elements
+ * first put in bit-reversed order and then combined by butterflies in place,
+ * so no objects are created.<p>
+ * The complex roots of unity, scaled by MathPlus.SCALE, are computed once for
+ * the maximum width and used, with a stride, for all smaller widths.<p>
+ * The forward transform is not normalized; the inverse transform divides by
+ * the width, as in Fft1d. The values can therefore grow by up to the number
+ * of elements transformed, and the caller must leave room for that in an
+ * int (see Gray8Fft.getShift()).<p>
+ * The 2-D transforms can be given a ParallelExecutor. They then transform
+ * bands of rows concurrently, transpose the image into a second buffer in
+ * small blocks, so that both the reads and the writes stay in cache,
+ * transform the rows of the transpose (the former columns) concurrently,
+ * and transpose back. Without an executor the columns are transformed one at
+ * a time through a column buffer.
+ * @author webb
+ */
+public class FftInt {
+    private int nMaxWidth = 0;
+    private int rnCos[] = new int[0]; // real part of e**(-2*pi*i*k/nMaxWidth)
+    private int rnSin[] = new int[0]; // imaginary part of same
+    /**
+     * Width and height, in complex elements, of the blocks the image is
+     * transposed in.
+     */
+    private static final int TRANSPOSE_BLOCK = 16;
+    private int rxnBitRev[][] = new int[32][]; // bit reversal by log2 width
+    private int rnColumn[] = new int[0]; // column buffer for 2-D transforms
+    private int rnTranspose[] = new int[0]; // transposed image
+    // the image being transformed or transposed by the row bands
+    private int rnRowsData[], rnRowsTarget[];
+    private int nRowsWidth, nRowsHeight;
+    private boolean fRowsInverse;
+    /** Transforms bands of rows of the current image.
+     */
+    private final RowBands rowsFft = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            int rnBitRev[] = bitReversal(nRowsWidth);
+            for (int i=nFirstRow; i<nLimitRow; i++) {
+                transform(rnRowsData, 2*i*nRowsWidth, nRowsWidth, 
+                        rnBitRev, fRowsInverse);
+            }
+        }
+    });
+    /** Transposes bands of rows of the current image into the target.
+     */
+    private final RowBands rowsTranspose = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            transpose(rnRowsData, rnRowsTarget, nRowsWidth, nRowsHeight,
+                    nFirstRow, nLimitRow);
+        }
+    });
+
+    /**
+     * Creates a new FftInt object capable of computing FFTs up to a given
+     * maximum width.
+     * @param nMaxWidth The maximum width to compute FFTs for. Must be a power
+     * of 2.
+     * @throws jjil.core.Error if width parameter is not a power of two.
+     */
+    public FftInt(int nMaxWidth) throws jjil.core.Error {
+        setMaxWidth(nMaxWidth);
+    }
+
+    /**
+     * Checks a transform width.
+     * @param n the width.
+     * @throws jjil.core.Error if n is not a power of 2 or is larger than the
+     * maximum width.
+     */
+    private void checkWidth(int n) throws jjil.core.Error {
+        if ((n & (n-1)) != 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.FFT_SIZE_NOT_POWER_OF_2,
+                            new Integer(n).toString(),
+                            null,
+                            null);
+        }
+        if (n > this.nMaxWidth) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.FFT_SIZE_LARGER_THAN_MAX,
+                            new Integer(n).toString(),
+                            null,
+                            null);
+        }
+    }
+
+    /**
+     * Computes forward FFT of n complex elements in place.
+     * @param rnData the interleaved complex data.
+     * @param nOffset index in rnData of the real part of the first element.
+     * @param n the number of complex elements.
+     * @throws jjil.core.Error if n is not a power of two or is larger than
+     * maximum width set in the constructor.
+     */
+    public void fft(int[] rnData, int nOffset, int n) throws jjil.core.Error {
+        checkWidth(n);
+        transform(rnData, nOffset, n, bitReversal(n), false);
+    }
+
+    /**
+     * Computes the forward FFT of an image in place: first each row, then
+     * each column.
+     * @param rnData the interleaved complex image, in row major order.
+     * @param nWidth the image width.
+     * @param nHeight the image height.
+     * @throws jjil.core.Error if the width or height is not a power of two or
+     * is larger than the maximum width.
+     */
+    public void fft2d(int[] rnData, int nWidth, int nHeight)
+        throws jjil.core.Error
+    {
+        transform2d(rnData, nWidth, nHeight, false);
+    }
+
+    /**
+     * Computes the forward FFT of an image in place, splitting the work
+     * across the threads of an executor.
+     * @param rnData the interleaved complex image, in row major order.
+     * @param nWidth the image width.
+     * @param nHeight the image height.
+     * @param pe the executor, or null to compute the transform as fft2d does.
+     * @throws jjil.core.Error if the width or height is not a power of two or
+     * is larger than the maximum width.
+     */
+    public void fft2d(
+            int[] rnData, 
+            int nWidth, 
+            int nHeight, 
+            ParallelExecutor pe) throws jjil.core.Error
+    {
+        if (pe == null) {
+            transform2d(rnData, nWidth, nHeight, false);
+        } else {
+            transform2dTransposed(rnData, nWidth, nHeight, false, pe);
+        }
+    }
+
+    /**
+     * Computes inverse FFT of n complex elements in place.
+     * @param rnData the interleaved complex data.
+     * @param nOffset index in rnData of the real part of the first element.
+     * @param n the number of complex elements.
+     * @throws jjil.core.Error if n is not a power of two or is larger than
+     * maximum width set in the constructor.
+     */
+    public void ifft(int[] rnData, int nOffset, int n) throws jjil.core.Error {
+        checkWidth(n);
+        transform(rnData, nOffset, n, bitReversal(n), true);
+    }
+
+    /**
+     * Computes the inverse FFT of an image in place: first each row, then
+     * each column.
+     * @param rnData the interleaved complex image, in row major order.
+     * @param nWidth the image width.
+     * @param nHeight the image height.
+     * @throws jjil.core.Error if the width or height is not a power of two or
+     * is larger than the maximum width.
+     */
+    public void ifft2d(int[] rnData, int nWidth, int nHeight)
+        throws jjil.core.Error
+    {
+        transform2d(rnData, nWidth, nHeight, true);
+    }
+
+    /**
+     * Computes the inverse FFT of an image in place, splitting the work
+     * across the threads of an executor.
+     * @param rnData the interleaved complex image, in row major order.
+     * @param nWidth the image width.
+     * @param nHeight the image height.
+     * @param pe the executor, or null to compute the transform as ifft2d
+     * does.
+     * @throws jjil.core.Error if the width or height is not a power of two or
+     * is larger than the maximum width.
+     */
+    public void ifft2d(
+            int[] rnData, 
+            int nWidth, 
+            int nHeight, 
+            ParallelExecutor pe) throws jjil.core.Error
+    {
+        if (pe == null) {
+            transform2d(rnData, nWidth, nHeight, true);
+        } else {
+            transform2dTransposed(rnData, nWidth, nHeight, true, pe);
+        }
+    }
+
+    /**
+     * Returns the bit reversal permutation for a width, computing it the
+     * first time it is needed.
+     * @param n the width, a power of 2.
+     * @return the table, in which element i is i with its log2(n) bits
+     * reversed.
+     */
+    private int[] bitReversal(int n) {
+        int nLog = 0;
+        while ((1 << nLog) < n) {
+            nLog++;
+        }
+        int rnBitRev[] = this.rxnBitRev[nLog];
+        if (rnBitRev == null) {
+            rnBitRev = new int[n];
+            for (int i=0; i<n; i++) {
+                int nRev = 0;
+                for (int b=0; b<nLog; b++) {
+                    nRev |= ((i >> b) & 1) << (nLog - 1 - b);
+                }
+                rnBitRev[i] = nRev;
+            }
+            this.rxnBitRev[nLog] = rnBitRev;
+        }
+        return rnBitRev;
+    }
+
+    /**
+     * Divides one fixed point complex number by another, in the same way as
+     * Complex.div(Complex), storing the result in an interleaved complex
+     * array.
+     * @param nReal real part of the dividend.
+     * @param nImag imaginary part of the dividend.
+     * @param nDivReal real part of the divisor.
+     * @param nDivImag imaginary part of the divisor.
+     * @param rnOut the array to store the quotient in.
+     * @param nOut index in rnOut for the real part of the quotient.
+     * @throws jjil.core.Error if the divisor's absolute square is 0.
+     */
+    static void divide(
+            int nReal,
+            int nImag,
+            int nDivReal,
+            int nDivImag,
+            int[] rnOut,
+            int nOut) throws jjil.core.Error {
+        int nShift = 0;
+        if (Math.abs(nDivReal) >= MathPlus.SCALE ||
+            Math.abs(nDivImag) >= MathPlus.SCALE) {
+            nDivReal >>= MathPlus.SHIFT;
+            nDivImag >>= MathPlus.SHIFT;
+            nShift = MathPlus.SHIFT;
+        }
+        int nSq = nDivReal * nDivReal + nDivImag * nDivImag;
+        if (nSq == 0) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            jjil.core.ErrorCodes.MATH_PRODUCT_TOO_LARGE,
+                            "(" + nReal + ", " + nImag + ")", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                            "(" + nDivReal + ", " + nDivImag + ")", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                            null);
+        }
+        rnOut[nOut] = ((nReal * nDivReal + nImag * nDivImag) / nSq) >> nShift;
+        rnOut[nOut+1] = ((nImag * nDivReal - nReal * nDivImag) / nSq) >> nShift;
+    }
+
+    /**
+     * Computes the magnitude of a fixed point complex number, in the same way
+     * as Complex.magnitude().
+     * @param nReal real part.
+     * @param nImag imaginary part.
+     * @return sqrt(nReal**2 + nImag**2).
+     * @throws jjil.core.Error if the square value computed is too large.
+     */
+    static int magnitude(int nReal, int nImag) throws jjil.core.Error {
+        if (nReal == 0 || nImag == 0) {
+            return Math.abs(nReal) + Math.abs(nImag);
+        }
+        if (Math.abs(nReal) > (MathPlus.SCALE >> 1) ||
+            Math.abs(nImag) > (MathPlus.SCALE >> 1)) {
+            int nR = nReal >> MathPlus.SHIFT;
+            int nI = nImag >> MathPlus.SHIFT;
+            return MathPlus.sqrt(nR * nR + nI * nI) << MathPlus.SHIFT;
+        } else {
+            return MathPlus.sqrt(nReal * nReal + nImag * nImag);
+        }
+    }
+
+    /**
+     * Sets a new maximum width. If smaller than what has been specified
+     * before, no effect. Otherwise recomputes the complex roots of unity.
+     * @param N The new maximum width.
+     * @throws jjil.core.Error If N is not a power of 2.
+     */
+    public void setMaxWidth(int N) throws jjil.core.Error {
+        if ((N & (N-1)) != 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.FFT_SIZE_NOT_POWER_OF_2,
+                            new Integer(N).toString(),
+                            null,
+                            null);
+        }
+        if (N <= this.nMaxWidth) {
+            return;
+        }
+        this.rnCos = new int[N/2];
+        this.rnSin = new int[N/2];
+        for (int k=0; k<N/2; k++) {
+            // kth is scaled by 2**16 because of the use of MathPlus.PI
+            int kth = (int) ((-2L * k * MathPlus.PI) / N);
+            Complex cx = MathPlus.expImag(kth);
+            this.rnCos[k] = cx.real();
+            this.rnSin[k] = cx.imag();
+        }
+        this.nMaxWidth = N;
+    }
+
+    /**
+     * Computes the FFT or inverse FFT of n complex elements in place. The
+     * inverse uses the conjugate roots of unity and divides by n.
+     */
+    private void transform(
+            int[] rnData, 
+            int nOffset, 
+            int n, 
+            int[] rnBitRev, 
+            boolean fInverse)
+    {
+        if (n < 2) {
+            return;
+        }
+        // put the elements in bit-reversed order
+        for (int i=0; i<n; i++) {
+            int j = rnBitRev[i];
+            if (i < j) {
+                int a = nOffset + 2*i, b = nOffset + 2*j;
+                int nT = rnData[a];
+                rnData[a] = rnData[b];
+                rnData[b] = nT;
+                nT = rnData[a+1];
+                rnData[a+1] = rnData[b+1];
+                rnData[b+1] = nT;
+            }
+        }
+        // combine pairs of half-length transforms
+        int rnCos[] = this.rnCos;
+        int rnSin[] = this.rnSin;
+        int nSign = fInverse ? -1 : 1;
+        for (int nSpan=1; nSpan<n; nSpan<<=1) {
+            // the roots of unity for a transform of length 2*nSpan are every
+            // nStep'th of those for nMaxWidth
+            int nStep = this.nMaxWidth / (2 * nSpan);
+            for (int k=0; k<nSpan; k++) {
+                int nWr = rnCos[k * nStep];
+                int nWi = nSign * rnSin[k * nStep];
+                for (int i=nOffset+2*k; i<nOffset+2*n; i+=4*nSpan) {
+                    int j = i + 2*nSpan;
+                    // the roots of unity are scaled by 2**16
+                    int nPr = (int) (((long) nWr * rnData[j] -
+                            (long) nWi * rnData[j+1]) >> MathPlus.SHIFT);
+                    int nPi = (int) (((long) nWr * rnData[j+1] +
+                            (long) nWi * rnData[j]) >> MathPlus.SHIFT);
+                    rnData[j] = rnData[i] - nPr;
+                    rnData[j+1] = rnData[i+1] - nPi;
+                    rnData[i] += nPr;
+                    rnData[i+1] += nPi;
+                }
+            }
+        }
+        if (fInverse) {
+            for (int i=nOffset; i<nOffset+2*n; i++) {
+                rnData[i] /= n;
+            }
+        }
+    }
+
+    /**
+     * Computes the FFT or inverse FFT of an image in place, rows first.
+     */
+    private void transform2d(
+            int[] rnData,
+            int nWidth,
+            int nHeight,
+            boolean fInverse) throws jjil.core.Error
+    {
+        checkWidth(nWidth);
+        checkWidth(nHeight);
+        int rnBitRev[] = bitReversal(nWidth);
+        for (int i=0; i<nHeight; i++) {
+            transform(rnData, 2*i*nWidth, nWidth, rnBitRev, fInverse);
+        }
+        rnBitRev = bitReversal(nHeight);
+        if (this.rnColumn.length < 2*nHeight) {
+            this.rnColumn = new int[2*nHeight];
+        }
+        int rnColumn[] = this.rnColumn;
+        for (int j=0; j<nWidth; j++) {
+            // copy column into a 1-D array
+            for (int i=0, k=2*j; i<nHeight; i++, k+=2*nWidth) {
+                rnColumn[2*i] = rnData[k];
+                rnColumn[2*i+1] = rnData[k+1];
+            }
+            transform(rnColumn, 0, nHeight, rnBitRev, fInverse);
+            // save result back into column
+            for (int i=0, k=2*j; i<nHeight; i++, k+=2*nWidth) {
+                rnData[k] = rnColumn[2*i];
+                rnData[k+1] = rnColumn[2*i+1];
+            }
+        }
+    }
+
+    /**
+     * Computes the FFT or inverse FFT of an image in place by transforming
+     * its rows, transposing it, transforming the rows of the transpose, and
+     * transposing back, with each step split into row bands on an executor.
+     */
+    private void transform2dTransposed(
+            int[] rnData,
+            int nWidth,
+            int nHeight,
+            boolean fInverse,
+            ParallelExecutor pe) throws jjil.core.Error
+    {
+        checkWidth(nWidth);
+        checkWidth(nHeight);
+        // build the tables now, since the bands only read them
+        bitReversal(nWidth);
+        bitReversal(nHeight);
+        if (this.rnTranspose.length < 2*nWidth*nHeight) {
+            this.rnTranspose = new int[2*nWidth*nHeight];
+        }
+        this.fRowsInverse = fInverse;
+        try {
+            // transform the rows
+            this.rnRowsData = rnData;
+            this.nRowsWidth = nWidth;
+            this.rowsFft.run(pe, nHeight);
+            // transpose; the bands are of rows of the transpose
+            this.rnRowsTarget = this.rnTranspose;
+            this.nRowsWidth = nWidth;
+            this.nRowsHeight = nHeight;
+            this.rowsTranspose.run(pe, nWidth);
+            // transform the former columns
+            this.rnRowsData = this.rnTranspose;
+            this.nRowsWidth = nHeight;
+            this.rowsFft.run(pe, nWidth);
+            // transpose back
+            this.rnRowsTarget = rnData;
+            this.nRowsWidth = nHeight;
+            this.nRowsHeight = nWidth;
+            this.rowsTranspose.run(pe, nHeight);
+        } finally {
+            this.rnRowsData = null;
+            this.rnRowsTarget = null;
+        }
+    }
+
+    /**
+     * Transposes rows nFirstRow to nLimitRow of the transpose of an
+     * interleaved complex image. The rows are filled a block at a time.
+     * @param rnSource the image.
+     * @param rnTarget the transpose.
+     * @param nWidth the image width (the height of the transpose).
+     * @param nHeight the image height (the width of the transpose).
+     * @param nFirstRow first row of the transpose to fill.
+     * @param nLimitRow row after the last row of the transpose to fill.
+     */
+    private static void transpose(
+            int[] rnSource,
+            int[] rnTarget,
+            int nWidth,
+            int nHeight,
+            int nFirstRow,
+            int nLimitRow)
+    {
+        for (int nBlockRow=nFirstRow; nBlockRow<nLimitRow; 
+                nBlockRow+=TRANSPOSE_BLOCK) {
+            int nBlockRowLimit = Math.min(nLimitRow, nBlockRow + TRANSPOSE_BLOCK);
+            for (int nBlockCol=0; nBlockCol<nHeight; nBlockCol+=TRANSPOSE_BLOCK) {
+                int nBlockColLimit = Math.min(nHeight, nBlockCol + TRANSPOSE_BLOCK);
+                for (int i=nBlockRow; i<nBlockRowLimit; i++) {
+                    // element (i, j) of the transpose is (j, i) of the source
+                    int nTarget = 2*(i*nHeight + nBlockCol);
+                    int nSource = 2*(nBlockCol*nWidth + i);
+                    for (int j=nBlockCol; j<nBlockColLimit; j++) {
+                        rnTarget[nTarget++] = rnSource[nSource];
+                        rnTarget[nTarget++] = rnSource[nSource+1];
+                        nSource += 2*nWidth;
+                    }
+                }
+            }
+        }
+    }
+}
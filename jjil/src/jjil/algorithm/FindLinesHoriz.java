@@ -15,10 +15,8 @@
 
 package jjil.algorithm;
 
-import java.util.Vector;
 import jjil.core.Error;
 import jjil.core.Gray8Image;
-import jjil.core.Point;
 
 /** Find the most likely roughly horizontally-oriented line in a Gray8Image.
  * The input image is assumed to be thresholded so any points not equal to
@@ -28,6 +26,9 @@ import jjil.core.Point;
  */
 public class FindLinesHoriz {
     LinefitHoughHoriz hough;
+    /** Point coordinates, kept between pushes.
+     */
+    private int rnX[] = new int[0], rnY[] = new int[0];
     
     public FindLinesHoriz(int cMinY, 
             int cMaxY, 
@@ -43,15 +44,21 @@ public class FindLinesHoriz {
     
     public void push(Gray8Image im) throws Error {
         byte[] bData = im.getData();
-        Vector points = new Vector();
+        if (this.rnX.length < bData.length) {
+            this.rnX = new int[bData.length];
+            this.rnY = new int[bData.length];
+        }
+        int cPoints = 0;
         for (int i=0; i<im.getHeight(); i++) {
             for (int j=0; j<im.getWidth(); j++) {
                 if (bData[i*im.getWidth()+j] != Byte.MIN_VALUE) {
-                    points.addElement(new Point(i,j));
+                    this.rnX[cPoints] = i;
+                    this.rnY[cPoints] = j;
+                    cPoints++;
                 }
             }
         }
-        this.hough.push(points);
+        this.hough.push(this.rnX, this.rnY, cPoints);
     }
     
     public int getCount() {
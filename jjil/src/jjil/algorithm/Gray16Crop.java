@@ -31,6 +31,8 @@ import jjil.core.Rect;
 
 /**
  * Pipeline stage crops a Gray16Image to a given rectangular cropping window.
+ * Like Gray8Crop it returns a view of the input unless setCopy(true) has been
+ * called.
  * <p>
  * @author webb
  */
@@ -39,6 +41,7 @@ public class Gray16Crop extends PipelineStage {
     int cWidth; /* width of cropping window */
     int cX; /* left edge of cropping window */
     int cY; /* top of cropping window */
+    boolean fCopy = false; /* true to copy the window out of the input */
     
     /** Creates a new instance of Gray16Crop. The cropping window
      * is specified here.
@@ -96,13 +99,25 @@ public class Gray16Crop extends PipelineStage {
                             this.toString(),
                             null);
         }
-        Gray16Image imageResult = new Gray16Image(this.cWidth,this.cHeight);
-        short[] src = imageInput.getData();
+        short[] src = imageInput.getBuffer();
+        int nOffset = imageInput.getOffset() + 
+                this.cY*imageInput.getStride() + this.cX;
+        if (!this.fCopy) {
+            // the output is a view of the window in the input
+            super.setOutput(new Gray16Image(
+                    this.cWidth, 
+                    this.cHeight, 
+                    src, 
+                    nOffset, 
+                    imageInput.getStride()));
+            return;
+        }
+        Gray16Image imageResult = super.getOutputGray16Image(this.cWidth,this.cHeight);
         short[] dst = imageResult.getData();
         for (int i=0; i<this.cHeight; i++) {
             System.arraycopy(
                     src, 
-                    (i+this.cY)*image.getWidth() + this.cX,
+                    nOffset + i*imageInput.getStride(),
                     dst,
                     i*this.cWidth,
                     this.cWidth);
@@ -110,6 +125,14 @@ public class Gray16Crop extends PipelineStage {
         super.setOutput(imageResult);
     }
     
+    /**
+     * Tells whether the window is copied out of the input.
+     * @return true if the output is a copy, false if it is a view.
+     */
+    public boolean getCopy() {
+        return this.fCopy;
+    }
+    
     /**
      * Gets the cropping window height
      * @return the cropping window height
@@ -142,6 +165,18 @@ public class Gray16Crop extends PipelineStage {
         return this.cWidth;
     }
     
+    /**
+     * Chooses between a view and a copy for the output. A view shares the
+     * input's pixels, so it costs nothing to make but changes if the input
+     * is later overwritten, for example by a stage that reuses its output
+     * image. A copy is independent of the input.
+     * @param fCopy true to copy the window, false (the default) to return
+     * a view of it.
+     */
+    public void setCopy(boolean fCopy) {
+        this.fCopy = fCopy;
+    }
+    
     /** Change the cropping window. 
      *
      * @param x left edge of cropping window
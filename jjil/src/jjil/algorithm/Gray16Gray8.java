@@ -55,7 +55,7 @@ public class Gray16Gray8 extends PipelineStage {
     				null);
         }
         Gray16Image gray = (Gray16Image) image;
-        Gray8Image gray8 = new Gray8Image(image.getWidth(), image.getHeight());
+        Gray8Image gray8 = super.getOutputGray8Image(image.getWidth(), image.getHeight());
         short[] grayData = gray.getData();
         byte[] gray8Data = gray8.getData();
         for (int i=0; i<gray.getWidth() * gray.getHeight(); i++) {
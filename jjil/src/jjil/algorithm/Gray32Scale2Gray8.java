@@ -57,7 +57,7 @@ public class Gray32Scale2Gray8 extends PipelineStage {
     				null);
         }
         Gray32Image gray32 = (Gray32Image) image;
-        Gray8Image gray8 = new Gray8Image(image.getWidth(), image.getHeight());
+        Gray8Image gray8 = super.getOutputGray8Image(image.getWidth(), image.getHeight());
         int[] gray32Data = gray32.getData();
         byte[] gray8Data = gray8.getData();
         int nMax = Integer.MIN_VALUE;
@@ -0,0 +1,180 @@
+/*
+ * Gray8AdaptiveThreshold.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+import jjil.core.PipelineStage;
+import jjil.core.RowBands;
+
+/**
+ * Thresholds each pixel of a gray image against the mean of a square window
+ * around it, less an offset. Unlike a global threshold this follows gradual
+ * changes in illumination across the image. As in Gray8Threshold, the output
+ * is Byte.MAX_VALUE where the pixel is below its local threshold and
+ * Byte.MIN_VALUE elsewhere if bWithin is true, and the opposite if it is
+ * false. The output replaces the input.<p>
+ * The window means are taken from an integral image, so the cost per pixel
+ * does not depend on the window size. Windows are clipped at the image
+ * border. The integral image is kept from one push to the next, and rows are
+ * thresholded in parallel bands if an executor has been set with
+ * setParallel.
+ * @author webb
+ */
+public class Gray8AdaptiveThreshold extends PipelineStage {
+    private final boolean bWithin;
+    private final Gray8IntegralImage integral = new Gray8IntegralImage(false);
+    private int nOffset;
+    private int nRadius;
+    /** Data of the image being thresholded, set during push.
+     */
+    private byte[] bData;
+    /** Size of the image being thresholded.
+     */
+    private int cWidth, cHeight;
+    /** Thresholds row bands of the current image.
+     */
+    private final RowBands rows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            thresholdRows(nFirstRow, nLimitRow);
+        }
+    });
+
+    /**
+     * Creates a new instance of Gray8AdaptiveThreshold.
+     * @param nRadius the window around each pixel extends this many pixels
+     * on each side, so it is 2 * nRadius + 1 pixels square.
+     * @param nOffset a pixel is below its threshold if it is more than
+     * nOffset less than the mean of its window.
+     * @param bWithin direction of threshold. If true then output is true
+     * (Byte.MAX_VALUE) iff the pixel is below its threshold.
+     * @throws jjil.core.Error if nRadius is negative.
+     */
+    public Gray8AdaptiveThreshold(int nRadius, int nOffset, boolean bWithin)
+        throws jjil.core.Error
+    {
+        setWindow(nRadius, nOffset);
+        this.bWithin = bWithin;
+    }
+
+    /**
+     * Returns the offset of the threshold below the window mean.
+     * @return the offset.
+     */
+    public int getOffset() {
+        return this.nOffset;
+    }
+
+    /**
+     * Returns the window radius.
+     * @return the number of pixels the window extends on each side of the
+     * pixel.
+     */
+    public int getRadius() {
+        return this.nRadius;
+    }
+
+    /**
+     * Thresholds a gray image against its local means.
+     * @param image the input image (and output).
+     * @throws jjil.core.Error if the image is not a Gray8Image.
+     */
+    public void push(Image image) throws jjil.core.Error {
+        if (!(image instanceof Gray8Image)) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
+                            image.toString(),
+                            null,
+                            null);
+        }
+        Gray8Image gray = (Gray8Image) image;
+        // the integral image is formed before any pixel is replaced
+        this.integral.push(gray);
+        this.bData = gray.getData();
+        this.cWidth = gray.getWidth();
+        this.cHeight = gray.getHeight();
+        this.rows.run(super.getParallel(), this.cHeight);
+        this.bData = null;
+        super.setOutput(image);
+    }
+
+    /**
+     * Changes the window and offset. Takes effect at the next push.
+     * @param nRadius the number of pixels the window extends on each side of
+     * the pixel.
+     * @param nOffset the offset of the threshold below the window mean.
+     * @throws jjil.core.Error if nRadius is negative.
+     */
+    public void setWindow(int nRadius, int nOffset) throws jjil.core.Error {
+        if (nRadius < 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(nRadius),
+                            "0", //$NON-NLS-1$
+                            null);
+        }
+        this.nRadius = nRadius;
+        this.nOffset = nOffset;
+    }
+
+    /**
+     * Thresholds rows nFirstRow up to nLimitRow of the current image. A pixel
+     * p is below its threshold if p &lt; sum / count - offset, which is
+     * tested as (p + offset) * count &lt; sum to avoid the division.
+     * @param nFirstRow first row to threshold.
+     * @param nLimitRow row after the last row to threshold.
+     */
+    private void thresholdRows(int nFirstRow, int nLimitRow) {
+        byte[] data = this.bData;
+        int[] sum = this.integral.getSum();
+        int nStride = this.cWidth + 1;
+        int nRadius = this.nRadius;
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nTop = Math.max(0, i - nRadius);
+            int nBottom = Math.min(this.cHeight, i + nRadius + 1);
+            int nTopRow = nTop * nStride, nBottomRow = nBottom * nStride;
+            int cRows = nBottom - nTop;
+            int nPixel = i * this.cWidth;
+            for (int j=0; j<this.cWidth; j++, nPixel++) {
+                int nLeft = Math.max(0, j - nRadius);
+                int nRight = Math.min(this.cWidth, j + nRadius + 1);
+                int nSum = sum[nBottomRow + nRight] - sum[nBottomRow + nLeft] -
+                        sum[nTopRow + nRight] + sum[nTopRow + nLeft];
+                int cCount = cRows * (nRight - nLeft);
+                boolean bBelow =
+                        (data[nPixel] - Byte.MIN_VALUE + this.nOffset) * cCount <
+                        nSum;
+                data[nPixel] = (bBelow == this.bWithin) ?
+                        Byte.MAX_VALUE : Byte.MIN_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Returns a string describing the stage.
+     * @return the class name, radius, and offset.
+     */
+    public String toString() {
+        return super.toString() + "(" + this.nRadius + "," + this.nOffset + //$NON-NLS-1$ //$NON-NLS-2$
+                "," + this.bWithin + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -29,22 +29,25 @@ import jjil.core.Vec2;
 
 /**
  * This PipelineStage performs an affine transformation on an input
+ * Gray8Image. The output is a Gray8OffsetImage covering the bounds of the
+ * warped input, with its offset giving the position of its top-left corner.
+ * Points outside the warped input are set to Byte.MIN_VALUE. The warp is
+ * done in a single pass by a WarpEngine, in parallel row bands if an
+ * executor has been set with setParallel.
  * @author webb
  */
 public class Gray8AffineWarp extends PipelineStage {   
-    static final int WARP_X_FIRST = 1;
-    static final int WARP_Y_FIRST = 2;
-    
     int nMaxX, nMaxY, nMinX, nMinY;
-    private int nWarpOrder; // either WARP_X_FIRST or WARP_Y_FIRST
-    int nXOffset, nYOffset;
     int rnWarp[][];
-    int rnWarpX[];
-    int rnWarpY[];
+    private final WarpEngine engine = new WarpEngine();
+    /** Output image, kept for reuse when output reuse is on.
+     */
+    private Gray8OffsetImage imageWarped = null;
     
     /** Creates a new instance of Gray8AffineWarp. Gray8AffineWarp performs
-     * an affine warp on an input Gray8Image. The affine transformation is
-     * decomposed into two stages, following the work of George Wolberg.
+     * an affine warp on an input Gray8Image. Each output pixel is mapped
+     * back into the input image and interpolated bilinearly, unless
+     * nearest neighbor sampling is selected with setSampling.
      * See http://www-cs.ccny.cuny.edu/~wolberg/diw.html for the definitive
      * work on image warping.
      * <p>
@@ -71,12 +74,19 @@ public class Gray8AffineWarp extends PipelineStage {
                 (a[1][0] * p.getX() + a[1][1] * p.getY() + a[1][2])>>16);
     }
 
+    /**
+     * Returns the sampling mode.
+     * @return WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     */
+    public int getSampling() {
+        return this.engine.getSampling();
+    }
+
     /**
      * Affine warp of an image.
      *
      * @param image the input gray image.
-     * @throws jjil.core.Error if the input image is not gray,
-     * or the trapezoid already specified extends outside its bounds.
+     * @throws jjil.core.Error if the input image is not gray.
      */
     public void push(Image image) throws jjil.core.Error {
         if (!(image instanceof Gray8Image)) {
@@ -87,12 +97,37 @@ public class Gray8AffineWarp extends PipelineStage {
     				null,
     				null);
         }
-        // first calculate bounds of output image
+        setBounds(image.getWidth(), image.getHeight());
+        int cWidth = this.nMaxX - this.nMinX;
+        int cHeight = this.nMaxY - this.nMinY;
+        Gray8OffsetImage imageResult = this.imageWarped;
+        if (imageResult == null ||
+                imageResult.getWidth() != cWidth ||
+                imageResult.getHeight() != cHeight) {
+            imageResult = new Gray8OffsetImage(
+                    cWidth, cHeight, this.nMinX, this.nMinY);
+        } else {
+            imageResult.setXOffset(this.nMinX);
+            imageResult.setYOffset(this.nMinY);
+        }
+        this.imageWarped = super.getReuseOutput() ? imageResult : null;
+        this.engine.setAffine(this.rnWarp, this.nMinX, this.nMinY, 
+                cWidth, cHeight);
+        this.engine.warp((Gray8Image) image, imageResult, super.getParallel());
+        super.setOutput(imageResult);
+    }
+    
+    /**
+     * Calculates the bounds of the warped image, setting nMinX, nMaxX,
+     * nMinY, and nMaxY.
+     * @param cWidth input image width.
+     * @param cHeight input image height.
+     */
+    void setBounds(int cWidth, int cHeight) {
         Vec2 p00 = affineTrans(this.rnWarp, new Vec2(0, 0));
-        Vec2 p01 = affineTrans(this.rnWarp, new Vec2(0, image.getHeight()));
-        Vec2 p10 = affineTrans(this.rnWarp, new Vec2(image.getWidth(), 0));
-        Vec2 p11 = affineTrans(this.rnWarp, new Vec2(image.getWidth(), 
-                 image.getHeight()));
+        Vec2 p01 = affineTrans(this.rnWarp, new Vec2(0, cHeight));
+        Vec2 p10 = affineTrans(this.rnWarp, new Vec2(cWidth, 0));
+        Vec2 p11 = affineTrans(this.rnWarp, new Vec2(cWidth, cHeight));
         this.nMinX = (int) Math.min(p00.getX(), 
                 Math.min(p01.getX(), Math.min(p10.getX(), p11.getX())));
         this.nMaxX = (int) Math.max(p00.getX(), 
@@ -101,27 +136,22 @@ public class Gray8AffineWarp extends PipelineStage {
                 Math.min(p01.getY(), Math.min(p10.getY(), p11.getY())));
         this.nMaxY = (int) Math.max(p00.getY(), 
                 Math.max(p01.getY(), Math.max(p10.getY(), p11.getY())));
-        this.nXOffset = -this.nMinX;
-        this.nYOffset = -this.nMinY;
-        if (this.nWarpOrder == Gray8AffineWarp.WARP_X_FIRST) {
-            Gray8Image grayX = warpX((Gray8Image) image);
-            //super.setOutput(new Gray8OffsetImage(grayX, this.nXOffset, this.nYOffset));
-            Gray8Image grayY = warpY(grayX);
-            super.setOutput(new Gray8OffsetImage(grayY, this.nXOffset, this.nYOffset));
-        } else {
-            Gray8Image grayY = warpY((Gray8Image) image);
-            //super.setOutput(new Gray8OffsetImage(grayY, this.nXOffset, this.nYOffset));
-            Gray8Image grayX = warpX(grayY);
-            super.setOutput(new Gray8OffsetImage(grayX, this.nXOffset, this.nYOffset));
-        }
     }
     
-    /** Sets the warp in use and decomposes it into two stages, determining
-     * the order of the warp (x first or y first).
+    /**
+     * Sets the sampling mode.
+     * @param nSampling WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     * @throws jjil.core.Error if nSampling is not one of these.
+     */
+    public void setSampling(int nSampling) throws jjil.core.Error {
+        this.engine.setSampling(nSampling);
+    }
+    
+    /** Sets the warp in use.
      * @param warp the 2 x 3 affine warp transformation. The matrix is 
      * assumed to have been scaled by 2**16 for accuracy.
      * @throws jjil.core.Error if the warp is not 2x3 or the warp is not
-     * decomposable (warp[0][0] or warp[1][1] is 0).
+     * invertible.
      */
     public void setWarp(int[][] warp) throws jjil.core.Error {
         if (warp.length != 2 || warp[0].length != 3 || warp[1].length != 3) {
@@ -132,12 +162,11 @@ public class Gray8AffineWarp extends PipelineStage {
                             null,
                             null);
         }
-        // nDivisor is scaled by 2**16. Since warp is scaled by 2**16 multiplying
-        // its elements would scale by 2**32, resulting in overflow. So we
-        // rescale before multiplying
-        int nDivisorY = ((warp[0][0]>>8) * (warp[1][1]>>8)) - 
-                ((warp[0][1]>>8) * (warp[1][0]>>8));
-        if (warp[0][0] == 0 || warp[1][1] == 0 || nDivisorY == 0) {
+        // the determinant is scaled by 2**32; it must not vanish at the
+        // 2**16 scale the inverse is computed at
+        long nDet = ((long) warp[0][0] * warp[1][1] - 
+                (long) warp[0][1] * warp[1][0]) >> 16;
+        if (nDet == 0) {
             throw new Error(
                             Error.PACKAGE.ALGORITHM,
                             jjil.algorithm.ErrorCodes.PARAMETER_OUT_OF_RANGE,
@@ -146,41 +175,6 @@ public class Gray8AffineWarp extends PipelineStage {
                             null);
         }
         this.rnWarp = warp;
-        if (Math.abs(warp[0][0]) > Math.abs(warp[1][1])) {
-            // warp in x direction first
-            this.nWarpOrder = Gray8AffineWarp.WARP_X_FIRST;
-            // copy x warp
-            // rnWarp is scaled by 2**16, as is warp. If we divided warp
-            // by nDivisor, scaled by 2**16 we'd scale by 2**8 so we must rescale 
-            // carefully to get the output scaled properly while not overflowing
-            // the warp values (except column 2)
-            // are all < 1 so scaling by 2**16 gives a number
-            // less than 2**16 which means it can be safely scaled up 8 bits
-            this.rnWarpX = new int[3];
-            this.rnWarpX[0] = (warp[1][1]<<8) / (nDivisorY>>8);
-            this.rnWarpX[1] = -(warp[0][1]<<8) / (nDivisorY>>8);
-            this.rnWarpX[2] = ((warp[0][1]>>4)*(warp[1][2]>>4) - 
-                    (warp[0][2]>>4)*(warp[1][1]>>4))/(nDivisorY>>8);
-            // calculate y warp
-            this.rnWarpY = new int[3];
-            this.rnWarpY[0] = -(warp[1][0]<<8)/(warp[1][1]>>8);
-            this.rnWarpY[1] = (1<<24) / (warp[1][1]>>8);
-            this.rnWarpY[2] = -(warp[1][2]<<8) / (warp[1][1]>>8);
-        } else {
-            // warp in y direction first
-            this.nWarpOrder = Gray8AffineWarp.WARP_Y_FIRST;
-            // copy y warp
-            this.rnWarpY = new int[3];
-            this.rnWarpY[0] = -(warp[1][0]<<8) / (nDivisorY>>8);
-            this.rnWarpY[1] = (warp[0][0]<<8) / (nDivisorY>>8);
-            this.rnWarpY[2] = ((warp[0][2]>>4)*(warp[1][0]>>4) - 
-                    (warp[0][0]>>4)*(warp[1][2]>>4))/(nDivisorY>>8);
-            // calculate x warp
-            this.rnWarpX = new int[3];
-            this.rnWarpX[0] = (1<<24) / (warp[0][0]>>8);
-            this.rnWarpX[1] = -(warp[0][1]<<8) / (warp[0][0]>>8);
-            this.rnWarpX[2] = -(warp[0][2]<<8) / (warp[0][0]>>8);
-        }
     }
     
     public Vec2 warpVec(Vec2 p) {
@@ -191,76 +185,6 @@ public class Gray8AffineWarp extends PipelineStage {
         return new Vec2(x,y);
     }
 
-    private Gray8Image warpX(Gray8Image grayIn) {
-        // allocate image. it is implicitly offset by nMinX
-        Gray8Image grayOut = new Gray8Image(
-                nMaxX - nMinX, 
-                grayIn.getHeight(), 
-                Byte.MIN_VALUE);
-        // pointer to input
-        byte[] bDataIn = grayIn.getData();
-        byte[] bDataOut = grayOut.getData();
-        for (int x = nMinX; x<nMaxX; x++) {
-            for (int y = 0; y<grayIn.getHeight(); y++) {
-                // calculate x in original image.
-                // nX is scaled by 2**16.
-                // y does not change but is offset by nYOffset
-                int nX = x * this.rnWarpX[0] +
-                        this.rnWarpX[1] * (y + this.nYOffset) +
-                        this.rnWarpX[2];
-                // nXfloor is the integer value of nX, unscaled
-                int nXfloor = nX >> 16;
-                // nXfrace is the fractional component of nX, scaled by 2**16
-                int nXfrac = nX - (nXfloor<<16);
-                // interpolate to get point
-                if (nXfloor >= 0 && nXfloor < grayIn.getWidth()-1) {
-                    int bIn = bDataIn[y*grayIn.getWidth() + nXfloor];
-                    int bInP1 = bDataIn[y*grayIn.getWidth() + nXfloor + 1];
-                    int bOut = (bIn * ((1<<16)- nXfrac) + 
-                                bInP1 * nXfrac)>>16;
-                    bDataOut[grayOut.getWidth()*y + x-nMinX] = (byte) bOut;
-                }
-            }
-        }
-        this.nXOffset = nMinX;
-        return grayOut;
-    }
-
-    private Gray8Image warpY(Gray8Image grayIn) {
-        // allocate image. it is implicitly offset by nMinY
-        Gray8Image grayOut = new Gray8Image(
-                grayIn.getWidth(), 
-                nMaxY - nMinY, 
-                Byte.MIN_VALUE);
-        // pointer to input
-        byte[] bDataIn = grayIn.getData();
-        byte[] bDataOut = grayOut.getData();
-        for (int y = nMinY; y<nMaxY; y++) {
-            for (int x = 0; x<grayIn.getWidth(); x++) {
-                // calculate y in original image
-                // x does not change
-                // nY is scaled by 2**16
-                int nY = this.rnWarpY[0] * (x + this.nXOffset) +
-                        this.rnWarpY[1] * y +
-                        this.rnWarpY[2];
-                // nYfloor is the integer portion of nY, unscaled
-                int nYfloor = nY >> 16;
-                // nYfrac is the fractional portion of nY, scaled by 2**16
-                int nYfrac = nY - (nYfloor<<16);
-                // interpolate to get point
-                if (nYfloor >= 0 && nYfloor < grayIn.getHeight()-1) {
-                    int bIn = bDataIn[nYfloor*grayIn.getWidth() + x];
-                    int bInP1 = bDataIn[(nYfloor+1)*grayIn.getWidth() + x];
-                    int bOut =  (bIn * ((1<<16) - nYfrac) + 
-                                 bInP1 * nYfrac)>>16;
-                    bDataOut[grayOut.getWidth()*(y-nMinY) + x] = (byte) bOut;
-                }
-            }
-        }
-        this.nYOffset = nMinY;
-        return grayOut;
-    }
-    
     /**
      * Returns a string describing the current instance. All the constructor
      * parameters are returned in the order specified in the constructor.
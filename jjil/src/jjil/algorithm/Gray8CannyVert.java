@@ -186,7 +186,7 @@ public class Gray8CannyVert extends PipelineStage {
         			null);
         }
         Gray8Image input = (Gray8Image) image;
-        Gray8Image result = new Gray8Image(image.getWidth(), image.getHeight());
+        Gray8Image result = super.getOutputGray8Image(image.getWidth(), image.getHeight());
         byte[] bIn = input.getData();
         byte[] bResult = result.getData();
         int[] wCoeff = this.nCoeff[this.cSigma];
@@ -257,4 +257,13 @@ public class Gray8CannyVert extends PipelineStage {
     public String toString() {
         return super.toString() + " (" + this.cSigma + ")"; //$NON-NLS-1$ //$NON-NLS-2$
     }
+    
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
 }
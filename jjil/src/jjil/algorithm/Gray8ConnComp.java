@@ -40,7 +40,10 @@ import jjil.core.RgbVal;
  * Gray connected components. Input is a Gray8Image. Pixels with value
  * Byte.MIN_VALUE are taken to be background. Other connected pixels are labeled 
  * with unique labels. The connected component image can be retrieved, as can the
- * connected component bounding rectangles, sorted by area.
+ * connected component bounding rectangles, sorted by area.<p>
+ * The labels are numbered consecutively from 1. All labeling state, including
+ * the union-find table, belongs to the instance, so different instances can
+ * be used at the same time on different threads.
  * 
  * @author webb
  */
@@ -51,10 +54,10 @@ public class Gray8ConnComp extends PipelineStage {
     private int nSortedLabels = -1;
     private PriorityQueue pqLabels = null;
     Random random = new Random();
-    private EquivalenceClass reClasses[];
-    private int rnFinalLabels[];
+    private final EquivalenceTable eqTable = new EquivalenceTable();
+    private int nClasses = 0;
+    private int rnLabels[];
     private int rnPerimeters[];
-    private short sClasses = 0;
     private Label rSortedLabels[] = null;
 
     private class Label implements ComparableJ2me {
@@ -123,7 +126,7 @@ public class Gray8ConnComp extends PipelineStage {
         if (this.rnPerimeters != null) {
             return;
         }
-        this.rnPerimeters = new int[EquivalenceClass.getLabels()];
+        this.rnPerimeters = new int[this.nClasses + 1];
         for (int i = 0; i < this.rnPerimeters.length; i++) {
             this.rnPerimeters[i] = 0;
         }
@@ -209,7 +212,7 @@ public class Gray8ConnComp extends PipelineStage {
         // determine the pixel count and bounding rectangle
         // of all the components in the image
         short sData[] = this.imLabeled.getData();
-        Label vLabels[] = new Label[this.sClasses+1];
+        Label vLabels[] = new Label[this.nClasses+1];
         int nComponents = 0;
         for (int i = 0; i < this.imLabeled.getHeight(); i++) {
             int nRow = i * this.imLabeled.getWidth();
@@ -291,7 +294,7 @@ public class Gray8ConnComp extends PipelineStage {
                     this.imLabeled.getWidth(),
                     this.imLabeled.getHeight());
             int[] rgbData = rgbOutput.getData();
-            int nMaxLabel = EquivalenceClass.getLabels();
+            int nMaxLabel = this.nClasses;
             short[] grayData = this.imLabeled.getData();
             int[] rgbLabels = new int[nMaxLabel + 1];
             for (int i = 0; i < rgbLabels.length; i++) {
@@ -358,7 +361,8 @@ public class Gray8ConnComp extends PipelineStage {
 
     /**
      * Compute connected components of input gray image using a union-find
-     * algorithm.
+     * algorithm. The label array and equivalence table are reused from the
+     * previous image if it was the same size.
      * 
      * @param image
      *            the input image.
@@ -374,9 +378,15 @@ public class Gray8ConnComp extends PipelineStage {
                     null,
                     null);
         }
-        // initialize the label lookup array
-        EquivalenceClass.reset();
-        this.reClasses = new EquivalenceClass[image.getWidth() * image.getHeight()];
+        // initialize the label lookup array, reusing it and the
+        // equivalence table from the last image if possible
+        this.eqTable.reset();
+        if (this.rnLabels == null || 
+                this.rnLabels.length != image.getWidth() * image.getHeight()) {
+            this.rnLabels = new int[image.getWidth() * image.getHeight()];
+        }
+        int[] rnLabels = this.rnLabels;
+        EquivalenceTable eqTable = this.eqTable;
 
         // note that we've not computed the final labels or
         // the sorted components yet
@@ -387,169 +397,151 @@ public class Gray8ConnComp extends PipelineStage {
         byte[] bData = gray.getData();
         // for each pixel in the input image assign a label,
         // performing equivalence operations when two labels
-        // are adjacent (8-connected)
+        // are adjacent (8-connected). Label 0 is background.
         for (int i = 0; i < gray.getHeight(); i++) {
             int nRow = i * gray.getWidth();
-            // we use sUpLeft to refer to the pixel up and to
+            // we use nUpLeft to refer to the pixel up and to
             // the left of the current, etc.
-            EquivalenceClass eUpLeft = null,eUp  = null,eUpRight  = null;
+            int nUpLeft = 0, nUp = 0, nUpRight = 0;
             // after first row, initialize pixels above and
             // to the right
             if (i > 0) {
-                eUp = reClasses[nRow - gray.getWidth()];
-                eUpRight = reClasses[nRow - gray.getWidth() + 1];
+                nUp = rnLabels[nRow - gray.getWidth()];
+                nUpRight = (gray.getWidth() > 1) ? 
+                        rnLabels[nRow - gray.getWidth() + 1] : 0;
             }
             // starting a new row the pixel to the left is 0
-            EquivalenceClass eLeft = null;
+            int nLeft = 0;
             // nBitPatt encodes the state of the pixels around the
             // current pixel. The pattern is
             // 8 4 2
             // 1 current
-            int nBitPatt = ((eUp != null) ? 4 : 0) + ((eUpRight != null) ? 2 : 0);
-            // (at left column eLeft and eUpLeft will always be 0)
+            int nBitPatt = ((nUp != 0) ? 4 : 0) + ((nUpRight != 0) ? 2 : 0);
+            // (at left column nLeft and nUpLeft will always be 0)
             for (int j = 0; j < gray.getWidth(); j++) {
+                int nLabel = 0;
                 if (bData[nRow + j] != Byte.MIN_VALUE) {
                     switch (nBitPatt) {
                         // the cases below are derived from the bit
                         // pattern illustrated above. The general
                         // rule is to choose the most recently-scanned
                         // label when copying a label. Of course, we
-                        // also do unions only as necessary
+                        // also do unions only as necessary. Labels are
+                        // resolved to their classes after the scan.
                         case 0:
                             // 0 0 0
                             // 0 X
-                            reClasses[nRow + j] =
-                                    new EquivalenceClass();
-                            this.sClasses++;
+                            nLabel = eqTable.newLabel();
                             break;
                         case 1:
                             // 0 0 0
                             // X X
-                            reClasses[nRow + j] = eLeft.find();
-                            break;
-                        case 2:
-                            // 0 0 X
-                            // 0 X
-                            reClasses[nRow + j] = eUpRight.find();
-                            break;
-                        case 3:
-                            // 0 0 X
-                            // X X
-                            eLeft.union(eUpRight);
-                            reClasses[nRow + j] = eLeft.find();
-                            break;
-                        case 4:
-                            // 0 X 0
-                            // 0 X
-                            reClasses[nRow + j] = eUp.find();
-                            break;
                         case 5:
                             // 0 X 0
                             // X X
                             // we must already have union'ed
-                            // eLeft and eUp
-                            reClasses[nRow + j] = eLeft.find();
-                            break;
-                        case 6:
-                            // 0 X X
-                            // 0 X
-                            // we must already have union'ed
-                            // eUp and eUpRight
-                            reClasses[nRow + j] = eUpRight.find();
-                            break;
+                            // nLeft and nUp
                         case 7:
                             // 0 X X
                             // X X
                             // we must already have union'ed
-                            // eLeft and eUp, and eUp and eUpRight
-                            reClasses[nRow + j] = eLeft.find();
-                            break;
-                        case 8:
-                            // X 0 0
-                            // 0 X
-                            reClasses[nRow + j] = eUpLeft.find();
-                            break;
+                            // nLeft and nUp, and nUp and nUpRight
                         case 9:
                             // X 0 0
                             // X X
                             // we must already have union'ed
-                            // eLeft and eUpLeft
-                            reClasses[nRow + j] = eLeft.find();
+                            // nLeft and nUpLeft
+                        case 13:
+                            // X X 0
+                            // X X
+                            // we must already have union'ed
+                            // nLeft and nUpLeft, and nUpLeft and nUp
+                        case 15:
+                            // X X X
+                            // X X
+                            // we must already have union'ed
+                            // nLeft, nUpLeft, nUp, and nUpRight
+                            nLabel = nLeft;
                             break;
-                        case 10:
-                            // X 0 X
+                        case 2:
+                            // 0 0 X
+                            // 0 X
+                        case 6:
+                            // 0 X X
+                            // 0 X
+                            // we must already have union'ed
+                            // nUp and nUpRight
+                        case 14:
+                            // X X X
                             // 0 X
-                            eUpLeft.union(eUpRight);
-                            reClasses[nRow + j] = eUpLeft.find();
+                            // we must already have union'ed
+                            // nUpLeft, nUp, and nUpRight
+                            nLabel = nUpRight;
                             break;
+                        case 3:
+                            // 0 0 X
+                            // X X
                         case 11:
                             // X 0 X
                             // X X
                             // we must already have union'ed
-                            // eLeft and eUpLeft
-                            eLeft.union(eUpRight);
-                            reClasses[nRow + j] = eLeft.find();
+                            // nLeft and nUpLeft
+                            eqTable.union(nLeft, nUpRight);
+                            nLabel = nLeft;
                             break;
+                        case 4:
+                            // 0 X 0
+                            // 0 X
                         case 12:
                             // X X 0
                             // 0 X
                             // we must already have union'ed
-                            // eUpLeft and eUp
-                            reClasses[nRow + j] = eUp.find();
-                            break;
-                        case 13:
-                            // X X 0
-                            // X X
-                            // we must already have union'ed
-                            // eLeft and eUpLeft, and eUpLeft and eUp
-                            reClasses[nRow + j] = eLeft.find();
+                            // nUpLeft and nUp
+                            nLabel = nUp;
                             break;
-                        case 14:
-                            // X X X
+                        case 8:
+                            // X 0 0
                             // 0 X
-                            // we must already have union'ed
-                            // eUpLeft, eUp, and eUpRight
-                            reClasses[nRow + j] = eUpRight.find();
+                            nLabel = nUpLeft;
                             break;
-                        case 15:
-                            // X X X
-                            // X X
-                            // we must already have union'ed
-                            // eLeft, eUpLeft, eUp, and eUpRight
-                            reClasses[nRow + j] = eLeft.find();
+                        case 10:
+                            // X 0 X
+                            // 0 X
+                            eqTable.union(nUpLeft, nUpRight);
+                            nLabel = nUpLeft;
                             break;
                     }
                 }
+                rnLabels[nRow + j] = nLabel;
                 // shift right to next pixel
-                eUpLeft = eUp;
-                eUp = eUpRight;
-                eLeft = reClasses[nRow + j];
+                nUpLeft = nUp;
+                nUp = nUpRight;
+                nLeft = nLabel;
                 // if we're not at the right column and after the first
                 // row read a new right pixel
-                if (i > 0 && j < gray.getWidth() - 1) {
-                    eUpRight = reClasses[nRow - gray.getWidth() + j + 2];
+                if (i > 0 && j < gray.getWidth() - 2) {
+                    nUpRight = rnLabels[nRow - gray.getWidth() + j + 2];
                 } else {
-                    eUpRight = null;
+                    nUpRight = 0;
                 }
 
                 // compute the new bit pattern. This is the old pattern
-                // with eUpLeft and eLeft and'ed off (& 6), shifted left,
-                // with the new eLeft and eUpRight or'ed in
-                nBitPatt = ((nBitPatt & 6) << 1) + ((eLeft != null) ? 1 : 0) + 
-                        ((eUpRight != null) ? 2 : 0);
+                // with nUpLeft and nLeft and'ed off (& 6), shifted left,
+                // with the new nLeft and nUpRight or'ed in
+                nBitPatt = ((nBitPatt & 6) << 1) + ((nLeft != 0) ? 1 : 0) + 
+                        ((nUpRight != 0) ? 2 : 0);
             }
         }
+        // number the classes consecutively
+        this.nClasses = eqTable.resolve();
         // initialize the labeled image
-        this.imLabeled = new Gray16Image(gray.getWidth(), gray.getHeight(),
-                (short) 0);
+        this.imLabeled = new Gray16Image(gray.getWidth(), gray.getHeight());
         short[] sLabels = this.imLabeled.getData();
         // assign label pixels their final values
         for (int i = 0; i < sLabels.length; i++) {
-            if (reClasses[i] != null) {
-                sLabels[i] = (short) reClasses[i].getLabel();
-            }
+            int nLabel = rnLabels[i];
+            sLabels[i] = (nLabel != 0) ? 
+                    (short) eqTable.getFinalLabel(nLabel) : 0;
         }
-        // free memory for reClasses
-        this.reClasses = null;
     }
 }
@@ -25,13 +25,14 @@ package jjil.algorithm;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Vector;
 
 import jjil.core.Error;
 import jjil.core.Gray8Image;
-import jjil.core.Gray8MaskedImage;
-import jjil.core.Gray8OffsetImage;
 import jjil.core.Image;
+import jjil.core.ParallelExecutor;
 import jjil.core.PipelineStage;
+import jjil.core.Rect;
 
 /**
  * DetectHaar applies a Haar cascade at multiple locations and multiple scales
@@ -46,6 +47,19 @@ import jjil.core.PipelineStage;
  * skipped. When transitioning to a finer scale, the mask is stretched to the new
  * size. This results in areas where features have been detected at a coarser scale
  * not being re-searched at a finer scale.<br>
+ * At each scale the integral image and integral squared image of the shrunk
+ * image are formed once and every subimage is tested against them in place,
+ * so the cost of testing a subimage depends only on the number of features in
+ * the cascade and not on the subimage size.<br>
+ * In parallel detection mode (see setParallelDetection) all scales, and bands
+ * of subimage rows within each scale, are searched at the same time on a
+ * ParallelExecutor. The mask can then not be used to skip areas already
+ * detected, so instead the detections from all scales are merged afterwards
+ * by non-maximum suppression, and the mask is formed from the rectangles
+ * which remain.<br>
+ * When the caller needs the detected rectangles rather than a mask, detect()
+ * returns them directly, grouped by overlap and ranked, without forming any
+ * mask image.<br>
  * Gray8DetectHaarMultiScale is structured as a pipeline stage so push'ing an image
  * results in a new mask being available on getFront. The mask can be further processed
  * by doing connected component detection to determine the feature characteristics,
@@ -62,6 +76,55 @@ public class Gray8DetectHaarMultiScale extends PipelineStage {
     // scale change is the change in scale from one search to the next
     // times 256
     private int nScaleChange = 12 * 256 / 10;
+    // integral images of the shrunk image, reused at each scale
+    private final Gray8IntegralImage ii = new Gray8IntegralImage();
+    // stages for shrinking the image and stretching the mask, created on
+    // first use and then resized as needed
+    private Gray8Shrink gs = null;
+    private Gray8RectStretch grs = null;
+    // true if all scales are searched at once
+    private boolean fParallelDetection = false;
+    // shrink stages and integral images for each scale in parallel detection
+    private Vector vScaleSearches = new Vector();
+    
+    /**
+     * Bands are not made with fewer subimage rows than this in parallel
+     * detection.
+     */
+    private static final int MIN_BAND_WINDOW_ROWS = 4;
+    /**
+     * In parallel detection, a detection is suppressed if its area of overlap
+     * with a stronger detection is more than this fraction of the area of
+     * their union, times 256.
+     */
+    private static final int NMS_OVERLAP = 256 * 3 / 10;
+    
+    /**
+     * The state for searching one scale in parallel detection.
+     */
+    private class ScaleSearch {
+        int nScale;
+        Gray8Shrink gs = null;
+        final Gray8IntegralImage ii = new Gray8IntegralImage();
+        
+        /**
+         * Shrinks the input image to this scale and forms its integral images.
+         * @param imGray the input image.
+         * @throws jjil.core.Error if the shrink fails.
+         */
+        void prepare(Gray8Image imGray) throws jjil.core.Error {
+            int nTargetWidth = imGray.getWidth() / this.nScale;
+            int nTargetHeight = imGray.getHeight() / this.nScale;
+            if (this.gs == null) {
+                this.gs = new Gray8Shrink(nTargetWidth, nTargetHeight);
+            } else {
+                this.gs.setWidth(nTargetWidth);
+                this.gs.setHeight(nTargetHeight);
+            }
+            this.gs.push(imGray);
+            this.ii.push(this.gs.getFront());
+        }
+    }
        
     /**
      * Creates a new instance of Gray8DetectHaarMultiScale. The scale parameters correspond
@@ -83,9 +146,27 @@ public class Gray8DetectHaarMultiScale extends PipelineStage {
     {
         this.nMinScale = nMinScale;
         this.nMaxScale = nMaxScale;
-        // load Haar classifier cascade
+        // load Haar classifier cascade and compile it for fast evaluation
         InputStreamReader isr = new InputStreamReader(is);
-        this.hcc = HaarClassifierCascade.fromStream(isr);
+        this.hcc = HaarClassifierCascade.fromStream(isr).compile();
+    }
+    
+    /**
+     * Creates a new instance of Gray8DetectHaarMultiScale using a Haar cascade
+     * which has already been loaded, for example from the binary form with
+     * HaarClassifierCompiled.fromBinaryStream().
+     * @param hcc the Haar cascade. It is compiled if it is not already.
+     * @param nMinScale Minimum (finest) scale at which features will be detected.
+     * @param nMaxScale Maximum (coarsest) scale at which features will be detected.
+     */
+    public Gray8DetectHaarMultiScale(
+            HaarClassifierCascade hcc, 
+            int nMinScale, 
+            int nMaxScale) 
+    {
+        this.nMinScale = nMinScale;
+        this.nMaxScale = nMaxScale;
+        this.hcc = hcc.compile();
     }
     
     /**
@@ -97,10 +178,124 @@ public class Gray8DetectHaarMultiScale extends PipelineStage {
          
     public void push(Image image) throws jjil.core.Error
     {
-        Gray8Image imGray;
-        if (image instanceof Gray8Image) {
-            imGray = (Gray8Image) image;
-        } else {
+        Gray8Image imGray = checkInput(image);
+        int nScale = coarsestScale(imGray);
+        if (this.fParallelDetection) {
+            pushParallel(imGray, nScale);
+            return;
+        }
+        int nWinWidth = this.hcc.getWidth();
+        int nWinHeight = this.hcc.getHeight();
+        // Zero the mask
+        Gray8Image imMask = new Gray8Image(1,1,Byte.MIN_VALUE);
+        while (nScale >= this.nMinScale) {
+            // shrink the input image
+            int nTargetWidth = imGray.getWidth() / nScale;
+            int nTargetHeight = imGray.getHeight() / nScale;
+            if (this.gs == null) {
+                this.gs = new Gray8Shrink(nTargetWidth, nTargetHeight);
+            } else {
+                this.gs.setWidth(nTargetWidth);
+                this.gs.setHeight(nTargetHeight);
+            }
+            this.gs.push(imGray);
+            // form the integral images once for all subimages at this scale
+            this.ii.push(this.gs.getFront());
+            // scale the mask to the new size
+            imMask = stretch(imMask, nTargetWidth, nTargetHeight);
+            byte[] bMask = imMask.getData();
+            // now run Haar detection at each subimage position which is
+            // not masked at its centre
+            int nXStep = Math.max(1, nTargetWidth / 30);
+            int nYStep = Math.max(1, nTargetHeight / 30);
+            int nxLastFound = -nWinWidth;
+            int nyLastFound = -nWinHeight;
+            for (int nY=0; nY+nWinHeight<=nTargetHeight; nY+=nYStep) {
+                int nCentre = (nY + nWinHeight/2) * nTargetWidth + nWinWidth/2;
+                for (int nX=0; nX+nWinWidth<=nTargetWidth; nX+=nXStep) {
+                    if (bMask[nCentre + nX] != Byte.MIN_VALUE) {
+                        continue;
+                    }
+                    // if we've found a feature recently we skip forward until
+                    // we're outside the masked region. There's no point rerunning
+                    // the detector
+                    if (nX > nxLastFound + nWinWidth &&
+                        nY > nyLastFound + nWinHeight) {
+                        if (this.hcc.eval(this.ii, nX, nY)) {
+                            // Found something. 
+                            nxLastFound = nX;
+                            nyLastFound = nY;
+                            // assign Byte.MAX_VALUE to the feature area so we don't
+                            // search it again
+                            imMask.fill(
+                                    new Rect(nX, nY, nWinWidth, nWinHeight), 
+                                    Byte.MAX_VALUE);
+                        }
+                    }
+                }
+            }
+            nScale = nScale * 256 / this.nScaleChange;
+        }
+        // Stretch imMask to original image size; this is the result
+        super.setOutput(stretch(imMask, image.getWidth(), image.getHeight()));
+    }
+    
+    /**
+     * Returns true if all scales are searched at once.
+     * @return true iff parallel detection is on.
+     */
+    public boolean getParallelDetection() {
+        return this.fParallelDetection;
+    }
+    
+    /**
+     * Searches all scales at once and merges the detections by non-maximum
+     * suppression.
+     * @param imGray the input image.
+     * @param nScale the coarsest scale to search.
+     * @throws jjil.core.Error if the search fails.
+     */
+    private void pushParallel(Gray8Image imGray, int nScale) 
+        throws jjil.core.Error
+    {
+        ParallelExecutor pe = super.getParallel();
+        if (pe == null) {
+            pe = ParallelExecutor.getDefault();
+        }
+        Vector vHits = findAll(imGray, nScale, pe);
+        // the hits are in order from coarsest to finest scale, and in
+        // raster order within each scale, which is the order the sequential
+        // search would find them in. Earlier detections are stronger.
+        Vector vKept = new Vector();
+        for (int i=0; i<vHits.size(); i++) {
+            Rect r = ((HaarDetection) vHits.elementAt(i)).getRect();
+            boolean fSuppressed = false;
+            for (int j=0; j<vKept.size() && !fSuppressed; j++) {
+                fSuppressed = overlaps(r, (Rect) vKept.elementAt(j));
+            }
+            if (!fSuppressed) {
+                vKept.addElement(r);
+            }
+        }
+        Gray8Image imMask = new Gray8Image(
+                imGray.getWidth(), 
+                imGray.getHeight(), 
+                Byte.MIN_VALUE);
+        for (int i=0; i<vKept.size(); i++) {
+            imMask.fill((Rect) vKept.elementAt(i), Byte.MAX_VALUE);
+        }
+        super.setOutput(imMask);
+    }
+    
+    /**
+     * Checks the input image.
+     * @param image the input image.
+     * @return the input as a Gray8Image.
+     * @throws jjil.core.Error if the input is not a Gray8Image or is smaller
+     * than the Haar cascade.
+     */
+    private Gray8Image checkInput(Image image) throws jjil.core.Error {
+        if (!(image instanceof Gray8Image)) {
             throw new Error(
                             Error.PACKAGE.ALGORITHM,
                             ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
@@ -117,63 +312,274 @@ public class Gray8DetectHaarMultiScale extends PipelineStage {
                             this.hcc.toString(),
                             null);
         }
-        int nScale = Math.min(this.nMaxScale, 
+        return (Gray8Image) image;
+    }
+    
+    /**
+     * Returns the coarsest scale to search an image at, which is the
+     * maximum scale unless the cascade would not fit in the image shrunk
+     * by that much.
+     * @param image the input image.
+     * @return the coarsest scale.
+     */
+    private int coarsestScale(Image image) {
+        return Math.min(this.nMaxScale, 
                 Math.min(image.getWidth() / this.hcc.getWidth(),
                 image.getHeight() / this.hcc.getHeight()));
-        // Zero the mask
-        Gray8Image imMask = new Gray8Image(1,1,Byte.MIN_VALUE);
-        while (nScale >= this.nMinScale) {
-            // shrink the input image
-            int nTargetWidth = imGray.getWidth() / nScale;
-            int nTargetHeight = imGray.getHeight() / nScale;
-            Gray8Shrink gs = new Gray8Shrink(nTargetWidth, nTargetHeight);
-            gs.push(imGray);
-            Gray8Image imShrunk = (Gray8Image) gs.getFront();
-            // scale the mask to the new size
-            Gray8RectStretch grs = new Gray8RectStretch(nTargetWidth, nTargetHeight);
-            grs.push(imMask);
-            imMask = (Gray8Image) grs.getFront();
-            // combine the image and mask to make a masked image
-            Gray8MaskedImage gmi = new Gray8MaskedImage(imShrunk, imMask);
-            // pass the masked image to a subimage generator
-            MaskedGray8SubImgGen mgsi = new MaskedGray8SubImgGen(
-                    this.hcc.getWidth(),
-                    this.hcc.getHeight(),
-                    Math.max(1, gmi.getWidth() / 30),
-                    Math.max(1, gmi.getHeight() / 30));
-            mgsi.push(gmi);
-            // now run Haar detection on each scaled image
-            int nxLastFound = -hcc.getWidth();
-            int nyLastFound = -hcc.getHeight();
-            while (!mgsi.isEmpty()) {
-                Gray8OffsetImage imSub = (Gray8OffsetImage) mgsi.getFront();
-                // if we've found a feature recently we skip forward until
-                // we're outside the masked region. There's no point rerunning
-                // the detector
-                if (imSub.getXOffset() > nxLastFound + hcc.getWidth() &&
-                    imSub.getYOffset() > nyLastFound + hcc.getHeight()) {
-                    if (hcc.eval(imSub)) {
-                        // Found something. 
-                        nxLastFound = imSub.getXOffset();
-                        nyLastFound = imSub.getYOffset();
-                        // assign Byte.MAX_VALUE to the feature area so we don't
-                        // search it again
-                        Gray8Rect gr = new Gray8Rect(nxLastFound, 
-                                nyLastFound, 
-                                this.hcc.getWidth(), 
-                                this.hcc.getHeight(), 
-                                Byte.MAX_VALUE);
-                        gr.push(imMask);
-                        imMask = (Gray8Image) gr.getFront();
-                     }
+    }
+    
+    /**
+     * Applies the multi-scale Haar cascade and returns the detected features,
+     * without forming a mask. Every position is searched at every scale, and
+     * the windows which pass the cascade are grouped: a window joins the first
+     * group whose rectangle overlaps it, in the sense used by non-maximum
+     * suppression in parallel detection. The groups are ranked by the number
+     * of windows in them, and then by confidence.<br>
+     * The search is run on the executor set by setParallel(), or the shared
+     * executor if parallel detection is on, or otherwise on the calling thread.
+     * This does not change the output of the pipeline stage.
+     * @param image Input Gray8Image.
+     * @return the detections, highest ranked first.
+     * @throws jjil.core.Error if the input is not a Gray8Image or is too small.
+     */
+    public HaarDetection[] detect(Image image) throws jjil.core.Error {
+        Gray8Image imGray = checkInput(image);
+        ParallelExecutor pe = super.getParallel();
+        if (pe == null && this.fParallelDetection) {
+            pe = ParallelExecutor.getDefault();
+        }
+        Vector vHits = findAll(imGray, coarsestScale(imGray), pe);
+        Vector vGroups = new Vector();
+        for (int i=0; i<vHits.size(); i++) {
+            HaarDetection hd = (HaarDetection) vHits.elementAt(i);
+            Rect r = hd.getRect();
+            HaarDetection hdGroup = null;
+            for (int j=0; j<vGroups.size() && hdGroup == null; j++) {
+                HaarDetection hdTest = (HaarDetection) vGroups.elementAt(j);
+                if (overlaps(r, hdTest.getRect())) {
+                    hdGroup = hdTest;
                 }
             }
+            if (hdGroup != null) {
+                hdGroup.add(hd);
+            } else {
+                vGroups.addElement(hd);
+            }
+        }
+        // rank by insertion sort; there are few groups
+        HaarDetection[] rgResult = new HaarDetection[vGroups.size()];
+        for (int i=0; i<rgResult.length; i++) {
+            HaarDetection hd = (HaarDetection) vGroups.elementAt(i);
+            int j = i;
+            while (j > 0 && hd.ranksAbove(rgResult[j-1])) {
+                rgResult[j] = rgResult[j-1];
+                j--;
+            }
+            rgResult[j] = hd;
+        }
+        return rgResult;
+    }
+    
+    /**
+     * Searches every position at every scale, using an executor if one is
+     * given.
+     * @param imGray the input image.
+     * @param nScale the coarsest scale to search.
+     * @param pe the executor, or null to search on the calling thread.
+     * @return the windows which passed the cascade, as HaarDetections, from
+     * coarsest to finest scale and in raster order within each scale.
+     * @throws jjil.core.Error if the search fails.
+     */
+    private Vector findAll(Gray8Image imGray, int nScale, ParallelExecutor pe) 
+        throws jjil.core.Error
+    {
+        // list the scales, coarsest first, reusing the search state of each
+        int cScales = 0;
+        while (nScale >= this.nMinScale) {
+            if (cScales == this.vScaleSearches.size()) {
+                this.vScaleSearches.addElement(new ScaleSearch());
+            }
+            ((ScaleSearch) this.vScaleSearches.elementAt(cScales)).nScale = nScale;
+            cScales++;
             nScale = nScale * 256 / this.nScaleChange;
         }
-        // Stretch imMask to original image size; this is the result
-        Gray8RectStretch grs = new Gray8RectStretch(image.getWidth(), image.getHeight());
-        grs.push(imMask);
-        super.setOutput(grs.getFront());
+        // shrink the image and form the integral images for every scale.
+        // Gray8Shrink calls getData(), which makes a view dense in place, so
+        // the jobs must not share a view
+        if (pe != null && imGray.isView()) {
+            imGray = (Gray8Image) imGray.clone();
+        }
+        final Gray8Image imInput = imGray;
+        ParallelExecutor.Job[] rgPrepare = new ParallelExecutor.Job[cScales];
+        for (int i=0; i<cScales; i++) {
+            final ScaleSearch ss = (ScaleSearch) this.vScaleSearches.elementAt(i);
+            rgPrepare[i] = new ParallelExecutor.Job() {
+                public void run() throws jjil.core.Error {
+                    ss.prepare(imInput);
+                }
+            };
+        }
+        runJobs(pe, rgPrepare);
+        // search bands of subimage rows at every scale
+        int nWinHeight = this.hcc.getHeight();
+        Vector vJobs = new Vector();
+        Vector vResults = new Vector();
+        for (int i=0; i<cScales; i++) {
+            final ScaleSearch ss = (ScaleSearch) this.vScaleSearches.elementAt(i);
+            int nYStep = Math.max(1, ss.ii.getHeight() / 30);
+            int cWinRows = (ss.ii.getHeight() - nWinHeight) / nYStep + 1;
+            int cBands = pe == null ? 1 : Math.max(1, 
+                    Math.min(pe.getThreads(), cWinRows / MIN_BAND_WINDOW_ROWS));
+            for (int j=0; j<cBands; j++) {
+                final int nFirstRow = cWinRows * j / cBands;
+                final int nLimitRow = cWinRows * (j+1) / cBands;
+                final Vector vFound = new Vector();
+                vResults.addElement(vFound);
+                vJobs.addElement(new ParallelExecutor.Job() {
+                    public void run() throws jjil.core.Error {
+                        search(ss, nFirstRow, nLimitRow, imInput, vFound);
+                    }
+                });
+            }
+        }
+        ParallelExecutor.Job[] rgSearch = new ParallelExecutor.Job[vJobs.size()];
+        vJobs.copyInto(rgSearch);
+        runJobs(pe, rgSearch);
+        Vector vHits = new Vector();
+        for (int i=0; i<vResults.size(); i++) {
+            Vector vFound = (Vector) vResults.elementAt(i);
+            for (int j=0; j<vFound.size(); j++) {
+                vHits.addElement(vFound.elementAt(j));
+            }
+        }
+        return vHits;
+    }
+    
+    /**
+     * Returns true if a detection overlaps a stronger one enough to be
+     * suppressed by it: either its centre lies inside the stronger detection,
+     * as the mask test in the sequential search would find, or the area of
+     * overlap is more than NMS_OVERLAP of the area of their union.
+     * @param r the detection.
+     * @param k the stronger detection.
+     * @return true iff r should be suppressed by k.
+     */
+    private static boolean overlaps(Rect r, Rect k) {
+        int nCentreX = r.getLeft() + r.getWidth() / 2;
+        int nCentreY = r.getTop() + r.getHeight() / 2;
+        if (nCentreX >= k.getLeft() && nCentreX < k.getRight() &&
+            nCentreY >= k.getTop() && nCentreY < k.getBottom()) {
+            return true;
+        }
+        int nOverlapWidth = Math.min(r.getRight(), k.getRight()) - 
+                Math.max(r.getLeft(), k.getLeft());
+        int nOverlapHeight = Math.min(r.getBottom(), k.getBottom()) - 
+                Math.max(r.getTop(), k.getTop());
+        if (nOverlapWidth > 0 && nOverlapHeight > 0) {
+            int nOverlap = nOverlapWidth * nOverlapHeight;
+            int nUnion = r.getArea() + k.getArea() - nOverlap;
+            return nOverlap * 256 > NMS_OVERLAP * nUnion;
+        }
+        return false;
+    }
+    
+    /**
+     * Runs jobs on an executor, or one after another on the calling thread if
+     * there is none.
+     * @param pe the executor, or null.
+     * @param rgJobs the jobs.
+     * @throws jjil.core.Error if any job fails.
+     */
+    private static void runJobs(ParallelExecutor pe, ParallelExecutor.Job[] rgJobs) 
+        throws jjil.core.Error
+    {
+        if (pe != null) {
+            pe.run(rgJobs);
+        } else {
+            for (int i=0; i<rgJobs.length; i++) {
+                rgJobs[i].run();
+            }
+        }
+    }
+    
+    /**
+     * Runs Haar detection on a band of subimage rows at one scale, adding
+     * every detection to a list as a HaarDetection in input image coordinates.
+     * @param ss the scale to search.
+     * @param nFirstRow index of the first subimage row to search.
+     * @param nLimitRow index of the subimage row after the last one to search.
+     * @param imGray the input image.
+     * @param vFound the list of detections.
+     * @throws jjil.core.Error if the cascade fails.
+     */
+    private void search(
+            ScaleSearch ss, 
+            int nFirstRow, 
+            int nLimitRow, 
+            Gray8Image imGray,
+            Vector vFound) throws jjil.core.Error
+    {
+        int nWinWidth = this.hcc.getWidth();
+        int nWinHeight = this.hcc.getHeight();
+        int cWidth = ss.ii.getWidth();
+        int cHeight = ss.ii.getHeight();
+        int nXStep = Math.max(1, cWidth / 30);
+        int nYStep = Math.max(1, cHeight / 30);
+        for (int nRow=nFirstRow; nRow<nLimitRow; nRow++) {
+            int nY = nRow * nYStep;
+            for (int nX=0; nX+nWinWidth<=cWidth; nX+=nXStep) {
+                int nMargin = this.hcc.evalMargin(ss.ii, nX, nY);
+                if (nMargin >= 0) {
+                    // map the subimage back to the input image, as
+                    // Gray8Shrink maps input pixels to shrunk pixels
+                    int nLeft = nX * imGray.getWidth() / cWidth;
+                    int nTop = nY * imGray.getHeight() / cHeight;
+                    int nRight = (nX + nWinWidth) * imGray.getWidth() / cWidth;
+                    int nBottom = (nY + nWinHeight) * imGray.getHeight() / cHeight;
+                    vFound.addElement(new HaarDetection(
+                            new Rect(nLeft, nTop, nRight - nLeft, nBottom - nTop),
+                            ss.nScale,
+                            nMargin));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Turns parallel detection on or off. In parallel detection all scales,
+     * and bands of subimage rows within each scale, are searched at the same
+     * time using the executor set by setParallel(), or the shared executor if
+     * none has been set. Since the mask from coarser scales is not available
+     * when searching finer scales, every position is searched at every scale
+     * and the detections are merged by non-maximum suppression: detections
+     * at coarser scales, and earlier in raster order, are kept in preference
+     * to those which overlap them. The result is a mask like that of the
+     * sequential search, but not necessarily identical to it.
+     * @param fParallelDetection true to search all scales at once.
+     */
+    public void setParallelDetection(boolean fParallelDetection) {
+        this.fParallelDetection = fParallelDetection;
+    }
+    
+    /**
+     * Stretch the mask to a new size.
+     * @param imMask the mask.
+     * @param cWidth the new width.
+     * @param cHeight the new height.
+     * @return the stretched mask, which is a new image.
+     * @throws jjil.core.Error if the new size is smaller than the mask.
+     */
+    private Gray8Image stretch(Gray8Image imMask, int cWidth, int cHeight) 
+        throws jjil.core.Error
+    {
+        if (this.grs == null) {
+            this.grs = new Gray8RectStretch(cWidth, cHeight);
+        } else {
+            this.grs.setWidth(cWidth);
+            this.grs.setHeight(cHeight);
+        }
+        this.grs.push(imMask);
+        return (Gray8Image) this.grs.getFront();
     }
      
     /**
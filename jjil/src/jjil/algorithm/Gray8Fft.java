@@ -32,16 +32,28 @@ import jjil.core.PipelineStage;
 
 /**
  * Takes the fast Fourier transform of the input Gray8Image. The output image
- * is a Complex32Image. The image size must be a power of 2.
+ * is a Complex32Image. The image size must be a power of 2.<p>
+ * The transform is computed by FftInt in an int array which is reused from
+ * one image to the next. If an executor is set with setParallel() the rows and
+ * columns are transformed concurrently.
  * @author webb
  */
 public class Gray8Fft extends PipelineStage {
     /**
      * Defines the scale factor applied to the image as a power of two, for accuracy.
+     * Large images are scaled by less; see getShift().
      */
     public static int SCALE = 8;
+    /**
+     * The largest image, as a power of 2 in pixels, that can be transformed.
+     * The transform of an image of 2**n pixels can be up to 2**(n+8) times the
+     * input shift in magnitude, which must fit in an int, so with no shift the
+     * image can be 2**23 pixels, for example 2048x4096.
+     */
+    public static final int MAX_LOG_SIZE = 23;
     
-    private Fft1d fft = null;
+    private FftInt fft = null;
+    private int rnData[] = new int[0]; // interleaved complex transform
     
     /**
      * Creates a new instance of Gray8Fft.
@@ -51,11 +63,11 @@ public class Gray8Fft extends PipelineStage {
     
     /**
      * Performs the fast Fourier transform on an image. The input image is a Gray8Image,
-     * and the output is a Complex32Image. The input is scaled by shifting left SCALE
-     * bits before the transformation, for accuracy.
+     * and the output is a Complex32Image. The input is scaled by shifting left
+     * getShift() bits before the transformation, for accuracy.
      * @param im Input image. Must be a Gray8Image.
-     * @throws jjil.core.Error if the input is not a Gray8Image or is not a power of two in width and 
-     * height.
+     * @throws jjil.core.Error if the input is not a Gray8Image, is not a power of two in width and 
+     * height, or is larger than 2**MAX_LOG_SIZE pixels.
      */
     public void push(Image im) throws jjil.core.Error {
         if (!(im instanceof Gray8Image)) {
@@ -84,45 +96,72 @@ public class Gray8Fft extends PipelineStage {
             				null,
             				null);
         }
+        int rnData[] = transform((Gray8Image) im);
+        // create output
+        Complex32Image cxmResult = new Complex32Image(nWidth, nHeight);
+        Complex cxData[] = cxmResult.getData();
+        for (int i=0; i<nWidth*nHeight; i++) {
+            cxData[i] = new Complex(rnData[2*i], rnData[2*i+1]);
+        }
+        super.setOutput(cxmResult);
+    }
+    
+    /**
+     * Returns the number of bits an image is shifted left by before it is
+     * transformed. This is SCALE, reduced for images of more than
+     * 2**(MAX_LOG_SIZE - SCALE) pixels (128x128) so that the transform does
+     * not overflow. Complex32IFft shifts right by the same amount.
+     * @param nWidth the image width, a power of 2.
+     * @param nHeight the image height, a power of 2.
+     * @return the shift, which is negative if the image is too large to
+     * transform.
+     */
+    public static int getShift(int nWidth, int nHeight) {
+        int nLog = 0;
+        while ((1L << nLog) < (long) nWidth * nHeight) {
+            nLog++;
+        }
+        return Math.min(SCALE, MAX_LOG_SIZE - nLog);
+    }
+
+    /**
+     * Computes the fast Fourier transform of an image whose width and height
+     * are powers of 2, scaled as by push(), into an interleaved complex int
+     * array (see FftInt).
+     * @param gray the input image.
+     * @return the transform. The array is reused by the next call.
+     * @throws jjil.core.Error if the image is too large.
+     */
+    int[] transform(Gray8Image gray) throws jjil.core.Error {
+        int nWidth = gray.getWidth();
+        int nHeight = gray.getHeight();
+        int nShift = getShift(nWidth, nHeight);
+        if (nShift < 0) {
+            throw new Error(
+            				Error.PACKAGE.ALGORITHM,
+            				ErrorCodes.FFT_SIZE_LARGER_THAN_MAX,
+            				gray.toString(),
+            				null,
+            				null);
+        }
         // initialize FFT
         if (this.fft == null) {
-            this.fft = new Fft1d(Math.max(nWidth, nHeight));
+            this.fft = new FftInt(Math.max(nWidth, nHeight));
         } else {
             this.fft.setMaxWidth(Math.max(nWidth, nHeight));
         }
-        
-        Gray8Image gray = (Gray8Image) im;
+        if (this.rnData.length != 2 * nWidth * nHeight) {
+            this.rnData = new int[2 * nWidth * nHeight];
+        }
+        int rnData[] = this.rnData;
         byte data[] = gray.getData();
-        // create output
-        Complex32Image cxmResult = new Complex32Image(nWidth, nHeight);
-        // take FFT of each row
-        int nIndex = 0;
-        Complex cxRow[] = new Complex[nWidth];
-        for (int i=0; i<nHeight; i++) {
-            for (int j=0; j<nWidth; j++) {
-                // convert each byte to a complex number. Imaginary component is 0.
-                // everything gets scaled for accuracy
-                cxRow[j] = new Complex((data[nIndex++] - Byte.MIN_VALUE) << SCALE);
-            }
-            // compute FFT
-            Complex cxResult[] = this.fft.fft(cxRow);
-            // save result
-            System.arraycopy(cxResult, 0, cxmResult.getData(), i*nWidth, nWidth);
+        for (int i=0; i<nWidth*nHeight; i++) {
+            // convert each byte to a complex number. Imaginary component is 0.
+            // everything gets scaled for accuracy
+            rnData[2*i] = (data[i] - Byte.MIN_VALUE) << nShift;
+            rnData[2*i+1] = 0;
         }
-        // take FFT of each column
-        Complex cxCol[] = new Complex[nHeight];
-        for (int j=0; j<nWidth; j++) {
-            // copy column into a 1-D array
-            for (int i=0; i<nHeight; i++) {
-                cxCol[i] = cxmResult.getData()[i*nWidth+j];
-            }
-            // compute FFT
-            Complex cxResult[] = this.fft.fft(cxCol);
-            // save result back into column
-             for (int i=0; i<nHeight; i++) {
-                cxmResult.getData()[i*nWidth+j] = cxResult[i];
-            }
-       }
-       super.setOutput(cxmResult);
+        this.fft.fft2d(rnData, nWidth, nHeight, super.getParallel());
+        return rnData;
     }
 }
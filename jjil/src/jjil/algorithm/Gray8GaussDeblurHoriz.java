@@ -28,6 +28,7 @@ import jjil.core.Complex32Image;
 import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
+import jjil.core.ParallelExecutor;
 import jjil.core.PipelineStage;
 /**
  * Uses deconvolution to remove blur from a Gray8Image. The blur removed is a 
@@ -231,6 +232,16 @@ public class Gray8GaussDeblurHoriz extends PipelineStage {
         super.setOutput(this.ifft.getFront());
     }
     
+    /**
+     * Sets the executor used for the forward and inverse transforms.
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        this.fft.setParallel(pe);
+        this.ifft.setParallel(pe);
+    }
+    
     /**
      * Changes current standard deviation value.
      * @param nStdDev Input standard deviation, multiplied by 100.
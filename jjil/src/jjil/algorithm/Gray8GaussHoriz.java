@@ -27,6 +27,7 @@ import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
+import jjil.core.RowBands;
 
 /**
  * Computes a horizontal Gaussian blur for an input gray image. The sigma
@@ -34,7 +35,8 @@ import jjil.core.PipelineStage;
  * are done in integer (per CLDC 1.0) and the sigma value is specified as
  * multiplied by 10.0. The minimum value for the unmultiplied sigma is 0.1;
  * the maximum value is about 10.0. Larger sigma values give an operator which
- * is more blurred.
+ * is more blurred. Rows are processed in parallel bands if an executor has
+ * been set with setParallel.
  * @author webb
  */
 public class Gray8GaussHoriz extends PipelineStage {
@@ -44,6 +46,19 @@ public class Gray8GaussHoriz extends PipelineStage {
      * is given by the length of nCoeff below.
      */
     private int cSigma;
+    /** Input and output data of the current push.
+     */
+    private byte[] bIn, bResult;
+    /** Width of the current image.
+     */
+    private int cWidth;
+    /** Blurs row bands of the current image.
+     */
+    private final RowBands rows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            blurRows(nFirstRow, nLimitRow);
+        }
+    });
     /** nCoeff row i is the precomputed Gauss coefficients for sigma = i/10.0.
      * They have been scaled by 256 and converted to integer because CLDC 1.0
      * doesn't allow floating point. The coefficients have been scaled and
@@ -57,7 +72,7 @@ public class Gray8GaussHoriz extends PipelineStage {
      * To compute the value shown below:
      *      =ROUND(B2/SUM($B2:$AM2)*256,0)
      */
-    private int[][] nCoeff = {
+    private static final int[][] nCoeff = {
 	{0},  // unused, inserted to make lookup simpler
 	{256},
 	{256},
@@ -190,12 +205,27 @@ public class Gray8GaussHoriz extends PipelineStage {
                 			null);
         }
         Gray8Image input = (Gray8Image) image;
-        Gray8Image result = new Gray8Image(image.getWidth(), image.getHeight());
-        byte[] bIn = input.getData();
-        byte[] bResult = result.getData();
-        int[] wCoeff = this.nCoeff[this.cSigma];
-        int cWidth = input.getWidth();
-        for (int i=0; i<input.getHeight(); i++) {
+        Gray8Image result = super.getOutputGray8Image(image.getWidth(), image.getHeight());
+        this.bIn = input.getData();
+        this.bResult = result.getData();
+        this.cWidth = input.getWidth();
+        this.rows.run(super.getParallel(), input.getHeight());
+        this.bIn = null;
+        this.bResult = null;
+        super.setOutput(result);
+    }
+    
+    /** Blurs rows nFirstRow up to nLimitRow of the current image.
+     *
+     * @param nFirstRow first row to blur.
+     * @param nLimitRow row after the last row to blur.
+     */
+    private void blurRows(int nFirstRow, int nLimitRow) {
+        byte[] bIn = this.bIn;
+        byte[] bResult = this.bResult;
+        int[] wCoeff = nCoeff[this.cSigma];
+        int cWidth = this.cWidth;
+        for (int i=nFirstRow; i<nLimitRow; i++) {
             for (int j=0; j<cWidth; j++) {
                 /* left side of Gaussian */
                 int wSum = 0;
@@ -223,7 +253,24 @@ public class Gray8GaussHoriz extends PipelineStage {
                 bResult[i*cWidth + j] = (byte) wSum;
             }
         }
-        super.setOutput(result);
+    }
+    
+    /** Returns the one-sided coefficients for a sigma, for the other
+     * Gaussian stages in this package. Element 0 is the center coefficient.
+     *
+     * @param cSigma sigma times 10. Must have been checked.
+     * @return the coefficients, scaled by 256. Must not be modified.
+     */
+    static int[] getCoefficients(int cSigma) {
+        return nCoeff[cSigma];
+    }
+    
+    /** Returns the bound on sigma for the precomputed coefficients.
+     *
+     * @return one more than the largest sigma, times 10, which can be used.
+     */
+    static int getSigmaLimit() {
+        return nCoeff.length;
     }
     
      /** Returns the current value of sigma.
@@ -243,13 +290,13 @@ public class Gray8GaussHoriz extends PipelineStage {
      * we're precomputed.
      */
     public void setSigma(int cSigma) throws jjil.core.Error {
-        if (cSigma <= 1 || cSigma >= this.nCoeff.length) {
+        if (cSigma <= 1 || cSigma >= nCoeff.length) {
             throw new Error(
                 			Error.PACKAGE.ALGORITHM,
                 			ErrorCodes.PARAMETER_OUT_OF_RANGE,
                 			new Integer(cSigma).toString(),
                 			new Integer(1).toString(),
-                			new Integer(this.nCoeff.length).toString());
+                			new Integer(nCoeff.length).toString());
         }
         this.cSigma = cSigma;
     }
@@ -261,4 +308,13 @@ public class Gray8GaussHoriz extends PipelineStage {
     public String toString() {
         return super.toString() + " (" + this.cSigma + ")"; //$NON-NLS-1$ //$NON-NLS-2$
     }
+    
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
 }
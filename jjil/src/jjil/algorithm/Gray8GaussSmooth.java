@@ -0,0 +1,402 @@
+/*
+ * Gray8GaussSmooth.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+import jjil.core.MathPlus;
+import jjil.core.PipelineStage;
+import jjil.core.RowBands;
+
+/**
+ * Computes a two-dimensional Gaussian blur of a gray image in one stage. The
+ * result is the same as that of Gray8GaussHoriz followed by
+ * Gray8GaussSmoothVert, but the horizontal pass is written to a buffer which
+ * is kept from one push to the next, and the vertical pass works along rows,
+ * adding each weighted row of the horizontal result into a row of sums,
+ * rather than down columns. As in the other Gaussian stages, sigma is
+ * specified times 10 and the image is reflected at its borders.<p>
+ * In BOX mode the Gaussian is approximated by three successive box filters in
+ * each direction, computed with running sums, so the cost per pixel does not
+ * depend on sigma and sigma is not limited by the table of Gaussian
+ * coefficients. The box width is chosen so the variance of the three boxes
+ * matches sigma squared, and the image is extended with its edge values.<p>
+ * Rows are processed in parallel bands if an executor has been set with
+ * setParallel.
+ * @author webb
+ */
+public class Gray8GaussSmooth extends PipelineStage {
+    /**
+     * Mode in which the precomputed Gaussian coefficients are used.
+     */
+    public static final int GAUSSIAN = 0;
+    /**
+     * Mode in which the Gaussian is approximated with box filters.
+     */
+    public static final int BOX = 1;
+    /**
+     * Bound on sigma, times 10, in BOX mode.
+     */
+    public static final int BOX_SIGMA_LIMIT = 1000;
+    /**
+     * Number of box filters applied in each direction in BOX mode.
+     */
+    private static final int BOX_PASSES = 3;
+
+    private int cSigma;
+    private int nMode;
+    /** Box radius in BOX mode, and the reciprocal of the box width times
+     * 65536.
+     */
+    private int nRadius, nRecip;
+    /** Horizontal pass result in GAUSSIAN mode.
+     */
+    private byte[] bHoriz = new byte[0];
+    /** Intermediate results in BOX mode, as unsigned values.
+     */
+    private int[] nBoxA = new int[0], nBoxB = new int[0];
+    /** Input and output of the current push, and the source and destination
+     * of the current vertical box pass. bResult is null except in the last
+     * pass.
+     */
+    private byte[] bIn, bResult;
+    private int[] nSrc, nDst;
+    private int cWidth, cHeight;
+    /** Runs the horizontal pass over row bands.
+     */
+    private final RowBands horizRows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            if (nMode == GAUSSIAN) {
+                gaussHorizRows(nFirstRow, nLimitRow);
+            } else {
+                boxHorizRows(nFirstRow, nLimitRow);
+            }
+        }
+    });
+    /** Runs a vertical pass over row bands.
+     */
+    private final RowBands vertRows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            if (nMode == GAUSSIAN) {
+                gaussVertRows(nFirstRow, nLimitRow);
+            } else {
+                boxVertRows(nFirstRow, nLimitRow);
+            }
+        }
+    });
+
+    /**
+     * Creates a new instance of Gray8GaussSmooth using the Gaussian
+     * coefficients.
+     * @param cSigma the sigma value for the operator, which is the sigma
+     * in the Gaussian distribution multiplied by 10.0 and converted to integer.
+     * @throws jjil.core.Error if sigma is out of range.
+     */
+    public Gray8GaussSmooth(int cSigma) throws jjil.core.Error {
+        this(cSigma, GAUSSIAN);
+    }
+
+    /**
+     * Creates a new instance of Gray8GaussSmooth.
+     * @param cSigma sigma times 10.
+     * @param nMode GAUSSIAN or BOX.
+     * @throws jjil.core.Error if the mode is not known or sigma is out of
+     * range for it.
+     */
+    public Gray8GaussSmooth(int cSigma, int nMode) throws jjil.core.Error {
+        setSigma(cSigma, nMode);
+    }
+
+    /**
+     * Returns the mode.
+     * @return GAUSSIAN or BOX.
+     */
+    public int getMode() {
+        return this.nMode;
+    }
+
+    /**
+     * Returns the current value of sigma.
+     * @return sigma times 10.
+     */
+    public int getSigma() {
+        return this.cSigma;
+    }
+
+    /**
+     * Blurs the input image.
+     * @param image the input Gray8Image.
+     * @throws jjil.core.Error if image is not a Gray8Image.
+     */
+    public void push(Image image) throws jjil.core.Error {
+        if (!(image instanceof Gray8Image)) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
+                            image.toString(),
+                            null,
+                            null);
+        }
+        Gray8Image input = (Gray8Image) image;
+        this.cWidth = input.getWidth();
+        this.cHeight = input.getHeight();
+        int nSize = this.cWidth * this.cHeight;
+        Gray8Image result = super.getOutputGray8Image(this.cWidth, this.cHeight);
+        this.bIn = input.getData();
+        if (this.nMode == GAUSSIAN) {
+            if (this.bHoriz.length < nSize) {
+                this.bHoriz = new byte[nSize];
+            }
+            this.horizRows.run(super.getParallel(), this.cHeight);
+            this.bResult = result.getData();
+            this.vertRows.run(super.getParallel(), this.cHeight);
+        } else {
+            if (this.nBoxA.length < nSize) {
+                this.nBoxA = new int[nSize];
+                this.nBoxB = new int[nSize];
+            }
+            // horizontal passes leave their result in nBoxA, then the
+            // vertical passes alternate between the buffers, the last one
+            // writing the output
+            this.horizRows.run(super.getParallel(), this.cHeight);
+            for (int i=0; i<BOX_PASSES; i++) {
+                boolean bEven = (i % 2) == 0;
+                this.nSrc = bEven ? this.nBoxA : this.nBoxB;
+                this.nDst = bEven ? this.nBoxB : this.nBoxA;
+                this.bResult = (i == BOX_PASSES-1) ? result.getData() : null;
+                this.vertRows.run(super.getParallel(), this.cHeight);
+            }
+            this.nSrc = null;
+            this.nDst = null;
+        }
+        this.bIn = null;
+        this.bResult = null;
+        super.setOutput(result);
+    }
+
+    /**
+     * Sets a new value for sigma, keeping the current mode.
+     * @param cSigma sigma times 10.
+     * @throws jjil.core.Error if sigma is out of range for the mode.
+     */
+    public void setSigma(int cSigma) throws jjil.core.Error {
+        setSigma(cSigma, this.nMode);
+    }
+
+    /**
+     * Sets a new value for sigma and the mode.
+     * @param cSigma sigma times 10. In GAUSSIAN mode it must be greater than
+     * 1 and less than the number of precomputed coefficient sets; in BOX
+     * mode greater than 1 and less than BOX_SIGMA_LIMIT.
+     * @param nMode GAUSSIAN or BOX.
+     * @throws jjil.core.Error if the mode is not known or sigma is out of
+     * range for it.
+     */
+    public void setSigma(int cSigma, int nMode) throws jjil.core.Error {
+        if (nMode != GAUSSIAN && nMode != BOX) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(nMode),
+                            Integer.toString(GAUSSIAN),
+                            Integer.toString(BOX));
+        }
+        int cLimit = nMode == GAUSSIAN ?
+                Gray8GaussHoriz.getSigmaLimit() : BOX_SIGMA_LIMIT;
+        if (cSigma <= 1 || cSigma >= cLimit) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(cSigma),
+                            Integer.toString(1),
+                            Integer.toString(cLimit));
+        }
+        this.cSigma = cSigma;
+        this.nMode = nMode;
+        // three boxes of width w have variance 3 (w^2 - 1) / 12, so
+        // w = sqrt(4 sigma^2 + 1); computed here in tenths
+        int nWidth10 = MathPlus.sqrt(4 * cSigma * cSigma + 100);
+        this.nRadius = nWidth10 / 20;
+        int nWidth = 2 * this.nRadius + 1;
+        this.nRecip = (65536 + nWidth / 2) / nWidth;
+    }
+
+    /**
+     * Applies the box filters horizontally to rows nFirstRow up to nLimitRow
+     * of the input, writing the result to nBoxA.
+     * @param nFirstRow first row.
+     * @param nLimitRow row after the last row.
+     */
+    private void boxHorizRows(int nFirstRow, int nLimitRow) {
+        int cWidth = this.cWidth;
+        int nRadius = this.nRadius, nRecip = this.nRecip;
+        int[] nA = new int[cWidth];
+        int[] nB = new int[cWidth];
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow = i * cWidth;
+            for (int j=0; j<cWidth; j++) {
+                nA[j] = this.bIn[nRow + j] - Byte.MIN_VALUE;
+            }
+            for (int p=0; p<BOX_PASSES; p++) {
+                int[] nFrom = (p % 2) == 0 ? nA : nB;
+                int[] nTo = (p % 2) == 0 ? nB : nA;
+                int nSum = nFrom[0] * (nRadius + 1);
+                for (int k=1; k<=nRadius; k++) {
+                    nSum += nFrom[Math.min(k, cWidth-1)];
+                }
+                for (int j=0; j<cWidth; j++) {
+                    nTo[j] = (nSum * nRecip + 32768) >> 16;
+                    nSum += nFrom[Math.min(j + nRadius + 1, cWidth-1)] -
+                            nFrom[Math.max(j - nRadius, 0)];
+                }
+            }
+            // BOX_PASSES is odd so the last pass wrote nB
+            System.arraycopy(nB, 0, this.nBoxA, nRow, cWidth);
+        }
+    }
+
+    /**
+     * Applies one box filter vertically to rows nFirstRow up to nLimitRow,
+     * from nSrc to nDst, or to bResult in the last pass. The column sums for
+     * the window around the first row are formed first, then each row adds
+     * the row entering the window and subtracts the row leaving it.
+     * @param nFirstRow first row.
+     * @param nLimitRow row after the last row.
+     */
+    private void boxVertRows(int nFirstRow, int nLimitRow) {
+        int cWidth = this.cWidth, cHeight = this.cHeight;
+        int nRadius = this.nRadius, nRecip = this.nRecip;
+        int[] nSrc = this.nSrc, nDst = this.nDst;
+        byte[] bResult = this.bResult;
+        int[] nSum = new int[cWidth];
+        for (int k=-nRadius; k<=nRadius; k++) {
+            int nRow = Math.max(0, Math.min(nFirstRow + k, cHeight-1)) * cWidth;
+            for (int j=0; j<cWidth; j++) {
+                nSum[j] += nSrc[nRow + j];
+            }
+        }
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow = i * cWidth;
+            if (bResult != null) {
+                for (int j=0; j<cWidth; j++) {
+                    bResult[nRow + j] = (byte)
+                            (((nSum[j] * nRecip + 32768) >> 16) + Byte.MIN_VALUE);
+                }
+            } else {
+                for (int j=0; j<cWidth; j++) {
+                    nDst[nRow + j] = (nSum[j] * nRecip + 32768) >> 16;
+                }
+            }
+            int nEnter = Math.min(i + nRadius + 1, cHeight-1) * cWidth;
+            int nLeave = Math.max(i - nRadius, 0) * cWidth;
+            for (int j=0; j<cWidth; j++) {
+                nSum[j] += nSrc[nEnter + j] - nSrc[nLeave + j];
+            }
+        }
+    }
+
+    /**
+     * Applies the Gaussian horizontally to rows nFirstRow up to nLimitRow of
+     * the input, writing bHoriz. Away from the borders both sides of the
+     * Gaussian are summed together; near them the index is reflected as in
+     * Gray8GaussHoriz.
+     * @param nFirstRow first row.
+     * @param nLimitRow row after the last row.
+     */
+    private void gaussHorizRows(int nFirstRow, int nLimitRow) {
+        byte[] bIn = this.bIn;
+        byte[] bHoriz = this.bHoriz;
+        int[] wCoeff = Gray8GaussHoriz.getCoefficients(this.cSigma);
+        int cWidth = this.cWidth;
+        int cSide = wCoeff.length;
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow = i * cWidth;
+            for (int j=0; j<cWidth; j++) {
+                int wSum = wCoeff[0] * bIn[nRow + j];
+                if (j >= cSide && j + cSide <= cWidth) {
+                    for (int k=1; k<cSide; k++) {
+                        wSum += wCoeff[k] *
+                                (bIn[nRow + j - k] + bIn[nRow + j + k]);
+                    }
+                } else {
+                    for (int k=1; k<cSide; k++) {
+                        int nRight = j + k < cWidth ?
+                                j + k : 2*cWidth - (j + k + 1);
+                        wSum += wCoeff[k] *
+                                (bIn[nRow + Math.abs(j - k)] + bIn[nRow + nRight]);
+                    }
+                }
+                bHoriz[nRow + j] = (byte) (wSum >> 8);
+            }
+        }
+    }
+
+    /**
+     * Applies the Gaussian vertically to rows nFirstRow up to nLimitRow of
+     * bHoriz, writing bResult. Each output row is accumulated in a row of
+     * sums, one pair of reflected source rows at a time.
+     * @param nFirstRow first row.
+     * @param nLimitRow row after the last row.
+     */
+    private void gaussVertRows(int nFirstRow, int nLimitRow) {
+        byte[] bHoriz = this.bHoriz;
+        byte[] bResult = this.bResult;
+        int[] wCoeff = Gray8GaussHoriz.getCoefficients(this.cSigma);
+        int cWidth = this.cWidth, cHeight = this.cHeight;
+        int[] wSum = new int[cWidth];
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow = i * cWidth;
+            int wCenter = wCoeff[0];
+            for (int j=0; j<cWidth; j++) {
+                wSum[j] = wCenter * bHoriz[nRow + j];
+            }
+            for (int k=1; k<wCoeff.length; k++) {
+                int wK = wCoeff[k];
+                int nAbove = Math.abs(i - k) * cWidth;
+                int nBelow = (i + k < cHeight ?
+                        i + k : 2*cHeight - (i + k + 1)) * cWidth;
+                for (int j=0; j<cWidth; j++) {
+                    wSum[j] += wK * (bHoriz[nAbove + j] + bHoriz[nBelow + j]);
+                }
+            }
+            for (int j=0; j<cWidth; j++) {
+                bResult[nRow + j] = (byte) (wSum[j] >> 8);
+            }
+        }
+    }
+
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
+
+    /**
+     * Returns a string describing this Gaussian blur.
+     * @return a string giving sigma and the mode.
+     */
+    public String toString() {
+        return super.toString() + " (" + this.cSigma + "," + //$NON-NLS-1$ //$NON-NLS-2$
+                (this.nMode == GAUSSIAN ? "GAUSSIAN" : "BOX") + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+}
@@ -55,7 +55,7 @@ public class Gray8Gray32 extends PipelineStage {
             				null);
         }
         Gray8Image gray = (Gray8Image) image;
-        Gray32Image gray32 = new Gray32Image(image.getWidth(), image.getHeight());
+        Gray32Image gray32 = super.getOutputGray32Image(image.getWidth(), image.getHeight());
         byte[] grayData = gray.getData();
         int[] gray32Data = gray32.getData();
         for (int i=0; i<gray.getWidth() * gray.getHeight(); i++) {
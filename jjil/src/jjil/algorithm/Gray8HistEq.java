@@ -29,7 +29,9 @@ import jjil.core.Image;
 import jjil.core.PipelineStage;
 
 /**
- * Equalize the histogram of a gray image.
+ * Equalize the histogram of a gray image. The histogram can be computed on a
+ * grid of pixels, and the equalization table kept from one image to the next,
+ * as in Gray8HistMatch.
  * <p>
  * @author webb
  */
@@ -83,7 +85,47 @@ public class Gray8HistEq extends PipelineStage {
         /* Apply the histogram match algorithm to equalize the histogram
          * of the input.
          */
+        this.histMatch.setParallel(super.getParallel());
         this.histMatch.push(gray);
         super.setOutput(this.histMatch.getFront());
     }
+    
+    /** Returns the tolerance within which the previous lookup table is kept.
+     *
+     * @return the tolerance, in 256ths of the image's pixel count.
+     * @see Gray8HistMatch#getReuseTolerance()
+     */
+    public int getReuseTolerance() {
+        return this.histMatch.getReuseTolerance();
+    }
+    
+    /** Returns the spacing of the grid the histogram is computed from.
+     *
+     * @return the grid spacing.
+     * @see Gray8HistMatch#getSubsample()
+     */
+    public int getSubsample() {
+        return this.histMatch.getSubsample();
+    }
+    
+    /** Sets the tolerance within which the previous image's equalization
+     * table is kept for the next image.
+     *
+     * @param nTolerance the tolerance, in 256ths of the pixel count.
+     * @throws jjil.core.Error if nTolerance is out of range.
+     * @see Gray8HistMatch#setReuseTolerance(int)
+     */
+    public void setReuseTolerance(int nTolerance) throws jjil.core.Error {
+        this.histMatch.setReuseTolerance(nTolerance);
+    }
+    
+    /** Sets the spacing of the grid the histogram is computed from.
+     *
+     * @param nStep the grid spacing.
+     * @throws jjil.core.Error if nStep is less than 1.
+     * @see Gray8HistMatch#setSubsample(int)
+     */
+    public void setSubsample(int nStep) throws jjil.core.Error {
+        this.histMatch.setSubsample(nStep);
+    }
 }
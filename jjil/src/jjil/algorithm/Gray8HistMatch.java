@@ -33,6 +33,22 @@ import jjil.core.RgbVal;
  * Pipeline stage modifies a gray image's pixel values to make its histogram
  * match a target histogram (to the extent this is possible while uniquely
  * mapping each input grayvalue). This PipelineStage modifies its input.
+ * <p>
+ * The histogram, lookup table, and lookup stage are kept from one image to
+ * the next. For streams of images, such as camera preview frames, the
+ * histogram can be computed on a grid of pixels instead of all of them
+ * (setSubsample), and the previous image's lookup table can be kept when
+ * the new histogram differs from the one it was built from by less than a
+ * tolerance (setReuseTolerance), which also keeps the output from flickering
+ * as the histogram changes slightly from frame to frame.
+ * <p>
+ * Counting the histogram and applying the table are separate passes. They
+ * cannot be fused without changing the result: the table for an image
+ * depends on the image's own histogram, and the image is mapped in place,
+ * so it cannot be mapped while it is being counted. A fused pass would
+ * have to map each image with the table from the previous one, and when
+ * measured on 640x480 and 1920x1080 frames that was no faster than two
+ * passes.
  *
  * @author webb
  */
@@ -41,6 +57,26 @@ public class Gray8HistMatch extends PipelineStage {
      * the input histogram.
      */
     private int[] histCumTarget;
+    /** Cumulative histogram of the current image.
+     */
+    private final int[] rnHistCum = new int[256];
+    /** Cumulative histogram and sample and pixel counts of the image the
+     * lookup table was built from. cLookupSamples is 0 if there is no table.
+     */
+    private final int[] rnHistCumLookup = new int[256];
+    private int cLookupSamples = 0;
+    private int cLookupPixels = 0;
+    /** The lookup table, and the stage applying it.
+     */
+    private final byte[] rbLookup = new byte[256];
+    private final Gray8Lookup lookup;
+    /** Grid spacing of the histogram computation.
+     */
+    private int nStep = 1;
+    /** Largest change in the cumulative histogram, in 256ths of the pixel
+     * count, for which the lookup table is kept. 0 means never keep it.
+     */
+    private int nTolerance = 0;
     
     /** Creates a new instance of Gray8HistMatch 
      *
@@ -50,13 +86,29 @@ public class Gray8HistMatch extends PipelineStage {
      */
     public Gray8HistMatch(int[] histTarget) throws jjil.core.Error {
         setHistogram(histTarget);
+        this.lookup = new Gray8Lookup(this.rbLookup);
     }
     
-    private byte[] createLookup(int[] histCumTarget, int[] histCumSource) {
-        byte[] lookup = new byte[256];
+    /** Builds the lookup table in rbLookup. The source cumulative histogram
+     * counts cSamples pixels of an image of cPixels pixels, so it is scaled
+     * up to the image before being compared with the target.
+     *
+     * @param histCumTarget the target cumulative histogram.
+     * @param histCumSource the source cumulative histogram.
+     * @param cSamples the number of pixels counted in histCumSource.
+     * @param cPixels the number of pixels in the image.
+     */
+    private void createLookup(
+            int[] histCumTarget, 
+            int[] histCumSource, 
+            int cSamples, 
+            int cPixels) {
+        byte[] lookup = this.rbLookup;
         int j=0;
         for (int i=0; i<256; i++) {
-            while (histCumTarget[j] < histCumSource[i]) {
+            while (j < 256 &&
+                    (long) histCumTarget[j] * cSamples < 
+                    (long) histCumSource[i] * cPixels) {
                 j++;
             }
             if (j<256) {
@@ -66,7 +118,6 @@ public class Gray8HistMatch extends PipelineStage {
                 lookup[i] = Byte.MAX_VALUE;
             }
         }
-        return lookup;
     }
     
     /** getHistogram returns the target histogram that has been
@@ -112,19 +163,74 @@ public class Gray8HistMatch extends PipelineStage {
          */
         Gray8Image input = (Gray8Image) image;
         // get the input histogram
-        int[] histCum = Gray8Hist.computeHistogram(input);
+        int[] histCum = this.rnHistCum;
+        int cSamples = Gray8Hist.computeHistogram(input, histCum, this.nStep);
+        int cPixels = input.getWidth() * input.getHeight();
         // for the purposes of computation below we need a cumulative
         // pixel count, not a histogram
         for (int i=1; i<256; i++) {
             histCum[i] = histCum[i] + histCum[i-1];
         }
-        // create a lookkup table to map the input cumulative histogram
-        // to the target cumulative histogram.
-        byte[] lookup = createLookup(this.histCumTarget, histCum);
+        if (!isLookupValid(histCum, cSamples, cPixels)) {
+            // create a lookup table to map the input cumulative histogram
+            // to the target cumulative histogram.
+            createLookup(this.histCumTarget, histCum, cSamples, cPixels);
+            System.arraycopy(histCum, 0, this.rnHistCumLookup, 0, 256);
+            this.cLookupSamples = cSamples;
+            this.cLookupPixels = cPixels;
+            this.lookup.setTable(this.rbLookup);
+        }
         // apply the lookup table
-        Gray8Lookup modify = new Gray8Lookup(lookup);
-        modify.push(input);
-        super.setOutput(modify.getFront());
+        this.lookup.setParallel(super.getParallel());
+        this.lookup.push(input);
+        super.setOutput(this.lookup.getFront());
+    }
+    
+    /** Returns the spacing of the grid of pixels the histogram is computed
+     * from.
+     *
+     * @return the grid spacing. 1 means every pixel is counted.
+     */
+    public int getSubsample() {
+        return this.nStep;
+    }
+    
+    /** Returns the tolerance within which the previous lookup table is kept.
+     *
+     * @return the tolerance, in 256ths of the image's pixel count.
+     */
+    public int getReuseTolerance() {
+        return this.nTolerance;
+    }
+    
+    /** Tests whether the current lookup table can be used for an image. It
+     * can if it was built for an image of the same size and no element of
+     * the image's cumulative histogram differs from the one the table was
+     * built from by more than the tolerance, after both are scaled to
+     * the same number of samples.
+     *
+     * @param histCum the image's cumulative histogram.
+     * @param cSamples the number of pixels counted in histCum.
+     * @param cPixels the number of pixels in the image.
+     * @return true iff the lookup table can be kept.
+     */
+    private boolean isLookupValid(int[] histCum, int cSamples, int cPixels) {
+        if (this.nTolerance == 0 || 
+                this.cLookupSamples == 0 || 
+                this.cLookupPixels != cPixels ||
+                cSamples == 0) {
+            return false;
+        }
+        long lSamplesLookup = this.cLookupSamples;
+        long lLimit = (long) this.nTolerance * cSamples * lSamplesLookup;
+        for (int i=0; i<256; i++) {
+            long lDiff = histCum[i] * lSamplesLookup - 
+                    (long) this.rnHistCumLookup[i] * cSamples;
+            if (Math.abs(lDiff) * 256 > lLimit) {
+                return false;
+            }
+        }
+        return true;
     }
     
     /** setHistogram sets a new target histogram.
@@ -143,6 +249,8 @@ public class Gray8HistMatch extends PipelineStage {
     				null);
         }
         this.histCumTarget = new int[256];
+        // the lookup table must be rebuilt for the new target
+        this.cLookupSamples = 0;
         /* We actually store the cumulative histogram, not the original.
          */
         histCumTarget[0] = histTarget[0];
@@ -150,4 +258,46 @@ public class Gray8HistMatch extends PipelineStage {
             histCumTarget[i] = histCumTarget[i-1] + histTarget[i];
         }
     }
+    
+    /** Sets the tolerance within which the previous image's lookup table is
+     * used for the next image instead of being rebuilt. The table is kept if
+     * no element of the cumulative histogram of the new image differs from
+     * that of the image the table was built for by more than nTolerance 
+     * 256ths of the pixel count.
+     *
+     * @param nTolerance the tolerance. 0, the default, means the lookup table
+     * is rebuilt for every image.
+     * @throws jjil.core.Error if nTolerance is negative or greater than 256.
+     */
+    public void setReuseTolerance(int nTolerance) throws jjil.core.Error {
+        if (nTolerance < 0 || nTolerance > 256) {
+            throw new Error(
+    				Error.PACKAGE.ALGORITHM,
+    				ErrorCodes.PARAMETER_OUT_OF_RANGE,
+    				Integer.toString(nTolerance),
+    				"0", //$NON-NLS-1$
+    				"256"); //$NON-NLS-1$
+        }
+        this.nTolerance = nTolerance;
+    }
+    
+    /** Sets the spacing of the grid of pixels the histogram is computed
+     * from. Counting every nStep'th pixel of every nStep'th row reduces the
+     * cost of the histogram by nStep squared, at the cost of a less exact
+     * match to the target histogram.
+     *
+     * @param nStep the grid spacing. 1, the default, counts every pixel.
+     * @throws jjil.core.Error if nStep is less than 1.
+     */
+    public void setSubsample(int nStep) throws jjil.core.Error {
+        if (nStep < 1) {
+            throw new Error(
+    				Error.PACKAGE.ALGORITHM,
+    				ErrorCodes.PARAMETER_OUT_OF_RANGE,
+    				Integer.toString(nStep),
+    				"1", //$NON-NLS-1$
+    				null);
+        }
+        this.nStep = nStep;
+    }
 }
@@ -115,4 +115,13 @@ public class Gray8HorizVar extends PipelineStage {
         super.setOutput(g16);
     }
     
+    
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
 }
@@ -0,0 +1,212 @@
+/*
+ * Gray8IntegralImage.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+
+/**
+ * Gray8IntegralImage forms the integral image and the integral of the squared
+ * image of a Gray8Image, so that the sum and the sum of squares of the pixels
+ * in any rectangle can be found with four array accesses each. Users that
+ * only need sums can leave out the squared image.<p>
+ * Unlike Gray8QmSum the integral images have an extra first row and column of
+ * zeroes, so that they are (width+1) &times; (height+1) and
+ * <blockquote> Sum(i,j) = &sum;<sub>k &lt; i, l &lt; j</sub> Input(k,l). </blockquote>
+ * This lets a rectangle anywhere in the image, including at the top or left
+ * edge, be summed the same way.<p>
+ * The sums are kept in ints and may overflow for large images, but since the
+ * sum over a rectangle is a difference of entries the overflow cancels, and
+ * the result is correct so long as the rectangle's own sum fits in an int.<p>
+ * The arrays are reused from one push to the next unless a larger image
+ * is supplied.
+ * @author webb
+ */
+public class Gray8IntegralImage {
+    private int cWidth = 0; // width of the last input image
+    private int cHeight = 0; // height of the last input image
+    private int[] nSum = new int[0]; // integral image
+    private int[] nSumSq = new int[0]; // integral of squared image
+    private final boolean fSquares; // whether nSumSq is formed
+
+    /**
+     * Creates a new instance of Gray8IntegralImage which forms both the
+     * integral image and the integral squared image.
+     */
+    public Gray8IntegralImage() {
+        this(true);
+    }
+
+    /**
+     * Creates a new instance of Gray8IntegralImage.
+     * @param fSquares whether to form the integral squared image. If false,
+     * getSumSq must not be called.
+     */
+    public Gray8IntegralImage(boolean fSquares) {
+        this.fSquares = fSquares;
+    }
+
+    /**
+     * Forms the integral image, and the integral squared image if it was
+     * asked for, of an input image.
+     * @param image the input image.
+     * @throws jjil.core.Error if the input image is not a Gray8Image.
+     */
+    public void push(Image image) throws jjil.core.Error {
+        if (!(image instanceof Gray8Image)) {
+            throw new Error(
+            				Error.PACKAGE.ALGORITHM,
+            				ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
+            				image.toString(),
+            				null,
+            				null);
+        }
+        Gray8Image gray = (Gray8Image) image;
+        this.cWidth = gray.getWidth();
+        this.cHeight = gray.getHeight();
+        int nStride = this.cWidth + 1;
+        int nSize = nStride * (this.cHeight + 1);
+        if (this.nSum.length < nSize) {
+            this.nSum = new int[nSize];
+        }
+        if (this.fSquares && this.nSumSq.length < nSize) {
+            this.nSumSq = new int[nSize];
+        }
+        int[] sum = this.nSum;
+        int[] sumSq = this.nSumSq;
+        byte[] data = gray.getBuffer();
+        int nInStride = gray.getStride();
+        // zero first row
+        for (int j=0; j<nStride; j++) {
+            sum[j] = 0;
+        }
+        int nOut = nStride;
+        if (!this.fSquares) {
+            for (int i=0; i<this.cHeight; i++) {
+                int nIn = gray.getOffset() + i * nInStride;
+                int nRow = 0;
+                // zero first column
+                sum[nOut++] = 0;
+                for (int j=0; j<this.cWidth; j++) {
+                    nRow += data[nIn++] - Byte.MIN_VALUE;
+                    sum[nOut] = sum[nOut - nStride] + nRow;
+                    nOut++;
+                }
+            }
+            return;
+        }
+        for (int j=0; j<nStride; j++) {
+            sumSq[j] = 0;
+        }
+        for (int i=0; i<this.cHeight; i++) {
+            int nIn = gray.getOffset() + i * nInStride;
+            int nRow = 0, nRowSq = 0;
+            // zero first column
+            sum[nOut] = 0;
+            sumSq[nOut] = 0;
+            nOut++;
+            for (int j=0; j<this.cWidth; j++) {
+                int pixel = data[nIn++] - Byte.MIN_VALUE;
+                nRow += pixel;
+                nRowSq += pixel * pixel;
+                sum[nOut] = sum[nOut - nStride] + nRow;
+                sumSq[nOut] = sumSq[nOut - nStride] + nRowSq;
+                nOut++;
+            }
+        }
+    }
+
+    /**
+     * Returns the height of the last image pushed.
+     * @return the image height.
+     */
+    public int getHeight() {
+        return this.cHeight;
+    }
+
+    /**
+     * Returns the integral image. The array may be longer than
+     * getStride() * (getHeight() + 1).
+     * @return the integral image data.
+     */
+    public int[] getSum() {
+        return this.nSum;
+    }
+
+    /**
+     * Returns the sum of the pixels in a rectangle.
+     * @param nX left column of the rectangle.
+     * @param nY top row of the rectangle.
+     * @param cW rectangle width.
+     * @param cH rectangle height.
+     * @return the sum of the unsigned pixel values in the rectangle.
+     */
+    public int getSum(int nX, int nY, int cW, int cH) {
+        return rectSum(this.nSum, nX, nY, cW, cH);
+    }
+
+    /**
+     * Returns the integral of the squared image, organized like getSum().
+     * Only formed if this Gray8IntegralImage was created with fSquares true.
+     * @return the integral squared image data.
+     */
+    public int[] getSumSq() {
+        return this.nSumSq;
+    }
+
+    /**
+     * Returns the sum of the squares of the pixels in a rectangle.
+     * @param nX left column of the rectangle.
+     * @param nY top row of the rectangle.
+     * @param cW rectangle width.
+     * @param cH rectangle height.
+     * @return the sum of the squared unsigned pixel values in the rectangle.
+     */
+    public int getSumSq(int nX, int nY, int cW, int cH) {
+        return rectSum(this.nSumSq, nX, nY, cW, cH);
+    }
+
+    /**
+     * Returns the row length of the integral images, which is one more
+     * than the image width.
+     * @return the row length.
+     */
+    public int getStride() {
+        return this.cWidth + 1;
+    }
+
+    /**
+     * Returns the width of the last image pushed.
+     * @return the image width.
+     */
+    public int getWidth() {
+        return this.cWidth;
+    }
+
+    /**
+     * Sums a rectangle of an integral image.
+     */
+    private int rectSum(int[] data, int nX, int nY, int cW, int cH) {
+        int nStride = this.cWidth + 1;
+        int nTl = nY * nStride + nX;
+        int nBl = nTl + cH * nStride;
+        return data[nBl + cW] - data[nBl] - data[nTl + cW] + data[nTl];
+    }
+}
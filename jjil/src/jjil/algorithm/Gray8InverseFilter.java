@@ -23,23 +23,27 @@
  */
 
 package jjil.algorithm;
-import jjil.core.Complex;
-import jjil.core.Complex32Image;
 import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.MathPlus;
+import jjil.core.ParallelExecutor;
 import jjil.core.PipelineStage;
 /**
  * Computes the inverse filter of the input image, given an input point spread
- * function and noise level.
+ * function and noise level.<p>
+ * The transforms and the filter are computed in interleaved complex int arrays
+ * (see FftInt), without creating Complex objects. The point spread function
+ * is held in a DeconvolutionPlan, which caches its transform for each image
+ * size, so images of any square size at least as large as the point spread
+ * function can be filtered.
  * @author webb
  */
 public class Gray8InverseFilter extends PipelineStage {
     private int nGamma;
     Gray8Fft fft;
     Complex32IFft ifft;
-    Complex32Image cxmPsfInv;
+    DeconvolutionPlan plan;
 
     /**
      * Creates a new instance of Gray8InverseFilter.
@@ -50,34 +54,36 @@ public class Gray8InverseFilter extends PipelineStage {
      * @throws jjil.core.Error If the point spread function is not square or a power of 2 in size.
      */
     public Gray8InverseFilter(Gray8Image psf, int nGamma) throws jjil.core.Error {
-        if (psf.getWidth() != psf.getHeight()) {
-            throw new Error(
-            				Error.PACKAGE.ALGORITHM,
-            				ErrorCodes.IMAGE_NOT_SQUARE,
-            				psf.toString(),
-            				null,
-            				null);
-        }
-        if (!(psf instanceof Gray8Image)) {
-            throw new Error(
-            				Error.PACKAGE.ALGORITHM,
-            				ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
-            				psf.toString(),
-            				null,
-            				null);
-        }
+        this(new DeconvolutionPlan(psf), nGamma);
+    }
+    
+    /**
+     * Creates a new instance of Gray8InverseFilter which shares a
+     * DeconvolutionPlan, and so the transforms cached in it, with other stages.
+     * @param plan the plan, holding the point spread function.
+     * @param nGamma The gamma parameter from the inverse filter operation.
+     */
+    public Gray8InverseFilter(DeconvolutionPlan plan, int nGamma) {
+        this.plan = plan;
         this.nGamma = nGamma;
         this.fft = new Gray8Fft();
-        this.fft.push(psf);
-        this.cxmPsfInv = (Complex32Image) this.fft.getFront();
         this.ifft = new Complex32IFft(true);
     }
     
+    /**
+     * Returns the plan holding the point spread function and the transforms
+     * computed from it.
+     * @return the plan.
+     */
+    public DeconvolutionPlan getPlan() {
+        return this.plan;
+    }
+    
     /**
      * Compute the inverse filter of the given image.
      * @param im the Gray8Image to compute the inverse filter on.
-     * @throws jjil.core.Error If the input image is not a Gray8Image or not the same size as the 
-     * point spread function.
+     * @throws jjil.core.Error If the input image is not a Gray8Image or not square,
+     * or is smaller than the point spread function.
      */
     public void push(Image im) throws jjil.core.Error {
         if (im.getWidth() != im.getHeight()) {
@@ -88,15 +94,6 @@ public class Gray8InverseFilter extends PipelineStage {
             				null,
             				null);
         }
-        if (im.getWidth() != this.cxmPsfInv.getWidth() ||
-        	im.getHeight() != this.cxmPsfInv.getHeight()) {
-            throw new Error(
-            				Error.PACKAGE.ALGORITHM,
-            				ErrorCodes.IMAGE_SIZES_DIFFER,
-            				im.toString(),
-            				this.cxmPsfInv.toString(),
-            				null);
-        }
         if (!(im instanceof Gray8Image)) {
             throw new Error(
             				Error.PACKAGE.ALGORITHM,
@@ -105,29 +102,42 @@ public class Gray8InverseFilter extends PipelineStage {
             				null,
             				null);
         }
-        this.fft.push(im);
-        Complex32Image cxmIm = (Complex32Image) this.fft.getFront();
-        Complex cxIn[] = cxmIm.getData();
-        Complex32Image cxmResult = new Complex32Image(im.getWidth(), im.getHeight());
-        Complex cxOut[] = cxmResult.getData();
-        Complex cxPsfFft[] = this.cxmPsfInv.getData();
+        DeconvolutionPlan.Filter f = 
+                this.plan.getInverseFilter(im.getWidth(), im.getHeight());
+        // the filter is computed in place in the transform
+        int rnData[] = this.fft.transform((Gray8Image) im);
+        int rnPsfFft[] = f.rnFft;
+        int nPsfMag[] = f.nMag;
         // compute inverse filter
         for (int i=0; i<im.getWidth() * im.getHeight(); i++) {
-            int nMag = cxPsfFft[i].magnitude();
+            int nMag = nPsfMag[i];
             if (nMag * this.nGamma > MathPlus.SCALE) {
-                // cxPsfFft is the FFT of the point spread function, therefore
+                // rnPsfFft is the FFT of the point spread function, therefore
                 // multiplied by SCALE. We are dividing by it so we must 
                 // multiply by SCALE to maintain
                 // the same range.
-                cxOut[i] = cxIn[i].div(cxPsfFft[i]).times(MathPlus.SCALE);
+                FftInt.divide(rnData[2*i], rnData[2*i+1],
+                        rnPsfFft[2*i], rnPsfFft[2*i+1], rnData, 2*i);
+                rnData[2*i] *= MathPlus.SCALE;
+                rnData[2*i+1] *= MathPlus.SCALE;
             } else {
                 // the Psf is too small -- scale by nGamma
-                cxOut[i] = cxIn[i].times(nGamma * nMag).div(cxPsfFft[i]);
+                FftInt.divide(rnData[2*i] * nGamma * nMag, rnData[2*i+1] * nGamma * nMag,
+                        rnPsfFft[2*i], rnPsfFft[2*i+1], rnData, 2*i);
             }
         }
         // inverse FFT to get result
-        this.ifft.push(cxmResult);
-        super.setOutput(this.ifft.getFront());
+        super.setOutput(this.ifft.inverse(rnData, im.getWidth(), im.getHeight()));
+    }
+    
+    /**
+     * Sets the executor used for the forward and inverse transforms.
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        this.fft.setParallel(pe);
+        this.ifft.setParallel(pe);
     }
     
 }
@@ -28,6 +28,8 @@ import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.Ladder;
+import jjil.core.ParallelExecutor;
+import jjil.core.RowBands;
 
 /**
  * Computes linear combination of two Gray8Images. Result is 
@@ -35,12 +37,30 @@ import jjil.core.Ladder;
  * the minimum value is 0 and the result is then shifted back to the signed
  * range.<br>
  * Intended to be used as a combination stage in a ladder operation.
+ * Rows are combined in parallel bands if an executor has been set with
+ * setParallel.
  * @author webb
  */
 public class Gray8LinComb implements Ladder.Join {
     private int nA;
     private int nB;
     private int nC;
+    /** Executor used to combine row bands concurrently, or null.
+     */
+    private ParallelExecutor pe = null;
+    /** Data of the two images being combined, set during doJoin.
+     */
+    private byte[] data1, data2;
+    /** Width of the images being combined.
+     */
+    private int cWidth;
+    /** Combines row bands of the current images.
+     */
+    private final RowBands rows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            combineRows(nFirstRow, nLimitRow);
+        }
+    });
     
     /**
      * Creates a new instance of Gray8LinComb
@@ -102,9 +122,43 @@ public class Gray8LinComb implements Ladder.Join {
        }
         Gray8Image gray1 = (Gray8Image) imageFirst;
         Gray8Image gray2 = (Gray8Image) imageSecond;
-        byte[] data1 = gray1.getData();
-        byte[] data2 = gray2.getData();
-        for (int i=0; i<data1.length; i++) {
+        this.data1 = gray1.getData();
+        this.data2 = gray2.getData();
+        this.cWidth = gray1.getWidth();
+        this.rows.run(this.pe, gray1.getHeight());
+        this.data1 = null;
+        this.data2 = null;
+        return gray1;
+    }
+    
+    /**
+     * Returns the executor used to combine row bands concurrently.
+     * @return the executor, or null if all rows are combined on the calling
+     * thread.
+     */
+    public ParallelExecutor getParallel() {
+        return this.pe;
+    }
+    
+    /**
+     * Sets the executor used to combine row bands concurrently.
+     * @param pe the executor, or null to combine all rows on the calling
+     * thread.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        this.pe = pe;
+    }
+    
+    /**
+     * Combines rows nFirstRow up to nLimitRow of the current images,
+     * replacing the first image.
+     * @param nFirstRow first row to combine.
+     * @param nLimitRow row after the last row to combine.
+     */
+    private void combineRows(int nFirstRow, int nLimitRow) {
+        byte[] data1 = this.data1;
+        byte[] data2 = this.data2;
+        for (int i=nFirstRow*this.cWidth; i<nLimitRow*this.cWidth; i++) {
             int nD1 = data1[i] - Byte.MIN_VALUE;
             int nD2 = data2[i] - Byte.MIN_VALUE;
             data1[i] = (byte) Math.min(
@@ -113,7 +167,6 @@ public class Gray8LinComb implements Ladder.Join {
                         ((nD1 * this.nA + nD2 * this.nB) / this.nC) + 
                     Byte.MIN_VALUE));
         }
-        return gray1;
     }
 
 }
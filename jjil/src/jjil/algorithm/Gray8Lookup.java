@@ -27,16 +27,31 @@ import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
+import jjil.core.RowBands;
 
 /**
  * Pipeline stage applies a lookup table to an image. The lookup table
  * can be supplied through the constructor or by the setTable procedure.
- * This pipeline stage modifies its input.
+ * This pipeline stage modifies its input. Rows are processed in parallel
+ * bands if an executor has been set with setParallel.
  *
  * @author webb
  */
 public class Gray8Lookup extends PipelineStage {
     private byte[] table;
+    /** Data of the image being mapped, set during push.
+     */
+    private byte[] bData;
+    /** Width of the image being mapped.
+     */
+    private int cWidth;
+    /** Maps row bands of the current image.
+     */
+    private final RowBands rows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            lookupRows(nFirstRow, nLimitRow);
+        }
+    });
     
     /**
      * Creates a new instance of Gray8Lookup.
@@ -72,13 +87,30 @@ public class Gray8Lookup extends PipelineStage {
             				null);
         }
         Gray8Image input = (Gray8Image) image;
-        byte[] data = input.getData();
-        for (int i=0; i<data.length; i++) {
-            data[i] = this.table[data[i]+128];
+        this.bData = input.getData();
+        this.cWidth = input.getWidth();
+        try {
+            this.rows.run(super.getParallel(), input.getHeight());
+        } finally {
+            this.bData = null;
         }
         super.setOutput(input);
     }
     
+    /**
+     * Maps rows nFirstRow up to nLimitRow of the current image through the
+     * lookup table.
+     * @param nFirstRow first row to map.
+     * @param nLimitRow row after the last row to map.
+     */
+    private void lookupRows(int nFirstRow, int nLimitRow) {
+        byte[] data = this.bData;
+        byte[] table = this.table;
+        for (int i=nFirstRow*this.cWidth; i<nLimitRow*this.cWidth; i++) {
+            data[i] = table[data[i]+128];
+        }
+    }
+    
     /**
      * Assign a new lookup table. Images passed to push() after setTable is called
      * will be mapped by the new image.
@@ -94,7 +126,9 @@ public class Gray8Lookup extends PipelineStage {
             				null,
             				null);
         }
-        this.table = new byte[256];
+        if (this.table == null) {
+            this.table = new byte[256];
+        }
         System.arraycopy(table, 0, this.table, 0, this.table.length);
     }
 }
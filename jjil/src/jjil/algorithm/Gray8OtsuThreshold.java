@@ -13,6 +13,12 @@ import jjil.core.PipelineStage;
  * <p>
  * Algorithm from
  * http://homepages.inf.ed.ac.uk/rbf/CVonline/LOCAL_COPIES/MORSE/threshold.pdf
+ * <p>
+ * For video the threshold can be made to follow the scene gradually instead
+ * of being chosen afresh for each frame: with setTemporalWeight, each frame's
+ * histogram is blended into a running histogram, and the threshold is chosen
+ * from that. The histogram can also be computed on a grid of pixels with
+ * setSubsample, to bound the cost of the histogram on large frames.
  * 
  * @author webb
  * 
@@ -21,6 +27,28 @@ public class Gray8OtsuThreshold extends PipelineStage {
 	private boolean mbSmaller;
 	private int mnAdjustFactor;
 	private int mnCountBelow, mnCountAbove;
+	/** Histogram of the current image.
+	 */
+	private final int[] mrnHistogram = new int[256];
+	/** Running histogram, in 256ths of a count so that small differences
+	 * from the new histogram still move it, and the number of samples per
+	 * image it was formed from. mnSamples is 0 when there is no running
+	 * histogram.
+	 */
+	private final long[] mrlRunning = new long[256];
+	private int mnSamples = 0;
+	/** The running histogram rounded to counts, for the threshold.
+	 */
+	private final int[] mrnRunning = new int[256];
+	/** Grid spacing of the histogram computation.
+	 */
+	private int mnStep = 1;
+	/** Weight of each new histogram in the running histogram, in 256ths.
+	 */
+	private int mnWeight = 256;
+	/** Applies the threshold.
+	 */
+	private final Gray8Threshold mg8t = new Gray8Threshold(0, true);
 
 	/**
 	 * Create new instances of Gray8OtsuThreshold, specifying whether pixels
@@ -52,7 +80,30 @@ public class Gray8OtsuThreshold extends PipelineStage {
 		}
 		Gray8Image g8i = (Gray8Image) imageInput;
 		/* compute histogram */
-		int[] rnHistogram = Gray8Hist.computeHistogram(g8i);
+		int[] rnHistogram = this.mrnHistogram;
+		int cSamples = Gray8Hist.computeHistogram(g8i, rnHistogram, this.mnStep);
+		if (this.mnWeight < 256) {
+			if (cSamples != this.mnSamples) {
+				// first image, or the image size has changed
+				for (int i = 0; i < 256; i++) {
+					this.mrlRunning[i] = (long) rnHistogram[i] << 8;
+				}
+				this.mnSamples = cSamples;
+			} else {
+				// move each bin mnWeight 256ths of the way to the new count,
+				// rounding
+				for (int i = 0; i < 256; i++) {
+					this.mrlRunning[i] += ((((long) rnHistogram[i] << 8) - 
+							this.mrlRunning[i]) * this.mnWeight + 128) >> 8;
+				}
+			}
+			for (int i = 0; i < 256; i++) {
+				this.mrnRunning[i] = (int) ((this.mrlRunning[i] + 128) >> 8);
+			}
+			rnHistogram = this.mrnRunning;
+		} else {
+			this.mnSamples = 0;
+		}
 		/* calculate Otsu threshold */
 		int nThresh = calculateOtsuThreshold(rnHistogram);
 		// determine whether small pixel values should get set on (bWithin = true)
@@ -72,10 +123,80 @@ public class Gray8OtsuThreshold extends PipelineStage {
 		// appropriately. The histogram value runs from 0-256 so
 		// we have to offset it by Byte.MIN_VALUE.
 		// Gray8Threshold replaces its input.
-		Gray8Threshold g8t = new Gray8Threshold(nThresh + Byte.MIN_VALUE,
-				bWithin);
-		g8t.push(imageInput);
-		super.setOutput(g8t.getFront());
+		this.mg8t.nThreshold = nThresh + Byte.MIN_VALUE;
+		this.mg8t.bWithin = bWithin;
+		this.mg8t.setParallel(super.getParallel());
+		this.mg8t.push(imageInput);
+		super.setOutput(this.mg8t.getFront());
+	}
+
+	/**
+	 * Returns the spacing of the grid of pixels the histogram is computed
+	 * from.
+	 * 
+	 * @return the grid spacing. 1 means every pixel is counted.
+	 */
+	public int getSubsample() {
+		return this.mnStep;
+	}
+
+	/**
+	 * Returns the weight given each new image's histogram in the running
+	 * histogram.
+	 * 
+	 * @return the weight, in 256ths. 256 means there is no running histogram.
+	 */
+	public int getTemporalWeight() {
+		return this.mnWeight;
+	}
+
+	/**
+	 * Discards the running histogram, so the next image's threshold is
+	 * computed from that image alone. Use this when the scene changes
+	 * abruptly.
+	 */
+	public void reset() {
+		this.mnSamples = 0;
+	}
+
+	/**
+	 * Sets the spacing of the grid of pixels the histogram is computed from.
+	 * Counting every nStep'th pixel of every nStep'th row reduces the cost of
+	 * the histogram by nStep squared.
+	 * 
+	 * @param nStep
+	 *            the grid spacing. 1, the default, counts every pixel.
+	 * @throws jjil.core.Error
+	 *             if nStep is less than 1.
+	 */
+	public void setSubsample(int nStep) throws Error {
+		if (nStep < 1) {
+			throw new Error(Error.PACKAGE.ALGORITHM,
+					ErrorCodes.PARAMETER_OUT_OF_RANGE, Integer.toString(nStep),
+					"1", null); //$NON-NLS-1$
+		}
+		this.mnStep = nStep;
+	}
+
+	/**
+	 * Sets the weight given each new image's histogram in the running
+	 * histogram the threshold is computed from. Smaller weights make the
+	 * threshold change more slowly from frame to frame; a weight of 32, for
+	 * example, follows a change in the scene over roughly eight frames.
+	 * 
+	 * @param nWeight
+	 *            the weight, in 256ths. 256, the default, computes the
+	 *            threshold from each image alone.
+	 * @throws jjil.core.Error
+	 *             if nWeight is not between 1 and 256.
+	 */
+	public void setTemporalWeight(int nWeight) throws Error {
+		if (nWeight < 1 || nWeight > 256) {
+			throw new Error(Error.PACKAGE.ALGORITHM,
+					ErrorCodes.PARAMETER_OUT_OF_RANGE,
+					Integer.toString(nWeight), "1", "256"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		this.mnWeight = nWeight;
 	}
 
 	/**
@@ -121,7 +242,7 @@ public class Gray8OtsuThreshold extends PipelineStage {
 				nMeanAbove = 0;
 			}
 			// compute variance with this separation (see article above)
-			long lVariance = nBelow * nAbove * (long) (nMeanAbove - nMeanBelow)
+			long lVariance = (long) nBelow * nAbove * (nMeanAbove - nMeanBelow)
 					* (long) (nMeanAbove - nMeanBelow);
 			// if this separation is better than previous update
 			if (lVariance > lBestSeparation) {
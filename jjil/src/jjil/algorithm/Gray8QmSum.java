@@ -64,8 +64,11 @@ public class Gray8QmSum extends PipelineStage {
             				null);
         }
         Gray8Image gray = (Gray8Image) image;
-        Gray32Image gray32 = new Gray32Image(image.getWidth(), image.getHeight());
-        byte[] grayData = gray.getData();
+        Gray32Image gray32 = super.getOutputGray32Image(image.getWidth(), image.getHeight());
+        // the input may be a view, so it is read through its buffer
+        byte[] grayData = gray.getBuffer();
+        int nOffset = gray.getOffset();
+        int nStride = gray.getStride();
         int[] gray32Data = gray32.getData();
         // First row
         int nSum = 0;
@@ -73,7 +76,7 @@ public class Gray8QmSum extends PipelineStage {
             /* Convert from signed byte value to unsigned byte for storage
              * in the 32-bit image.
              */
-            int grayUnsigned = (grayData[j]) - Byte.MIN_VALUE;
+            int grayUnsigned = (grayData[nOffset+j]) - Byte.MIN_VALUE;
             /* Assign 32-bit output */
             nSum += grayUnsigned;
             gray32Data[j] = nSum;
@@ -86,7 +89,7 @@ public class Gray8QmSum extends PipelineStage {
                  * in the 32-bit image.
                  */
                 int grayUnsigned = 
-                        (grayData[i*gray.getWidth()+j]) - Byte.MIN_VALUE;
+                        (grayData[nOffset+i*nStride+j]) - Byte.MIN_VALUE;
                 nSum += grayUnsigned;
                 gray32Data[i*gray.getWidth()+j] = 
                         gray32Data[(i-1)*gray.getWidth()+j] +
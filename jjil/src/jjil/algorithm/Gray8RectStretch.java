@@ -37,6 +37,10 @@ import jjil.core.PipelineStage;
 public class Gray8RectStretch extends PipelineStage {
     private int cHeight;
     private int cWidth;
+    /** Intermediate horizontally stretched image, kept for reuse when output
+     * reuse is on.
+     */
+    private Gray8Image imageHoriz = null;
     
     /** Creates a new instance of Gray8RectStretch. 
      *
@@ -145,7 +149,13 @@ public class Gray8RectStretch extends PipelineStage {
      */
     private Gray8Image stretchHoriz(Gray8Image input) {
         /* horizontal stretch */
-        Gray8Image horiz = new Gray8Image(this.cWidth, input.getHeight());
+        Gray8Image horiz = this.imageHoriz;
+        if (horiz == null || 
+                horiz.getWidth() != this.cWidth || 
+                horiz.getHeight() != input.getHeight()) {
+            horiz = new Gray8Image(this.cWidth, input.getHeight());
+        }
+        this.imageHoriz = super.getReuseOutput() ? horiz : null;
         byte[] inData = input.getData();
         byte[] outData = horiz.getData();
         for (int j=0; j<this.cWidth; j++) {
@@ -192,7 +202,7 @@ public class Gray8RectStretch extends PipelineStage {
      */
     private Gray8Image stretchVert(Gray8Image input) {
         byte[] inData = input.getData();
-        Gray8Image vert = new Gray8Image(this.cWidth, this.cHeight);
+        Gray8Image vert = super.getOutputGray8Image(this.cWidth, this.cHeight);
         byte[] outData = vert.getData();
         for (int i=0; i<this.cHeight; i++) {
             /* remainder */
@@ -233,4 +243,13 @@ public class Gray8RectStretch extends PipelineStage {
     public String toString() {
         return super.toString() + " (" + this.cWidth + "," + this.cHeight + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
+    
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
 }
@@ -87,7 +87,7 @@ public class Gray8Reduce extends PipelineStage {
         byte[] bIn = gray.getData();
         int cReducedHeight = image.getHeight() / this.cReduceHeight;
         int cReducedWidth = image.getWidth() / this.cReduceWidth;
-        Gray8Image result = new Gray8Image(cReducedWidth, cReducedHeight);
+        Gray8Image result = super.getOutputGray8Image(cReducedWidth, cReducedHeight);
         byte[] bOut = result.getData();
         for (int i=0; i<cReducedHeight; i++) {
             for (int j=0; j<cReducedWidth; j++) {
@@ -57,7 +57,7 @@ public class Gray8Rgb extends PipelineStage {
                 	null);
         }
         Gray8Image gray = (Gray8Image) image;
-        RgbImage rgb = new RgbImage(image.getWidth(), image.getHeight());
+        RgbImage rgb = super.getOutputRgbImage(image.getWidth(), image.getHeight());
         byte[] grayData = gray.getData();
         int[] rgbData = rgb.getData();
         for (int i=0; i<gray.getWidth() * gray.getHeight(); i++) {
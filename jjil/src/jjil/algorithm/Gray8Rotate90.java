@@ -66,7 +66,7 @@ public class Gray8Rotate90 extends PipelineStage {
                 			null);
         }
         Gray8Image imageInput = (Gray8Image) image;
-        Gray8Image imageResult = new Gray8Image(image.getHeight(), image.getWidth());
+        Gray8Image imageResult = super.getOutputGray8Image(image.getHeight(), image.getWidth());
         byte[] inputData = imageInput.getData();
         byte[] outputData = imageResult.getData();
         if (mDirection == Direction.CLOCKWISE) {
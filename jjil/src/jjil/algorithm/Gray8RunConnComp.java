@@ -0,0 +1,351 @@
+/*
+ * Gray8RunConnComp.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+import jjil.core.Point;
+import jjil.core.Rect;
+
+/**
+ * Gray8RunConnComp finds the 8-connected components of a Gray8Image and
+ * measures them, without forming a labeled image. As in Gray8ConnComp,
+ * pixels with value Byte.MIN_VALUE are background.<p>
+ * The image is scanned one row at a time as runs of foreground pixels. Each
+ * run is given the label of the runs it touches in the row above, unioning
+ * their labels in an EquivalenceTable if it touches more than one, and
+ * the run's pixel count, bounds, coordinate sums, and perimeter are added
+ * to its label's totals as it is found. Once the scan is complete the
+ * totals are merged by class. Only two rows of runs are kept, and all the
+ * measurements are kept in int arrays which are reused from one push to
+ * the next, so the component measurements are found in one pass over the
+ * image with no allocation per pixel or per component.<p>
+ * The perimeter is measured the same way as in Gray8ConnComp: it is the
+ * number of pixel edges between the component and the background or the
+ * image border.<p>
+ * The components are numbered by decreasing pixel count.
+ * @author webb
+ */
+public class Gray8RunConnComp {
+    private static final int INITIAL_LABELS = 256;
+    private int cComponents = 0;
+    private final EquivalenceTable eqTable = new EquivalenceTable();
+    // runs in the previous and current row: start x, end x (inclusive), label
+    private int rnPrevStart[] = new int[0], rnPrevEnd[], rnPrevLabel[];
+    private int rnCurrStart[] = new int[0], rnCurrEnd[], rnCurrLabel[];
+    // totals by label; after push, by component number
+    private int rnArea[] = new int[INITIAL_LABELS];
+    private int rnMinX[] = new int[INITIAL_LABELS];
+    private int rnMinY[] = new int[INITIAL_LABELS];
+    private int rnMaxX[] = new int[INITIAL_LABELS];
+    private int rnMaxY[] = new int[INITIAL_LABELS];
+    private long rlSumX[] = new long[INITIAL_LABELS];
+    private long rlSumY[] = new long[INITIAL_LABELS];
+    private int rnPerimeter[] = new int[INITIAL_LABELS];
+    // component numbers in order of decreasing pixel count
+    private int rnOrder[] = new int[INITIAL_LABELS];
+
+    /**
+     * Creates a new instance of Gray8RunConnComp.
+     */
+    public Gray8RunConnComp() {
+    }
+
+    /**
+     * Returns the bounding rectangle of the n'th largest component. As in
+     * Gray8ConnComp, the rectangle's corners are the extreme pixels of the
+     * component, so a single pixel has a 0 by 0 rectangle.
+     * @param n number of component (not its label).
+     * @return the bounding rectangle.
+     * @throws jjil.core.Error if there aren't that many components.
+     */
+    public Rect getComponent(int n) throws Error {
+        int nComp = index(n);
+        return new Rect(
+                this.rnMinX[nComp],
+                this.rnMinY[nComp],
+                this.rnMaxX[nComp] - this.rnMinX[nComp],
+                this.rnMaxY[nComp] - this.rnMinY[nComp]);
+    }
+
+    /**
+     * Returns the number of connected components found by the last push.
+     * @return the number of components.
+     */
+    public int getComponentCount() {
+        return this.cComponents;
+    }
+
+    /**
+     * Returns the centroid of the n'th largest component, rounded down.
+     * @param n number of component (not its label).
+     * @return the centroid.
+     * @throws jjil.core.Error if there aren't that many components.
+     */
+    public Point getCentroid(int n) throws Error {
+        int nComp = index(n);
+        return new Point(
+                (int) (this.rlSumX[nComp] / this.rnArea[nComp]),
+                (int) (this.rlSumY[nComp] / this.rnArea[nComp]));
+    }
+
+    /**
+     * Returns the perimeter of the n'th largest component.
+     * @param n number of component (not its label).
+     * @return perimeter of the component.
+     * @throws jjil.core.Error if there aren't that many components.
+     */
+    public int getPerimeter(int n) throws Error {
+        return this.rnPerimeter[index(n)];
+    }
+
+    /**
+     * Returns the pixel count of the n'th largest component.
+     * @param n number of component (not its label).
+     * @return number of pixels in the component (not bounding rectangle area).
+     * @throws jjil.core.Error if there aren't that many components.
+     */
+    public int getPixelCount(int n) throws Error {
+        return this.rnArea[index(n)];
+    }
+
+    /**
+     * Makes sure the label totals can hold a label.
+     * @param nLabel the label.
+     */
+    private void growLabels(int nLabel) {
+        if (nLabel < this.rnArea.length) {
+            return;
+        }
+        int cLength = 2 * this.rnArea.length;
+        this.rnArea = grow(this.rnArea, cLength);
+        this.rnMinX = grow(this.rnMinX, cLength);
+        this.rnMinY = grow(this.rnMinY, cLength);
+        this.rnMaxX = grow(this.rnMaxX, cLength);
+        this.rnMaxY = grow(this.rnMaxY, cLength);
+        this.rnPerimeter = grow(this.rnPerimeter, cLength);
+        long rl[] = new long[cLength];
+        System.arraycopy(this.rlSumX, 0, rl, 0, this.rlSumX.length);
+        this.rlSumX = rl;
+        rl = new long[cLength];
+        System.arraycopy(this.rlSumY, 0, rl, 0, this.rlSumY.length);
+        this.rlSumY = rl;
+        this.rnOrder = new int[cLength];
+    }
+
+    /**
+     * Copies an array into a longer one.
+     * @param rn the array.
+     * @param cLength the new length.
+     * @return the new array.
+     */
+    private static int[] grow(int[] rn, int cLength) {
+        int rnNew[] = new int[cLength];
+        System.arraycopy(rn, 0, rnNew, 0, rn.length);
+        return rnNew;
+    }
+
+    /**
+     * Maps the number of a component, in order of pixel count, to the
+     * index of its totals.
+     * @param n number of component.
+     * @return index of the component's totals.
+     * @throws jjil.core.Error if there aren't that many components.
+     */
+    private int index(int n) throws Error {
+        if (n < 0 || n >= this.cComponents) {
+            throw new Error(
+                    Error.PACKAGE.ALGORITHM,
+                    ErrorCodes.CONN_COMP_LABEL_OUT_OF_BOUNDS,
+                    Integer.toString(n),
+                    Integer.toString(this.cComponents),
+                    null);
+        }
+        return this.rnOrder[n];
+    }
+
+    /**
+     * Finds and measures the connected components of the input image.
+     * @param image the input image.
+     * @throws jjil.core.Error if the image is not a Gray8Image.
+     */
+    public void push(Image image) throws Error {
+        if (!(image instanceof Gray8Image)) {
+            throw new Error(
+                    Error.PACKAGE.ALGORITHM,
+                    ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
+                    image.toString(),
+                    null,
+                    null);
+        }
+        Gray8Image gray = (Gray8Image) image;
+        int cWidth = gray.getWidth();
+        byte[] bData = gray.getData();
+        // a row has at most this many runs
+        int cMaxRuns = (cWidth + 1) / 2;
+        if (this.rnPrevStart.length < cMaxRuns) {
+            this.rnPrevStart = new int[cMaxRuns];
+            this.rnPrevEnd = new int[cMaxRuns];
+            this.rnPrevLabel = new int[cMaxRuns];
+            this.rnCurrStart = new int[cMaxRuns];
+            this.rnCurrEnd = new int[cMaxRuns];
+            this.rnCurrLabel = new int[cMaxRuns];
+        }
+        EquivalenceTable eqTable = this.eqTable;
+        eqTable.reset();
+        int cPrev = 0;
+        for (int i=0; i<gray.getHeight(); i++) {
+            int nRow = i * cWidth;
+            int cCurr = 0;
+            // first run in the previous row which can touch the next run
+            int nFirstPrev = 0;
+            int j = 0;
+            while (j < cWidth) {
+                if (bData[nRow + j] == Byte.MIN_VALUE) {
+                    j++;
+                    continue;
+                }
+                int nStart = j;
+                while (j < cWidth && bData[nRow + j] != Byte.MIN_VALUE) {
+                    j++;
+                }
+                int nEnd = j - 1;
+                // runs in the previous row touch this one (8-connected) if
+                // they reach from nStart-1 to nEnd+1
+                while (nFirstPrev < cPrev &&
+                        this.rnPrevEnd[nFirstPrev] + 1 < nStart) {
+                    nFirstPrev++;
+                }
+                int nLabel = 0;
+                int cVertical = 0; // pixels with a foreground pixel above
+                for (int k=nFirstPrev;
+                        k<cPrev && this.rnPrevStart[k] <= nEnd + 1;
+                        k++) {
+                    if (nLabel == 0) {
+                        nLabel = this.rnPrevLabel[k];
+                    } else {
+                        eqTable.union(nLabel, this.rnPrevLabel[k]);
+                    }
+                    cVertical += Math.max(0,
+                            Math.min(nEnd, this.rnPrevEnd[k]) -
+                            Math.max(nStart, this.rnPrevStart[k]) + 1);
+                }
+                int cLength = nEnd - nStart + 1;
+                if (nLabel == 0) {
+                    nLabel = eqTable.newLabel();
+                    growLabels(nLabel);
+                    this.rnArea[nLabel] = cLength;
+                    this.rnMinX[nLabel] = nStart;
+                    this.rnMaxX[nLabel] = nEnd;
+                    this.rnMinY[nLabel] = i;
+                    this.rnMaxY[nLabel] = i;
+                    this.rlSumX[nLabel] = 0;
+                    this.rlSumY[nLabel] = 0;
+                    this.rnPerimeter[nLabel] = 0;
+                } else {
+                    this.rnArea[nLabel] += cLength;
+                    this.rnMinX[nLabel] = Math.min(this.rnMinX[nLabel], nStart);
+                    this.rnMaxX[nLabel] = Math.max(this.rnMaxX[nLabel], nEnd);
+                    this.rnMaxY[nLabel] = i;
+                }
+                // nStart + ... + nEnd
+                this.rlSumX[nLabel] += (long) (nStart + nEnd) * cLength / 2;
+                this.rlSumY[nLabel] += (long) i * cLength;
+                // each pixel has 4 edges, less 2 for each pair of 4-adjacent
+                // pixels: cLength - 1 pairs in the run, cVertical with the
+                // row above
+                this.rnPerimeter[nLabel] += 2 * cLength + 2 - 2 * cVertical;
+                this.rnCurrStart[cCurr] = nStart;
+                this.rnCurrEnd[cCurr] = nEnd;
+                this.rnCurrLabel[cCurr] = nLabel;
+                cCurr++;
+            }
+            // the current row becomes the previous row
+            int rn[] = this.rnPrevStart;
+            this.rnPrevStart = this.rnCurrStart;
+            this.rnCurrStart = rn;
+            rn = this.rnPrevEnd;
+            this.rnPrevEnd = this.rnCurrEnd;
+            this.rnCurrEnd = rn;
+            rn = this.rnPrevLabel;
+            this.rnPrevLabel = this.rnCurrLabel;
+            this.rnCurrLabel = rn;
+            cPrev = cCurr;
+        }
+        // merge the totals by class. Classes are numbered in order of their
+        // smallest label, so a class's number is never greater than any of
+        // its labels, and the totals for label i can be merged into the
+        // totals for its class in place, working up from label 1.
+        this.cComponents = eqTable.resolve();
+        int cMerged = 0;
+        for (int nLabel=1; nLabel<eqTable.getLabels(); nLabel++) {
+            int nComp = eqTable.getFinalLabel(nLabel);
+            if (nComp > cMerged) {
+                // smallest label of a new class
+                cMerged = nComp;
+                this.rnArea[nComp] = this.rnArea[nLabel];
+                this.rnMinX[nComp] = this.rnMinX[nLabel];
+                this.rnMinY[nComp] = this.rnMinY[nLabel];
+                this.rnMaxX[nComp] = this.rnMaxX[nLabel];
+                this.rnMaxY[nComp] = this.rnMaxY[nLabel];
+                this.rlSumX[nComp] = this.rlSumX[nLabel];
+                this.rlSumY[nComp] = this.rlSumY[nLabel];
+                this.rnPerimeter[nComp] = this.rnPerimeter[nLabel];
+            } else {
+                this.rnArea[nComp] += this.rnArea[nLabel];
+                this.rnMinX[nComp] = Math.min(this.rnMinX[nComp], this.rnMinX[nLabel]);
+                this.rnMinY[nComp] = Math.min(this.rnMinY[nComp], this.rnMinY[nLabel]);
+                this.rnMaxX[nComp] = Math.max(this.rnMaxX[nComp], this.rnMaxX[nLabel]);
+                this.rnMaxY[nComp] = Math.max(this.rnMaxY[nComp], this.rnMaxY[nLabel]);
+                this.rlSumX[nComp] += this.rlSumX[nLabel];
+                this.rlSumY[nComp] += this.rlSumY[nLabel];
+                this.rnPerimeter[nComp] += this.rnPerimeter[nLabel];
+            }
+        }
+        sortByArea();
+    }
+
+    /**
+     * Sorts the component numbers by decreasing pixel count, using Shell
+     * sort so nothing is allocated.
+     */
+    private void sortByArea() {
+        int rnOrder[] = this.rnOrder;
+        int rnArea[] = this.rnArea;
+        for (int i=0; i<this.cComponents; i++) {
+            rnOrder[i] = i + 1;
+        }
+        int nGap = 1;
+        while (nGap < this.cComponents / 3) {
+            nGap = 3 * nGap + 1;
+        }
+        for (; nGap > 0; nGap /= 3) {
+            for (int i=nGap; i<this.cComponents; i++) {
+                int nComp = rnOrder[i];
+                int j = i;
+                while (j >= nGap && rnArea[rnOrder[j - nGap]] < rnArea[nComp]) {
+                    rnOrder[j] = rnOrder[j - nGap];
+                    j -= nGap;
+                }
+                rnOrder[j] = nComp;
+            }
+        }
+    }
+}
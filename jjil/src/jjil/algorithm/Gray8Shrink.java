@@ -32,15 +32,39 @@ import jjil.core.Gray32Image;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
+import jjil.core.RowBands;
 /**
  * Shrinks an input Gray8Image to a given new size. The shrinking is done with
  * proper averaging so each output pixel is the average of the corresponding
- * rectangular region in the input.
+ * rectangular region in the input. The horizontal pass is done in parallel
+ * row bands if an executor has been set with setParallel.
  * @author webb
  */
 public class Gray8Shrink extends PipelineStage {
     private int cHeight;
     private int cWidth;
+    /** Intermediate horizontally shrunk image, kept for reuse when output
+     * reuse is on.
+     */
+    private Gray32Image imageHoriz = null;
+    /** Pixel sums for the horizontal and vertical passes, kept between pushes.
+     */
+    private int[] nHorizSum = new int[0];
+    private int[] nVertSum = new int[0];
+    /** Input and output of the horizontal pass, set during push.
+     */
+    private byte[] bHorizIn;
+    private int[] nHorizOut;
+    /** Width of the input image.
+     */
+    private int cInWidth;
+    /** Does the horizontal pass over row bands of the input.
+     */
+    private final RowBands rowsHoriz = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            shrinkHorizRows(nFirstRow, nLimitRow);
+        }
+    });
     
     /** Creates a new instance of GrayRectStretch. 
      *
@@ -143,35 +167,61 @@ public class Gray8Shrink extends PipelineStage {
      *
      * @param input the input image
      * @return the shrunk image
+     * @throws jjil.core.Error if processing a row band fails.
      */
-    private Gray32Image shrinkHoriz(Gray8Image input) {
+    private Gray32Image shrinkHoriz(Gray8Image input) throws jjil.core.Error {
         /* horizontal shrink */
-        Gray32Image horiz = new Gray32Image(this.cWidth, input.getHeight());
-        byte[] inData = input.getData();
-        int[] outData = horiz.getData();
-        int[] nPixelSum = new int[input.getHeight()];
-        for (int i=0; i<input.getHeight(); i++) {
+        Gray32Image horiz = this.imageHoriz;
+        if (horiz == null || 
+                horiz.getWidth() != this.cWidth || 
+                horiz.getHeight() != input.getHeight()) {
+            horiz = new Gray32Image(this.cWidth, input.getHeight());
+        }
+        this.imageHoriz = super.getReuseOutput() ? horiz : null;
+        if (this.nHorizSum.length != input.getHeight()) {
+            this.nHorizSum = new int[input.getHeight()];
+        }
+        this.bHorizIn = input.getData();
+        this.nHorizOut = horiz.getData();
+        this.cInWidth = input.getWidth();
+        this.rowsHoriz.run(super.getParallel(), input.getHeight());
+        this.bHorizIn = null;
+        this.nHorizOut = null;
+        return horiz;
+    }
+    
+    /** Does the horizontal shrink for rows nFirstRow up to nLimitRow.
+     * Each row is computed independently of the others.
+     *
+     * @param nFirstRow first row to shrink.
+     * @param nLimitRow row after the last row to shrink.
+     */
+    private void shrinkHorizRows(int nFirstRow, int nLimitRow) {
+        byte[] inData = this.bHorizIn;
+        int[] outData = this.nHorizOut;
+        int cInWidth = this.cInWidth;
+        int[] nPixelSum = this.nHorizSum;
+        for (int i=nFirstRow; i<nLimitRow; i++) {
             nPixelSum[i] = 0;
         }
         int nPos = 0;
-        int nNextPos = input.getWidth() * 256 / this.cWidth;
+        int nNextPos = cInWidth * 256 / this.cWidth;
         int nCount = 0;
-        for (int j=0; j<input.getWidth() && nPos < this.cWidth; j++) {
-            for (int i=0; i<input.getHeight(); i++) {
-                nPixelSum[i] += inData[i*input.getWidth() + j] - Byte.MIN_VALUE;
+        for (int j=0; j<cInWidth && nPos < this.cWidth; j++) {
+            for (int i=nFirstRow; i<nLimitRow; i++) {
+                nPixelSum[i] += inData[i*cInWidth + j] - Byte.MIN_VALUE;
             }
             nCount += 1;
             if ((j+1) * 256 >= nNextPos) {
-                for (int i=0; i<input.getHeight(); i++) {
+                for (int i=nFirstRow; i<nLimitRow; i++) {
                     outData[i*this.cWidth + nPos] = nPixelSum[i] * 256 / nCount;
                     nPixelSum[i] = 0;
                }
                nPos += 1;
-               nNextPos += input.getWidth() * 256 / this.cWidth;
+               nNextPos += cInWidth * 256 / this.cWidth;
                nCount = 0;
             }
         }
-        return horiz;
     }
     
     /** Vertical shrink. Shrinks an image from
@@ -185,10 +235,13 @@ public class Gray8Shrink extends PipelineStage {
      */
     private Gray8Image shrinkVert(Gray32Image input) {
         /* vertical shrink */
-        Gray8Image vert = new Gray8Image(input.getWidth(), this.cHeight);
+        Gray8Image vert = super.getOutputGray8Image(input.getWidth(), this.cHeight);
         int[] inData = input.getData();
         byte[] outData = vert.getData();
-        int[] nPixelSum = new int[input.getWidth()];
+        if (this.nVertSum.length != input.getWidth()) {
+            this.nVertSum = new int[input.getWidth()];
+        }
+        int[] nPixelSum = this.nVertSum;
         for (int i=0; i<input.getWidth(); i++) {
             nPixelSum[i] = 0;
         }
@@ -226,4 +279,13 @@ public class Gray8Shrink extends PipelineStage {
     public String toString() {
         return super.toString() + " (" + this.cWidth + "," + this.cHeight + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
+    
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
 }
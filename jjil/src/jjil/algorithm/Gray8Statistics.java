@@ -62,10 +62,13 @@ public class Gray8Statistics {
         }
         Gray8Image gray = (Gray8Image) image;
         int nSum = 0, nSumSq = 0;
-        byte[] data = gray.getData();
+        // read through the buffer so that views are not copied
+        byte[] data = gray.getBuffer();
+        int nStride = gray.getStride();
         for (int i=0; i<gray.getHeight(); i++) {
+            int nRow = gray.getOffset() + i*nStride;
             for (int j=0; j<gray.getWidth(); j++) {
-                int pixel = (data[i*image.getWidth()+j]) - Byte.MIN_VALUE;
+                int pixel = (data[nRow+j]) - Byte.MIN_VALUE;
                 nSum += pixel;
                 nSumSq += pixel*pixel;
             }
@@ -74,11 +77,24 @@ public class Gray8Statistics {
          */
         int nCount = image.getHeight() * image.getWidth();
         this.nMean = 256 * nSum / nCount;
+        this.nVariance = variance(nSum, nSumSq, nCount);
+    }
+    
+    /**
+     * Computes the variance, times 256, of a set of pixels from their
+     * count, sum, and sum of squares. This is how push() computes the
+     * variance; it is available separately so the variance of a window
+     * can be computed from integral images (see Gray8IntegralImage).
+     * @param nSum the sum of the pixel values.
+     * @param nSumSq the sum of the squared pixel values.
+     * @param nCount the number of pixels, which must be at least 2.
+     * @return the variance, times 256.
+     */
+    public static int variance(int nSum, int nSumSq, int nCount) {
         // expanded form of variance computation
         // note order of multiplications and divisions. we're trying to
         // avoid overflow here.
-        this.nVariance =  
-                (nSumSq / (nCount - 1) - 
+        return (nSumSq / (nCount - 1) - 
                     nSum / nCount * nSum  / (nCount - 1)) << 8;
     }
     
@@ -96,8 +112,19 @@ public class Gray8Statistics {
      * @throws jjil.core.Error if the variance computed in push() is less than zero.
      */
     public int getStdDev() throws jjil.core.Error {
+        return stdDev(getVariance());
+    }
+    
+    /**
+     * Return the standard deviation, times 256, corresponding to a
+     * variance computed as in variance().
+     * @param nVariance the variance, times 256.
+     * @return the standard deviation, times 256.
+     * @throws jjil.core.Error if the variance is less than zero.
+     */
+    public static int stdDev(int nVariance) throws jjil.core.Error {
         // n = variance * 256 * 256 (for accuracy)
-        int n = getVariance() << 8; // getVariance() already is * 256
+        int n = nVariance << 8; // nVariance already is * 256
         if (n < 0) throw new Error(
             			Error.PACKAGE.ALGORITHM,
             			ErrorCodes.STATISTICS_VARIANCE_LESS_THAN_ZERO,
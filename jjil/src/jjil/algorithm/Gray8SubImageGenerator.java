@@ -68,8 +68,10 @@ public class Gray8SubImageGenerator extends PipelineStage {
         this.nXOffset = nXOffset;
         this.nYOffset = nYOffset;
         // create an output image. We'll reuse this
-        // image, changing the contents and offset,
+        // image, changing the view and offset,
         // for every Gray8OffsetImage we output.
+        // Its own pixels are only used if a consumer
+        // calls getData() and the view is copied out.
         super.imageOutput = new Gray8OffsetImage( 
             this.nWidth, 
             this.nHeight, 
@@ -101,7 +103,6 @@ public class Gray8SubImageGenerator extends PipelineStage {
         // larget image.
         int nHOffset = this.nXOffset * this.nHorizIndex;
         int nVOffset = this.nYOffset * this.nVertIndex;
-        byte[] dataIn = this.imageInput.getData();
         // reuse output image
         // check to make sure nobody damaged it somehow
         if (!(super.imageOutput instanceof Gray8OffsetImage)) {
@@ -115,16 +116,12 @@ public class Gray8SubImageGenerator extends PipelineStage {
         Gray8OffsetImage imageResult = (Gray8OffsetImage) super.imageOutput;
         imageResult.setXOffset(nHOffset);
         imageResult.setYOffset(nVOffset);
-        byte[] dataOut = imageResult.getData();
-        for (int i=0; i<this.nHeight; i++) {
-            int nVInLoc = i + nVOffset;
-            System.arraycopy( 
-                    dataIn, 
-                    nVInLoc*this.imageInput.getWidth() + nHOffset, 
-                    dataOut, 
-                    i*this.nWidth, 
-                    this.nWidth);
-        }
+        // the subimage is a view of the input; nothing is copied
+        imageResult.setView(
+                this.imageInput.getBuffer(), 
+                this.imageInput.getOffset() + 
+                    nVOffset*this.imageInput.getStride() + nHOffset, 
+                this.imageInput.getStride());
         this.nHorizIndex ++;
         if (this.nHorizIndex == this.nHorizLimit) {
             this.nVertIndex ++;
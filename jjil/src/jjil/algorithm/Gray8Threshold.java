@@ -27,16 +27,32 @@ import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
+import jjil.core.RowBands;
 
 /**
  * Threshold. Output is a Gray8Image with values less than threshold
  * set to Byte.MAX_VALUE, below threshold set to Byte.MIN_VALUE if
  * bWithin is true, opposite if bWithin is false.
+ * Rows are processed in parallel bands if an executor has been set with
+ * setParallel.
  * @author webb
  */
 public class Gray8Threshold extends PipelineStage {
     boolean bWithin;
     int nThreshold;
+    /** Data of the image being thresholded, set during push.
+     */
+    private byte[] bData;
+    /** Width of the image being thresholded.
+     */
+    private int cWidth;
+    /** Thresholds row bands of the current image.
+     */
+    private final RowBands rows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            thresholdRows(nFirstRow, nLimitRow);
+        }
+    });
     
     /**
      * Creates a new instance of Gray8Threshold
@@ -68,12 +84,24 @@ public class Gray8Threshold extends PipelineStage {
             				null);
         }
         Gray8Image gray = (Gray8Image) image;
-        byte[] data = gray.getData();
-        for (int i=0; i<data.length; i++) {
+        this.bData = gray.getData();
+        this.cWidth = gray.getWidth();
+        this.rows.run(super.getParallel(), gray.getHeight());
+        this.bData = null;
+        super.setOutput(image);
+    }
+    
+    /** Thresholds rows nFirstRow up to nLimitRow of the current image.
+     *
+     * @param nFirstRow first row to threshold.
+     * @param nLimitRow row after the last row to threshold.
+     */
+    private void thresholdRows(int nFirstRow, int nLimitRow) {
+        byte[] data = this.bData;
+        for (int i=nFirstRow*this.cWidth; i<nLimitRow*this.cWidth; i++) {
             data[i] = (((data[i]) < this.nThreshold)==this.bWithin) ?
             		Byte.MAX_VALUE : Byte.MIN_VALUE;
         }
-        super.setOutput(image);
     }
     
     /**
@@ -30,7 +30,9 @@ import jjil.core.PipelineStage;
 
 /**
  * This PipelineStage warps a trapezoid in the input gray image into a 
- * rectangular output image.
+ * rectangular output image. The warp is done in a single pass by a
+ * WarpEngine, in parallel row bands if an executor has been set with
+ * setParallel.
  * @author webb
  */
 public class Gray8TrapWarp extends PipelineStage {
@@ -41,6 +43,7 @@ public class Gray8TrapWarp extends PipelineStage {
    private int nColRightStart;
    private int nRowEnd;
    private int nRowStart;
+   private final WarpEngine engine = new WarpEngine();
    
     
     /** Creates a new instance of Gray8TrapWarp. Gray8TrapWarp warps a trapezoidal
@@ -126,11 +129,20 @@ public class Gray8TrapWarp extends PipelineStage {
        return this.nRowStart;
    }
 
+    /**
+     * Returns the sampling mode.
+     * @return WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     */
+    public int getSampling() {
+        return this.engine.getSampling();
+    }
+
     /**
      * Warps a trapezoidal region in the input gray image into a rectangular
-     * output image. Uses bilinear interpolation. The calculation of fractional
-     * image coordinates is done by multiplying all the coordinates by 256,
-     * to avoid floating point computation.
+     * output image. Uses bilinear interpolation unless nearest neighbor
+     * sampling has been selected. The fractional image coordinates are
+     * scaled by 2**16 and stepped incrementally along each output row, to
+     * avoid floating point computation.
      *
      * @param image the input gray image.
      * @throws jjil.core.Error if the input image is not gray,
@@ -155,35 +167,27 @@ public class Gray8TrapWarp extends PipelineStage {
     				this.toString(),
     				null);
         }
-        int fLeft = (this.nColLeftStart * 256);
-        int fRight = (this.nColRightStart * 256);
-        int nHeight = imageOutput.getHeight();
-        int nWidth = imageOutput.getWidth();
-        int fLeftIncr = ((this.nColLeftEnd - this.nColLeftStart) * 256) / nHeight;
-        int fRightIncr = ((this.nColRightEnd - this.nColRightStart) * 256) / nHeight;
-        byte[] in = ((Gray8Image) image).getData();
-        byte[] out = imageOutput.getData();
-        for (int i=0; i<nHeight; i++) {
-            // we scale everything by 8 bits for accurate computation without
-            // floating point
-            int fY = fLeft;
-            int fYIncr = (fRight - fLeft) / nWidth;
-            for (int j=0; j<nWidth; j++) {
-                int iY = Math.min(image.getWidth() - 2, fY / 256);
-                // truncate floating-point pixel position
-                int leftPixel = in[(i+this.nRowStart)*image.getWidth()+iY];
-                int rightPixel = in[(i+this.nRowStart)*image.getWidth()+iY+1];
-                // calculate fractional component of pixel between left and right
-                int interp = ((rightPixel - leftPixel) * (fY - (iY * 256))) / 256;
-                out[i*nWidth+j] = (byte) (leftPixel + interp);
-                fY += fYIncr;
-            }
-            fLeft += fLeftIncr;
-            fRight += fRightIncr;
-        }
+        // the output corners map to the trapezoid corners; the bottom
+        // corners lie on the bounding row
+        this.engine.setQuad(
+                this.nColLeftStart << 16, this.nRowStart << 16,
+                this.nColRightStart << 16, this.nRowStart << 16,
+                this.nColLeftEnd << 16, this.nRowEnd << 16,
+                this.nColRightEnd << 16, this.nRowEnd << 16);
+        this.engine.warp((Gray8Image) image, this.imageOutput, 
+                super.getParallel());
         super.setOutput(this.imageOutput);
     }
     
+    /**
+     * Sets the sampling mode.
+     * @param nSampling WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     * @throws jjil.core.Error if nSampling is not one of these.
+     */
+    public void setSampling(int nSampling) throws jjil.core.Error {
+        this.engine.setSampling(nSampling);
+    }
+    
     /** Sets the bounds of the trapezoid. Recreates the output image when they
      * change. The output height is set to the input trapezoid height, and the
      * output width is set to the larger of the trapezoid width at the first
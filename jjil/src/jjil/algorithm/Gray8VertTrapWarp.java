@@ -28,7 +28,9 @@ import jjil.core.PipelineStage;
 /**
  * This PipelineStage warps a trapezoid in the input gray image into a 
  * rectangular output image. The trapezoid is alined vertically, i.e., the
- * vertical edges are parallel
+ * vertical edges are parallel. The warp is done in a single pass by a
+ * WarpEngine, in parallel row bands if an executor has been set with
+ * setParallel.
  * @author webb
  */
 public class Gray8VertTrapWarp extends PipelineStage {
@@ -38,6 +40,7 @@ public class Gray8VertTrapWarp extends PipelineStage {
    private int nRowBotStart;
    private int nColEnd;
    private int nColStart;
+   private final WarpEngine engine = new WarpEngine();
    
     
     /** Creates a new instance of Gray8VertTrapWarp. Gray8VertTrapWarp warps a trapezoidal
@@ -123,11 +126,20 @@ public class Gray8VertTrapWarp extends PipelineStage {
        return this.nColStart;
    }
 
+    /**
+     * Returns the sampling mode.
+     * @return WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     */
+    public int getSampling() {
+        return this.engine.getSampling();
+    }
+
     /**
      * Warps a trapezoidal region in the input gray image into a rectangular
-     * output image. Uses bilinear interpolation. The calculation of fractional
-     * image coordinates is done by multiplying all the coordinates by 256,
-     * to avoid floating point computation.
+     * output image. Uses bilinear interpolation unless nearest neighbor
+     * sampling has been selected. The input position of each output pixel is
+     * kept in fixed point, scaled by 2**16, and advanced by a constant step
+     * along each output row.
      *
      * @param image the input gray image.
      * @throws jjil.core.Error if the input image is not gray,
@@ -152,40 +164,27 @@ public class Gray8VertTrapWarp extends PipelineStage {
     				this.toString(),
     				null);
         }
-        // we scale everything by 8 bits for accurate computation without
-        // floating point
-        int fTop = this.nRowTopStart << 8;
-        int fBot = this.nRowBotStart << 8;
-        int nHeight = imageOutput.getHeight();
-        int nWidth = imageOutput.getWidth();
-        int fTopIncr = ((this.nRowTopEnd - this.nRowTopStart) << 8) / nWidth;
-        int fBotIncr = ((this.nRowBotEnd - this.nRowBotStart) << 8) / nWidth;
-        byte[] in = ((Gray8Image) image).getData();
-        byte[] out = ((Gray8Image)super.imageOutput).getData();
-        for (int i=0; i<nWidth; i++) {
-            // these are scaled by 8 bits
-            int fY = fTop;
-            int fYIncr = (fBot - fTop) / nHeight;
-            for (int j=0; j<nHeight; j++) {
-                // truncate scaled pixel position
-                int iY = Math.min(image.getHeight() - 2, fY >> 8);
-                int topPixel = in[i+this.nColStart+(iY)*image.getWidth()];
-                int botPixel = in[i+this.nColStart+(iY+1)*image.getWidth()];
-                // calculate fractional component of pixel between left and right
-                int interp = ((botPixel - topPixel) * ((fY - (iY << 8))) >> 8);
-                out[i+j*nWidth] = (byte) Math.max(
-                        Byte.MIN_VALUE, 
-                        Math.min(
-                            Byte.MAX_VALUE, 
-                            topPixel + interp));
-                fY += fYIncr;
-            }
-            fTop += fTopIncr;
-            fBot += fBotIncr;
-        }
+        // the output corners map to the trapezoid corners; the right
+        // corners lie on the bounding column
+        this.engine.setQuad(
+                this.nColStart << 16, this.nRowTopStart << 16,
+                this.nColEnd << 16, this.nRowTopEnd << 16,
+                this.nColStart << 16, this.nRowBotStart << 16,
+                this.nColEnd << 16, this.nRowBotEnd << 16);
+        this.engine.warp((Gray8Image) image, (Gray8Image) super.imageOutput,
+                super.getParallel());
         super.setOutput(super.imageOutput);
     }
     
+    /**
+     * Sets the sampling mode.
+     * @param nSampling WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     * @throws jjil.core.Error if nSampling is not one of these.
+     */
+    public void setSampling(int nSampling) throws jjil.core.Error {
+        this.engine.setSampling(nSampling);
+    }
+    
     /** Sets the bounds of the trapezoid. Recreates the output image when they
      * change. The output height is set to the input trapezoid height, and the
      * output width is set to the larger of the trapezoid width at the first
@@ -26,24 +26,27 @@ package jjil.algorithm;
 import jjil.core.Complex;
 import jjil.core.Complex32Image;
 import jjil.core.Error;
-import jjil.core.Gray32Image;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.MathPlus;
+import jjil.core.ParallelExecutor;
 import jjil.core.PipelineStage;
 /**
  * Wiener deconvolution of input Gray8Image. You specify a point spread function
  * as a Gray8Image and a noise level. See PsfGray8 for point spread function
  * generating methods. The computation is done in the Fourier domain. The output
- * is of type Complex32Image.
+ * is of type Complex32Image.<p>
+ * The point spread function is held in a DeconvolutionPlan, which caches the
+ * filter computed from it for each image size, so images of any square size
+ * at least as large as the point spread function can be deconvolved.<p>
+ * The transforms and the filter are computed in interleaved complex int arrays
+ * (see FftInt); only the output is converted to Complex objects.
  * @author webb
  */
 public class Gray8WienerDeconv extends PipelineStage {
     private int nNoise;
-    private static final int nThreshold = 5;
     Gray8Fft fft;
-    Complex32Image cxmPsfInv;
-    Gray32Image gPsfSq;
+    DeconvolutionPlan plan;
     
     /**
      * Creates a new instance of Gray8WienerDeconv.
@@ -53,33 +56,35 @@ public class Gray8WienerDeconv extends PipelineStage {
      * @throws jjil.core.Error if the input point spread function is not a Gray8Image or not square.
      */
     public Gray8WienerDeconv(Gray8Image psf, int nNoise) throws jjil.core.Error {
-        if (psf.getWidth() != psf.getHeight()) {
-            throw new Error(
-            				Error.PACKAGE.ALGORITHM,
-            				ErrorCodes.IMAGE_NOT_SQUARE,
-            				psf.toString(),
-            				null,
-            				null);
-        }
-        if (!(psf instanceof Gray8Image)) {
-            throw new Error(
-            				Error.PACKAGE.ALGORITHM,
-            				ErrorCodes.IMAGE_NOT_GRAY8IMAGE,
-            				psf.toString(),
-            				null,
-            				null);
-        }
+        this(new DeconvolutionPlan(psf), nNoise);
+    }
+    
+    /**
+     * Creates a new instance of Gray8WienerDeconv which shares a
+     * DeconvolutionPlan, and so the filters cached in it, with other stages.
+     * @param plan the plan, holding the point spread function.
+     * @param nNoise the noise level.
+     */
+    public Gray8WienerDeconv(DeconvolutionPlan plan, int nNoise) {
+        this.plan = plan;
         this.nNoise = nNoise;
         this.fft = new Gray8Fft();
-        this.fft.push(psf);
-        this.cxmPsfInv = (Complex32Image) this.fft.getFront();
-        invertPsf();
+    }
+    
+    /**
+     * Returns the plan holding the point spread function and the filters
+     * computed from it.
+     * @return the plan.
+     */
+    public DeconvolutionPlan getPlan() {
+        return this.plan;
     }
     
     /**
      * Compute the deconvolution of the input Gray8Image, producing a Complex32Image.
      * @param im the input Gray8Image.
-     * @throws jjil.core.Error if the input image is not a Gray8Image or not square.
+     * @throws jjil.core.Error if the input image is not a Gray8Image or not square,
+     * or is smaller than the point spread function.
      */
     public void push(Image im) throws jjil.core.Error {
         if (im.getWidth() != im.getHeight()) {
@@ -90,15 +95,6 @@ public class Gray8WienerDeconv extends PipelineStage {
             				null,
             				null);
         }
-        if (im.getWidth() != this.cxmPsfInv.getWidth() ||
-        	im.getHeight() != this.cxmPsfInv.getHeight()) {
-            throw new Error(
-            				Error.PACKAGE.ALGORITHM,
-            				ErrorCodes.IMAGE_SIZES_DIFFER,
-            				im.toString(),
-            				this.cxmPsfInv.toString(),
-            				null);
-        }
         if (!(im instanceof Gray8Image)) {
             throw new Error(
             				Error.PACKAGE.ALGORITHM,
@@ -107,43 +103,32 @@ public class Gray8WienerDeconv extends PipelineStage {
             				null,
             				null);
         }
-        this.fft.push(im);
-        Complex32Image cxmIm = (Complex32Image) this.fft.getFront();
-        Complex cxIn[] = cxmIm.getData();
+        DeconvolutionPlan.Filter f = 
+                this.plan.getWienerFilter(im.getWidth(), im.getHeight());
+        int rnIn[] = this.fft.transform((Gray8Image) im);
         Complex32Image cxmResult = new Complex32Image(im.getWidth(), im.getHeight());
         Complex cxOut[] = cxmResult.getData();
-        Complex cxPsfInv[] = this.cxmPsfInv.getData();
-        int nPsfSq[] = this.gPsfSq.getData();
+        int rnPsfInv[] = f.rnInv;
+        int nPsfSq[] = f.nSq;
         // compute Wiener filter
         for (int i=0; i<im.getWidth() * im.getHeight(); i++) {
-            int nMag = cxIn[i].magnitude();
+            int nR = rnIn[2*i], nI = rnIn[2*i+1];
+            int nMag = FftInt.magnitude(nR, nI);
             int nScale = (nPsfSq[i] * nMag) / ((nPsfSq[i] * nMag) + this.nNoise);
-            cxOut[i] = cxIn[i].times(cxPsfInv[i]).times(nScale).rsh(MathPlus.SHIFT);
+            int nPr = rnPsfInv[2*i], nPi = rnPsfInv[2*i+1];
+            cxOut[i] = new Complex(
+                    ((nR * nPr - nI * nPi) * nScale) >> MathPlus.SHIFT,
+                    ((nR * nPi + nI * nPr) * nScale) >> MathPlus.SHIFT);
         }
         super.setOutput(cxmResult);
     }
     
-    private void invertPsf() throws jjil.core.Error {
-        this.gPsfSq = new Gray32Image(this.cxmPsfInv.getWidth(), this.cxmPsfInv.getHeight());
-        Complex cxPsf[] = this.cxmPsfInv.getData();
-        int nData[] = this.gPsfSq.getData();
-        for (int i=0; i<this.cxmPsfInv.getWidth() * this.cxmPsfInv.getHeight(); i++) {
-            if (Math.abs(cxPsf[i].real()) > MathPlus.SCALE ||
-                Math.abs(cxPsf[i].imag()) > MathPlus.SCALE) {
-                cxPsf[i] = new Complex(0);
-                nData[i] = 1;
-            } else {
-                int nSq = cxPsf[i].square();
-                nData[i] = nSq;
-                if (nSq < Gray8WienerDeconv.nThreshold) {
-                    // if the square value is too small we will be enhancing noise
-                    // too much
-                    cxPsf[i] = new Complex(MathPlus.SCALE);
-                    nData[i] = 1;
-                } else {
-                    cxPsf[i] = new Complex(MathPlus.SCALE).div(cxPsf[i]);
-                }
-            }
-        }
+    /**
+     * Sets the executor used for the forward transform.
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        this.fft.setParallel(pe);
     }
 }
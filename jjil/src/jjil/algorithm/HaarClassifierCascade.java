@@ -88,6 +88,17 @@ public abstract class HaarClassifierCascade implements Serializable {
         return height;
     }
     
+    /**
+     * Returns a cascade which makes the same tests as this one but evaluates
+     * them faster, or this cascade if no faster form is available. The stump
+     * based cascade loaded by fromStream() compiles to a
+     * HaarClassifierCompiled.
+     * @return the compiled cascade.
+     */
+    public HaarClassifierCascade compile() {
+        return this;
+    }
+    
    
     /**
      * Reads an array of characters, skipping newlines.
@@ -125,6 +136,39 @@ public abstract class HaarClassifierCascade implements Serializable {
      */
     public abstract boolean eval(Image i) throws jjil.core.Error;
     
+    /**
+     * Applies the Haar cascade to a window in a larger image, using the
+     * integral images of the whole image. This makes the same test as
+     * eval(Image) on a copy of the window, but the window's statistics and
+     * all the rectangle sums are read from the integral images, so the time
+     * taken depends on the number of features and not on the window size.
+     * @param ii integral images of the image containing the window.
+     * @param nX left column of the window.
+     * @param nY top row of the window.
+     * @return true iff the window passes all the tests in the Haar cascade.
+     * @throws jjil.core.Error if the window does not lie inside the image.
+     */
+    public abstract boolean eval(Gray8IntegralImage ii, int nX, int nY) 
+        throws jjil.core.Error;
+    
+    /**
+     * Applies the Haar cascade to a window in a larger image, like
+     * eval(Gray8IntegralImage, int, int), and returns a measure of how
+     * strongly the window passed. This implementation returns 0 for every
+     * window which passes; HaarClassifierCompiled returns the amount by
+     * which the sum for the last stage exceeded its threshold.
+     * @param ii integral images of the image containing the window.
+     * @param nX left column of the window.
+     * @param nY top row of the window.
+     * @return -1 if the window fails the cascade, otherwise a non-negative
+     * confidence.
+     * @throws jjil.core.Error if the window does not lie inside the image.
+     */
+    public int evalMargin(Gray8IntegralImage ii, int nX, int nY) 
+        throws jjil.core.Error {
+        return eval(ii, nX, nY) ? 0 : -1;
+    }
+    
     /**
      * Support method for reading integers from an input stream. The single-character
      * separator following the integer is also read. So a stream containing
@@ -209,7 +253,33 @@ public abstract class HaarClassifierCascade implements Serializable {
             // We precompute the indices of the features so we have to
             // change their values whenever the image width changes.
             protected abstract void setWidth(int nWidth);
-
+            // eval returns the rectangle feature value for the window whose
+            // top left corner is at nBase in an integral image with a zero
+            // first row and column, as formed by Gray8IntegralImage.
+            protected abstract int eval(int[] data, int nBase);
+            // We precompute the corner offsets from the window corner so we
+            // have to change them whenever the integral image width changes.
+            protected abstract void setStride(int nStride);
+            // getRect returns the rectangle as {tlx, tly, w, h, weight}. It
+            // is used to compile the cascade.
+            protected abstract int[] getRect();
+            
+            // Corner offsets used by eval(int[], int). All four corners are
+            // needed even at the top or left of the window since the window
+            // is generally not at the top or left of the image.
+            protected int nTl, nTr, nBl, nBr;
+            
+            protected void setCorners(int tlx, int tly, int w, int h, int nStride) {
+                this.nTl = tly*nStride + tlx;
+                this.nTr = tly*nStride + tlx+w;
+                this.nBl = (tly+h)*nStride + tlx;
+                this.nBr = (tly+h)*nStride + tlx+w;
+            }
+            
+            protected int sum(int[] data, int nBase) {
+                return data[nBase+this.nBr] - data[nBase+this.nTr] -
+                       data[nBase+this.nBl] + data[nBase+this.nTl];
+            }
         }
         
         // Used for third null rectangle when a HaarFeature only uses 2 
@@ -229,9 +299,20 @@ public abstract class HaarClassifierCascade implements Serializable {
                 return 0;
             }
             
+            protected int eval(int[] data, int nBase) {
+                return 0;
+            }
+            
             protected void setWidth(int nWidth) {
             }
             
+            protected void setStride(int nStride) {
+            }
+            
+            protected int[] getRect() {
+                return new int[] {0, 0, 0, 0, 0};
+            }
+            
             public String toString() {
                 return "(hr 0 0 0 0 0)"; //$NON-NLS-1$
             }
@@ -272,6 +353,18 @@ public abstract class HaarClassifierCascade implements Serializable {
                     this.n4 = (tly+h-1)*nWidth + (tlx-1);
              }
             
+            protected int eval(int[] data, int nBase) {
+                return weight * sum(data, nBase);
+            }
+            
+            protected void setStride(int nStride) {
+                setCorners(tlx, tly, w, h, nStride);
+            }
+            
+            protected int[] getRect() {
+                return new int[] {tlx, tly, w, h, weight};
+            }
+            
             public String toString() {
                 return "(hr " + this.tlx + " " + this.tly + //$NON-NLS-1$ //$NON-NLS-2$
                         " " + this.w + " " + this.h +  //$NON-NLS-1$ //$NON-NLS-2$
@@ -313,6 +406,18 @@ public abstract class HaarClassifierCascade implements Serializable {
                 this.n3 = (tly-1)*nWidth + w - 1;
             }
             
+            protected int eval(int[] data, int nBase) {
+                return weight * sum(data, nBase);
+            }
+            
+            protected void setStride(int nStride) {
+                setCorners(0, tly, w, h, nStride);
+            }
+            
+            protected int[] getRect() {
+                return new int[] {0, tly, w, h, weight};
+            }
+            
             public String toString() {
                 return "(hr 0 " + this.tly + //$NON-NLS-1$
                         " " + this.w + " " + this.h +  //$NON-NLS-1$ //$NON-NLS-2$
@@ -354,6 +459,18 @@ public abstract class HaarClassifierCascade implements Serializable {
                     this.n4 = (h - 1)*nWidth + (tlx-1);
             }
             
+            protected int eval(int[] data, int nBase) {
+                return weight * sum(data, nBase);
+            }
+            
+            protected void setStride(int nStride) {
+                setCorners(tlx, 0, w, h, nStride);
+            }
+            
+            protected int[] getRect() {
+                return new int[] {tlx, 0, w, h, weight};
+            }
+            
             public String toString() {
                 return "(hr " + this.tlx + " 0 " +  //$NON-NLS-1$ //$NON-NLS-2$
                         this.w + " " + this.h +  //$NON-NLS-1$
@@ -390,6 +507,18 @@ public abstract class HaarClassifierCascade implements Serializable {
                 // usual case, when nWidth doesn't change.'
                 this.n2 = (h - 1)*nWidth + w - 1;
              }
+            
+            protected int eval(int[] data, int nBase) {
+                return weight * sum(data, nBase);
+            }
+            
+            protected void setStride(int nStride) {
+                setCorners(0, 0, w, h, nStride);
+            }
+            
+            protected int[] getRect() {
+                return new int[] {0, 0, w, h, weight};
+            }
              
             public String toString() {
                 return "(hr 0 0 " + this.w + " " + this.h +  //$NON-NLS-1$ //$NON-NLS-2$
@@ -504,6 +633,47 @@ public abstract class HaarClassifierCascade implements Serializable {
             }           
         }
         
+        /**
+         * Applies the HaarFeature to a window in an integral image formed by
+         * Gray8IntegralImage.
+         * @param data the integral image data. Its row length should be equal
+         * to the last stride passed to setStride().
+         * @param nBase the offset of the top left corner of the window in data.
+         * @return the integer equal to the result of convolving the rectangles in the feature with the window.
+         */
+        public int eval(int[] data, int nBase) {
+            int nSum = 0;
+            for (int i=0; i<rect.length; i++) {
+                nSum += rect[i].eval(data, nBase);
+            }
+            return nSum;
+        }
+        
+        /**
+         * Changes the integral image row length for the current feature. The row
+         * length is used to pre-calculate the offsets of the rectangle corners
+         * from the window corner.
+         * @param nStride The expected integral image row length.
+         */
+        public void setStride(int nStride) {
+            for (int i=0; i<rect.length; i++) {
+                rect[i].setStride(nStride);
+            }           
+        }
+        
+        /**
+         * Returns the rectangles in the feature, each as {tlx, tly, w, h, weight}.
+         * Rectangles with an area of 0 are included with all values 0.
+         * @return the rectangles.
+         */
+        public int[][] getRects() {
+            int[][] rnRects = new int[rect.length][];
+            for (int i=0; i<rect.length; i++) {
+                rnRects[i] = rect[i].getRect();
+            }
+            return rnRects;
+        }
+        
         /**
          * Returns a String representation of the HaarFeature. Passing this String
          * to the constructor via an input stream will create a HaarFeature with the
@@ -532,6 +702,15 @@ public abstract class HaarClassifierCascade implements Serializable {
          * @return The result of applying the weak classifier to the image.
          */
         public int eval(Gray32Image image);
+        
+        /**
+         * Applies a HaarWeakClassifier to a window in an integral image.
+         * @param data integral image data, as formed by Gray8IntegralImage.
+         * @param nBase offset of the top left corner of the window in data.
+         * @param stdDev standard deviation of the window, times 256.
+         * @return The result of applying the weak classifier to the window.
+         */
+        public int eval(int[] data, int nBase, int stdDev);
     };
     
     /**
@@ -550,6 +729,16 @@ public abstract class HaarClassifierCascade implements Serializable {
          * if not.
          */
         public boolean eval(Gray32Image image);
+        
+        /**
+         * Applies a HaarStageClassifier to a window in an integral image.
+         * @param data integral image data, as formed by Gray8IntegralImage.
+         * @param nBase offset of the top left corner of the window in data.
+         * @param stdDev standard deviation of the window, times 256.
+         * @return true if the window passes this stage of the classifier, false
+         * if not.
+         */
+        public boolean eval(int[] data, int nBase, int stdDev);
     };
  
 
@@ -644,6 +833,21 @@ class HaarClassifierTreeBase extends HaarClassifierCascade
             }
 
         }
+        
+        public int eval(int[] data, int nBase, int stdDev) {
+            int nHf = this.feature.eval(data, nBase);
+            HaarWeakClassifier hcNext;
+            if (nHf < this.threshold) {
+                hcNext = this.left;
+            } else {
+                hcNext = this.right;
+            }
+            if (hcNext == null) {
+                return this.alpha;
+            } else {
+                return hcNext.eval(data, nBase, stdDev);
+            }
+        }
     };
     
    
@@ -690,6 +894,29 @@ class HaarClassifierTreeBase extends HaarClassifierCascade
             }
         }
     }
+    
+    public boolean eval(Gray8IntegralImage ii, int nX, int nY) 
+        throws jjil.core.Error {
+        int[] data = ii.getSum();
+        int nBase = nY * ii.getStride() + nX;
+        int nSumHc = 0;
+        for (int i=0; i<this.classifier.length; i++) {
+            nSumHc += this.classifier[i].eval(data, nBase, 0);
+        }
+        if (nSumHc >= this.threshold) {
+            if (this.child == null) {
+                return true;
+            } else {
+                return this.child.eval(data, nBase, 0);
+            }
+        } else {
+            if (this.parent == null || this.parent.next == null) {
+                return false;
+            } else {
+                return this.parent.next.eval(data, nBase, 0);
+            }
+        }
+    }
 }
 
 
@@ -715,6 +942,12 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
     // t = threshold * variance_norm_factor. If < t then it returns a,
     // o/w b.
     private int nWidth = 0;     // for detecting when image width changes
+    private int nStride = 0;    // for detecting when integral image width changes
+    // stages used by eval(Image), created on first use and then reused for
+    // every window. Both read their input in place, so a window which is a
+    // view of a larger image is not copied.
+    private transient Gray8Statistics gs = null;
+    private transient Gray8QmSum gcs = null;
     
     public class HaarWeakClassifierStump 
     	implements HaarWeakClassifier, Serializable
@@ -764,12 +997,27 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
             }
         }
         
+        // the threshold is computed here rather than set by setStdDev
+        // because the standard deviation changes with every window
+        public int eval(int[] data, int nBase, int stdDev) {
+            int nHf = this.feature.eval(data, nBase) << 12;
+            if (nHf < threshold(stdDev)) { 
+                return a;
+            } else {
+                return b;
+            }
+        }
+        
         public void setWidth(int nWidth) {
             this.feature.setWidth(nWidth);
             // width affects threshold
             setThreshold();
         }
         
+        public void setStride(int nStride) {
+            this.feature.setStride(nStride);
+        }
+        
         // this should be called whenever the underlying image changes
         // it accepts the standard deviation of the image, multiplied by
         // 256
@@ -779,10 +1027,13 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
         }
         
         private void setThreshold() {
-            this.modThreshold = ((this.threshold * this.stdDev >> 6)
+            this.modThreshold = threshold(this.stdDev);
+        }
+        
+        private int threshold(int stdDev) {
+            return ((this.threshold * stdDev >> 6)
                     * this.width * this.height) >> 6;
-                //    this.threshold * this.stdDev / 256 / 65536;
-            
+                //    this.threshold * stdDev / 256 / 65536;
         }
         
         public String toString() {
@@ -838,12 +1089,26 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
             return (stageSum >= this.threshold);
         }
         
+        public boolean eval(int[] data, int nBase, int stdDev) {         
+            int stageSum = 0;
+            for (int i=0; i<this.hwcs.length; i++) {
+                stageSum += this.hwcs[i].eval(data, nBase, stdDev);
+            }
+            return (stageSum >= this.threshold);
+        }
+        
         public void setWidth(int nWidth) {
             for (int i=0; i<this.hwcs.length; i++) {
                 this.hwcs[i].setWidth(nWidth);
             }
         }
         
+        public void setStride(int nStride) {
+            for (int i=0; i<this.hwcs.length; i++) {
+                this.hwcs[i].setStride(nStride);
+            }
+        }
+        
         public void setStdDev(int stdDev) {
             for (int i=0; i<this.hwcs.length; i++) {
                 this.hwcs[i].setStdDev(stdDev);
@@ -871,9 +1136,13 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
                                  null);
             }
             // calculate the standard deviation of the input mage
-            Gray8Statistics gs = new Gray8Statistics();     // for computing standard deviation
-            gs.push(image);
-            int stdDev = gs.getStdDev();
+            if (this.gs == null) {
+                this.gs = new Gray8Statistics();    // for computing standard deviation
+                this.gcs = new Gray8QmSum();        // for forming cumulative sum
+                this.gcs.setReuseOutput(true);
+            }
+            this.gs.push(image);
+            int stdDev = this.gs.getStdDev();
             int nWidth = image.getWidth();
             if (this.nWidth != nWidth) {
                 for (int i=0; i<this.hsc.length; i++) {
@@ -882,9 +1151,8 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
             }
             this.nWidth = nWidth;
             // form the cumulative sum of the image
-            Gray8QmSum gcs = new Gray8QmSum(); // for forming cumulative sum
-            gcs.push(image);
-            Gray32Image g32 = (Gray32Image) gcs.getFront();
+            this.gcs.push(image);
+            Gray32Image g32 = (Gray32Image) this.gcs.getFront();
             for (int i=0; i<this.hsc.length; i++) {
                 this.hsc[i].setStdDev(stdDev);
                 if (!this.hsc[i].eval(g32)) {
@@ -893,6 +1161,104 @@ class  HaarClassifierStumpBase extends HaarClassifierCascade
             }
             return true;
         }
+        
+        /**
+         * Compiles the cascade into flat arrays. The result makes exactly the
+         * same tests as this cascade.
+         * @return the compiled cascade.
+         */
+        public HaarClassifierCascade compile() {
+            int cWeak = 0;
+            int cRects = 0;
+            for (int i=0; i<this.hsc.length; i++) {
+                cWeak += this.hsc[i].hwcs.length;
+                for (int j=0; j<this.hsc[i].hwcs.length; j++) {
+                    int[][] rnRects = this.hsc[i].hwcs[j].feature.getRects();
+                    for (int k=0; k<rnRects.length; k++) {
+                        if (rnRects[k][4] != 0 && 
+                            rnRects[k][2] != 0 && rnRects[k][3] != 0) {
+                            cRects++;
+                        }
+                    }
+                }
+            }
+            int[] rnStageEnd = new int[this.hsc.length];
+            int[] rnStageThreshold = new int[this.hsc.length];
+            int[] rnWeakEnd = new int[cWeak];
+            int[] rnThreshold = new int[cWeak];
+            int[] rnA = new int[cWeak];
+            int[] rnB = new int[cWeak];
+            int[] rnRect = new int[5 * cRects];
+            int nWeak = 0;
+            int nRect = 0;
+            for (int i=0; i<this.hsc.length; i++) {
+                HaarClassifierStump stage = this.hsc[i];
+                for (int j=0; j<stage.hwcs.length; j++) {
+                    HaarWeakClassifierStump weak = stage.hwcs[j];
+                    int[][] rnRects = weak.feature.getRects();
+                    for (int k=0; k<rnRects.length; k++) {
+                        // rectangles which cannot contribute are dropped
+                        if (rnRects[k][4] != 0 && 
+                            rnRects[k][2] != 0 && rnRects[k][3] != 0) {
+                            System.arraycopy(rnRects[k], 0, rnRect, 5*nRect, 5);
+                            nRect++;
+                        }
+                    }
+                    rnWeakEnd[nWeak] = nRect;
+                    rnThreshold[nWeak] = weak.threshold;
+                    rnA[nWeak] = weak.a;
+                    rnB[nWeak] = weak.b;
+                    nWeak++;
+                }
+                rnStageEnd[i] = nWeak;
+                rnStageThreshold[i] = stage.threshold;
+            }
+            return new HaarClassifierCompiled(
+                    this.width, 
+                    this.height,
+                    rnStageEnd,
+                    rnStageThreshold,
+                    rnWeakEnd,
+                    rnThreshold,
+                    rnA,
+                    rnB,
+                    rnRect);
+        }
+        
+        public boolean eval(Gray8IntegralImage ii, int nX, int nY) 
+            throws jjil.core.Error {
+            if (nX < 0 || nY < 0 || 
+                nX + this.width > ii.getWidth() || 
+                nY + this.height > ii.getHeight()) {
+                throw new Error(
+                                Error.PACKAGE.ALGORITHM,
+                                ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                                nX + "," + nY, //$NON-NLS-1$
+                                ii.getWidth() + "x" + ii.getHeight(), //$NON-NLS-1$
+                                this.width + "x" + this.height); //$NON-NLS-1$
+            }
+            // the window statistics come from the integral images, giving
+            // exactly the values Gray8Statistics would compute on a copy
+            int stdDev = Gray8Statistics.stdDev(Gray8Statistics.variance(
+                    ii.getSum(nX, nY, this.width, this.height),
+                    ii.getSumSq(nX, nY, this.width, this.height),
+                    this.width * this.height));
+            int nStride = ii.getStride();
+            if (this.nStride != nStride) {
+                for (int i=0; i<this.hsc.length; i++) {
+                    this.hsc[i].setStride(nStride);
+                }
+            }
+            this.nStride = nStride;
+            int[] data = ii.getSum();
+            int nBase = nY * nStride + nX;
+            for (int i=0; i<this.hsc.length; i++) {
+                if (!this.hsc[i].eval(data, nBase, stdDev)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     
     private HaarClassifierStump[] hsc;   // Haar feature tested by this classifier
 
@@ -0,0 +1,468 @@
+/*
+ * HaarClassifierCompiled.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jjil.core.Error;
+import jjil.core.Image;
+
+/**
+ * HaarClassifierCompiled is a stump-based Haar classifier cascade stored in
+ * flat arrays, as produced by HaarClassifierCascade.compile(). It makes
+ * exactly the same tests as the cascade it was compiled from, but evaluates
+ * them in a single loop over the arrays instead of by calls through the
+ * stage, weak classifier, feature, and rectangle objects, and it does not
+ * modify any of its classifiers to evaluate a window.<p>
+ * The stages are stored as the index of the weak classifier after each
+ * stage's last one, and the stage thresholds. Each weak classifier is stored
+ * as the index of the rectangle after its last one, its threshold, and the
+ * values a and b it returns when the feature is below or not below the
+ * threshold. Rectangles are stored as five ints each: tlx, tly, w, h, and
+ * weight; rectangles of zero weight or area are omitted.<p>
+ * The rectangle corner offsets depend on the row length of the integral image
+ * and are computed when a new row length is seen. The offset tables for the
+ * most recent row lengths are kept, and are never modified once made. The
+ * list of tables is replaced, never changed, and is held in a volatile
+ * field, so a thread sees a new list only after its tables are complete
+ * and a HaarClassifierCompiled may be used by several threads at once.<p>
+ * A compiled cascade can be written in a compact binary form with
+ * toBinaryStream() and loaded with fromBinaryStream(), which is much faster
+ * than parsing the text form. The binary form is a sequence of big-endian
+ * ints: the characters "HCC1", the cascade width and height, the number of
+ * stages, weak classifiers, and rectangles, and then the arrays described
+ * above in the order rnStageEnd, rnStageThreshold, rnWeakEnd, rnThreshold,
+ * rnA, rnB, rnRect.
+ * @author webb
+ */
+public class HaarClassifierCompiled extends HaarClassifierCascade {
+    /**
+	 *
+	 */
+	private static final long serialVersionUID = -2740571625408711958L;
+    /**
+     * The number of corner offset tables kept. One is needed for each scale
+     * being searched at the same time.
+     */
+    private static final int OFFSET_TABLES = 16;
+    /**
+     * The first int of the binary form, "HCC1".
+     */
+    private static final int BINARY_MAGIC = 0x48434331;
+    /**
+     * The most ints the body of the binary form may have, 16 MB. The OpenCV
+     * frontal face cascade needs about 40000, so this only stops a corrupt
+     * header from making the loader allocate huge or negative sized arrays.
+     */
+    private static final int MAX_BINARY_INTS = 1 << 22;
+
+    private final int[] rnStageEnd; // index of weak classifier after each stage
+    private final int[] rnStageThreshold; // stage thresholds
+    private final int[] rnWeakEnd; // index of rectangle after each weak classifier
+    private final int[] rnThreshold; // weak classifier thresholds
+    private final int[] rnA; // weak classifier result if below threshold
+    private final int[] rnB; // weak classifier result otherwise
+    private final int[] rnRect; // tlx, tly, w, h, weight for each rectangle
+    // corner offset tables. Element 0 of each is the integral image row length
+    // it was made for, followed by the top left, top right, bottom left, and
+    // bottom right offsets of each rectangle. Volatile so that a thread
+    // reading a new list also sees the tables stored in it.
+    private transient volatile int[][] rgOffsets = new int[0][];
+
+    /**
+     * Creates a new instance of HaarClassifierCompiled from its arrays. The
+     * arrays are not copied.
+     * @param width the cascade image width.
+     * @param height the cascade image height.
+     * @param rnStageEnd index of the weak classifier after each stage.
+     * @param rnStageThreshold threshold for each stage.
+     * @param rnWeakEnd index of the rectangle after each weak classifier.
+     * @param rnThreshold threshold for each weak classifier, times 65536.
+     * @param rnA result of each weak classifier if the feature is below the threshold.
+     * @param rnB result of each weak classifier otherwise.
+     * @param rnRect tlx, tly, w, h, and weight of each rectangle.
+     */
+    HaarClassifierCompiled(
+            int width,
+            int height,
+            int[] rnStageEnd,
+            int[] rnStageThreshold,
+            int[] rnWeakEnd,
+            int[] rnThreshold,
+            int[] rnA,
+            int[] rnB,
+            int[] rnRect) {
+        this.width = width;
+        this.height = height;
+        this.rnStageEnd = rnStageEnd;
+        this.rnStageThreshold = rnStageThreshold;
+        this.rnWeakEnd = rnWeakEnd;
+        this.rnThreshold = rnThreshold;
+        this.rnA = rnA;
+        this.rnB = rnB;
+        this.rnRect = rnRect;
+    }
+
+    /**
+     * Loads a compiled cascade written by toBinaryStream(). The body of the
+     * cascade is read into a byte array with one call, after checking that
+     * the counts in the header give a reasonable size, and the arrays are
+     * then decoded from it.
+     * @param is the input stream.
+     * @return the cascade.
+     * @throws jjil.core.Error if the input is not a binary cascade or ends early.
+     * @throws java.io.IOException if the read from is fails.
+     */
+    public static HaarClassifierCompiled fromBinaryStream(InputStream is) 
+        throws jjil.core.Error, IOException
+    {
+        DataInputStream dis = new DataInputStream(is);
+        int[] rnHeader = new int[6];
+        readInts(dis, rnHeader);
+        if (rnHeader[0] != BINARY_MAGIC) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARSE_ERROR,
+                            Integer.toHexString(rnHeader[0]),
+                            Integer.toHexString(BINARY_MAGIC),
+                            is.toString());
+        }
+        int width = rnHeader[1];
+        int height = rnHeader[2];
+        int cStages = rnHeader[3];
+        int cWeak = rnHeader[4];
+        int cRects = rnHeader[5];
+        // long, so that corrupt counts cannot overflow
+        long lInts = 2L * cStages + 4L * cWeak + 5L * cRects;
+        if (width <= 0 || height <= 0 || 
+            cStages < 0 || cWeak < 0 || cRects < 0 ||
+            cStages > MAX_BINARY_INTS || cWeak > MAX_BINARY_INTS ||
+            cRects > MAX_BINARY_INTS || lInts > MAX_BINARY_INTS) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARSE_ERROR,
+                            width + "x" + height + " " + cStages + " " + //$NON-NLS-1$ //$NON-NLS-2$
+                                cWeak + " " + cRects, //$NON-NLS-1$
+                            null,
+                            is.toString());
+        }
+        int[] rnData = new int[(int) lInts];
+        readInts(dis, rnData);
+        int[] rnStageEnd = new int[cStages];
+        int[] rnStageThreshold = new int[cStages];
+        int[] rnWeakEnd = new int[cWeak];
+        int[] rnThreshold = new int[cWeak];
+        int[] rnA = new int[cWeak];
+        int[] rnB = new int[cWeak];
+        int[] rnRect = new int[5 * cRects];
+        int n = 0;
+        int[][] rgArrays = {
+            rnStageEnd, rnStageThreshold, rnWeakEnd, rnThreshold, rnA, rnB, rnRect
+        };
+        for (int i=0; i<rgArrays.length; i++) {
+            System.arraycopy(rnData, n, rgArrays[i], 0, rgArrays[i].length);
+            n += rgArrays[i].length;
+        }
+        // the evaluator does no checking, so make sure every index and
+        // rectangle is in range
+        boolean fOk = checkEnds(rnStageEnd, cWeak) && checkEnds(rnWeakEnd, cRects);
+        for (int i=0; fOk && i<cRects; i++) {
+            int tlx = rnRect[5*i];
+            int tly = rnRect[5*i+1];
+            int w = rnRect[5*i+2];
+            int h = rnRect[5*i+3];
+            fOk = tlx >= 0 && tly >= 0 && w >= 0 && h >= 0 &&
+                    tlx + w <= width && tly + h <= height;
+        }
+        if (!fOk) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARSE_ERROR,
+                            "HCC1", //$NON-NLS-1$
+                            null,
+                            is.toString());
+        }
+        return new HaarClassifierCompiled(
+                width,
+                height,
+                rnStageEnd,
+                rnStageThreshold,
+                rnWeakEnd,
+                rnThreshold,
+                rnA,
+                rnB,
+                rnRect);
+    }
+    
+    /**
+     * Checks that an array of end indices is non-decreasing and ends at the
+     * number of elements it indexes.
+     * @param rnEnd the end indices.
+     * @param cLimit the number of elements.
+     * @return true iff the indices are valid.
+     */
+    private static boolean checkEnds(int[] rnEnd, int cLimit) {
+        int nLast = 0;
+        for (int i=0; i<rnEnd.length; i++) {
+            if (rnEnd[i] < nLast || rnEnd[i] > cLimit) {
+                return false;
+            }
+            nLast = rnEnd[i];
+        }
+        return nLast == cLimit;
+    }
+    
+    /**
+     * Reads an array of big-endian ints with a single read. The array must
+     * have no more than MAX_BINARY_INTS elements.
+     * @param dis the input stream.
+     * @param rn the array to fill.
+     * @throws jjil.core.Error if the input ends before the array is filled.
+     * @throws java.io.IOException if the read fails.
+     */
+    private static void readInts(DataInputStream dis, int[] rn) 
+        throws jjil.core.Error, IOException
+    {
+        byte[] rb = new byte[4 * rn.length];
+        try {
+            dis.readFully(rb);
+        } catch (EOFException e) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.INPUT_TERMINATED_EARLY,
+                            dis.toString(),
+                            null,
+                            null);
+        }
+        for (int i=0, j=0; i<rn.length; i++, j+=4) {
+            rn[i] = (rb[j] << 24) | ((rb[j+1] & 0xff) << 16) |
+                    ((rb[j+2] & 0xff) << 8) | (rb[j+3] & 0xff);
+        }
+    }
+    
+    /**
+     * Writes the cascade in the binary form read by fromBinaryStream().
+     * @param os the output stream.
+     * @throws java.io.IOException if the write fails.
+     */
+    public void toBinaryStream(OutputStream os) throws IOException {
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(BINARY_MAGIC);
+        dos.writeInt(this.width);
+        dos.writeInt(this.height);
+        dos.writeInt(this.rnStageEnd.length);
+        dos.writeInt(this.rnWeakEnd.length);
+        dos.writeInt(this.rnRect.length / 5);
+        int[][] rgArrays = {
+            this.rnStageEnd, this.rnStageThreshold, this.rnWeakEnd, 
+            this.rnThreshold, this.rnA, this.rnB, this.rnRect
+        };
+        for (int i=0; i<rgArrays.length; i++) {
+            for (int j=0; j<rgArrays[i].length; j++) {
+                dos.writeInt(rgArrays[i][j]);
+            }
+        }
+        dos.flush();
+    }
+    
+    /**
+     * Returns this cascade, which is already compiled.
+     * @return this.
+     */
+    public HaarClassifierCascade compile() {
+        return this;
+    }
+
+    /**
+     * Applies the Haar cascade to an image the size of the cascade.
+     * @param image the input Gray8Image.
+     * @return true iff the input image passes all the tests in the Haar cascade.
+     * @throws jjil.core.Error if the input image is not a Gray8Image or is
+     * smaller than the cascade.
+     */
+    public boolean eval(Image image) throws jjil.core.Error {
+        Gray8IntegralImage ii = new Gray8IntegralImage();
+        ii.push(image);
+        return eval(ii, 0, 0);
+    }
+
+    /**
+     * Applies the Haar cascade to a window in a larger image, using the
+     * integral images of the whole image.
+     * @param ii integral images of the image containing the window.
+     * @param nX left column of the window.
+     * @param nY top row of the window.
+     * @return true iff the window passes all the tests in the Haar cascade.
+     * @throws jjil.core.Error if the window does not lie inside the image.
+     */
+    public boolean eval(Gray8IntegralImage ii, int nX, int nY)
+        throws jjil.core.Error {
+        return evalMargin(ii, nX, nY) >= 0;
+    }
+
+    /**
+     * Applies the Haar cascade to a window in a larger image and returns
+     * the amount by which the window passed the last stage.
+     * @param ii integral images of the image containing the window.
+     * @param nX left column of the window.
+     * @param nY top row of the window.
+     * @return -1 if the window fails any stage, otherwise the last stage sum
+     * minus the last stage threshold.
+     * @throws jjil.core.Error if the window does not lie inside the image.
+     */
+    public int evalMargin(Gray8IntegralImage ii, int nX, int nY)
+        throws jjil.core.Error {
+        if (nX < 0 || nY < 0 ||
+            nX + this.width > ii.getWidth() ||
+            nY + this.height > ii.getHeight()) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            nX + "," + nY, //$NON-NLS-1$
+                            ii.getWidth() + "x" + ii.getHeight(), //$NON-NLS-1$
+                            this.width + "x" + this.height); //$NON-NLS-1$
+        }
+        int nArea = this.width * this.height;
+        int stdDev = Gray8Statistics.stdDev(Gray8Statistics.variance(
+                ii.getSum(nX, nY, this.width, this.height),
+                ii.getSumSq(nX, nY, this.width, this.height),
+                nArea));
+        int nStride = ii.getStride();
+        int[] rnOffset = getOffsets(nStride);
+        int[] data = ii.getSum();
+        int nBase = nY * nStride + nX;
+        int nWeak = 0;
+        int nRect = 0;
+        int nMargin = 0;
+        for (int nStage=0; nStage<this.rnStageEnd.length; nStage++) {
+            int nStageSum = 0;
+            int nWeakEnd = this.rnStageEnd[nStage];
+            for (; nWeak<nWeakEnd; nWeak++) {
+                int nFeature = 0;
+                int nRectEnd = this.rnWeakEnd[nWeak];
+                for (; nRect<nRectEnd; nRect++) {
+                    int n = 4 * nRect + 1;
+                    nFeature += this.rnRect[5 * nRect + 4] *
+                            (data[nBase + rnOffset[n+3]] -
+                             data[nBase + rnOffset[n+1]] -
+                             data[nBase + rnOffset[n+2]] +
+                             data[nBase + rnOffset[n]]);
+                }
+                // threshold * stdDev / 256 / 65536, scaled by the window area
+                int nThreshold =
+                        ((this.rnThreshold[nWeak] * stdDev >> 6) * nArea) >> 6;
+                if ((nFeature << 12) < nThreshold) {
+                    nStageSum += this.rnA[nWeak];
+                } else {
+                    nStageSum += this.rnB[nWeak];
+                }
+            }
+            nMargin = nStageSum - this.rnStageThreshold[nStage];
+            if (nMargin < 0) {
+                return -1;
+            }
+        }
+        return nMargin;
+    }
+
+    /**
+     * Returns the corner offset table for an integral image row length,
+     * making it if necessary.
+     * @param nStride the integral image row length.
+     * @return the offset table.
+     */
+    private int[] getOffsets(int nStride) {
+        int[][] rgOffsets = this.rgOffsets;
+        if (rgOffsets == null) {
+            rgOffsets = new int[0][];
+        }
+        for (int i=0; i<rgOffsets.length; i++) {
+            if (rgOffsets[i][0] == nStride) {
+                return rgOffsets[i];
+            }
+        }
+        int cRects = this.rnRect.length / 5;
+        int[] rnOffset = new int[4 * cRects + 1];
+        rnOffset[0] = nStride;
+        for (int i=0; i<cRects; i++) {
+            int tlx = this.rnRect[5*i];
+            int tly = this.rnRect[5*i+1];
+            int w = this.rnRect[5*i+2];
+            int h = this.rnRect[5*i+3];
+            rnOffset[4*i+1] = tly*nStride + tlx;
+            rnOffset[4*i+2] = tly*nStride + tlx+w;
+            rnOffset[4*i+3] = (tly+h)*nStride + tlx;
+            rnOffset[4*i+4] = (tly+h)*nStride + tlx+w;
+        }
+        // the new table goes first; the oldest is dropped if there are too
+        // many. The array is replaced, not modified, so other threads
+        // searching the old array are unaffected. If two threads add a table
+        // at once one of them is lost, and is made again when next needed.
+        int cKeep = Math.min(rgOffsets.length, OFFSET_TABLES - 1);
+        int[][] rgNew = new int[cKeep + 1][];
+        rgNew[0] = rnOffset;
+        System.arraycopy(rgOffsets, 0, rgNew, 1, cKeep);
+        this.rgOffsets = rgNew;
+        return rnOffset;
+    }
+
+    /**
+     * Returns a String in the format read by HaarClassifierCascade.fromStream(),
+     * so the compiled cascade can be written out and loaded again.
+     * @return the cascade as a String.
+     */
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("(hcsb ").append(this.width).append(' ') //$NON-NLS-1$
+            .append(this.height).append(' ')
+            .append(this.rnStageEnd.length).append(' ');
+        int nWeak = 0;
+        int nRect = 0;
+        for (int nStage=0; nStage<this.rnStageEnd.length; nStage++) {
+            sb.append("(hcs ") //$NON-NLS-1$
+                .append(this.rnStageEnd[nStage] - nWeak).append(' ');
+            for (; nWeak<this.rnStageEnd[nStage]; nWeak++) {
+                sb.append("(hwcs (hf "); //$NON-NLS-1$
+                int cRects = 0;
+                for (; nRect<this.rnWeakEnd[nWeak]; nRect++) {
+                    sb.append("(hr "); //$NON-NLS-1$
+                    for (int i=0; i<5; i++) {
+                        sb.append(this.rnRect[5*nRect+i]).append(i<4 ? ' ' : ')');
+                    }
+                    cRects++;
+                }
+                for (; cRects<3; cRects++) {
+                    sb.append("(hr 0 0 0 0 0)"); //$NON-NLS-1$
+                }
+                sb.append("0)") //$NON-NLS-1$
+                    .append(this.rnThreshold[nWeak]).append(' ')
+                    .append(this.rnA[nWeak]).append(' ')
+                    .append(this.rnB[nWeak]).append(')');
+            }
+            sb.append(this.rnStageThreshold[nStage]).append(')');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+}
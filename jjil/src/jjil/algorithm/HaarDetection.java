@@ -0,0 +1,131 @@
+/*
+ * HaarDetection.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Rect;
+
+/**
+ * HaarDetection is one feature found by Gray8DetectHaarMultiScale.detect().
+ * It is a group of overlapping windows which passed the Haar cascade; the
+ * rectangle is the average of the windows' rectangles, in input image
+ * coordinates.
+ * @author webb
+ */
+public class HaarDetection {
+    private int nSumLeft, nSumTop, nSumRight, nSumBottom; // sums of window edges
+    private int nCount; // number of windows in the group
+    private int nConfidence; // greatest margin of any window
+    private int nScale; // scale of the window with the greatest margin
+
+    /**
+     * Creates a new instance of HaarDetection from one window.
+     * @param r the window, in input image coordinates.
+     * @param nScale the scale the window was found at.
+     * @param nConfidence the margin by which the window passed the cascade.
+     */
+    HaarDetection(Rect r, int nScale, int nConfidence) {
+        this.nSumLeft = r.getLeft();
+        this.nSumTop = r.getTop();
+        this.nSumRight = r.getRight();
+        this.nSumBottom = r.getBottom();
+        this.nCount = 1;
+        this.nScale = nScale;
+        this.nConfidence = nConfidence;
+    }
+
+    /**
+     * Adds another window to the group.
+     * @param hd the window, as a HaarDetection made from a single window.
+     */
+    void add(HaarDetection hd) {
+        this.nSumLeft += hd.nSumLeft;
+        this.nSumTop += hd.nSumTop;
+        this.nSumRight += hd.nSumRight;
+        this.nSumBottom += hd.nSumBottom;
+        this.nCount += hd.nCount;
+        if (hd.nConfidence > this.nConfidence) {
+            this.nConfidence = hd.nConfidence;
+            this.nScale = hd.nScale;
+        }
+    }
+
+    /**
+     * Returns the greatest margin by which any window in the group passed
+     * the last stage of the Haar cascade. See
+     * HaarClassifierCascade.evalMargin().
+     * @return the confidence.
+     */
+    public int getConfidence() {
+        return this.nConfidence;
+    }
+
+    /**
+     * Returns the number of windows in the group. A feature is usually
+     * found by several neighboring windows and scales, while false detections
+     * are usually found by few, so this is the main ranking criterion.
+     * @return the number of windows.
+     */
+    public int getCount() {
+        return this.nCount;
+    }
+
+    /**
+     * Returns the average of the windows' rectangles.
+     * @return the detection rectangle, in input image coordinates.
+     */
+    public Rect getRect() {
+        int nLeft = this.nSumLeft / this.nCount;
+        int nTop = this.nSumTop / this.nCount;
+        return new Rect(
+                nLeft,
+                nTop,
+                this.nSumRight / this.nCount - nLeft,
+                this.nSumBottom / this.nCount - nTop);
+    }
+
+    /**
+     * Returns the scale, as set by Gray8DetectHaarMultiScale.setScale(), of
+     * the window with the greatest confidence.
+     * @return the scale factor.
+     */
+    public int getScale() {
+        return this.nScale;
+    }
+
+    /**
+     * Returns true if this detection ranks above another: it has more
+     * windows, or as many windows and greater confidence.
+     * @param hd the other detection.
+     * @return true iff this detection ranks above hd.
+     */
+    boolean ranksAbove(HaarDetection hd) {
+        return this.nCount > hd.nCount ||
+                (this.nCount == hd.nCount && this.nConfidence > hd.nConfidence);
+    }
+
+    /**
+     * Describes the detection.
+     * @return a String giving the rectangle, count, confidence, and scale.
+     */
+    public String toString() {
+        return super.toString() + " (" + getRect().toString() + "," + //$NON-NLS-1$ //$NON-NLS-2$
+                this.nCount + "," + this.nConfidence + "," + //$NON-NLS-1$ //$NON-NLS-2$
+                this.nScale + ")"; //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * HoughAccumulator.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+/**
+ * The slope-intercept Hough accumulator shared by LinefitHough,
+ * LinefitHoughHoriz, and LinefitHoughVert. Lines are v = slope * u +
+ * intercept; the callers decide which of x and y are u and v.<p>
+ * The accumulator is a single int array, indexed by slope step and then
+ * intercept, which is kept from one set of points to the next. The range of
+ * intercepts the points can vote for at each slope step is computed from
+ * their bounding box before voting, and only that part of the accumulator is
+ * cleared before the next set of points. The peak is tracked as the votes
+ * are cast, so the accumulator is never scanned in full.
+ * @author webb
+ */
+class HoughAccumulator {
+    private final int cMinInt, cMaxInt, cMinSlope, cMaxSlope, cSteps;
+    private int rnAccum[] = null;
+    private final int rnSlope[]; // slope at each step, times 256
+    // range of intercept offsets which may be nonzero at each slope step
+    private final int rnLo[], rnHi[];
+    private int nBest; // index of the peak cell
+    private int cBest; // count in the peak cell
+
+    /**
+     * Creates a new HoughAccumulator. The parameters must already have been
+     * checked.
+     * @param cMinInt minimum intercept.
+     * @param cMaxInt bound on the intercept.
+     * @param cMinSlope minimum slope, times 256.
+     * @param cMaxSlope maximum slope, times 256.
+     * @param cSteps number of slope steps.
+     */
+    HoughAccumulator(
+            int cMinInt,
+            int cMaxInt,
+            int cMinSlope,
+            int cMaxSlope,
+            int cSteps) {
+        this.cMinInt = cMinInt;
+        this.cMaxInt = cMaxInt;
+        this.cMinSlope = cMinSlope;
+        this.cMaxSlope = cMaxSlope;
+        this.cSteps = cSteps;
+        this.rnSlope = new int[cSteps];
+        for (int i=0; i<cSteps; i++) {
+            this.rnSlope[i] = i * (cMaxSlope - cMinSlope) / cSteps + cMinSlope;
+        }
+        this.rnLo = new int[cSteps];
+        this.rnHi = new int[cSteps];
+        for (int i=0; i<cSteps; i++) {
+            this.rnLo[i] = 0;
+            this.rnHi[i] = -1;
+        }
+    }
+
+    /**
+     * Returns the number of votes for the peak.
+     * @return the peak count, or Integer.MIN_VALUE if the intercept range
+     * is empty.
+     */
+    int getCount() {
+        return this.cBest;
+    }
+
+    /**
+     * Returns the intercept of the peak.
+     * @return the intercept.
+     */
+    int getIntercept() {
+        return this.nBest % (this.cMaxInt - this.cMinInt) + this.cMinInt;
+    }
+
+    /**
+     * Finds the strongest lines, in decreasing order of votes. A cell is a
+     * line only if no neighboring cell has more votes, or the same number of
+     * votes and a lower slope step or intercept, so that the cells around a
+     * strong line are not reported as separate lines.
+     * @param rnSlope receives the slopes, times 256. Its length is the
+     * maximum number of lines to find.
+     * @param rnIntercept receives the intercepts.
+     * @param rnCount receives the vote counts.
+     * @return the number of lines found.
+     */
+    int getPeaks(int[] rnSlope, int[] rnIntercept, int[] rnCount) {
+        int cMax = Math.min(rnSlope.length,
+                Math.min(rnIntercept.length, rnCount.length));
+        int cRange = this.cMaxInt - this.cMinInt;
+        int cFound = 0;
+        if (cMax == 0) {
+            return 0;
+        }
+        int rnIndex[] = new int[cMax];
+        for (int n=0; n<this.cSteps * cRange; n++) {
+            int nInt = n % cRange;
+            if (nInt < this.rnLo[n / cRange]) {
+                n += this.rnLo[n / cRange] - nInt - 1;
+                continue;
+            }
+            if (nInt > this.rnHi[n / cRange]) {
+                // skip to the end of the row
+                n += cRange - nInt - 1;
+                continue;
+            }
+            int c = this.rnAccum[n];
+            if (c == 0 ||
+                    (cFound == cMax && (c < rnCount[cMax-1] ||
+                    (c == rnCount[cMax-1] && n > rnIndex[cMax-1])))) {
+                // ranks below all the lines found so far
+                continue;
+            }
+            if (!isLocalPeak(n, cRange)) {
+                continue;
+            }
+            // insert in decreasing count order; equal counts stay in index
+            // order
+            int j = cFound < cMax ? cFound++ : cFound - 1;
+            while (j > 0 && (rnCount[j-1] < c ||
+                    (rnCount[j-1] == c && rnIndex[j-1] > n))) {
+                rnCount[j] = rnCount[j-1];
+                rnIndex[j] = rnIndex[j-1];
+                j--;
+            }
+            rnCount[j] = c;
+            rnIndex[j] = n;
+        }
+        for (int i=0; i<cFound; i++) {
+            rnSlope[i] = this.rnSlope[rnIndex[i] / cRange];
+            rnIntercept[i] = rnIndex[i] % cRange + this.cMinInt;
+        }
+        return cFound;
+    }
+
+    /**
+     * Returns the slope of the peak.
+     * @return the slope, times 256.
+     */
+    int getSlope() {
+        return this.rnSlope[this.nBest / (this.cMaxInt - this.cMinInt)];
+    }
+
+    /**
+     * Tests whether a cell outranks all its neighbors.
+     * @param n the cell index.
+     * @param cRange the number of intercepts.
+     * @return true iff no neighbor has more votes, or the same number and a
+     * lower index.
+     */
+    private boolean isLocalPeak(int n, int cRange) {
+        int c = this.rnAccum[n];
+        int nSlope = n / cRange, nInt = n % cRange;
+        for (int i=Math.max(0, nSlope-1);
+                i<=Math.min(this.cSteps-1, nSlope+1);
+                i++) {
+            for (int j=Math.max(0, nInt-1);
+                    j<=Math.min(cRange-1, nInt+1);
+                    j++) {
+                int m = i * cRange + j;
+                if (this.rnAccum[m] > c || (this.rnAccum[m] == c && m < n)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the accumulator and adds the votes for a set of points, finding
+     * the peak. Each point (u, v) votes, at each slope step, for the
+     * intercept of the line with that slope through it. Of cells with equal
+     * counts the peak is the one with the lowest slope step, then the lowest
+     * intercept.
+     * @param rnU the u coordinates.
+     * @param rnV the v coordinates.
+     * @param cPoints the number of points.
+     */
+    void vote(int[] rnU, int[] rnV, int cPoints) {
+        int cRange = this.cMaxInt - this.cMinInt;
+        if (this.rnAccum == null) {
+            this.rnAccum = new int[this.cSteps * cRange];
+        }
+        int rnAccum[] = this.rnAccum;
+        for (int i=0; i<this.cSteps; i++) {
+            for (int j=this.rnLo[i]; j<=this.rnHi[i]; j++) {
+                rnAccum[i * cRange + j] = 0;
+            }
+        }
+        // with no votes the peak is the first cell, if there is one
+        this.nBest = 0;
+        if (cRange == 0) {
+            this.cBest = Integer.MIN_VALUE;
+            return;
+        }
+        setRanges(rnU, rnV, cPoints);
+        // the peak is kept in locals while voting
+        int nBest = 0, cBest = 0;
+        int cMinInt = this.cMinInt, cMaxInt = this.cMaxInt;
+        int rnSlope[] = this.rnSlope;
+        for (int i=0; i<cPoints; i++) {
+            int nU = rnU[i], nV256 = rnV[i] * 256;
+            int n = -cMinInt; // index of intercept 0 at this step
+            for (int s=0; s<this.cSteps; s++, n+=cRange) {
+                // the slope is times 256
+                int nInt = (nV256 - nU * rnSlope[s]) / 256;
+                if (nInt >= cMinInt && nInt < cMaxInt) {
+                    int m = n + nInt;
+                    int c = ++rnAccum[m];
+                    if (c >= cBest && (c > cBest || m < nBest)) {
+                        cBest = c;
+                        nBest = m;
+                    }
+                }
+            }
+        }
+        this.cBest = cBest;
+        this.nBest = nBest;
+    }
+
+    /**
+     * Computes the range of intercepts the points can vote for at each slope
+     * step. The intercept increases with v and, for positive slopes,
+     * decreases with u, so its extremes are at the corners of the points'
+     * bounding box.
+     * @param rnU the u coordinates.
+     * @param rnV the v coordinates.
+     * @param cPoints the number of points.
+     */
+    private void setRanges(int[] rnU, int[] rnV, int cPoints) {
+        int nMinU = Integer.MAX_VALUE, nMaxU = Integer.MIN_VALUE;
+        int nMinV = Integer.MAX_VALUE, nMaxV = Integer.MIN_VALUE;
+        for (int i=0; i<cPoints; i++) {
+            nMinU = Math.min(nMinU, rnU[i]);
+            nMaxU = Math.max(nMaxU, rnU[i]);
+            nMinV = Math.min(nMinV, rnV[i]);
+            nMaxV = Math.max(nMaxV, rnV[i]);
+        }
+        for (int i=0; i<this.cSteps; i++) {
+            if (cPoints == 0) {
+                this.rnLo[i] = 0;
+                this.rnHi[i] = -1;
+                continue;
+            }
+            int nSlope = this.rnSlope[i];
+            int nLo, nHi;
+            if (nSlope >= 0) {
+                nLo = (nMinV * 256 - nMaxU * nSlope) / 256;
+                nHi = (nMaxV * 256 - nMinU * nSlope) / 256;
+            } else {
+                nLo = (nMinV * 256 - nMinU * nSlope) / 256;
+                nHi = (nMaxV * 256 - nMaxU * nSlope) / 256;
+            }
+            nLo = Math.max(nLo, this.cMinInt);
+            nHi = Math.min(nHi, this.cMaxInt - 1);
+            if (nLo > nHi) {
+                // no intercept in range; getPeaks skips the whole row
+                this.rnLo[i] = 0;
+                this.rnHi[i] = -1;
+            } else {
+                this.rnLo[i] = nLo - this.cMinInt;
+                this.rnHi[i] = nHi - this.cMinInt;
+            }
+        }
+    }
+}
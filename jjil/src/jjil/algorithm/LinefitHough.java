@@ -36,8 +36,8 @@ import jjil.core.Point;
  * @author webb
  */
 public class LinefitHough {
-    /** @var cHoughAccum the Hough accumulator array */
-    int[][] cHoughAccum;
+    /** @var accum the Hough accumulator, kept between calls */
+    private final HoughAccumulator accum;
     /** @var cCount the number of points on the line that was found */
     int cCount = 0;
     /** @var cMaxSlope the maximum allowable slope, times 256 */
@@ -54,6 +54,8 @@ public class LinefitHough {
     final int cSteps;
     /** @var cYInt the y-intercept of the line that was found */
     int cYInt;
+    /** @var rnX, rnY coordinates of the points pushed in a Vector */
+    private int rnX[] = new int[0], rnY[] = new int[0];
     
     /** Creates a new instance of LinefitHough 
      *
@@ -101,52 +103,8 @@ public class LinefitHough {
         this.cMinSlope = cMinSlope;
         this.cMaxSlope = cMaxSlope;
         this.cSteps = cSteps;
-    }
-    
-    /** Add a new point to the Hough accumulator array. We increment along the 
-     * line in the array
-     * from (cMinSlope>>8, yIntStart) to (cMaxSlope>>8, yIntEnd), where
-     * yIntStart is the y-intercept assuming the slope is at the minimum,
-     * and yIntEnd is the y-intercept assuming the slope is maximal.
-     *
-     * @param p the point to add to the accumulator array
-     */
-    private void addPoint(Point p) {
-        // compute initial intercept. cMinSlope is the real slope minimum
-        // * 256.
-        int yIntStart = (p.getY() * 256 - p.getX() * this.cMinSlope) / 256;
-        // compute final intercept. cMaxSlope is the real slope maximum
-        // * 256.
-        int yIntEnd = (p.getY() * 256 - p.getX() * this.cMaxSlope) / 256;
-        /** work along the line from (0,yIntStart) to (cSteps,yIntEnd),
-         * incrementing the Hough accumulator.
-         */
-        for (int slope = 0; slope < this.cSteps; slope++) {
-           int yInt = (yIntEnd - yIntStart) * slope / this.cSteps +
-                   yIntStart;
-           /** check if the current position falls inside the Hough 
-            * accumulator.
-            */
-           if (yInt >= this.cMinY && yInt < this.cMaxY) {
-                this.cHoughAccum[slope][yInt-this.cMinY]++;
-           }
-        };
-    }
-    
-    /** Find the peak in the Hough array. Updates cCount, cSlope, and cYInt.
-     */
-    private void findPeak() {
-        this.cCount = Integer.MIN_VALUE;
-        for (int slope=0; slope<this.cSteps; slope++) {
-            for (int y=0; y<this.cMaxY-this.cMinY; y++) {
-                if (this.cHoughAccum[slope][y] > this.cCount) {
-                    this.cCount = this.cHoughAccum[slope][y];
-                    this.cSlope = slope * (this.cMaxSlope - this.cMinSlope) 
-                        / this.cSteps + this.cMinSlope;
-                    this.cYInt = y + this.cMinY;
-                }
-            }
-        }
+        this.accum = new HoughAccumulator(
+                cMinY, cMaxY, cMinSlope, cMaxSlope, cSteps);
     }
     
     /** Returns the count of points on the line that was found.
@@ -173,6 +131,22 @@ public class LinefitHough {
         return this.cYInt;
     }
     
+    /** Finds the strongest lines through the last set of points, in
+     * decreasing order of the number of points on them. Only lines with
+     * more points than the neighboring slopes and intercepts are reported,
+     * so that one strong line does not also appear as several lines with
+     * nearly the same slope and intercept.
+     *
+     * @param rnSlope receives the line slopes (*256). The length of the
+     * arrays is the maximum number of lines to find.
+     * @param rnY receives the y-intercepts.
+     * @param rnCount receives the point counts.
+     * @return the number of lines found.
+     */
+    public int getLines(int[] rnSlope, int[] rnY, int[] rnCount) {
+        return this.accum.getPeaks(rnSlope, rnY, rnCount);
+    }
+    
     /** Finds the most likely line passing through the points in the Vector.
      * 
      * @param points the input Vector of point positions
@@ -180,11 +154,11 @@ public class LinefitHough {
      * point objects.
      */
     public void push(Vector points) throws jjil.core.Error {
-        /* create Hough accumulator */
-        this.cHoughAccum = 
-                new int[this.cSteps][this.cMaxY-this.cMinY];
-        /* fill the Hough accumulator
-         */
+        if (this.rnX.length < points.size()) {
+            this.rnX = new int[points.size()];
+            this.rnY = new int[points.size()];
+        }
+        int cPoints = 0;
         for (Enumeration e = points.elements(); e.hasMoreElements();) {
             Object o = e.nextElement(); 
             if (!(o instanceof Point)) {
@@ -196,10 +170,29 @@ public class LinefitHough {
                     			null);
             }
             Point p = (Point) o;
-            addPoint(p);
+            this.rnX[cPoints] = p.getX();
+            this.rnY[cPoints] = p.getY();
+            cPoints++;
+        }
+        push(this.rnX, this.rnY, cPoints);
+    }
+    
+    /** Finds the most likely line passing through a set of points. The
+     * accumulator is kept and only the cells that received votes are
+     * cleared, so calling this repeatedly allocates nothing.
+     * 
+     * @param rnX the point x coordinates.
+     * @param rnY the point y coordinates.
+     * @param cPoints the number of points.
+     */
+    public void push(int[] rnX, int[] rnY, int cPoints) {
+        this.accum.vote(rnX, rnY, cPoints);
+        this.cCount = this.accum.getCount();
+        if (this.cCount != Integer.MIN_VALUE) {
+            // sets cYInt, cSlope for access by caller
+            this.cSlope = this.accum.getSlope();
+            this.cYInt = this.accum.getIntercept();
         }
-        findPeak(); // sets cYInt, cSlope, cCount for access by caller
-        this.cHoughAccum = null; // free memory
     }
        
     /** Return a string describing the current instance, giving the values
@@ -41,8 +41,8 @@ import jjil.core.Point;
  * @author webb
  */
 public class LinefitHoughVert {
-    /** @var cHoughAccum the Hough accumulator array */
-    int[][] cHoughAccum;
+    /** @var accum the Hough accumulator, kept between calls */
+    private final HoughAccumulator accum;
     /** @var cCount the number of points on the line that was found */
     int cCount = 0;
     /** @var cMaxSlope the maximum allowable slope, times 256 */
@@ -59,6 +59,8 @@ public class LinefitHoughVert {
     final int cSteps;
     /** @var cXInt the x-intercept of the line that was found */
     int cXInt;
+    /** @var rnX, rnY coordinates of the points pushed in a Vector */
+    private int rnX[] = new int[0], rnY[] = new int[0];
     
     /** Creates a new instance of LinefitHoughVert 
      *
@@ -106,54 +108,8 @@ public class LinefitHoughVert {
         this.cMinSlope = cMinSlope;
         this.cMaxSlope = cMaxSlope;
         this.cSteps = cSteps;
-    }
-    
-    /** Add a new point to the Hough accumulator array. We increment along the 
-     * line in the array
-     * from (cMinSlope>>8, xIntStart) to (cMaxSlope>>8, xIntEnd), where
-     * xIntStart is the x-intercept assuming the slope is at the minimum,
-     * and xIntEnd is the x-intercept assuming the slope is maximal.
-     *
-     * @param p the point to add to the accumulator array
-     */
-    private void addPoint(Point p) {
-        // Remember the line we are fitting is
-        // x = slope * x + intercept
-        // compute initial intercept. cMinSlope is the real slope minimum
-        // * 256.
-        int xIntStart = (p.getX() * 256 - p.getY() * this.cMinSlope) / 256;
-        // compute final intercept. cMaxSlope is the real slope maximum
-        // * 256.
-        int xIntEnd = (p.getX() * 256 - p.getY() * this.cMaxSlope) / 256;
-        /** work along the line from (0,xIntStart) to (cSteps,xIntEnd),
-         * incrementing the Hough accumulator.
-         */
-        for (int slope = 0; slope < this.cSteps; slope++) {
-           int xInt = (xIntEnd - xIntStart) * slope / this.cSteps +
-                   xIntStart;
-           /** check if the current position falls inside the Hough 
-            * accumulator.
-            */
-           if (xInt >= this.cMinX && xInt < this.cMaxX) {
-                this.cHoughAccum[slope][xInt-this.cMinX]++;
-           }
-        };
-    }
-    
-    /** Find the peak in the Hough array. Updates cCount, cSlope, and cXInt.
-     */
-    private void findPeak() {
-        this.cCount = Integer.MIN_VALUE;
-        for (int slope=0; slope<this.cSteps; slope++) {
-            for (int x=0; x<this.cMaxX-this.cMinX; x++) {
-                if (this.cHoughAccum[slope][x] > this.cCount) {
-                    this.cCount = this.cHoughAccum[slope][x];
-                    this.cSlope = slope * (this.cMaxSlope - this.cMinSlope) 
-                        / this.cSteps + this.cMinSlope;
-                    this.cXInt = x + this.cMinX;
-                }
-            }
-        }
+        this.accum = new HoughAccumulator(
+                cMinX, cMaxX, cMinSlope, cMaxSlope, cSteps);
     }
     
     /** Returns the count of points on the line that was found.
@@ -180,6 +136,22 @@ public class LinefitHoughVert {
         return this.cXInt;
     }
     
+    /** Finds the strongest lines through the last set of points, in
+     * decreasing order of the number of points on them. Only lines with
+     * more points than the neighboring slopes and intercepts are reported,
+     * so that one strong line does not also appear as several lines with
+     * nearly the same slope and intercept.
+     *
+     * @param rnSlope receives the line slopes (*256). The length of the
+     * arrays is the maximum number of lines to find.
+     * @param rnX receives the x-intercepts.
+     * @param rnCount receives the point counts.
+     * @return the number of lines found.
+     */
+    public int getLines(int[] rnSlope, int[] rnX, int[] rnCount) {
+        return this.accum.getPeaks(rnSlope, rnX, rnCount);
+    }
+    
     /** Finds the most likely line passing through the points in the Vector.
      * 
      * @param points the input Vector of point positions
@@ -187,11 +159,11 @@ public class LinefitHoughVert {
      * point objects.
      */
     public void push(Vector points) throws jjil.core.Error {
-        /* create Hough accumulator */
-        this.cHoughAccum = 
-                new int[this.cSteps][this.cMaxX-this.cMinX];
-        /* fill the Hough accumulator
-         */
+        if (this.rnX.length < points.size()) {
+            this.rnX = new int[points.size()];
+            this.rnY = new int[points.size()];
+        }
+        int cPoints = 0;
         for (Enumeration e = points.elements(); e.hasMoreElements();) {
             Object o = e.nextElement(); 
             if (!(o instanceof Point)) {
@@ -203,10 +175,29 @@ public class LinefitHoughVert {
                     			null);
             }
             Point p = (Point) o;
-            addPoint(p);
+            this.rnX[cPoints] = p.getX();
+            this.rnY[cPoints] = p.getY();
+            cPoints++;
+        }
+        push(this.rnX, this.rnY, cPoints);
+    }
+    
+    /** Finds the most likely line passing through a set of points. The
+     * accumulator is kept and only the cells that received votes are
+     * cleared, so calling this repeatedly allocates nothing.
+     * 
+     * @param rnX the point x coordinates.
+     * @param rnY the point y coordinates.
+     * @param cPoints the number of points.
+     */
+    public void push(int[] rnX, int[] rnY, int cPoints) {
+        this.accum.vote(rnY, rnX, cPoints);
+        this.cCount = this.accum.getCount();
+        if (this.cCount != Integer.MIN_VALUE) {
+            // sets cXInt, cSlope for access by caller
+            this.cSlope = this.accum.getSlope();
+            this.cXInt = this.accum.getIntercept();
         }
-        findPeak(); // sets cXInt, cSlope, cCount for access by caller
-        this.cHoughAccum = null; // free memory
     }
        
     /** Return a string describing the current instance, giving the values
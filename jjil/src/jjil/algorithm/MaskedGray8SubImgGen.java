@@ -72,8 +72,10 @@ public class MaskedGray8SubImgGen extends PipelineStage {
         this.nYOffset = nYOffset;
         this.oSubImageReady = false;
         // create an output image. We'll reuse this
-        // image, changing the contents and offset,
+        // image, changing the view and offset,
         // for every Gray8OffsetImage we output.
+        // Its own pixels are only used if a consumer
+        // calls getData() and the view is copied out.
         super.imageOutput = new Gray8OffsetImage( 
             this.nWidth, 
             this.nHeight, 
@@ -169,7 +171,6 @@ public class MaskedGray8SubImgGen extends PipelineStage {
                             null);
         }
         
-        byte[] dataIn = this.imageInput.getData();
         // offset of first pixel of the subimage within the
         // larget image.
         int nHOffset = this.nXOffset * this.nHorizIndex;
@@ -177,19 +178,13 @@ public class MaskedGray8SubImgGen extends PipelineStage {
         Gray8OffsetImage imageResult = (Gray8OffsetImage) super.imageOutput;
         imageResult.setXOffset(nHOffset);
         imageResult.setYOffset(nVOffset);
-        byte[] dataOut = imageResult.getData();
-        // don't access outside the image
-        int nLimitY = Math.min(this.imageInput.getHeight() - nVOffset, this.nHeight);
-        int nLimitX = Math.min(this.imageInput.getWidth() - nHOffset, this.nWidth);
-        for (int i=0; i<nLimitY; i++) {
-            int nVInLoc = i + nVOffset;
-            System.arraycopy( 
-                    dataIn, 
-                    nVInLoc*this.imageInput.getWidth() + nHOffset, 
-                    dataOut, 
-                    i*this.nWidth, 
-                    nLimitX);
-        }
+        // the subimage is a view of the input; nothing is copied. The
+        // index limits set in push keep it inside the input image.
+        imageResult.setView(
+                this.imageInput.getBuffer(), 
+                this.imageInput.getOffset() + 
+                    nVOffset*this.imageInput.getStride() + nHOffset, 
+                this.imageInput.getStride());
 
         this.oSubImageReady = false;
         return imageResult;
@@ -0,0 +1,498 @@
+/*
+ * Nv21Converter.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.ParallelExecutor;
+import jjil.core.RgbImage;
+import jjil.core.RowBands;
+
+/**
+ * Converts NV21 frames, the default camera preview format on Android, to
+ * RgbImage and Gray8Image. An NV21 frame is a full resolution plane of
+ * luminance (Y) bytes followed by a half resolution plane of interleaved V
+ * and U bytes, one pair for each 2x2 block of pixels; all values are
+ * unsigned.<p>
+ * Color conversion uses the same integer BT.601 arithmetic as
+ * jjil.android.AndroidColors.yuv2Color, and gives the same results, but
+ * looks up each term in a table and clamps with a table, so the inner loop
+ * has no branches, multiplications, or divisions. The chroma of each 2x2
+ * block is looked up once for its four pixels.<p>
+ * With a scale greater than one the output is reduced by that factor in
+ * each direction, each output pixel being the average of the scale x scale
+ * block of Y values it covers and of the chroma pairs under that block.<p>
+ * Since the Y plane already is a gray image, wrapLuma() makes a Gray8Image
+ * that shares it instead of copying it.<p>
+ * Rows are converted in parallel bands if an executor has been set with
+ * setParallel. A converter handles one frame at a time.
+ * @author webb
+ */
+public class Nv21Converter {
+    /**
+     * Entries below 0 and above 255 in the clamp table. The largest result
+     * of the conversion is 534 and the smallest -277.
+     */
+    private static final int CLAMP_OFFSET = 384;
+    /**
+     * 298 * (Y - 16) + 128, the luminance term with rounding.
+     */
+    private static final int[] rnYTerm = new int[256];
+    /**
+     * Chroma terms: 409 * (V - 128) for red, -100 * (U - 128) and
+     * -208 * (V - 128) for green, and 516 * (U - 128) for blue.
+     */
+    private static final int[] rnRV = new int[256];
+    private static final int[] rnGU = new int[256];
+    private static final int[] rnGV = new int[256];
+    private static final int[] rnBU = new int[256];
+    /**
+     * Clamps x - CLAMP_OFFSET to 0..255, for the sum of terms shifted right
+     * by 8.
+     */
+    private static final int[] rnClamp = new int[2 * CLAMP_OFFSET + 256];
+
+    static {
+        for (int i=0; i<256; i++) {
+            rnYTerm[i] = 298 * (i - 16) + 128;
+            rnRV[i] = 409 * (i - 128);
+            rnGU[i] = -100 * (i - 128);
+            rnGV[i] = -208 * (i - 128);
+            rnBU[i] = 516 * (i - 128);
+        }
+        for (int i=0; i<rnClamp.length; i++) {
+            rnClamp[i] = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+        }
+    }
+
+    /**
+     * Reduction factor in each direction, a power of two.
+     */
+    private final int nScale;
+    /**
+     * log2(nScale).
+     */
+    private final int nScaleShift;
+    private ParallelExecutor pe = null;
+
+    /**
+     * The frame being converted and the output, set during a conversion.
+     */
+    private byte[] rbNv21;
+    private int cWidth, cHeight;
+    private int[] rnRgbOut;
+    private byte[] rbGrayOut;
+
+    /** Converts bands of rows to RGB. With a scale of one a band row is a
+     * pair of image rows, which share a row of chroma.
+     */
+    private final RowBands rgbRows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            if (Nv21Converter.this.nScale == 1) {
+                rgbRowPairs(nFirstRow, nLimitRow);
+            } else if (Nv21Converter.this.nScale == 2) {
+                rgbHalfRows(nFirstRow, nLimitRow);
+            } else {
+                rgbReducedRows(nFirstRow, nLimitRow);
+            }
+        }
+    });
+
+    /** Converts bands of output rows to gray.
+     */
+    private final RowBands grayRows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            grayRows(nFirstRow, nLimitRow);
+        }
+    });
+
+    /**
+     * Creates a new instance of Nv21Converter which converts at full
+     * resolution.
+     */
+    public Nv21Converter() {
+        this.nScale = 1;
+        this.nScaleShift = 0;
+    }
+
+    /**
+     * Creates a new instance of Nv21Converter.
+     * @param nScale reduction factor in each direction: 1, 2, 4, ...
+     * @throws jjil.core.Error if nScale is not a positive power of two.
+     */
+    public Nv21Converter(int nScale) throws jjil.core.Error {
+        if (nScale <= 0 || (nScale & (nScale - 1)) != 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(nScale),
+                            "1", //$NON-NLS-1$
+                            null);
+        }
+        this.nScale = nScale;
+        int nShift = 0;
+        while ((1 << nShift) < nScale) {
+            nShift++;
+        }
+        this.nScaleShift = nShift;
+    }
+
+    /**
+     * Returns the reduction factor.
+     * @return the factor by which width and height are divided.
+     */
+    public int getScale() {
+        return this.nScale;
+    }
+
+    /**
+     * Sets the executor used to convert rows in parallel.
+     * @param pe the executor, or null to convert on the calling thread.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        this.pe = pe;
+    }
+
+    /**
+     * Converts an NV21 frame to an RgbImage.
+     * @param rbNv21 the frame.
+     * @param cWidth frame width, which must be even.
+     * @param cHeight frame height, which must be even.
+     * @param rgb image to write the result to, or null. If it is null, a
+     * view, or not cWidth / getScale() by cHeight / getScale() a new image
+     * is made.
+     * @return the converted image.
+     * @throws jjil.core.Error if the frame size is not valid.
+     */
+    public RgbImage toRgb(byte[] rbNv21, int cWidth, int cHeight, RgbImage rgb)
+        throws jjil.core.Error
+    {
+        checkFrame(rbNv21, cWidth, cHeight);
+        int cOutWidth = cWidth >> this.nScaleShift;
+        int cOutHeight = cHeight >> this.nScaleShift;
+        if (rgb == null || rgb.isView() ||
+                rgb.getWidth() != cOutWidth ||
+                rgb.getHeight() != cOutHeight) {
+            rgb = new RgbImage(cOutWidth, cOutHeight);
+        }
+        start(rbNv21, cWidth, cHeight);
+        this.rnRgbOut = rgb.getData();
+        try {
+            this.rgbRows.run(this.pe,
+                    this.nScale == 1 ? cHeight / 2 : cOutHeight);
+        } finally {
+            this.rnRgbOut = null;
+            this.rbNv21 = null;
+        }
+        return rgb;
+    }
+
+    /**
+     * Copies the luminance of an NV21 frame to a Gray8Image, reducing it by
+     * the scale. Use wrapLuma() instead to avoid the copy at full
+     * resolution.
+     * @param rbNv21 the frame.
+     * @param cWidth frame width, which must be even.
+     * @param cHeight frame height, which must be even.
+     * @param gray image to write the result to, or null. If it is null, a
+     * view, or not cWidth / getScale() by cHeight / getScale() a new image
+     * is made.
+     * @return the gray image.
+     * @throws jjil.core.Error if the frame size is not valid.
+     */
+    public Gray8Image toGray8(
+            byte[] rbNv21,
+            int cWidth,
+            int cHeight,
+            Gray8Image gray) throws jjil.core.Error {
+        checkFrame(rbNv21, cWidth, cHeight);
+        int cOutWidth = cWidth >> this.nScaleShift;
+        int cOutHeight = cHeight >> this.nScaleShift;
+        if (gray == null || gray.isView() ||
+                gray.getWidth() != cOutWidth ||
+                gray.getHeight() != cOutHeight) {
+            gray = new Gray8Image(cOutWidth, cOutHeight);
+        }
+        start(rbNv21, cWidth, cHeight);
+        this.rbGrayOut = gray.getData();
+        try {
+            this.grayRows.run(this.pe, cOutHeight);
+        } finally {
+            this.rbGrayOut = null;
+            this.rbNv21 = null;
+        }
+        return gray;
+    }
+
+    /**
+     * Makes a Gray8Image of the luminance of an NV21 frame without copying
+     * it. Gray8Image pixels are signed, so the luminance is first changed
+     * in place from unsigned to signed by flipping the top bit of each byte;
+     * the frame is no longer valid NV21 afterward (calling unwrapLuma
+     * restores it). The image is a view of the frame, so stages that read
+     * it through getBuffer() share the frame's storage, while getData()
+     * copies it.
+     * @param rbNv21 the frame.
+     * @param cWidth frame width.
+     * @param cHeight frame height.
+     * @return a Gray8Image sharing the frame's luminance.
+     * @throws jjil.core.Error if the frame is too small.
+     */
+    public static Gray8Image wrapLuma(byte[] rbNv21, int cWidth, int cHeight)
+        throws jjil.core.Error
+    {
+        flipLuma(rbNv21, cWidth, cHeight);
+        return new Gray8Image(cWidth, cHeight, rbNv21, 0, cWidth);
+    }
+
+    /**
+     * Undoes wrapLuma(), making the luminance of the frame unsigned again.
+     * @param rbNv21 the frame.
+     * @param cWidth frame width.
+     * @param cHeight frame height.
+     * @throws jjil.core.Error if the frame is too small.
+     */
+    public static void unwrapLuma(byte[] rbNv21, int cWidth, int cHeight)
+        throws jjil.core.Error
+    {
+        flipLuma(rbNv21, cWidth, cHeight);
+    }
+
+    /**
+     * Changes the luminance bytes of a frame between unsigned and signed.
+     */
+    private static void flipLuma(byte[] rbNv21, int cWidth, int cHeight)
+        throws jjil.core.Error
+    {
+        if (cWidth <= 0 || cHeight <= 0 || rbNv21.length < cWidth * cHeight) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_WRONG_SIZE,
+                            Integer.toString(rbNv21.length),
+                            Integer.toString(cWidth),
+                            Integer.toString(cHeight));
+        }
+        for (int i=0; i<cWidth*cHeight; i++) {
+            rbNv21[i] ^= 0x80;
+        }
+    }
+
+    /**
+     * Checks that a frame has even, positive dimensions, holds a whole
+     * NV21 frame of that size, and is not smaller than the scale.
+     */
+    private void checkFrame(byte[] rbNv21, int cWidth, int cHeight)
+        throws jjil.core.Error
+    {
+        if (cWidth <= 0 || cHeight <= 0 ||
+                cWidth % 2 != 0 || cHeight % 2 != 0 ||
+                cWidth < this.nScale || cHeight < this.nScale ||
+                rbNv21.length < cWidth * cHeight * 3 / 2) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_WRONG_SIZE,
+                            Integer.toString(rbNv21.length),
+                            Integer.toString(cWidth),
+                            Integer.toString(cHeight));
+        }
+    }
+
+    /**
+     * Records the frame for the row bands.
+     */
+    private void start(byte[] rbNv21, int cWidth, int cHeight) {
+        this.rbNv21 = rbNv21;
+        this.cWidth = cWidth;
+        this.cHeight = cHeight;
+    }
+
+    /**
+     * Converts pairs of rows to RGB at full resolution.
+     * @param nFirstPair first pair of rows, which starts at row 2 * nFirstPair.
+     * @param nLimitPair pair after the last pair converted.
+     */
+    private void rgbRowPairs(int nFirstPair, int nLimitPair) {
+        byte[] rbNv21 = this.rbNv21;
+        int[] rnRgb = this.rnRgbOut;
+        int[] rnYTerm = Nv21Converter.rnYTerm;
+        int[] rnClamp = Nv21Converter.rnClamp;
+        int cWidth = this.cWidth;
+        int nVuPlane = cWidth * this.cHeight;
+        for (int nPair=nFirstPair; nPair<nLimitPair; nPair++) {
+            int nRow0 = 2 * nPair * cWidth;
+            int nRow1 = nRow0 + cWidth;
+            int nVu = nVuPlane + nPair * cWidth;
+            for (int j=0; j<cWidth; j+=2) {
+                int nV = rbNv21[nVu+j] & 0xff;
+                int nU = rbNv21[nVu+j+1] & 0xff;
+                // the chroma terms, offset so the shifted sum indexes the
+                // clamp table
+                int nR = rnRV[nV] + (CLAMP_OFFSET << 8);
+                int nG = rnGU[nU] + rnGV[nV] + (CLAMP_OFFSET << 8);
+                int nB = rnBU[nU] + (CLAMP_OFFSET << 8);
+                int nY = rnYTerm[rbNv21[nRow0+j] & 0xff];
+                rnRgb[nRow0+j] = 0xff000000 |
+                        (rnClamp[(nY + nR) >> 8] << 16) |
+                        (rnClamp[(nY + nG) >> 8] << 8) |
+                        rnClamp[(nY + nB) >> 8];
+                nY = rnYTerm[rbNv21[nRow0+j+1] & 0xff];
+                rnRgb[nRow0+j+1] = 0xff000000 |
+                        (rnClamp[(nY + nR) >> 8] << 16) |
+                        (rnClamp[(nY + nG) >> 8] << 8) |
+                        rnClamp[(nY + nB) >> 8];
+                nY = rnYTerm[rbNv21[nRow1+j] & 0xff];
+                rnRgb[nRow1+j] = 0xff000000 |
+                        (rnClamp[(nY + nR) >> 8] << 16) |
+                        (rnClamp[(nY + nG) >> 8] << 8) |
+                        rnClamp[(nY + nB) >> 8];
+                nY = rnYTerm[rbNv21[nRow1+j+1] & 0xff];
+                rnRgb[nRow1+j+1] = 0xff000000 |
+                        (rnClamp[(nY + nR) >> 8] << 16) |
+                        (rnClamp[(nY + nG) >> 8] << 8) |
+                        rnClamp[(nY + nB) >> 8];
+            }
+        }
+    }
+
+    /**
+     * Converts output rows to RGB at a scale of two, where each output pixel
+     * covers a 2x2 block and exactly one chroma pair.
+     * @param nFirstRow first output row.
+     * @param nLimitRow output row after the last converted.
+     */
+    private void rgbHalfRows(int nFirstRow, int nLimitRow) {
+        byte[] rbNv21 = this.rbNv21;
+        int[] rnRgb = this.rnRgbOut;
+        int[] rnYTerm = Nv21Converter.rnYTerm;
+        int[] rnClamp = Nv21Converter.rnClamp;
+        int cWidth = this.cWidth;
+        int nVuPlane = cWidth * this.cHeight;
+        int cOutWidth = cWidth / 2;
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow0 = 2 * i * cWidth;
+            int nRow1 = nRow0 + cWidth;
+            int nVu = nVuPlane + i * cWidth;
+            int nOut = i * cOutWidth;
+            for (int j=0; j<cWidth; j+=2) {
+                int nV = rbNv21[nVu+j] & 0xff;
+                int nU = rbNv21[nVu+j+1] & 0xff;
+                int nY = rnYTerm[((rbNv21[nRow0+j] & 0xff) +
+                        (rbNv21[nRow0+j+1] & 0xff) +
+                        (rbNv21[nRow1+j] & 0xff) +
+                        (rbNv21[nRow1+j+1] & 0xff)) >> 2] +
+                        (CLAMP_OFFSET << 8);
+                rnRgb[nOut++] = 0xff000000 |
+                        (rnClamp[(nY + rnRV[nV]) >> 8] << 16) |
+                        (rnClamp[(nY + rnGU[nU] + rnGV[nV]) >> 8] << 8) |
+                        rnClamp[(nY + rnBU[nU]) >> 8];
+            }
+        }
+    }
+
+    /**
+     * Converts output rows to RGB at a scale of four or more.
+     * @param nFirstRow first output row.
+     * @param nLimitRow output row after the last converted.
+     */
+    private void rgbReducedRows(int nFirstRow, int nLimitRow) {
+        byte[] rbNv21 = this.rbNv21;
+        int[] rnRgb = this.rnRgbOut;
+        int[] rnClamp = Nv21Converter.rnClamp;
+        int cWidth = this.cWidth;
+        int nVuPlane = cWidth * this.cHeight;
+        int nScale = this.nScale;
+        int nShift = this.nScaleShift;
+        int cOutWidth = cWidth >> nShift;
+        // Y is summed over nScale x nScale pixels and chroma over
+        // nScale/2 x nScale/2 pairs
+        int nYShift = 2 * nShift;
+        int nVuShift = 2 * (nShift - 1);
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow = (i << nShift) * cWidth;
+            int nVuRow = nVuPlane + ((i << nShift) >> 1) * cWidth;
+            int nOut = i * cOutWidth;
+            for (int j=0; j<cOutWidth; j++) {
+                int nCol = j << nShift;
+                int nSumY = 0;
+                for (int k=0, n=nRow+nCol; k<nScale; k++, n+=cWidth) {
+                    for (int l=0; l<nScale; l++) {
+                        nSumY += rbNv21[n+l] & 0xff;
+                    }
+                }
+                int nSumV = 0, nSumU = 0;
+                for (int k=0, n=nVuRow+nCol; k<nScale/2; k++, n+=cWidth) {
+                    for (int l=0; l<nScale; l+=2) {
+                        nSumV += rbNv21[n+l] & 0xff;
+                        nSumU += rbNv21[n+l+1] & 0xff;
+                    }
+                }
+                int nV = nSumV >> nVuShift;
+                int nU = nSumU >> nVuShift;
+                int nY = rnYTerm[nSumY >> nYShift] + (CLAMP_OFFSET << 8);
+                rnRgb[nOut+j] = 0xff000000 |
+                        (rnClamp[(nY + rnRV[nV]) >> 8] << 16) |
+                        (rnClamp[(nY + rnGU[nU] + rnGV[nV]) >> 8] << 8) |
+                        rnClamp[(nY + rnBU[nU]) >> 8];
+            }
+        }
+    }
+
+    /**
+     * Converts output rows to gray, averaging blocks when the scale is more
+     * than one.
+     * @param nFirstRow first output row.
+     * @param nLimitRow output row after the last converted.
+     */
+    private void grayRows(int nFirstRow, int nLimitRow) {
+        byte[] rbNv21 = this.rbNv21;
+        byte[] rbGray = this.rbGrayOut;
+        int cWidth = this.cWidth;
+        int nScale = this.nScale;
+        int nShift = this.nScaleShift;
+        int cOutWidth = cWidth >> nShift;
+        if (nScale == 1) {
+            for (int i=nFirstRow*cWidth; i<nLimitRow*cWidth; i++) {
+                rbGray[i] = (byte) (rbNv21[i] ^ 0x80);
+            }
+            return;
+        }
+        int nYShift = 2 * nShift;
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            int nRow = (i << nShift) * cWidth;
+            int nOut = i * cOutWidth;
+            for (int j=0; j<cOutWidth; j++) {
+                int nSumY = 0;
+                for (int k=0, n=nRow+(j<<nShift); k<nScale; k++, n+=cWidth) {
+                    for (int l=0; l<nScale; l++) {
+                        nSumY += rbNv21[n+l] & 0xff;
+                    }
+                }
+                rbGray[nOut+j] = (byte) ((nSumY >> nYShift) ^ 0x80);
+            }
+        }
+    }
+
+    /**
+     * Returns a string describing the current instance.
+     * @return the class name and scale.
+     */
+    public String toString() {
+        return super.toString() + " (" + this.nScale + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -67,7 +67,7 @@ public class Rgb3x3Average extends PipelineStage {
         int cHeight = imageInput.getHeight();
         int rgbInput[] = ((RgbImage)imageInput).getData();
         
-        RgbImage imageResult = new RgbImage(cWidth, cHeight);
+        RgbImage imageResult = super.getOutputRgbImage(cWidth, cHeight);
         int[] rgbOutput = imageResult.getData();
         
         for(int i=0;i<cHeight;i++) {
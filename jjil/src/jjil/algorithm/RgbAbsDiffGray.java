@@ -29,6 +29,7 @@ import jjil.core.Image;
 import jjil.core.PipelineStage;
 import jjil.core.RgbImage;
 import jjil.core.RgbVal;
+import jjil.core.RowBands;
 
 /**
  * Pipeline stage converts an ARGB color image into a Gray8Image by measuring
@@ -36,11 +37,26 @@ import jjil.core.RgbVal;
  * value Byte.MIN_VALUE. Other pixels get sum of absolute difference between
  * their color and the defined color.<p>
  * For use when looking for objects of a given color. Thresholding or edge
- * detection should isolate the object.
+ * detection should isolate the object. Rows are processed in parallel bands
+ * if an executor has been set with setParallel.
  * @author webb
  */
 public class RgbAbsDiffGray extends PipelineStage {
     int nR, nG, nB;
+    /** Input and output data of the current push.
+     */
+    private int[] rgbData;
+    private byte[] grayData;
+    /** Width of the current image.
+     */
+    private int cWidth;
+    /** Converts row bands of the current image.
+     */
+    private final RowBands rows = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            diffRows(nFirstRow, nLimitRow);
+        }
+    });
     
     /** Creates a new instance of RgbAvgGray */
     public RgbAbsDiffGray(int nRGB) {
@@ -68,10 +84,25 @@ public class RgbAbsDiffGray extends PipelineStage {
             				null);
         }
         RgbImage rgb = (RgbImage) image;
-        int[] rgbData = rgb.getData();
-        Gray8Image gray = new Gray8Image(image.getWidth(), image.getHeight());
-        byte[] grayData = gray.getData();
-        for (int i=0; i<image.getWidth() * image.getHeight(); i++) {
+        Gray8Image gray = super.getOutputGray8Image(image.getWidth(), image.getHeight());
+        this.rgbData = rgb.getData();
+        this.grayData = gray.getData();
+        this.cWidth = image.getWidth();
+        this.rows.run(super.getParallel(), image.getHeight());
+        this.rgbData = null;
+        this.grayData = null;
+        super.setOutput(gray);
+    }
+    
+    /** Computes the difference image for rows nFirstRow up to nLimitRow.
+     *
+     * @param nFirstRow first row.
+     * @param nLimitRow row after the last row.
+     */
+    private void diffRows(int nFirstRow, int nLimitRow) {
+        int[] rgbData = this.rgbData;
+        byte[] grayData = this.grayData;
+        for (int i=nFirstRow*this.cWidth; i<nLimitRow*this.cWidth; i++) {
             /* get individual r, g, and b values, unmasking them from the
              * ARGB word. 
              */
@@ -87,6 +118,5 @@ public class RgbAbsDiffGray extends PipelineStage {
                          Math.abs(b-this.nB)) / 3 + 
                          Byte.MIN_VALUE));
         }
-        super.setOutput(gray);
     }
 }
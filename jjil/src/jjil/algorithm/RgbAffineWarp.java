@@ -18,24 +18,34 @@ package jjil.algorithm;
 import jjil.core.Error;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
-import jjil.core.Gray8OffsetImage;
 import jjil.core.RgbImage;
 import jjil.core.RgbOffsetImage;
 import jjil.core.Vec2;
 
 /**
+ * Performs an affine transformation on an input RgbImage, producing an
+ * RgbOffsetImage as Gray8AffineWarp does for gray images. All three colors
+ * are warped together in a single pass.<p>
  * Copyright 2008 by Jon A. Webb
  * @author webb
  */
 public class RgbAffineWarp extends PipelineStage {
     private Gray8AffineWarp grayWarp;
-    private RgbSelectGray selectRed, selectGreen, selectBlue;
+    private final WarpEngine engine = new WarpEngine();
+    /** Output image, kept for reuse when output reuse is on.
+     */
+    private RgbOffsetImage imageWarped = null;
     
     public RgbAffineWarp(int[][] warp) throws Error {
         this.grayWarp = new Gray8AffineWarp(warp);
-        this.selectRed = new RgbSelectGray(RgbSelectGray.RED);
-        this.selectGreen = new RgbSelectGray(RgbSelectGray.GREEN);
-        this.selectBlue = new RgbSelectGray(RgbSelectGray.BLUE);
+    }
+    
+    /**
+     * Returns the sampling mode.
+     * @return WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     */
+    public int getSampling() {
+        return this.engine.getSampling();
     }
     
     public void push(Image imageInput) throws Error {
@@ -47,20 +57,33 @@ public class RgbAffineWarp extends PipelineStage {
     				null,
     				null);
         }
-        this.selectRed.push(imageInput);
-        this.grayWarp.push(this.selectRed.getFront());
-        Gray8OffsetImage warpedRed = (Gray8OffsetImage) this.grayWarp.getFront();
-        this.selectGreen.push(imageInput);
-        this.grayWarp.push(this.selectGreen.getFront());
-        Gray8OffsetImage warpedGreen = (Gray8OffsetImage) this.grayWarp.getFront();
-        this.selectBlue.push(imageInput);
-        this.grayWarp.push(this.selectBlue.getFront());
-        Gray8OffsetImage warpedBlue = (Gray8OffsetImage) this.grayWarp.getFront();
-        RgbImage rgb = Gray3Bands2Rgb.push(warpedRed, warpedGreen, warpedBlue);
-        super.setOutput(new RgbOffsetImage(
-                rgb, 
-                warpedRed.getXOffset(), 
-                warpedRed.getYOffset()));
+        // the gray warp holds the warp and computes the output bounds
+        Gray8AffineWarp g = this.grayWarp;
+        g.setBounds(imageInput.getWidth(), imageInput.getHeight());
+        int cWidth = g.nMaxX - g.nMinX;
+        int cHeight = g.nMaxY - g.nMinY;
+        RgbOffsetImage imageResult = this.imageWarped;
+        if (imageResult == null ||
+                imageResult.getWidth() != cWidth ||
+                imageResult.getHeight() != cHeight) {
+            imageResult = new RgbOffsetImage(cWidth, cHeight, g.nMinX, g.nMinY);
+        } else {
+            imageResult.setXOffset(g.nMinX);
+            imageResult.setYOffset(g.nMinY);
+        }
+        this.imageWarped = super.getReuseOutput() ? imageResult : null;
+        this.engine.setAffine(g.rnWarp, g.nMinX, g.nMinY, cWidth, cHeight);
+        this.engine.warp((RgbImage) imageInput, imageResult, super.getParallel());
+        super.setOutput(imageResult);
+    }
+
+    /**
+     * Sets the sampling mode.
+     * @param nSampling WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     * @throws jjil.core.Error if nSampling is not one of these.
+     */
+    public void setSampling(int nSampling) throws Error {
+        this.engine.setSampling(nSampling);
     }
 
     public void setWarp(int[][] warp) throws Error {
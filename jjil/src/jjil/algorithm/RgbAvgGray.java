@@ -63,19 +63,24 @@ public class RgbAvgGray extends PipelineStage {
             				null);
         }
         RgbImage rgb = (RgbImage) image;
-        int[] rgbData = rgb.getData();
-        Gray8Image gray = new Gray8Image(image.getWidth(), image.getHeight());
+        // read through the buffer so a cropped view is not copied
+        int[] rgbData = rgb.getBuffer();
+        Gray8Image gray = super.getOutputGray8Image(image.getWidth(), image.getHeight());
         byte[] grayData = gray.getData();
-        for (int i=0; i<image.getWidth() * image.getHeight(); i++) {
-            /* get individual r, g, and b values, unmasking them from the
-             * ARGB word. 
-             */
-            byte r = RgbVal.getR(rgbData[i]);
-            byte g = RgbVal.getG(rgbData[i]);
-            byte b = RgbVal.getB(rgbData[i]);
-            /* average the values to get the grayvalue
-             */
-            grayData[i] = (byte)((r + g + b) / 3);
+        int nOut = 0;
+        for (int i=0; i<image.getHeight(); i++) {
+            int nIn = rgb.getOffset() + i * rgb.getStride();
+            for (int j=0; j<image.getWidth(); j++, nIn++, nOut++) {
+                /* get individual r, g, and b values, unmasking them from the
+                 * ARGB word. 
+                 */
+                byte r = RgbVal.getR(rgbData[nIn]);
+                byte g = RgbVal.getG(rgbData[nIn]);
+                byte b = RgbVal.getB(rgbData[nIn]);
+                /* average the values to get the grayvalue
+                 */
+                grayData[nOut] = (byte)((r + g + b) / 3);
+            }
         }
         super.setOutput(gray);
     }
@@ -30,7 +30,9 @@ import jjil.core.Rect;
 import jjil.core.RgbImage;
 
 /**
- * Pipeline stage crops a gray image to a given rectangular cropping window.
+ * Pipeline stage crops an RgbImage to a given rectangular cropping window.
+ * The output is a view of the window in the input image; call setCopy(true)
+ * to get a copy instead.
  * @author webb
  */
 public class RgbCrop extends PipelineStage {
@@ -38,6 +40,7 @@ public class RgbCrop extends PipelineStage {
     int cWidth; /* width of cropping window */
     int cX; /* left edge of cropping window */
     int cY; /* top of cropping window */
+    boolean fCopy = false; /* true to copy the window out of the input */
     
     /** Creates a new instance of RgbCrop. The cropping window
      * is specified here.
@@ -95,13 +98,25 @@ public class RgbCrop extends PipelineStage {
                             this.toString(),
                             null);
         }
-        RgbImage imageResult = new RgbImage(this.cWidth,this.cHeight);
-        int[] src = imageInput.getData();
+        int[] src = imageInput.getBuffer();
+        int nOffset = imageInput.getOffset() + 
+                this.cY*imageInput.getStride() + this.cX;
+        if (!this.fCopy) {
+            // the output is a view of the window in the input
+            super.setOutput(new RgbImage(
+                    this.cWidth, 
+                    this.cHeight, 
+                    src, 
+                    nOffset, 
+                    imageInput.getStride()));
+            return;
+        }
+        RgbImage imageResult = super.getOutputRgbImage(this.cWidth,this.cHeight);
         int[] dst = imageResult.getData();
         for (int i=0; i<this.cHeight; i++) {
             System.arraycopy(
                     src, 
-                    (i+this.cY)*image.getWidth() + this.cX,
+                    nOffset + i*imageInput.getStride(),
                     dst,
                     i*this.cWidth,
                     this.cWidth);
@@ -109,6 +124,14 @@ public class RgbCrop extends PipelineStage {
         super.setOutput(imageResult);
     }
     
+    /**
+     * Tells whether the window is copied out of the input.
+     * @return true if the output is a copy, false if it is a view.
+     */
+    public boolean getCopy() {
+        return this.fCopy;
+    }
+    
     /**
      * Gets the cropping window height
      * @return the cropping window height
@@ -141,6 +164,18 @@ public class RgbCrop extends PipelineStage {
         return this.cWidth;
     }
     
+    /**
+     * Chooses between a view and a copy for the output. A view shares the
+     * input's pixels, so it costs nothing to make but changes if the input
+     * is later overwritten, for example by a stage that reuses its output
+     * image. A copy is independent of the input.
+     * @param fCopy true to copy the window, false (the default) to return
+     * a view of it.
+     */
+    public void setCopy(boolean fCopy) {
+        this.fCopy = fCopy;
+    }
+    
     /** Change the cropping window. 
      *
      * @param x left edge of cropping window
@@ -189,4 +224,15 @@ public class RgbCrop extends PipelineStage {
         return super.toString() + " (" + this.cX + "," + this.cY +  //$NON-NLS-1$ //$NON-NLS-2$
                 "," + this.cWidth + "," + this.cHeight + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
+    
+    /**
+     * This stage does not change its input, but unless setCopy(true) has
+     * been called its output is a view sharing the input's pixels, so a
+     * later stage changing the output changes the input too.
+     * Overrides PipelineStage.modifiesInput().
+     * @return true iff the output is a view of the input.
+     */
+    public boolean modifiesInput() {
+        return !this.fCopy;
+    }
 }
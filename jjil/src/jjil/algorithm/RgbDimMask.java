@@ -65,7 +65,7 @@ public class RgbDimMask extends PipelineStage {
         }
         RgbMaskedImage rgbImage = (RgbMaskedImage) image;
         int[] src = rgbImage.getData();
-        RgbImage rgbOutput = new RgbImage(rgbImage.getWidth(), rgbImage.getHeight());
+        RgbImage rgbOutput = super.getOutputRgbImage(rgbImage.getWidth(), rgbImage.getHeight());
         int[] dst = rgbOutput.getData();
         for (int i=0; i<rgbImage.getHeight(); i++) {
             for (int j=0; j<rgbImage.getWidth(); j++) {
@@ -0,0 +1,170 @@
+/*
+ * RgbGaussSmooth.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Image;
+import jjil.core.ParallelExecutor;
+import jjil.core.PipelineStage;
+import jjil.core.RgbImage;
+import jjil.core.RgbVal;
+
+/**
+ * Blurs an RgbImage with a two-dimensional Gaussian, smoothing the red, green,
+ * and blue values independently with Gray8GaussSmooth. This takes the place of
+ * RgbHorizGaussSmooth followed by RgbVertGaussSmooth: the bands are
+ * separated into gray images which, like the blurred bands and the output, are
+ * kept from one push to the next.
+ * @author webb
+ */
+public class RgbGaussSmooth extends PipelineStage {
+    private final Gray8GaussSmooth gaussR, gaussG, gaussB;
+    private Gray8Image imR = null, imG = null, imB = null;
+
+    /**
+     * Creates a new instance of RgbGaussSmooth using the Gaussian
+     * coefficients.
+     * @param cSigma sigma times 10.
+     * @throws jjil.core.Error if sigma is out of range.
+     */
+    public RgbGaussSmooth(int cSigma) throws jjil.core.Error {
+        this(cSigma, Gray8GaussSmooth.GAUSSIAN);
+    }
+
+    /**
+     * Creates a new instance of RgbGaussSmooth.
+     * @param cSigma sigma times 10.
+     * @param nMode Gray8GaussSmooth.GAUSSIAN or Gray8GaussSmooth.BOX.
+     * @throws jjil.core.Error if the mode is not known or sigma is out of
+     * range for it.
+     */
+    public RgbGaussSmooth(int cSigma, int nMode) throws jjil.core.Error {
+        this.gaussR = new Gray8GaussSmooth(cSigma, nMode);
+        this.gaussG = new Gray8GaussSmooth(cSigma, nMode);
+        this.gaussB = new Gray8GaussSmooth(cSigma, nMode);
+        this.gaussR.setReuseOutput(true);
+        this.gaussG.setReuseOutput(true);
+        this.gaussB.setReuseOutput(true);
+    }
+
+    /**
+     * Returns the mode.
+     * @return Gray8GaussSmooth.GAUSSIAN or Gray8GaussSmooth.BOX.
+     */
+    public int getMode() {
+        return this.gaussR.getMode();
+    }
+
+    /**
+     * Returns the current value of sigma.
+     * @return sigma times 10.
+     */
+    public int getSigma() {
+        return this.gaussR.getSigma();
+    }
+
+    /**
+     * Blurs an RgbImage.
+     * @param image the input RgbImage.
+     * @throws jjil.core.Error if the input image is not an RgbImage.
+     */
+    public void push(Image image) throws jjil.core.Error {
+        if (!(image instanceof RgbImage)) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.IMAGE_NOT_RGBIMAGE,
+                            image.toString(),
+                            null,
+                            null);
+        }
+        int cWidth = image.getWidth(), cHeight = image.getHeight();
+        if (this.imR == null ||
+                this.imR.getWidth() != cWidth ||
+                this.imR.getHeight() != cHeight) {
+            this.imR = new Gray8Image(cWidth, cHeight);
+            this.imG = new Gray8Image(cWidth, cHeight);
+            this.imB = new Gray8Image(cWidth, cHeight);
+        }
+        int[] rgbData = ((RgbImage) image).getData();
+        byte[] bR = this.imR.getData();
+        byte[] bG = this.imG.getData();
+        byte[] bB = this.imB.getData();
+        for (int i=0; i<cWidth*cHeight; i++) {
+            int nRgb = rgbData[i];
+            bR[i] = RgbVal.getR(nRgb);
+            bG[i] = RgbVal.getG(nRgb);
+            bB[i] = RgbVal.getB(nRgb);
+        }
+        this.gaussR.push(this.imR);
+        this.gaussG.push(this.imG);
+        this.gaussB.push(this.imB);
+        bR = ((Gray8Image) this.gaussR.getFront()).getData();
+        bG = ((Gray8Image) this.gaussG.getFront()).getData();
+        bB = ((Gray8Image) this.gaussB.getFront()).getData();
+        RgbImage result = super.getOutputRgbImage(cWidth, cHeight);
+        int[] resultData = result.getData();
+        for (int i=0; i<cWidth*cHeight; i++) {
+            resultData[i] = RgbVal.toRgb(bR[i], bG[i], bB[i]);
+        }
+        super.setOutput(result);
+    }
+
+    /**
+     * Sets the executor used by the band smoothing stages.
+     * Overrides PipelineStage.setParallel(ParallelExecutor).
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        this.gaussR.setParallel(pe);
+        this.gaussG.setParallel(pe);
+        this.gaussB.setParallel(pe);
+    }
+
+    /**
+     * Sets a new value for sigma and the mode.
+     * @param cSigma sigma times 10.
+     * @param nMode Gray8GaussSmooth.GAUSSIAN or Gray8GaussSmooth.BOX.
+     * @throws jjil.core.Error if the mode is not known or sigma is out of
+     * range for it.
+     */
+    public void setSigma(int cSigma, int nMode) throws jjil.core.Error {
+        this.gaussR.setSigma(cSigma, nMode);
+        this.gaussG.setSigma(cSigma, nMode);
+        this.gaussB.setSigma(cSigma, nMode);
+    }
+
+    /**
+     * This stage computes a new output image and does not change its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return false
+     */
+    public boolean modifiesInput() {
+        return false;
+    }
+
+    /**
+     * Returns a string describing the current instance.
+     * @return the class name, sigma, and mode.
+     */
+    public String toString() {
+        return super.toString() + " (" + getSigma() + "," + getMode() + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+}
@@ -24,6 +24,7 @@ package jjil.algorithm;
 import jjil.core.Error;
 import jjil.core.Gray8Image;
 import jjil.core.Image;
+import jjil.core.ParallelExecutor;
 import jjil.core.PipelineStage;
 import jjil.core.RgbImage;
 import jjil.core.Sequence;
@@ -85,6 +86,20 @@ public class RgbHorizGaussSmooth extends PipelineStage {
         this.seqG.add(new Gray8GaussHoriz(nSigma));
         this.seqB = new Sequence(new RgbSelectGray(RgbSelectGray.BLUE));
         this.seqB.add(new Gray8GaussHoriz(nSigma));
+        setParallel(super.getParallel());
+    }
+    
+    /**
+     * Sets the executor used by the band selection and smoothing stages, so
+     * each band is smoothed in parallel row bands.
+     * Overrides PipelineStage.setParallel(ParallelExecutor).
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        this.seqR.setParallel(pe);
+        this.seqG.setParallel(pe);
+        this.seqB.setParallel(pe);
     }
     
     /**
@@ -64,7 +64,7 @@ public class RgbMaxContrast2Gray extends PipelineStage {
         }
         RgbImage rgb = (RgbImage) image;
         int[] rgbData = rgb.getData();
-        Gray8Image gray = new Gray8Image(image.getWidth(), image.getHeight());
+        Gray8Image gray = super.getOutputGray8Image(image.getWidth(), image.getHeight());
         byte[] grayData = gray.getData();
         for (int i=0; i<image.getWidth() * image.getHeight(); i++) {
             /* get individual r, g, and b values, unmasking them from the
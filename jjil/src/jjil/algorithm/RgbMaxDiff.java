@@ -64,7 +64,7 @@ public class RgbMaxDiff extends PipelineStage {
 
         int wInput[] = ((RgbImage)imInput).getData();
         int wBack[] = this.rgbBack.getData();
-        Gray8Image grayOut = new Gray8Image(
+        Gray8Image grayOut = super.getOutputGray8Image(
                 this.rgbBack.getWidth(), 
                 this.rgbBack.getHeight());        
         byte bGray[] = grayOut.getData();
@@ -98,7 +98,7 @@ public class RgbMultiVecThresh extends PipelineStage {
         }
         RgbImage rgbInput = (RgbImage) imageInput;
         int [] rgbData = rgbInput.getData();
-        Gray8Image grayOutput = new Gray8Image(
+        Gray8Image grayOutput = super.getOutputGray8Image(
                 rgbInput.getWidth(), 
                 rgbInput.getHeight());
         byte [] grayData = grayOutput.getData();
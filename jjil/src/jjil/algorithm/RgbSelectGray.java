@@ -163,7 +163,7 @@ public class RgbSelectGray extends PipelineStage {
         }
         RgbImage rgb = (RgbImage) image;
         int[] rgbData = rgb.getData();
-        Gray8Image gray = new Gray8Image(image.getWidth(), image.getHeight());
+        Gray8Image gray = super.getOutputGray8Image(image.getWidth(), image.getHeight());
         byte[] grayData = gray.getData();
         if (colorChosen.equals(RED)) {
             for (int i=0; i<image.getWidth() * image.getHeight(); i++) {
@@ -94,7 +94,7 @@ public class RgbSubSample extends PipelineStage {
         int cReduceHeight = image.getHeight() / this.cTargetHeight;
         RgbImage rgb = (RgbImage) image;
         int[] rnIn = rgb.getData();
-        RgbImage result = new RgbImage(
+        RgbImage result = super.getOutputRgbImage(
         		this.cTargetWidth, 
         		this.cTargetHeight);
         int[] rnOut = result.getData();
@@ -80,7 +80,7 @@ public class RgbVecThresh extends PipelineStage {
         }
         RgbImage rgb = (RgbImage) imageInput;
         int[] nData = rgb.getData();
-        Gray8Image imageResult = new Gray8Image(rgb.getWidth(), rgb.getHeight());
+        Gray8Image imageResult = super.getOutputGray8Image(rgb.getWidth(), rgb.getHeight());
         byte[] bData = imageResult.getData();
         for (int i=0; i<rgb.getWidth()*rgb.getHeight(); i++) {
             int nRCurr = RgbVal.getR(nData[i]) - Byte.MIN_VALUE;
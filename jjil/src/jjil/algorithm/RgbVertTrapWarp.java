@@ -24,16 +24,15 @@
 
 package jjil.algorithm;
 import jjil.core.Error;
-import jjil.core.Gray8Image;
 import jjil.core.Image;
 import jjil.core.PipelineStage;
 import jjil.core.RgbImage;
-import jjil.core.Sequence;
 
 /**
  * This PipelineStage warps a trapezoid in the input gray image into a 
  * rectangular output image. The trapezoid is alined vertically, i.e., the
- * vertical edges are parallel
+ * vertical edges are parallel. All three colors are warped together in a
+ * single pass by a WarpEngine.
  * @author webb
  */
 public class RgbVertTrapWarp extends PipelineStage {
@@ -43,7 +42,8 @@ public class RgbVertTrapWarp extends PipelineStage {
    private int nRowBotStart;
    private int nColEnd;
    private int nColStart;
-   private Sequence seqR, seqG, seqB;
+   private int cWidth, cHeight;
+   private final WarpEngine engine = new WarpEngine();
     
     /** Creates a new instance of RgbVertTrapWarp. RgbVertTrapWarp warps a trapezoidal
      * region in an input RGB image into a rectangular output image. The
@@ -128,6 +128,14 @@ public class RgbVertTrapWarp extends PipelineStage {
        return this.nColStart;
    }
 
+    /**
+     * Returns the sampling mode.
+     * @return WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     */
+    public int getSampling() {
+        return this.engine.getSampling();
+    }
+
     /**
      * Warps a trapezoidal region in the input gray image into a rectangular
      * output image. Uses bilinear interpolation. The calculation of fractional
@@ -157,13 +165,23 @@ public class RgbVertTrapWarp extends PipelineStage {
     				this.toString(),
     				null);
         }
-        this.seqR.push(image);
-        this.seqG.push(image);
-        this.seqB.push(image);
-        super.setOutput(Gray3Bands2Rgb.push(
-                (Gray8Image)this.seqR.getFront(), 
-                (Gray8Image)this.seqG.getFront(), 
-                (Gray8Image)this.seqB.getFront()));
+        RgbImage imageResult = super.getOutputRgbImage(this.cWidth, this.cHeight);
+        this.engine.setQuad(
+                this.nColStart << 16, this.nRowTopStart << 16,
+                this.nColEnd << 16, this.nRowTopEnd << 16,
+                this.nColStart << 16, this.nRowBotStart << 16,
+                this.nColEnd << 16, this.nRowBotEnd << 16);
+        this.engine.warp((RgbImage) image, imageResult, super.getParallel());
+        super.setOutput(imageResult);
+    }
+    
+    /**
+     * Sets the sampling mode.
+     * @param nSampling WarpEngine.NEAREST or WarpEngine.BILINEAR.
+     * @throws jjil.core.Error if nSampling is not one of these.
+     */
+    public void setSampling(int nSampling) throws jjil.core.Error {
+        this.engine.setSampling(nSampling);
     }
     
     /** Sets the bounds of the trapezoid. Recreates the output image when they
@@ -218,18 +236,8 @@ public class RgbVertTrapWarp extends PipelineStage {
 	    int nHeight = Math.max(
                 this.nRowBotStart - this.nRowTopStart, 
                 this.nRowBotEnd - this.nRowTopEnd);
-        this.seqR = new Sequence(new RgbSelectGray(RgbSelectGray.RED));
-        this.seqR.add(new Gray8VertTrapWarp(this.nColStart, this.nColEnd,
-                this.nRowTopStart, this.nRowBotStart, this.nRowTopEnd,
-                this.nRowBotEnd));
-        this.seqG = new Sequence(new RgbSelectGray(RgbSelectGray.GREEN));
-        this.seqG.add(new Gray8VertTrapWarp(this.nColStart, this.nColEnd,
-                this.nRowTopStart, this.nRowBotStart, this.nRowTopEnd,
-                this.nRowBotEnd));
-        this.seqB = new Sequence(new RgbSelectGray(RgbSelectGray.BLUE));
-        this.seqB.add(new Gray8VertTrapWarp(this.nColStart, this.nColEnd,
-                this.nRowTopStart, this.nRowBotStart, this.nRowTopEnd,
-                this.nRowBotEnd));
+        this.cWidth = nWidth;
+        this.cHeight = nHeight;
     }
     
     /**
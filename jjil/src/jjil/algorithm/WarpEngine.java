@@ -0,0 +1,430 @@
+/*
+ * WarpEngine.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.ParallelExecutor;
+import jjil.core.RgbImage;
+import jjil.core.RowBands;
+
+/**
+ * WarpEngine warps an input image into an output image in a single pass,
+ * for the affine and trapezoid warp stages. The mapping takes the corners of
+ * the output image to the corners of a quadrilateral in the input image,
+ * with the points in between interpolated bilinearly. This includes affine
+ * warps (the quadrilateral is then a parallelogram) and the trapezoid warps.
+ * <p>
+ * Along an output row such a mapping is linear, so the input position of
+ * the first pixel in each row and the change in position from one pixel to
+ * the next are computed once per row, and the row is then walked by adding
+ * the change, with all positions in fixed point scaled by 2**16. Rows are
+ * computed independently, so they are processed in parallel bands when an
+ * executor is given.<p>
+ * Output pixels whose input position lies outside the input image are set to
+ * black. Pixels can be sampled either from the nearest input pixel or by
+ * bilinear interpolation of the four surrounding input pixels.
+ * @author webb
+ */
+public class WarpEngine {
+    /**
+     * Sample the input pixel nearest the warped position.
+     */
+    public static final int NEAREST = 0;
+    /**
+     * Interpolate bilinearly between the four input pixels around the warped
+     * position.
+     */
+    public static final int BILINEAR = 1;
+    /**
+     * Value of RgbImage output pixels outside the input image.
+     */
+    private static final int RGB_FILL = 0xFF000000;
+
+    private int nSampling = BILINEAR;
+    // input positions, scaled by 2**16, of the output image's top-left,
+    // top-right, bottom-left and bottom-right corners
+    private int nX00, nY00, nX10, nY10, nX01, nY01, nX11, nY11;
+    // the images being warped by the row bands
+    private byte[] rbIn, rbOut;
+    private int[] rnIn, rnOut;
+    private int cInWidth, cInHeight, cOutWidth, cOutHeight;
+    /** Warps bands of rows of the current Gray8Image.
+     */
+    private final RowBands rowsGray = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            warpGrayRows(nFirstRow, nLimitRow);
+        }
+    });
+    /** Warps bands of rows of the current RgbImage.
+     */
+    private final RowBands rowsRgb = new RowBands(new RowBands.Body() {
+        public void run(int nFirstRow, int nLimitRow) {
+            warpRgbRows(nFirstRow, nLimitRow);
+        }
+    });
+
+    /**
+     * Creates a new WarpEngine, which uses bilinear interpolation and the
+     * identity mapping until told otherwise.
+     */
+    public WarpEngine() {
+    }
+
+    /**
+     * Returns the sampling mode.
+     * @return NEAREST or BILINEAR.
+     */
+    public int getSampling() {
+        return this.nSampling;
+    }
+
+    /**
+     * Sets the mapping to an affine warp. The output image is taken to be
+     * the rectangle of the warped image with top-left corner
+     * (nXOrigin, nYOrigin) and the given size, so that an output image
+     * covering the bounds of the warped input can be given an offset.
+     * @param warp the 2x3 affine warp, from input to warped image, scaled by
+     * 2**16.
+     * @param nXOrigin horizontal position of the output image in the warped
+     * image.
+     * @param nYOrigin vertical position of the output image in the warped
+     * image.
+     * @param cWidth width of the output image.
+     * @param cHeight height of the output image.
+     * @throws jjil.core.Error if the warp is not invertible.
+     */
+    public void setAffine(
+            int[][] warp,
+            int nXOrigin,
+            int nYOrigin,
+            int cWidth,
+            int cHeight) throws jjil.core.Error
+    {
+        // the determinant is scaled by 2**32; dropping 16 bits of it scales
+        // the inverse correctly below
+        long nDet = ((long) warp[0][0] * warp[1][1] -
+                (long) warp[0][1] * warp[1][0]) >> 16;
+        if (nDet == 0) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            warp.toString(),
+                            null,
+                            null);
+        }
+        int rnCorner[] = new int[2];
+        affineInverse(warp, nDet, nXOrigin, nYOrigin, rnCorner);
+        this.nX00 = rnCorner[0];
+        this.nY00 = rnCorner[1];
+        affineInverse(warp, nDet, nXOrigin + cWidth, nYOrigin, rnCorner);
+        this.nX10 = rnCorner[0];
+        this.nY10 = rnCorner[1];
+        affineInverse(warp, nDet, nXOrigin, nYOrigin + cHeight, rnCorner);
+        this.nX01 = rnCorner[0];
+        this.nY01 = rnCorner[1];
+        affineInverse(warp, nDet, nXOrigin + cWidth, nYOrigin + cHeight,
+                rnCorner);
+        this.nX11 = rnCorner[0];
+        this.nY11 = rnCorner[1];
+    }
+
+    /**
+     * Sets the mapping to take the output image's corners to a quadrilateral
+     * in the input image. The positions are scaled by 2**16, and are those
+     * of the output image's corners (0,0), (width,0), (0,height), and
+     * (width,height), i.e., of the bounds just outside the last column and
+     * row.
+     * @param nX00 input column of the output top-left corner.
+     * @param nY00 input row of the output top-left corner.
+     * @param nX10 input column of the output top-right corner.
+     * @param nY10 input row of the output top-right corner.
+     * @param nX01 input column of the output bottom-left corner.
+     * @param nY01 input row of the output bottom-left corner.
+     * @param nX11 input column of the output bottom-right corner.
+     * @param nY11 input row of the output bottom-right corner.
+     */
+    public void setQuad(
+            int nX00, int nY00,
+            int nX10, int nY10,
+            int nX01, int nY01,
+            int nX11, int nY11) {
+        this.nX00 = nX00;
+        this.nY00 = nY00;
+        this.nX10 = nX10;
+        this.nY10 = nY10;
+        this.nX01 = nX01;
+        this.nY01 = nY01;
+        this.nX11 = nX11;
+        this.nY11 = nY11;
+    }
+
+    /**
+     * Sets the sampling mode.
+     * @param nSampling NEAREST or BILINEAR.
+     * @throws jjil.core.Error if nSampling is not one of these.
+     */
+    public void setSampling(int nSampling) throws jjil.core.Error {
+        if (nSampling != NEAREST && nSampling != BILINEAR) {
+            throw new Error(
+                            Error.PACKAGE.ALGORITHM,
+                            ErrorCodes.PARAMETER_OUT_OF_RANGE,
+                            Integer.toString(nSampling),
+                            null,
+                            null);
+        }
+        this.nSampling = nSampling;
+    }
+
+    /**
+     * Warps a Gray8Image into an output image, assigning every output pixel.
+     * @param imIn the input image.
+     * @param imOut the output image. Must not be the input image.
+     * @param pe executor to warp bands of rows concurrently, or null.
+     * @throws jjil.core.Error if a row band fails.
+     */
+    public void warp(Gray8Image imIn, Gray8Image imOut, ParallelExecutor pe)
+        throws jjil.core.Error
+    {
+        setImages(imIn.getWidth(), imIn.getHeight(),
+                imOut.getWidth(), imOut.getHeight());
+        this.rbIn = imIn.getData();
+        this.rbOut = imOut.getData();
+        try {
+            this.rowsGray.run(pe, this.cOutHeight);
+        } finally {
+            this.rbIn = null;
+            this.rbOut = null;
+        }
+    }
+
+    /**
+     * Warps an RgbImage into an output image, assigning every output pixel.
+     * All four bytes of each pixel are interpolated.
+     * @param imIn the input image.
+     * @param imOut the output image. Must not be the input image.
+     * @param pe executor to warp bands of rows concurrently, or null.
+     * @throws jjil.core.Error if a row band fails.
+     */
+    public void warp(RgbImage imIn, RgbImage imOut, ParallelExecutor pe)
+        throws jjil.core.Error
+    {
+        setImages(imIn.getWidth(), imIn.getHeight(),
+                imOut.getWidth(), imOut.getHeight());
+        this.rnIn = imIn.getData();
+        this.rnOut = imOut.getData();
+        try {
+            this.rowsRgb.run(pe, this.cOutHeight);
+        } finally {
+            this.rnIn = null;
+            this.rnOut = null;
+        }
+    }
+
+    /**
+     * Computes the input position of a point in the warped image.
+     * @param warp the affine warp, scaled by 2**16.
+     * @param nDet the determinant of the warp, scaled by 2**16.
+     * @param nX column in the warped image.
+     * @param nY row in the warped image.
+     * @param rnOut receives the input column and row, scaled by 2**16.
+     */
+    private static void affineInverse(
+            int[][] warp,
+            long nDet,
+            int nX,
+            int nY,
+            int[] rnOut) {
+        long nDx = ((long) nX << 16) - warp[0][2];
+        long nDy = ((long) nY << 16) - warp[1][2];
+        rnOut[0] = (int) ((warp[1][1] * nDx - warp[0][1] * nDy) / nDet);
+        rnOut[1] = (int) ((warp[0][0] * nDy - warp[1][0] * nDx) / nDet);
+    }
+
+    /**
+     * Records the sizes of the images being warped.
+     */
+    private void setImages(
+            int cInWidth,
+            int cInHeight,
+            int cOutWidth,
+            int cOutHeight) {
+        this.cInWidth = cInWidth;
+        this.cInHeight = cInHeight;
+        this.cOutWidth = cOutWidth;
+        this.cOutHeight = cOutHeight;
+    }
+
+    /**
+     * Computes the input position of the first pixel of an output row and
+     * the change in position from one pixel to the next.
+     * @param nRow the output row.
+     * @param rnStep receives the column, row, column change and row change,
+     * all scaled by 2**16. For nearest sampling the position is offset by
+     * half a pixel so that truncating it rounds.
+     * @return true iff every pixel in the row lies inside the input image.
+     */
+    private boolean rowStep(int nRow, int[] rnStep) {
+        // the row's ends lie on the left and right edges of the
+        // quadrilateral
+        long nLeftX = this.nX00 +
+                ((long) this.nX01 - this.nX00) * nRow / this.cOutHeight;
+        long nLeftY = this.nY00 +
+                ((long) this.nY01 - this.nY00) * nRow / this.cOutHeight;
+        long nRightX = this.nX10 +
+                ((long) this.nX11 - this.nX10) * nRow / this.cOutHeight;
+        long nRightY = this.nY10 +
+                ((long) this.nY11 - this.nY10) * nRow / this.cOutHeight;
+        int nDx = (int) ((nRightX - nLeftX) / this.cOutWidth);
+        int nDy = (int) ((nRightY - nLeftY) / this.cOutWidth);
+        if (this.nSampling == NEAREST) {
+            nLeftX += 1<<15;
+            nLeftY += 1<<15;
+        }
+        rnStep[0] = (int) nLeftX;
+        rnStep[1] = (int) nLeftY;
+        rnStep[2] = nDx;
+        rnStep[3] = nDy;
+        // the row is a line, so it is inside iff both its ends are
+        long nLastX = nLeftX + (long) nDx * (this.cOutWidth - 1);
+        long nLastY = nLeftY + (long) nDy * (this.cOutWidth - 1);
+        return inside(nLeftX, nLeftY) && inside(nLastX, nLastY);
+    }
+
+    /**
+     * Tests whether a position lies inside the input image.
+     * @param nX column, scaled by 2**16.
+     * @param nY row, scaled by 2**16.
+     * @return true iff the pixel containing the position is in the image.
+     */
+    private boolean inside(long nX, long nY) {
+        return nX >= 0 && (nX >> 16) < this.cInWidth &&
+                nY >= 0 && (nY >> 16) < this.cInHeight;
+    }
+
+    /**
+     * Warps rows nFirstRow up to nLimitRow of the current Gray8Image.
+     * @param nFirstRow first output row.
+     * @param nLimitRow row after the last output row.
+     */
+    private void warpGrayRows(int nFirstRow, int nLimitRow) {
+        byte[] bIn = this.rbIn;
+        byte[] bOut = this.rbOut;
+        int cInWidth = this.cInWidth;
+        int cInHeight = this.cInHeight;
+        int rnStep[] = new int[4];
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            boolean fInside = rowStep(i, rnStep);
+            int nX = rnStep[0], nY = rnStep[1];
+            int nDx = rnStep[2], nDy = rnStep[3];
+            int nOut = i * this.cOutWidth;
+            int nOutLimit = nOut + this.cOutWidth;
+            if (this.nSampling == NEAREST) {
+                for (; nOut<nOutLimit; nOut++, nX += nDx, nY += nDy) {
+                    int nCol = nX >> 16, nRow = nY >> 16;
+                    if (!fInside && (nX < 0 || nCol >= cInWidth ||
+                            nY < 0 || nRow >= cInHeight)) {
+                        bOut[nOut] = Byte.MIN_VALUE;
+                    } else {
+                        bOut[nOut] = bIn[nRow * cInWidth + nCol];
+                    }
+                }
+            } else {
+                for (; nOut<nOutLimit; nOut++, nX += nDx, nY += nDy) {
+                    int nCol = nX >> 16, nRow = nY >> 16;
+                    if (!fInside && (nX < 0 || nCol >= cInWidth ||
+                            nY < 0 || nRow >= cInHeight)) {
+                        bOut[nOut] = Byte.MIN_VALUE;
+                        continue;
+                    }
+                    // fractional parts, scaled by 2**8
+                    int nXFrac = (nX >> 8) & 0xff;
+                    int nYFrac = (nY >> 8) & 0xff;
+                    // the last column and row are their own neighbors
+                    int nRight = nCol < cInWidth - 1 ? 1 : 0;
+                    int nDown = nRow < cInHeight - 1 ? cInWidth : 0;
+                    int n = nRow * cInWidth + nCol;
+                    int nTop = bIn[n] * (256 - nXFrac) +
+                            bIn[n + nRight] * nXFrac;
+                    int nBot = bIn[n + nDown] * (256 - nXFrac) +
+                            bIn[n + nDown + nRight] * nXFrac;
+                    bOut[nOut] = (byte)
+                            ((nTop * (256 - nYFrac) + nBot * nYFrac +
+                            (1<<15)) >> 16);
+                }
+            }
+        }
+    }
+
+    /**
+     * Warps rows nFirstRow up to nLimitRow of the current RgbImage.
+     * @param nFirstRow first output row.
+     * @param nLimitRow row after the last output row.
+     */
+    private void warpRgbRows(int nFirstRow, int nLimitRow) {
+        int[] nIn = this.rnIn;
+        int[] nOut = this.rnOut;
+        int cInWidth = this.cInWidth;
+        int cInHeight = this.cInHeight;
+        int rnStep[] = new int[4];
+        for (int i=nFirstRow; i<nLimitRow; i++) {
+            boolean fInside = rowStep(i, rnStep);
+            int nX = rnStep[0], nY = rnStep[1];
+            int nDx = rnStep[2], nDy = rnStep[3];
+            int nPos = i * this.cOutWidth;
+            int nPosLimit = nPos + this.cOutWidth;
+            for (; nPos<nPosLimit; nPos++, nX += nDx, nY += nDy) {
+                int nCol = nX >> 16, nRow = nY >> 16;
+                if (!fInside && (nX < 0 || nCol >= cInWidth ||
+                        nY < 0 || nRow >= cInHeight)) {
+                    nOut[nPos] = RGB_FILL;
+                } else if (this.nSampling == NEAREST) {
+                    nOut[nPos] = nIn[nRow * cInWidth + nCol];
+                } else {
+                    int nXFrac = (nX >> 8) & 0xff;
+                    int nYFrac = (nY >> 8) & 0xff;
+                    int nRight = nCol < cInWidth - 1 ? 1 : 0;
+                    int nDown = nRow < cInHeight - 1 ? cInWidth : 0;
+                    int n = nRow * cInWidth + nCol;
+                    nOut[nPos] = lerpRgb(
+                            lerpRgb(nIn[n], nIn[n + nRight], nXFrac),
+                            lerpRgb(nIn[n + nDown], nIn[n + nDown + nRight],
+                                nXFrac),
+                            nYFrac);
+                }
+            }
+        }
+    }
+
+    /**
+     * Interpolates all four bytes of two packed pixels at once, two bytes
+     * at a time in alternate halves of a word.
+     * @param nA the first pixel.
+     * @param nB the second pixel.
+     * @param nFrac weight of the second pixel, scaled by 2**8.
+     * @return the interpolated pixel.
+     */
+    private static int lerpRgb(int nA, int nB, int nFrac) {
+        int nRB = ((((nA & 0x00FF00FF) * (256 - nFrac) +
+                (nB & 0x00FF00FF) * nFrac)) >>> 8) & 0x00FF00FF;
+        int nAG = (((nA >>> 8) & 0x00FF00FF) * (256 - nFrac) +
+                ((nB >>> 8) & 0x00FF00FF) * nFrac) & 0xFF00FF00;
+        return nAG | nRB;
+    }
+}
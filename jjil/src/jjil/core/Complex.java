@@ -266,7 +266,7 @@ public class Complex {
      */
     public Complex times(int nX) {
         int nR = this.nReal * nX;
-        int nI = this.nReal * nX;
+        int nI = this.nImag * nX;
         this.nReal = nR;
         this.nImag = nI;
         return this;
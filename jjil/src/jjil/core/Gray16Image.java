@@ -26,14 +26,19 @@ package jjil.core;
 
 /**
  * Gray16Image is the image type used to store a 16-bit 
- * signed gray image.
+ * signed gray image. It can be a view of a rectangle in a larger array, set
+ * with setView; getData copies a view out into a dense array.
  *
  * @author webb
  */
 public final class Gray16Image extends Image {
-    /** A pointer to the image data
+    /** A pointer to the image data. For a view this is the larger array.
      */
-    private final short[] wImage;
+    private short[] wImage;
+    /** Dense width x height array of this image, used when a view is copied
+     * out by getData.
+     */
+    private short[] wDense;
     
     /** Creates a new instance of Gray16Image 
      *
@@ -43,6 +48,27 @@ public final class Gray16Image extends Image {
     public Gray16Image(int cWidth, int cHeight) {
         super(cWidth, cHeight);
         this.wImage = new short[getWidth()*getHeight()];
+        this.wDense = this.wImage;
+    }
+    
+    /**
+     * Creates a new Gray16Image which is a view of a rectangle in a larger
+     * array. No pixels are copied.
+     * @param cWidth Width of the image (columns).
+     * @param cHeight Height of the image (rows)
+     * @param rwBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rwBuffer.
+     * @param cStride distance in rwBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rwBuffer.
+     */
+    public Gray16Image(
+            int cWidth, 
+            int cHeight, 
+            short[] rwBuffer, 
+            int nOffset, 
+            int cStride) throws jjil.core.Error {
+        super(cWidth, cHeight);
+        setView(rwBuffer, nOffset, cStride);
     }
     
     /**
@@ -54,36 +80,85 @@ public final class Gray16Image extends Image {
     public Gray16Image(int cWidth, int cHeight, short wValue) {
         super(cWidth, cHeight);
         this.wImage = new short[getWidth()*getHeight()];
+        this.wDense = this.wImage;
         for (int i=0; i<this.getWidth()*this.getHeight();i++) {
             this.wImage[i] = wValue;
         }
     }
 
-    /** Copy this image
+    /** Copy this image. The copy is dense even if this image is a view.
      *
      * @return the image copy.
      */
     public Object clone()
     {
         Gray16Image image = new Gray16Image(getWidth(),getHeight());
-        System.arraycopy(
-                this.getData(),
-                0,
-                image.getData(),
-                0,
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
-    /** Return a pointer to the image data.
+    /**
+     * Copies the pixels of this image into a dense width x height array,
+     * row by row, without changing a view.
+     * @param rwDest the array to copy into.
+     */
+    private void copyTo(short[] rwDest) {
+        for (int i=0; i<getHeight(); i++) {
+            System.arraycopy(
+                    this.wImage,
+                    getOffset() + i*getStride(),
+                    rwDest,
+                    i*getWidth(),
+                    getWidth());
+        }
+    }
+    
+    /**
+     * Return the array holding the pixels. For a view this is the larger
+     * array; use getOffset and getStride to find the pixels in it.
+     * @return the pixel array.
+     */
+    public short[] getBuffer()
+    {
+        return this.wImage;
+    }
+    
+    /** Return a pointer to the image data. If this image is a view its
+     * pixels are first copied into a dense width x height array, which the
+     * image then uses in place of the view.
+     * This changes the image, so a view must not be read by another thread
+     * while getData() is called on it.
      *
      * @return the data pointer.
      */
     public short[] getData()
     {
+        if (isView()) {
+            if (this.wDense == null) {
+                this.wDense = new short[getWidth()*getHeight()];
+            }
+            copyTo(this.wDense);
+            this.wImage = this.wDense;
+            clearView();
+        }
         return this.wImage;
     }
 
+    /**
+     * Makes this image a view of a rectangle in a larger array, without
+     * copying. The array is shared with its owner.
+     * @param rwBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rwBuffer.
+     * @param cStride distance in rwBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rwBuffer.
+     */
+    public void setView(short[] rwBuffer, int nOffset, int cStride)
+        throws jjil.core.Error
+    {
+        setViewLayout(rwBuffer.length, nOffset, cStride);
+        this.wImage = rwBuffer;
+    }
+
     /** Return a string describing the image.
      *
      * @return the string.
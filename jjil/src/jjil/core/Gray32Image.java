@@ -25,12 +25,20 @@
 package jjil.core;
 
 /**
- * Gray32Image is the image type used to store a 32-bit integer image.
+ * Gray32Image is the image type used to store a 32-bit integer image.<p>
+ * Like a Gray8Image, a Gray32Image can be a view of a rectangle in a larger
+ * array, set with setView; getData copies a view out into a dense array.
  *
  * @author webb
  */
 public class Gray32Image extends Image {
-    private final int nImage[];
+    /** Array holding the pixels. For a view this is the larger array.
+     */
+    private int nImage[];
+    /** Dense width x height array of this image, used when a view is copied
+     * out by getData.
+     */
+    private int nDense[];
     
     /**
      * Creates a new instance of Gray32Image
@@ -40,6 +48,27 @@ public class Gray32Image extends Image {
     public Gray32Image(int cWidth, int cHeight) {
         super(cWidth, cHeight);
         this.nImage = new int[getWidth()*getHeight()];
+        this.nDense = this.nImage;
+    }
+    
+    /**
+     * Creates a new Gray32Image which is a view of a rectangle in a larger
+     * array. No pixels are copied.
+     * @param cWidth Width of the image (columns).
+     * @param cHeight Height of the image (rows)
+     * @param rnBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rnBuffer.
+     * @param cStride distance in rnBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rnBuffer.
+     */
+    public Gray32Image(
+            int cWidth, 
+            int cHeight, 
+            int[] rnBuffer, 
+            int nOffset, 
+            int cStride) throws jjil.core.Error {
+        super(cWidth, cHeight);
+        setView(rnBuffer, nOffset, cStride);
     }
     
     /**
@@ -51,37 +80,85 @@ public class Gray32Image extends Image {
     public Gray32Image(int cWidth, int cHeight, int nValue) {
         super(cWidth, cHeight);
         this.nImage = new int[getWidth()*getHeight()];
+        this.nDense = this.nImage;
         for (int i=0; i<this.getWidth()*this.getHeight();i++) {
             this.nImage[i] = nValue;
         }
     }
 
     /**
-     * Copy this image
+     * Copy this image. The copy is dense even if this image is a view.
      * @return the image copy.
      */
     public Object clone()
     {
         Gray32Image image = new Gray32Image(getWidth(),getHeight());
-        System.arraycopy(
-                this.getData(),
-                0,
-                image.getData(),
-                0,
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
+    /**
+     * Copies the pixels of this image into a dense width x height array,
+     * row by row, without changing a view.
+     * @param rnDest the array to copy into.
+     */
+    protected void copyTo(int[] rnDest) {
+        for (int i=0; i<getHeight(); i++) {
+            System.arraycopy(
+                    this.nImage,
+                    getOffset() + i*getStride(),
+                    rnDest,
+                    i*getWidth(),
+                    getWidth());
+        }
+    }
     
-    /** Return a pointer to the image data.
+    /**
+     * Return the array holding the pixels. For a view this is the larger
+     * array; use getOffset and getStride to find the pixels in it.
+     * @return the pixel array.
+     */
+    public int[] getBuffer()
+    {
+        return this.nImage;
+    }
+    
+    /** Return a pointer to the image data. If this image is a view its
+     * pixels are first copied into a dense width x height array, which the
+     * image then uses in place of the view.
+     * This changes the image, so a view must not be read by another thread
+     * while getData() is called on it.
      *
      * @return the data pointer.
      */
     public int[] getData()
     {
+        if (isView()) {
+            if (this.nDense == null) {
+                this.nDense = new int[getWidth()*getHeight()];
+            }
+            copyTo(this.nDense);
+            this.nImage = this.nDense;
+            clearView();
+        }
         return this.nImage;
     }
 
+    /**
+     * Makes this image a view of a rectangle in a larger array, without
+     * copying. The array is shared with its owner.
+     * @param rnBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rnBuffer.
+     * @param cStride distance in rnBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rnBuffer.
+     */
+    public void setView(int[] rnBuffer, int nOffset, int cStride)
+        throws jjil.core.Error
+    {
+        setViewLayout(rnBuffer.length, nOffset, cStride);
+        this.nImage = rnBuffer;
+    }
+
     
     /** Return a string describing the image.
      *
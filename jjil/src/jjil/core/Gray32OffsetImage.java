@@ -54,12 +54,7 @@ public class Gray32OffsetImage extends Gray32Image {
     public Object clone()
     {
         Gray32Image image = new Gray32OffsetImage(getWidth(),getHeight(),getXOffset(),getYOffset());
-        System.arraycopy(
-                this.getData(),
-                0,
-                image.getData(),
-                0,
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
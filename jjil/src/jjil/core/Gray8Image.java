@@ -27,12 +27,23 @@ package jjil.core;
 /**
  * Gray8Image is the image type used to store a signed
  * 8-bit image. Note that Java limitations (no unsigned byte) make it necessary
- * to treat alll 8-bit images as signed.
+ * to treat alll 8-bit images as signed.<p>
+ * An image can also be a view of a rectangle in a larger array, set with
+ * setView. Code that reads images through getBuffer, getOffset, and getStride
+ * works on views without copying; getData always returns a dense
+ * width x height array, copying the view out of the larger array first if
+ * necessary.
  *
  * @author webb
  */
 public class Gray8Image extends Image {
-    private final byte bImage[];
+    /** Array holding the pixels. For a view this is the larger array.
+     */
+    private byte bImage[];
+    /** Dense width x height array of this image, used when a view is copied
+     * out by getData. It is null for a view created without one.
+     */
+    private byte bDense[];
     
     /**
      * Creates a new instance of Gray8Image
@@ -42,11 +53,33 @@ public class Gray8Image extends Image {
     public Gray8Image(int cWidth, int cHeight) {
         super(cWidth, cHeight);
         this.bImage = new byte[getWidth()*getHeight()];
+        this.bDense = this.bImage;
     }
     
     public Gray8Image(int cWidth, int cHeight, byte[] rbData) {
         super(cWidth, cHeight);
         this.bImage = rbData;
+        this.bDense = rbData;
+    }
+    
+    /**
+     * Creates a new Gray8Image which is a view of a rectangle in a larger
+     * array. No pixels are copied.
+     * @param cWidth Width of the image (columns).
+     * @param cHeight Height of the image (rows)
+     * @param rbBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rbBuffer.
+     * @param cStride distance in rbBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rbBuffer.
+     */
+    public Gray8Image(
+            int cWidth, 
+            int cHeight, 
+            byte[] rbBuffer, 
+            int nOffset, 
+            int cStride) throws jjil.core.Error {
+        super(cWidth, cHeight);
+        setView(rbBuffer, nOffset, cStride);
     }
     
     /**
@@ -58,27 +91,48 @@ public class Gray8Image extends Image {
     public Gray8Image(int cWidth, int cHeight, byte bValue) {
         super(cWidth, cHeight);
         this.bImage = new byte[getWidth()*getHeight()];
+        this.bDense = this.bImage;
         for (int i=0; i<this.getWidth()*this.getHeight();i++) {
             this.bImage[i] = bValue;
         }
     }
     
     /**
-     * Copy this image
+     * Copy this image. The copy is dense even if this image is a view.
      * @return the image copy.
      */
     public Object clone()
     {
         Gray8Image image = new Gray8Image(getWidth(),getHeight());
-        System.arraycopy(
-                this.getData(),
-                0,
-                image.getData(),
-                0,
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
+    /**
+     * Copies the pixels of this image into a dense width x height array,
+     * row by row. Unlike getData this does not change a view.
+     * @param rbDest the array to copy into.
+     */
+    protected void copyTo(byte[] rbDest) {
+        if (!isView()) {
+            System.arraycopy(
+                    this.bImage,
+                    0,
+                    rbDest,
+                    0,
+                    getWidth()*getHeight());
+            return;
+        }
+        for (int i=0; i<getHeight(); i++) {
+            System.arraycopy(
+                    this.bImage,
+                    getOffset() + i*getStride(),
+                    rbDest,
+                    i*getWidth(),
+                    getWidth());
+        }
+    }
+    
     /**
      * Fill a rectangle in a Gray8Image with a specific value. Rect is filled
      * up to but not including bottom and right edge
@@ -88,22 +142,64 @@ public class Gray8Image extends Image {
      */
     public Gray8Image fill(Rect r, byte bVal) {
         for (int i=r.getTop(); i<r.getBottom(); i++) {
+            int nRow = getOffset() + i*getStride();
             for (int j=r.getLeft(); j<r.getRight(); j++) {
-                this.bImage[i*this.getWidth()+j] = bVal;
+                this.bImage[nRow+j] = bVal;
             }
         }
         return this;
     }
 
-    /** Return a pointer to the byte image data.
+    /**
+     * Return the array holding the pixels. For a view this is the larger
+     * array; use getOffset and getStride to find the pixels in it.
+     * @return the pixel array.
+     */
+    public byte[] getBuffer()
+    {
+        return this.bImage;
+    }
+
+    /** Return a pointer to the byte image data. The data is a dense
+     * width x height array. If this image is a view its pixels are first
+     * copied out of the larger array, and from then on the image uses the
+     * copy and is no longer a view.
+     * This changes the image, so a view must not be read by another thread
+     * while getData() is called on it.
      *
      * @return the data pointer.
      */
     public byte[] getData()
     {
+        if (isView()) {
+            if (this.bDense == null) {
+                this.bDense = new byte[getWidth()*getHeight()];
+            }
+            copyTo(this.bDense);
+            this.bImage = this.bDense;
+            clearView();
+        }
         return this.bImage;
     }
 
+    /**
+     * Makes this image a view of a rectangle in a larger array, without
+     * copying. The array is shared: changes to it are seen in the view, and
+     * changes made through getBuffer() are seen by its owner. The dense array
+     * the image had before is kept and is used if getData() later copies the
+     * view out.
+     * @param rbBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rbBuffer.
+     * @param cStride distance in rbBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rbBuffer.
+     */
+    public void setView(byte[] rbBuffer, int nOffset, int cStride)
+        throws jjil.core.Error
+    {
+        setViewLayout(rbBuffer.length, nOffset, cStride);
+        this.bImage = rbBuffer;
+    }
+
     
     /** Return a string describing the image.
      *
@@ -68,12 +68,7 @@ public class Gray8OffsetImage extends Gray8Image {
      */
     public Gray8OffsetImage(Gray8Image image, int cX, int cY) {
         super(image.getWidth(), image.getHeight());
-        System.arraycopy(
-                image.getData(),
-                0,
-                this.getData(),
-                0,
-                getWidth()*getHeight());
+        image.copyTo(this.getData());
         this.cX = cX;
         this.cY = cY;
     }
@@ -85,12 +80,7 @@ public class Gray8OffsetImage extends Gray8Image {
     public Object clone()
     {
         Gray8Image image = new Gray8OffsetImage(getWidth(),getHeight(),getXOffset(),getYOffset());
-        System.arraycopy(
-                this.getData(),
-                0,
-                image.getData(),
-                0,
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
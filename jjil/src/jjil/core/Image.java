@@ -28,7 +28,17 @@ package jjil.core;
  * Image is the fundamental abstract class for holding images.
  * It is used for passing images between pipeline stages.
  * The image dimensions are stored here; the image format
- * and the actual image data are defined in the derived classes.
+ * and the actual image data are defined in the derived classes.<p>
+ * The layout of the data is also kept here. Normally the pixels are stored
+ * densely, row after row. An image can instead be a view of a rectangle in a
+ * larger array belonging to another image, such as a cropped region. Then
+ * pixel (i,j) is at index getOffset() + i * getStride() + j of the array
+ * returned by the derived class's getBuffer(). Asking a view for its dense
+ * data with getData() copies the rectangle out and ends the view.<p>
+ * Since getData() changes the array and layout of a view without any
+ * locking, a view must not be shared by threads: another thread reading
+ * it at the same time could see the new array with the old layout. Pass
+ * another thread a clone() of a view, which is dense, instead.
  * @author webb
  */
 public abstract class Image {
@@ -40,6 +50,18 @@ public abstract class Image {
      * The image width.
      */
     private final int mnWidth;
+    /**
+     * True if the image is a view of a larger array.
+     */
+    private boolean mfView = false;
+    /**
+     * Index of pixel (0,0) in the array holding the pixels.
+     */
+    private int mnOffset = 0;
+    /**
+     * Distance in the array from one row to the next.
+     */
+    private int mcStride;
     
     /** Creates a new instance of Image 
      *
@@ -49,6 +71,17 @@ public abstract class Image {
     public Image(int mnWidth, int mnHeight) {
         this.mnWidth = mnWidth;
         this.mnHeight = mnHeight;
+        this.mcStride = mnWidth;
+    }
+    
+    /**
+     * Returns the layout to dense storage, after a view has been copied out
+     * of the larger array.
+     */
+    protected void clearView() {
+        this.mfView = false;
+        this.mnOffset = 0;
+        this.mcStride = this.mnWidth;
     }
     
     /**
@@ -66,6 +99,15 @@ public abstract class Image {
         return this.mnHeight;
     }
     
+    /**
+     * Returns the index of pixel (0,0) in the array holding the pixels.
+     * @return the offset, which is 0 unless the image is a view.
+     */
+    public int getOffset()
+    {
+        return this.mnOffset;
+    }
+    
     /**
      * Returns a Point object giving the size of this image
      * (width x height)
@@ -75,6 +117,16 @@ public abstract class Image {
     	return new Point(this.mnWidth, this.mnHeight);
     }
     
+    /**
+     * Returns the distance in the array holding the pixels from one row to
+     * the next.
+     * @return the stride, which is the width unless the image is a view.
+     */
+    public int getStride()
+    {
+        return this.mcStride;
+    }
+    
     /** Returns the image width
      *
      * @return the image width (columns)
@@ -83,4 +135,40 @@ public abstract class Image {
     {
         return this.mnWidth;
     }
+    
+    /**
+     * Tells whether the image is a view of a larger array.
+     * @return true iff the image is a view.
+     */
+    public boolean isView()
+    {
+        return this.mfView;
+    }
+    
+    /**
+     * Checks that a rectangle the size of this image lies in an array and
+     * makes it the layout of the image. Derived classes call this when they
+     * become a view of the array.
+     * @param cLength length of the larger array.
+     * @param nOffset index of pixel (0,0) of the image in the array.
+     * @param cStride distance in the array from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in the array.
+     */
+    protected void setViewLayout(int cLength, int nOffset, int cStride)
+        throws jjil.core.Error
+    {
+        if (nOffset < 0 || cStride < this.mnWidth || 
+                nOffset + (this.mnHeight-1)*cStride + this.mnWidth > 
+                    cLength) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            ErrorCodes.BOUNDS_OUTSIDE_IMAGE,
+                            this.toString(),
+                            Integer.toString(nOffset),
+                            Integer.toString(cStride));
+        }
+        this.mfView = true;
+        this.mnOffset = nOffset;
+        this.mcStride = cStride;
+    }
 }
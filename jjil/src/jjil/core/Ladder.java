@@ -74,17 +74,30 @@ public class Ladder extends PipelineStage {
         this.join = join;
     }
     
+    /**
+     * Returns true iff either pipeline may modify its input. The first
+     * pipeline is always given the input image itself, and the second is
+     * given it too unless the first may change it.
+     * Overrides PipelineStage.modifiesInput().
+     * @return true iff this Ladder may modify its input image.
+     */
+    public boolean modifiesInput() {
+        return pipeFirst.modifiesInput() || pipeSecond.modifiesInput();
+    }
+    
     /**
      * Pass the input image to both pipeines, then combine the two outputs into one
-     * using the join operation
+     * using the join operation. The input is copied for the second pipeline
+     * only if the first pipeline may modify it.
      * @param image Input image
      * @throws jjil.core.Error if either pipeline does not produce an output
      * after being supplied with the input.
      */
     public void push(Image image) throws jjil.core.Error {
-        Image imageCopy = (Image) image.clone();
-        pipeFirst.push(image);
-        pipeSecond.push(imageCopy);
+        Image imageCopy = pipeFirst.modifiesInput() ? 
+                (Image) image.clone() : image;
+        pushStage(pipeFirst, image, null);
+        pushStage(pipeSecond, imageCopy, null);
         if (pipeFirst.isEmpty()) {
             throw new Error(
                             Error.PACKAGE.CORE,
@@ -105,4 +118,39 @@ public class Ladder extends PipelineStage {
                 join.doJoin(pipeFirst.getFront(), pipeSecond.getFront())
                 );
     }
+    
+    /**
+     * Sets the executor used by both pipelines.
+     * Overrides PipelineStage.setParallel(ParallelExecutor).
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        pipeFirst.setParallel(pe);
+        pipeSecond.setParallel(pe);
+    }
+    
+    /**
+     * Sets the TimeTracker for this Ladder and both pipelines, which are
+     * reported as stages 1 and 2 of it.
+     * Overrides PipelineStage.setTimeTracker(TimeTracker, String).
+     * @param tt the TimeTracker, or null.
+     * @param szTaskName this Ladder's task name.
+     */
+    public void setTimeTracker(TimeTracker tt, String szTaskName) {
+        super.setTimeTracker(tt, szTaskName);
+        pipeFirst.setTimeTracker(tt, childTaskName(szTaskName, 1, pipeFirst));
+        pipeSecond.setTimeTracker(tt, childTaskName(szTaskName, 2, pipeSecond));
+    }
+    
+    /**
+     * Turns output reuse on or off in both pipelines.
+     * Overrides PipelineStage.setReuseOutput(boolean).
+     * @param fReuseOutput true to reuse output images.
+     */
+    public void setReuseOutput(boolean fReuseOutput) {
+        super.setReuseOutput(fReuseOutput);
+        pipeFirst.setReuseOutput(fReuseOutput);
+        pipeSecond.setReuseOutput(fReuseOutput);
+    }
 }
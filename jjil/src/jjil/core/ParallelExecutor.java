@@ -0,0 +1,329 @@
+/*
+ * ParallelExecutor.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.core;
+
+import java.util.Vector;
+
+/**
+ * ParallelExecutor runs groups of jobs concurrently on a fixed set of worker
+ * threads. It is used by the stages that can split their work, such as
+ * ParallelLadder, so that they can use more than one processor.<p>
+ * The class uses only Thread and wait/notify, which CLDC has as well as J2SE
+ * and Android. The thread calling run() executes jobs too, so a job may itself call run() without risk of
+ * deadlock even when every worker is busy.<p>
+ * JJIL cannot find out how many processors there are on every platform, so
+ * the caller chooses the thread count. A single shared executor is
+ * available through getDefault(); stages use it unless they are given
+ * another. It runs everything on the calling thread until the application
+ * installs one with more threads through setDefault(), for example, on
+ * J2SE or Android,
+ * <pre>
+ *   ParallelExecutor.setDefault(new ParallelExecutor(
+ *           Runtime.getRuntime().availableProcessors()));
+ * </pre>
+ * Worker threads are ordinary threads, not daemons, so an executor with
+ * more than one thread must be shut down before the application can exit.
+ * @author webb
+ */
+public class ParallelExecutor {
+    /**
+     * A unit of work run by the executor.
+     */
+    public interface Job {
+        /**
+         * Do the work.
+         * @throws jjil.core.Error if the work fails. The error is passed back
+         * to the caller of ParallelExecutor.run.
+         */
+        void run() throws jjil.core.Error;
+    }
+
+    /**
+     * A group of jobs submitted by one call to run(), with the state needed
+     * to hand them out and to wait for them to finish.
+     */
+    private static class Batch {
+        final Job[] rgJobs;
+        int nNext = 0;
+        int nRemaining;
+        Throwable tFirst = null;
+
+        Batch(Job[] rgJobs) {
+            this.rgJobs = rgJobs;
+            this.nRemaining = rgJobs.length;
+        }
+    }
+
+    /**
+     * The shared executor, created on first use.
+     */
+    private static ParallelExecutor peDefault = null;
+
+    /**
+     * Number of threads, including the caller, used to run a batch.
+     */
+    private final int cThreads;
+    /**
+     * Batches which still have jobs that have not been started. Also
+     * used as the lock for all the executor state.
+     */
+    private final Vector vBatches = new Vector();
+    /**
+     * The worker threads, started on first use.
+     */
+    private Thread[] rgWorkers = null;
+    /**
+     * Set by shutdown to stop the worker threads.
+     */
+    private boolean fShutdown = false;
+
+    /**
+     * Creates a new instance of ParallelExecutor.
+     * @param cThreads number of threads to use, including the thread calling
+     * run. One means that all jobs run on the calling thread.
+     * @throws jjil.core.Error if cThreads is not positive.
+     */
+    public ParallelExecutor(int cThreads) throws jjil.core.Error {
+        if (cThreads <= 0) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            ErrorCodes.ILLEGAL_PARAMETER_VALUE,
+                            new Integer(cThreads).toString(),
+                            null,
+                            null);
+        }
+        this.cThreads = cThreads;
+    }
+
+    /**
+     * Returns the shared executor. If none has been set with setDefault(),
+     * one is created which runs all jobs on the calling thread.
+     * @return the shared executor.
+     */
+    public static synchronized ParallelExecutor getDefault() {
+        if (ParallelExecutor.peDefault == null) {
+            try {
+                ParallelExecutor.peDefault = new ParallelExecutor(1);
+            } catch (Error e) {
+                // cannot happen, the thread count is positive
+            }
+        }
+        return ParallelExecutor.peDefault;
+    }
+
+    /**
+     * Replaces the shared executor, choosing the number of threads JJIL
+     * uses. The previous shared executor is shut down.
+     * @param pe the new shared executor.
+     */
+    public static synchronized void setDefault(ParallelExecutor pe) {
+        if (ParallelExecutor.peDefault != null &&
+                ParallelExecutor.peDefault != pe) {
+            ParallelExecutor.peDefault.shutdown();
+        }
+        ParallelExecutor.peDefault = pe;
+    }
+
+    /**
+     * Returns the number of threads used to run a batch of jobs, including
+     * the caller.
+     * @return the number of threads.
+     */
+    public int getThreads() {
+        return this.cThreads;
+    }
+
+    /**
+     * Runs all the jobs and returns when they have finished. Jobs are started
+     * in array order but may run in any order and concurrently.
+     * @param rgJobs the jobs to run.
+     * @throws jjil.core.Error the first Error thrown by any job, after all
+     * jobs have finished.
+     */
+    public void run(Job[] rgJobs) throws jjil.core.Error {
+        if (rgJobs.length == 0) {
+            return;
+        }
+        if (this.cThreads == 1 || rgJobs.length == 1) {
+            for (int i=0; i<rgJobs.length; i++) {
+                rgJobs[i].run();
+            }
+            return;
+        }
+        Batch b = new Batch(rgJobs);
+        synchronized (this.vBatches) {
+            startWorkers();
+            this.vBatches.addElement(b);
+            this.vBatches.notifyAll();
+        }
+        // the caller works on its own batch until no jobs are left to start
+        Job job;
+        while ((job = claim(b)) != null) {
+            runJob(b, job);
+        }
+        synchronized (this.vBatches) {
+            while (b.nRemaining > 0) {
+                try {
+                    this.vBatches.wait();
+                } catch (InterruptedException e) {
+                    // keep waiting; the jobs still reference the caller's data
+                }
+            }
+        }
+        if (b.tFirst instanceof Error) {
+            throw (Error) b.tFirst;
+        } else if (b.tFirst instanceof RuntimeException) {
+            throw (RuntimeException) b.tFirst;
+        } else if (b.tFirst instanceof java.lang.Error) {
+            throw (java.lang.Error) b.tFirst;
+        }
+    }
+
+    /**
+     * Stops the worker threads once they finish their current jobs. Later
+     * calls to run() start new workers. The workers keep the application
+     * running until this is called.
+     */
+    public void shutdown() {
+        synchronized (this.vBatches) {
+            this.fShutdown = true;
+            this.rgWorkers = null;
+            this.vBatches.notifyAll();
+        }
+    }
+
+    /**
+     * Takes the next unstarted job from a batch, removing the batch from
+     * the queue when its last job is taken.
+     * @param b the batch.
+     * @return the job, or null if all jobs have been started.
+     */
+    private Job claim(Batch b) {
+        synchronized (this.vBatches) {
+            if (b.nNext >= b.rgJobs.length) {
+                return null;
+            }
+            Job job = b.rgJobs[b.nNext++];
+            if (b.nNext == b.rgJobs.length) {
+                this.vBatches.removeElement(b);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * Runs one job of a batch, recording any failure and waking the
+     * caller when the batch is complete.
+     * @param b the batch the job came from.
+     * @param job the job.
+     */
+    private void runJob(Batch b, Job job) {
+        Throwable t = null;
+        try {
+            job.run();
+        } catch (Throwable e) {
+            t = e;
+        }
+        synchronized (this.vBatches) {
+            if (t != null && b.tFirst == null) {
+                b.tFirst = t;
+            }
+            if (--b.nRemaining == 0) {
+                this.vBatches.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts the worker threads if they are not running. Must be called
+     * with the lock held.
+     */
+    private void startWorkers() {
+        if (this.rgWorkers != null) {
+            return;
+        }
+        this.fShutdown = false;
+        this.rgWorkers = new Thread[this.cThreads - 1];
+        for (int i=0; i<this.rgWorkers.length; i++) {
+            this.rgWorkers[i] = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+            this.rgWorkers[i].start();
+        }
+    }
+
+    /**
+     * The worker thread loop: wait for a batch with unstarted jobs and run
+     * them, until shutdown.
+     */
+    private void work() {
+        Thread thisThread = Thread.currentThread();
+        while (true) {
+            Batch b;
+            Job job;
+            synchronized (this.vBatches) {
+                while (this.vBatches.isEmpty()) {
+                    if (this.fShutdown || !isWorker(thisThread)) {
+                        return;
+                    }
+                    try {
+                        this.vBatches.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                b = (Batch) this.vBatches.elementAt(0);
+                job = claim(b);
+            }
+            if (job != null) {
+                runJob(b, job);
+            }
+        }
+    }
+
+    /**
+     * Returns true iff the thread is one of the current workers. Workers
+     * from before a shutdown exit when they find the queue empty.
+     * Must be called with the lock held.
+     * @param t the thread.
+     * @return true iff t belongs to the current set of workers.
+     */
+    private boolean isWorker(Thread t) {
+        if (this.rgWorkers == null) {
+            return false;
+        }
+        for (int i=0; i<this.rgWorkers.length; i++) {
+            if (this.rgWorkers[i] == t) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describes the executor.
+     * @return a string giving the class and thread count.
+     */
+    public String toString() {
+        return super.toString() + " (" + this.cThreads + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ParallelLadder.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.core;
+
+/** ParallelLadder is a Ladder which runs its two pipelines at the same time,
+ * using a ParallelExecutor, before combining their outputs with the join
+ * operation. The two pipelines must not share any PipelineStage objects.<p>
+ * The input image is copied if one of the pipelines may modify it, as
+ * reported by PipelineStage.modifiesInput(), and the pipeline which may
+ * modify it gets the original. Otherwise both pipelines get the same image,
+ * except that a view is first copied out to a dense image, since reading a
+ * view with getData() changes it and so is not safe from two threads.
+ *
+ * @author webb
+ */
+public class ParallelLadder extends Ladder {
+    /**
+     * The executor used to run the pipelines, or null to use the shared
+     * executor.
+     */
+    private final ParallelExecutor pe;
+    /**
+     * Input images for the two pipelines, set for the duration of push.
+     */
+    private Image imageFirst, imageSecond;
+    /**
+     * Jobs which push the input images through the two pipelines.
+     */
+    private final ParallelExecutor.Job[] rgJobs;
+
+    /**
+     * Creates a new instance of ParallelLadder using the shared executor.
+     * @param pipeFirst First pipeline
+     * @param pipeSecond Second pipeline
+     * @param join Join class, which combines the two output images into one.
+     */
+    public ParallelLadder(
+            PipelineStage pipeFirst,
+            PipelineStage pipeSecond,
+            Join join) {
+        this(pipeFirst, pipeSecond, join, null);
+    }
+
+    /**
+     * Creates a new instance of ParallelLadder using a given executor.
+     * @param pipeFirst First pipeline
+     * @param pipeSecond Second pipeline
+     * @param join Join class, which combines the two output images into one.
+     * @param pe the executor to run the pipelines on, or null to use
+     * ParallelExecutor.getDefault().
+     */
+    public ParallelLadder(
+            PipelineStage pipeFirst,
+            PipelineStage pipeSecond,
+            Join join,
+            ParallelExecutor pe) {
+        super(pipeFirst, pipeSecond, join);
+        this.pe = pe;
+        this.rgJobs = new ParallelExecutor.Job[] {
+            new ParallelExecutor.Job() {
+                public void run() throws jjil.core.Error {
+                    pushStage(
+                            ParallelLadder.this.pipeFirst,
+                            ParallelLadder.this.imageFirst,
+                            null);
+                }
+            },
+            new ParallelExecutor.Job() {
+                public void run() throws jjil.core.Error {
+                    pushStage(
+                            ParallelLadder.this.pipeSecond,
+                            ParallelLadder.this.imageSecond,
+                            null);
+                }
+            }
+        };
+    }
+
+    /**
+     * Pass the input image to both pipelines concurrently, then combine the
+     * two outputs into one using the join operation. Overrides Ladder.push.
+     * @param image Input image
+     * @throws jjil.core.Error if either pipeline fails or does not produce an
+     * output after being supplied with the input.
+     */
+    public void push(Image image) throws jjil.core.Error {
+        this.imageFirst = image;
+        this.imageSecond = image;
+        if (pipeFirst.modifiesInput()) {
+            this.imageSecond = (Image) image.clone();
+        } else if (pipeSecond.modifiesInput()) {
+            this.imageFirst = (Image) image.clone();
+        } else if (image.isView()) {
+            // both pipelines share the input, and must not both read a view
+            this.imageFirst = (Image) image.clone();
+            this.imageSecond = this.imageFirst;
+        }
+        ParallelExecutor pe =
+                this.pe != null ? this.pe : ParallelExecutor.getDefault();
+        try {
+            pe.run(this.rgJobs);
+        } finally {
+            this.imageFirst = null;
+            this.imageSecond = null;
+        }
+        if (pipeFirst.isEmpty()) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            ErrorCodes.NO_RESULT_AVAILABLE,
+                            pipeFirst.toString(),
+                            null,
+                            null);
+        }
+        if (pipeSecond.isEmpty()) {
+            throw new Error(
+                                Error.PACKAGE.CORE,
+                                ErrorCodes.NO_RESULT_AVAILABLE,
+                                pipeSecond.toString(),
+                                null,
+                                null);
+        }
+        super.setOutput(
+                join.doJoin(pipeFirst.getFront(), pipeSecond.getFront())
+                );
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * PipelineProfiler.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.core;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * PipelineProfiler wraps a pipeline and records, for the pipeline and every
+ * stage in it, the time each push takes, the number of input pixels, and the
+ * bytes of output images allocated. Push images through the profiler instead
+ * of the pipeline; the pipeline's output is the profiler's output. The
+ * recorded figures are available as an array of Stats, one per stage in the
+ * order the stages were first pushed, or as a text report.<p>
+ * Times are kept in a histogram per stage whose buckets are powers of two
+ * microseconds, so percentiles can be estimated without keeping every
+ * time. Times are read with getNanos(), which uses System.currentTimeMillis
+ * so that the profiler runs on any platform; on J2SE or Android override it
+ * to return System.nanoTime() for finer resolution.<p>
+ * The profiler is also an ordinary TimeTracker, so other code can time its
+ * own tasks with startTask and endTask and have them appear in the report.
+ * Its methods are synchronized, so stages pushed concurrently, as in a
+ * ParallelLadder, can report to it.
+ * @author webb
+ */
+public class PipelineProfiler extends PipelineStage implements StageTracker {
+    /**
+     * Number of histogram buckets. Bucket i counts the pushes taking at least
+     * 2<sup>i-1</sup> and less than 2<sup>i</sup> microseconds; bucket 0
+     * counts those taking less than one microsecond, and the last bucket
+     * everything longer.
+     */
+    public static final int BUCKETS = 24;
+
+    /**
+     * The figures recorded for one stage or task.
+     */
+    public static class Stats {
+        private final String szName;
+        private int cPushes = 0;
+        private long lTotalNs = 0;
+        private long lMaxNs = 0;
+        private long cPixels = 0;
+        private long cBytes = 0;
+        private final int[] rnHist = new int[BUCKETS];
+
+        Stats(String szName) {
+            this.szName = szName;
+        }
+
+        Stats(Stats s) {
+            this.szName = s.szName;
+            this.cPushes = s.cPushes;
+            this.lTotalNs = s.lTotalNs;
+            this.lMaxNs = s.lMaxNs;
+            this.cPixels = s.cPixels;
+            this.cBytes = s.cBytes;
+            System.arraycopy(s.rnHist, 0, this.rnHist, 0, BUCKETS);
+        }
+
+        /**
+         * Returns the total bytes of output images allocated.
+         * @return bytes allocated, over all pushes.
+         */
+        public long getBytesAllocated() {
+            return this.cBytes;
+        }
+
+        /**
+         * Returns the latency histogram.
+         * @return a copy of the histogram; see BUCKETS.
+         */
+        public int[] getHistogram() {
+            int[] rnResult = new int[BUCKETS];
+            System.arraycopy(this.rnHist, 0, rnResult, 0, BUCKETS);
+            return rnResult;
+        }
+
+        /**
+         * Returns the longest time taken by a push.
+         * @return the time in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return this.lMaxNs;
+        }
+
+        /**
+         * Returns the task name of the stage.
+         * @return the name.
+         */
+        public String getName() {
+            return this.szName;
+        }
+
+        /**
+         * Returns an upper bound on the time within which a given percentage
+         * of the pushes finished, from the histogram. The bound is a power of
+         * two microseconds, or the longest time if that is smaller.
+         * @param nPercent the percentage, from 0 to 100.
+         * @return the time in microseconds.
+         */
+        public long getPercentileMicros(int nPercent) {
+            long cNeeded = ((long) this.cPushes * nPercent + 99) / 100;
+            long cSeen = 0;
+            long lMax = this.lMaxNs / 1000;
+            for (int i=0; i<BUCKETS-1; i++) {
+                cSeen += this.rnHist[i];
+                if (cSeen >= cNeeded) {
+                    return Math.min(1L << i, lMax);
+                }
+            }
+            return lMax;
+        }
+
+        /**
+         * Returns the total number of input pixels.
+         * @return the pixel count, over all pushes.
+         */
+        public long getPixels() {
+            return this.cPixels;
+        }
+
+        /**
+         * Returns the number of pushes recorded.
+         * @return the push count.
+         */
+        public int getPushes() {
+            return this.cPushes;
+        }
+
+        /**
+         * Returns the total time taken by the pushes.
+         * @return the time in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return this.lTotalNs;
+        }
+
+        /**
+         * Adds one push.
+         */
+        void add(long lNs, int cPixels, long cBytes) {
+            this.cPushes++;
+            this.lTotalNs += lNs;
+            this.lMaxNs = Math.max(this.lMaxNs, lNs);
+            this.cPixels += cPixels;
+            this.cBytes += cBytes;
+            int nBucket = 0;
+            for (long lUs = lNs / 1000; lUs > 0 && nBucket < BUCKETS-1; lUs >>= 1) {
+                nBucket++;
+            }
+            this.rnHist[nBucket]++;
+        }
+    }
+
+    private final PipelineStage pipe;
+    /** Stats by task name, and in the order the tasks were first seen.
+     */
+    private final Hashtable htStats = new Hashtable();
+    private final Vector vStats = new Vector();
+    /** Start times, in nanoseconds, of the tasks in progress, by name.
+     */
+    private final Hashtable htStart = new Hashtable();
+
+    /**
+     * Creates a new PipelineProfiler and makes it the TimeTracker of every
+     * stage in the pipeline. The pipeline's own pushes are reported under
+     * the name of its class.
+     * @param pipe the pipeline.
+     */
+    public PipelineProfiler(PipelineStage pipe) {
+        this.pipe = pipe;
+        String szClass = pipe.getClass().getName();
+        super.setTimeTracker(this, null);
+        pipe.setTimeTracker(this, szClass.substring(szClass.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Stops the pipeline reporting to this profiler. Images can still be
+     * pushed through the profiler, but nothing more is recorded.
+     */
+    public void detach() {
+        super.setTimeTracker(null, null);
+        this.pipe.setTimeTracker(null, null);
+    }
+
+    /**
+     * Ends a task, recording its time.
+     * @param szTaskName the name used in startTask.
+     */
+    public void endTask(String szTaskName) {
+        endStage(szTaskName, 0, 0);
+    }
+
+    /**
+     * Ends a stage push, recording its time, pixels, and allocation.
+     * Implements StageTracker.endStage.
+     * @param szTaskName the name used in startTask.
+     * @param cPixels the number of input pixels.
+     * @param cBytesAllocated the bytes of output images allocated.
+     */
+    public synchronized void endStage(
+            String szTaskName,
+            int cPixels,
+            long cBytesAllocated) {
+        long lEnd = getNanos();
+        Long lStart = (Long) this.htStart.remove(szTaskName);
+        if (lStart == null) {
+            // not started, or reset since
+            return;
+        }
+        Stats s = (Stats) this.htStats.get(szTaskName);
+        if (s == null) {
+            s = new Stats(szTaskName);
+            this.htStats.put(szTaskName, s);
+            this.vStats.addElement(s);
+        }
+        s.add(lEnd - lStart.longValue(), cPixels, cBytesAllocated);
+    }
+
+    /**
+     * Returns the total time of each task, as required by TimeTracker.
+     * @return a string of the form name1=ms, name2=ms, ...
+     */
+    public synchronized String getCumulativeTimes() {
+        StringBuffer sb = new StringBuffer();
+        for (int i=0; i<this.vStats.size(); i++) {
+            Stats s = (Stats) this.vStats.elementAt(i);
+            if (i > 0) {
+                sb.append(", "); //$NON-NLS-1$
+            }
+            sb.append(s.szName).append('=').append(s.lTotalNs / 1000000);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the current time, from which the time of each push is
+     * measured. Only differences between times are used.
+     * @return the time in nanoseconds, to the resolution of
+     * System.currentTimeMillis.
+     */
+    protected long getNanos() {
+        return System.currentTimeMillis() * 1000000L;
+    }
+
+    /**
+     * Returns the wrapped pipeline.
+     * @return the pipeline.
+     */
+    public PipelineStage getPipeline() {
+        return this.pipe;
+    }
+
+    /**
+     * Returns a report with one line per stage giving the number of pushes,
+     * the mean, median, 90th percentile, and longest push in milliseconds,
+     * the input pixels per push, and the bytes of output images allocated
+     * per push.
+     * @return the report, with a heading line.
+     */
+    public String getReport() {
+        Stats[] rgStats = getSnapshot();
+        StringBuffer sb = new StringBuffer();
+        sb.append("stage\tpushes\tmean\tp50\tp90\tmax\tpixels\tbytes\n"); //$NON-NLS-1$
+        for (int i=0; i<rgStats.length; i++) {
+            Stats s = rgStats[i];
+            int c = Math.max(1, s.cPushes);
+            sb.append(s.szName).append('\t')
+                .append(s.cPushes).append('\t')
+                .append(toMillis(s.lTotalNs / c)).append('\t')
+                .append(toMillis(s.getPercentileMicros(50) * 1000)).append('\t')
+                .append(toMillis(s.getPercentileMicros(90) * 1000)).append('\t')
+                .append(toMillis(s.lMaxNs)).append('\t')
+                .append(s.cPixels / c).append('\t')
+                .append(s.cBytes / c).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a copy of the figures recorded so far.
+     * @return one Stats per stage or task, in the order they were first
+     * reported.
+     */
+    public synchronized Stats[] getSnapshot() {
+        Stats[] rgStats = new Stats[this.vStats.size()];
+        for (int i=0; i<rgStats.length; i++) {
+            rgStats[i] = new Stats((Stats) this.vStats.elementAt(i));
+        }
+        return rgStats;
+    }
+
+    /**
+     * Returns true iff the pipeline may modify its input.
+     * Overrides PipelineStage.modifiesInput().
+     * @return the pipeline's modifiesInput().
+     */
+    public boolean modifiesInput() {
+        return this.pipe.modifiesInput();
+    }
+
+    /**
+     * Pushes an image through the pipeline, recording the pushes.
+     * @param image the input image.
+     * @throws jjil.core.Error if the pipeline does, or produces no output.
+     */
+    public void push(Image image) throws jjil.core.Error {
+        push(image, null);
+    }
+
+    /**
+     * Pushes an image through the pipeline, passing imageReuse to it to hold
+     * the output. Overrides PipelineStage.push(Image, Image).
+     * @param image the input image.
+     * @param imageReuse image to hold the output. May be null.
+     * @throws jjil.core.Error if the pipeline does, or produces no output.
+     */
+    public void push(Image image, Image imageReuse) throws jjil.core.Error {
+        pushStage(this.pipe, image, imageReuse);
+        if (this.pipe.isEmpty()) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            ErrorCodes.NO_RESULT_AVAILABLE,
+                            this.pipe.toString(),
+                            null,
+                            null);
+        }
+        super.setOutput(this.pipe.getFront());
+    }
+
+    /**
+     * Discards all recorded figures.
+     */
+    public synchronized void reset() {
+        this.htStats.clear();
+        this.vStats.removeAllElements();
+        this.htStart.clear();
+    }
+
+    /**
+     * Sets the executor used by the pipeline.
+     * Overrides PipelineStage.setParallel(ParallelExecutor).
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        this.pipe.setParallel(pe);
+    }
+
+    /**
+     * Turns output reuse on or off in the pipeline.
+     * Overrides PipelineStage.setReuseOutput(boolean).
+     * @param fReuseOutput true to reuse output images.
+     */
+    public void setReuseOutput(boolean fReuseOutput) {
+        super.setReuseOutput(fReuseOutput);
+        this.pipe.setReuseOutput(fReuseOutput);
+    }
+
+    /**
+     * Starts timing a task.
+     * @param szTaskName the task name.
+     */
+    public synchronized void startTask(String szTaskName) {
+        this.htStart.put(szTaskName, new Long(getNanos()));
+    }
+
+    /**
+     * Returns a string describing the profiler.
+     * @return the class name and the pipeline.
+     */
+    public String toString() {
+        return super.toString() + "(" + this.pipe.toString() + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds with two decimals.
+     */
+    private static String toMillis(long lNs) {
+        long l = (lNs + 5000) / 10000;
+        String szFrac = Long.toString(l % 100);
+        return (l / 100) + "." + (szFrac.length() < 2 ? "0" : "") + szFrac; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+}
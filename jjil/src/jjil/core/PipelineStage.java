@@ -29,8 +29,19 @@ package jjil.core;
  * processing operations must derive. It holds the output image
  * (in imageOutput) and notes whether there is an image available
  * or not (in fReady). It is intended to be used as a single-level
- * stack element.
- *
+ * stack element.<p>
+ * Stages which allocate their output image can recycle a previously
+ * allocated image instead. The caller can either supply the image to
+ * be overwritten, using push(Image, Image), or call setReuseOutput(true),
+ * in which case each output image is kept by the stage and overwritten
+ * by the next push. In either case the caller must be finished with the
+ * previous output before pushing the next image. Derived classes support
+ * this by obtaining their output through getOutputGray8Image, etc., instead
+ * of allocating it directly.<p>
+ * A stage can be given a TimeTracker with setTimeTracker. Composite stages
+ * such as Sequence and Ladder pass it on to the stages they contain and
+ * report each of their pushes to it, under a task name derived from the
+ * stage's position in the pipeline.
  *
  * @author webb
  */
@@ -42,6 +53,30 @@ public abstract class PipelineStage
     /** The output image from this stage.
      */
     protected Image imageOutput = null;
+    /** The last image obtained through one of the getOutput methods. It is
+     * kept for reuse by setOutput iff fReuseOutput is true.
+     */
+    private Image imageAllocated = null;
+    /** An image which can be overwritten to produce the next output, or null.
+     */
+    private Image imageReuse = null;
+    /** If true, images allocated by this stage are kept and reused.
+     */
+    private boolean fReuseOutput = false;
+    /** Executor used by stages which can split their work across threads,
+     * or null to do all work on the calling thread.
+     */
+    private ParallelExecutor pe = null;
+    /** Receives the timing of the pushes of stages this stage contains, or
+     * null.
+     */
+    private TimeTracker tracker = null;
+    /** Name this stage's pushes are reported under.
+     */
+    private String szTaskName = null;
+    /** Total size of the output images this stage has allocated.
+     */
+    private long cBytesAllocated = 0;
    
     /** Class constructor
      */
@@ -80,13 +115,264 @@ public abstract class PipelineStage
         return imageResult;
     }
        
+    /**
+     * Returns an image for use as the output of this stage, reusing the
+     * image supplied by the caller or the stage's previous output when one
+     * is available with the same size. Otherwise a new image is allocated.
+     * The contents of the returned image are undefined, so derived classes
+     * must assign every pixel.
+     * @param cWidth image width
+     * @param cHeight image height
+     * @return a Gray8Image of the given size.
+     */
+    protected Gray8Image getOutputGray8Image(int cWidth, int cHeight) {
+        Image image = takeReusable(Gray8Image.class, cWidth, cHeight);
+        if (image == null) {
+            image = new Gray8Image(cWidth, cHeight);
+            this.cBytesAllocated += cWidth * cHeight;
+        }
+        this.imageAllocated = image;
+        return (Gray8Image) image;
+    }
+
+    /**
+     * Returns a Gray16Image for use as the output of this stage. See
+     * getOutputGray8Image.
+     * @param cWidth image width
+     * @param cHeight image height
+     * @return a Gray16Image of the given size.
+     */
+    protected Gray16Image getOutputGray16Image(int cWidth, int cHeight) {
+        Image image = takeReusable(Gray16Image.class, cWidth, cHeight);
+        if (image == null) {
+            image = new Gray16Image(cWidth, cHeight);
+            this.cBytesAllocated += 2 * cWidth * cHeight;
+        }
+        this.imageAllocated = image;
+        return (Gray16Image) image;
+    }
+
+    /**
+     * Returns a Gray32Image for use as the output of this stage. See
+     * getOutputGray8Image.
+     * @param cWidth image width
+     * @param cHeight image height
+     * @return a Gray32Image of the given size.
+     */
+    protected Gray32Image getOutputGray32Image(int cWidth, int cHeight) {
+        Image image = takeReusable(Gray32Image.class, cWidth, cHeight);
+        if (image == null) {
+            image = new Gray32Image(cWidth, cHeight);
+            this.cBytesAllocated += 4 * cWidth * cHeight;
+        }
+        this.imageAllocated = image;
+        return (Gray32Image) image;
+    }
+
+    /**
+     * Returns an RgbImage for use as the output of this stage. See
+     * getOutputGray8Image.
+     * @param cWidth image width
+     * @param cHeight image height
+     * @return an RgbImage of the given size.
+     */
+    protected RgbImage getOutputRgbImage(int cWidth, int cHeight) {
+        Image image = takeReusable(RgbImage.class, cWidth, cHeight);
+        if (image == null) {
+            image = new RgbImage(cWidth, cHeight);
+            this.cBytesAllocated += 4 * cWidth * cHeight;
+        }
+        this.imageAllocated = image;
+        return (RgbImage) image;
+    }
+
+    /**
+     * Returns the total size of the output images this stage has allocated
+     * through getOutputGray8Image, etc. Images reused with setReuseOutput or
+     * push(Image, Image) are not counted, nor is memory the stage allocates
+     * for other purposes.
+     * @return the number of bytes of image data allocated.
+     */
+    public long getBytesAllocated() {
+        return this.cBytesAllocated;
+    }
+
+    /**
+     * Returns the executor this stage uses to split its work across
+     * threads.
+     * @return the executor, or null if the stage runs on the calling thread.
+     */
+    public ParallelExecutor getParallel() {
+        return this.pe;
+    }
+
+    /**
+     * Returns the name this stage's pushes are reported under.
+     * @return the task name, or null if none has been set.
+     */
+    public String getTaskName() {
+        return this.szTaskName;
+    }
+
+    /**
+     * Returns the TimeTracker this stage reports to.
+     * @return the TimeTracker, or null.
+     */
+    public TimeTracker getTimeTracker() {
+        return this.tracker;
+    }
+
+    /**
+     * Returns true iff push may modify its input image, or may pass the
+     * input image on as its output so that a later stage could modify it.
+     * Composite stages such as Ladder use this to avoid copying their input
+     * when it will not be changed. Stages which compute a new output image
+     * without changing their input override this to return false.
+     * @return true (the safe default).
+     */
+    public boolean modifiesInput() {
+        return true;
+    }
+
+    /**
+     * Returns true iff images allocated by this stage are kept and reused
+     * as the output of later pushes.
+     * @return the output reuse mode.
+     */
+    public boolean getReuseOutput() {
+        return this.fReuseOutput;
+    }
+
     /**
      * Actual processing is done in the derived class here.
      * @param imageInput the input image
      * @throws jjil.core.Error typically, when the image is not of the expected type.
      */
     public abstract void push(Image imageInput) throws jjil.core.Error;
+
+    /**
+     * Process an image, writing the result into imageReuse if this stage
+     * would otherwise allocate an output image of the same type and size.
+     * Stages which compute their output in place, or which do not
+     * support output reuse, ignore imageReuse.
+     * @param imageInput the input image
+     * @param imageReuse an image which may be overwritten to hold the
+     * output. It must not be in use elsewhere. May be null.
+     * @throws jjil.core.Error typically, when the image is not of the expected type.
+     */
+    public void push(Image imageInput, Image imageReuse) throws jjil.core.Error
+    {
+        if (imageReuse != null && imageReuse != imageInput) {
+            this.imageReuse = imageReuse;
+        }
+        try {
+            push(imageInput);
+        } finally {
+            if (this.imageReuse == imageReuse) {
+                this.imageReuse = null;
+            }
+        }
+    }
+
+    /**
+     * Pushes an image through a stage this stage contains. If a TimeTracker
+     * has been set and the contained stage has a task name, the push is
+     * reported to it as a task of that name. If the TimeTracker is a StageTracker, the
+     * number of input pixels and the bytes of output images the push
+     * allocated are reported too.
+     * @param p the contained stage.
+     * @param image the input image.
+     * @param imageReuse image to hold the output, or null.
+     * @throws jjil.core.Error if the stage does.
+     */
+    protected void pushStage(PipelineStage p, Image image, Image imageReuse)
+        throws jjil.core.Error
+    {
+        TimeTracker tt = this.tracker;
+        String szName = p.szTaskName;
+        if (tt == null || szName == null) {
+            if (imageReuse == null) {
+                p.push(image);
+            } else {
+                p.push(image, imageReuse);
+            }
+            return;
+        }
+        long cBytes = p.cBytesAllocated;
+        tt.startTask(szName);
+        try {
+            if (imageReuse == null) {
+                p.push(image);
+            } else {
+                p.push(image, imageReuse);
+            }
+        } finally {
+            if (tt instanceof StageTracker) {
+                ((StageTracker) tt).endStage(
+                        szName,
+                        image.getWidth() * image.getHeight(),
+                        p.cBytesAllocated - cBytes);
+            } else {
+                tt.endTask(szName);
+            }
+        }
+    }
+
+    /**
+     * Sets the executor used to split this stage's work across threads.
+     * Stages which process row bands independently, for example, then
+     * process the bands concurrently. Stages which cannot split their work
+     * ignore it. The default is null, meaning all work is done on the
+     * calling thread.
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        this.pe = pe;
+    }
+
+    /**
+     * Turns output reuse on or off. When it is on, each image this stage
+     * allocates for its output is kept and overwritten by the next push of
+     * an image of the same size, so a stage in a steady-state pipeline
+     * allocates no images after the first. The caller must not keep the
+     * output of one push after making the next.
+     * @param fReuseOutput true to reuse output images.
+     */
+    public void setReuseOutput(boolean fReuseOutput) {
+        this.fReuseOutput = fReuseOutput;
+        if (!fReuseOutput) {
+            this.imageReuse = null;
+        }
+    }
     
+    /**
+     * Sets the TimeTracker this stage reports the pushes of the stages it
+     * contains to, and the name its own pushes are reported under by the
+     * stage containing it. Composite stages override this to set the
+     * TimeTracker of the stages they contain, naming each after this stage's
+     * name, its position, and its class.
+     * @param tt the TimeTracker, or null to stop reporting.
+     * @param szTaskName the task name.
+     */
+    public void setTimeTracker(TimeTracker tt, String szTaskName) {
+        this.tracker = tt;
+        this.szTaskName = szTaskName;
+    }
+
+    /**
+     * Returns the task name for a stage contained in another, for use in
+     * setTimeTracker.
+     * @param szParent the containing stage's task name.
+     * @param n the position of the contained stage, starting at 1.
+     * @param p the contained stage.
+     * @return a name of the form parent/n:Class.
+     */
+    protected static String childTaskName(String szParent, int n, PipelineStage p) {
+        String szClass = p.getClass().getName();
+        szClass = szClass.substring(szClass.lastIndexOf('.') + 1);
+        return szParent + "/" + n + ":" + szClass; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
     /** Derived classes use setOutput to pass their result back
      * here.
      *
@@ -96,5 +382,29 @@ public abstract class PipelineStage
     {
         this.imageOutput = imageResult;
         this.fReady = true;
+        if (this.fReuseOutput && imageResult == this.imageAllocated) {
+            this.imageReuse = imageResult;
+        }
+        this.imageAllocated = null;
+    }
+
+    /**
+     * Returns the reusable image, if there is one of the given class and
+     * size, and clears it so it is handed out only once.
+     * @param c the required image class. Derived classes do not match.
+     * @param cWidth required width
+     * @param cHeight required height
+     * @return the reusable image, or null if none matches.
+     */
+    private Image takeReusable(Class c, int cWidth, int cHeight) {
+        Image image = this.imageReuse;
+        if (image == null ||
+                image.getClass() != c ||
+                image.getWidth() != cWidth ||
+                image.getHeight() != cHeight) {
+            return null;
+        }
+        this.imageReuse = null;
+        return image;
     }
 }
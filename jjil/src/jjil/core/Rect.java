@@ -65,10 +65,13 @@ public class Rect {
      * @param p the new Point
      */
     public Rect add(Point p) {
+    	// moving the top left corner must not move the bottom right corner
     	if (p.getX() < this.nTlx) {
+    		this.nWidth += this.nTlx - p.getX();
     		this.nTlx = p.getX();
     	}
     	if (p.getY() < this.nTly) {
+    		this.nHeight += this.nTly - p.getY();
     		this.nTly = p.getY();
     	}
     	this.nWidth = Math.max(this.nWidth, p.getX() - this.nTlx);
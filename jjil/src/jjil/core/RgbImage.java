@@ -32,12 +32,20 @@ package jjil.core;
  * Implementation-specific libraries define methods that allow the creation
  * of an RgbImage from a native image type. RgbImage is therefore the first and
  * last jjil.core object used after capture and before display of an image.
+ * <p>
+ * An RgbImage can be a view of a rectangle in a larger array, such as a
+ * region cropped from a camera frame, set with setView. getData copies a
+ * view out into a dense array.
  * @author webb
  */
 public class RgbImage extends Image {
-    /** A pointer to the image data
+    /** A pointer to the image data. For a view this is the larger array.
+     */
+    private int[] wImage;
+    /** Dense width x height array of this image, used when a view is copied
+     * out by getData.
      */
-    private final int[] wImage;
+    private int[] wDense;
     
     /** Creates a new instance of RgbImage
      *
@@ -47,11 +55,33 @@ public class RgbImage extends Image {
     public RgbImage(int cWidth, int cHeight) {
         super(cWidth, cHeight);
         this.wImage = new int[getWidth()*getHeight()];
+        this.wDense = this.wImage;
     }
     
     public RgbImage(int cWidth, int cHeight, int[] rnData) {
         super(cWidth, cHeight);
         this.wImage = rnData;
+        this.wDense = rnData;
+    }
+    
+    /**
+     * Creates a new RgbImage which is a view of a rectangle in a larger
+     * array. No pixels are copied.
+     * @param cWidth Width of the image (columns).
+     * @param cHeight Height of the image (rows)
+     * @param rnBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rnBuffer.
+     * @param cStride distance in rnBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rnBuffer.
+     */
+    public RgbImage(
+            int cWidth, 
+            int cHeight, 
+            int[] rnBuffer, 
+            int nOffset, 
+            int cStride) throws jjil.core.Error {
+        super(cWidth, cHeight);
+        setView(rnBuffer, nOffset, cStride);
     }
     
     /**
@@ -65,6 +95,7 @@ public class RgbImage extends Image {
     public RgbImage(int cWidth, int cHeight, byte bR, byte bG, byte bB) {
         super(cWidth, cHeight);
         this.wImage = new int[getWidth()*getHeight()];
+        this.wDense = this.wImage;
         int nRgb = RgbVal.toRgb(bR, bG, bB); 
         for (int i=0; i<this.getWidth()*this.getHeight();i++) {
             this.wImage[i] = nRgb;
@@ -80,6 +111,7 @@ public class RgbImage extends Image {
     public RgbImage(int cWidth, int cHeight, int nRgb) {
         super(cWidth, cHeight);
         this.wImage = new int[getWidth()*getHeight()];
+        this.wDense = this.wImage;
         for (int i=0; i<this.getWidth()*this.getHeight();i++) {
             this.wImage[i] = nRgb;
         }
@@ -92,15 +124,26 @@ public class RgbImage extends Image {
     public Object clone()
     {
         RgbImage image = new RgbImage(getWidth(), getHeight());
-        System.arraycopy(
-                this.getData(), 
-                0, 
-                image.getData(), 
-                0, 
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
+    /**
+     * Copies the pixels of this image into a dense width x height array,
+     * row by row, without changing a view.
+     * @param rnDest the array to copy into.
+     */
+    protected void copyTo(int[] rnDest) {
+        for (int i=0; i<getHeight(); i++) {
+            System.arraycopy(
+                    this.wImage,
+                    getOffset() + i*getStride(),
+                    rnDest,
+                    i*getWidth(),
+                    getWidth());
+        }
+    }
+    
     /**
      * Fill a rectangle in an RgbImage with a given value
      * @param r the Rect to fill
@@ -119,21 +162,59 @@ public class RgbImage extends Image {
                     null);
         }
         for (int i=r.getTop(); i<r.getBottom(); i++) {
+            int nRow = getOffset() + i*getStride();
             for (int j=r.getLeft(); j<r.getRight(); j++) {
-                this.wImage[i*this.getWidth()+j] = nRgb;
+                this.wImage[nRow+j] = nRgb;
             }
         }
         return this;
     }
     
-    /** Get a pointer to the image data.
+    /**
+     * Return the array holding the pixels. For a view this is the larger
+     * array; use getOffset and getStride to find the pixels in it.
+     * @return the pixel array.
+     */
+    public int[] getBuffer()
+    {
+        return this.wImage;
+    }
+    
+    /** Get a pointer to the image data. If this image is a view its pixels
+     * are first copied into a dense width x height array, which the image
+     * then uses in place of the view.
+     * This changes the image, so a view must not be read by another thread
+     * while getData() is called on it.
      *
      * @return the data pointer.
      */
     public int[] getData()
     {
+        if (isView()) {
+            if (this.wDense == null) {
+                this.wDense = new int[getWidth()*getHeight()];
+            }
+            copyTo(this.wDense);
+            this.wImage = this.wDense;
+            clearView();
+        }
         return this.wImage;
     }
+
+    /**
+     * Makes this image a view of a rectangle in a larger array, without
+     * copying. The array is shared with its owner.
+     * @param rnBuffer the larger array.
+     * @param nOffset index of pixel (0,0) of the image in rnBuffer.
+     * @param cStride distance in rnBuffer from one row to the next.
+     * @throws jjil.core.Error if the rectangle does not lie in rnBuffer.
+     */
+    public void setView(int[] rnBuffer, int nOffset, int cStride)
+        throws jjil.core.Error
+    {
+        setViewLayout(rnBuffer.length, nOffset, cStride);
+        this.wImage = rnBuffer;
+    }
     
     
     /** Return a string describing the image.
@@ -68,12 +68,7 @@ public class RgbOffsetImage extends RgbImage {
      */
     public RgbOffsetImage(RgbImage rgb, int cX, int cY) {
         super(rgb.getWidth(), rgb.getHeight());
-        System.arraycopy(
-                rgb.getData(),
-                0,
-                this.getData(),
-                0,
-                getWidth()*getHeight());
+        rgb.copyTo(this.getData());
         this.cX = cX;
         this.cY = cY;
     }
@@ -84,12 +79,7 @@ public class RgbOffsetImage extends RgbImage {
     public Object clone()
     {
         RgbOffsetImage image = new RgbOffsetImage(getWidth(),getHeight(),getXOffset(),getYOffset());
-        System.arraycopy(
-                this.getData(),
-                0,
-                image.getData(),
-                0,
-                getWidth()*getHeight());
+        copyTo(image.getData());
         return image;
     }
     
@@ -0,0 +1,115 @@
+/*
+ * RowBands.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.core;
+
+/**
+ * RowBands splits the rows of an image into horizontal bands and processes
+ * the bands concurrently on a ParallelExecutor. It is used by stages whose
+ * output rows can be computed independently of each other.<p>
+ * Each band writes only its own output rows but may read any row of the
+ * input, so stages with vertical kernels read the halo rows above and below
+ * their band directly from the shared input image without copying. Such
+ * stages must not work in place, since a band could then read rows another
+ * band has already overwritten.<p>
+ * A RowBands object keeps the jobs it creates, so processing images of the
+ * same height with the same executor allocates nothing.
+ * @author webb
+ */
+public class RowBands {
+    /**
+     * The per-band processing, supplied by the stage.
+     */
+    public interface Body {
+        /**
+         * Process rows nFirstRow up to but not including nLimitRow.
+         * @param nFirstRow first row of the band.
+         * @param nLimitRow row after the last row of the band.
+         * @throws jjil.core.Error if processing fails.
+         */
+        void run(int nFirstRow, int nLimitRow) throws jjil.core.Error;
+    }
+
+    /**
+     * Images are not split into bands with fewer rows than this, since the
+     * cost of starting a job would outweigh the work saved.
+     */
+    public static final int MIN_BAND_ROWS = 16;
+
+    private final Body body;
+    private ParallelExecutor.Job[] rgJobs = new ParallelExecutor.Job[0];
+    private int[] rnFirst = new int[0];
+    private int[] rnLimit = new int[0];
+
+    /**
+     * Creates a new instance of RowBands.
+     * @param body the processing to apply to each band.
+     */
+    public RowBands(Body body) {
+        this.body = body;
+    }
+
+    /**
+     * Process all rows of an image. If pe is null, has only one thread, or
+     * the image is too small to split, the body is called once for all rows
+     * on the calling thread. Otherwise the rows are divided into one band
+     * per thread and the bands are processed concurrently.
+     * @param pe the executor, or null.
+     * @param cRows the number of rows.
+     * @throws jjil.core.Error if the body throws an Error for any band.
+     */
+    public void run(ParallelExecutor pe, int cRows) throws jjil.core.Error {
+        int cBands = 1;
+        if (pe != null) {
+            cBands = Math.min(pe.getThreads(), cRows / MIN_BAND_ROWS);
+        }
+        if (cBands <= 1) {
+            this.body.run(0, cRows);
+            return;
+        }
+        if (this.rgJobs.length != cBands) {
+            makeJobs(cBands);
+        }
+        for (int i=0; i<cBands; i++) {
+            this.rnFirst[i] = cRows * i / cBands;
+            this.rnLimit[i] = cRows * (i+1) / cBands;
+        }
+        pe.run(this.rgJobs);
+    }
+
+    /**
+     * Creates the jobs for a given number of bands.
+     * @param cBands number of bands.
+     */
+    private void makeJobs(int cBands) {
+        this.rnFirst = new int[cBands];
+        this.rnLimit = new int[cBands];
+        this.rgJobs = new ParallelExecutor.Job[cBands];
+        for (int i=0; i<cBands; i++) {
+            final int nBand = i;
+            this.rgJobs[i] = new ParallelExecutor.Job() {
+                public void run() throws jjil.core.Error {
+                    RowBands.this.body.run(
+                            RowBands.this.rnFirst[nBand],
+                            RowBands.this.rnLimit[nBand]);
+                }
+            };
+        }
+    }
+}
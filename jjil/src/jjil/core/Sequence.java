@@ -32,12 +32,22 @@ package jjil.core;
  * and a Sequence object, which can also be null. The PipelineStage
  * is the head of the list of PipelineStage's starting here, and
  * the Sequence object is the rest of the list. The Sequence object
- * can be non-null only if the PipelineStage object is non-null.
+ * can be non-null only if the PipelineStage object is non-null.<p>
+ * Before the first image is pushed the list is compiled into an array
+ * of stages, so each push runs the stages in a single loop rather than
+ * recursing down the list. Adding a stage discards the compiled array,
+ * which is rebuilt on the next push. Combined with setReuseOutput(true),
+ * the intermediate images are allocated while processing the first image
+ * and overwritten for each later image of the same size.
  * @author webb
  */
 public class Sequence extends PipelineStage {
     private PipelineStage pFirst;
     private Sequence pNext;
+    /** The stages of this pipeline in order, compiled from the list by
+     * compile(). Null if the pipeline has changed since it was compiled.
+     */
+    private PipelineStage[] rgStages = null;
     
     /** Creates a new instance of Sequence with no pipeline. */
     public Sequence() {
@@ -53,11 +63,24 @@ public class Sequence extends PipelineStage {
     }
     
     /** add an additional PipelineStage at the end of the
-     * current Sequence.
+     * current Sequence. If a TimeTracker has been set the new stage
+     * reports to it too.
      *
      * @param p the PipelineStage to be added.
      */
     public void add(PipelineStage p)
+    {
+        append(p);
+        if (getTimeTracker() != null) {
+            setTimeTracker(getTimeTracker(), getTaskName());
+        }
+    }
+    
+    /** Adds a PipelineStage at the end of the list.
+     *
+     * @param p the PipelineStage to be added.
+     */
+    private void append(PipelineStage p)
     {
         if (this.pFirst == null) {
             this.pFirst = p;
@@ -65,9 +88,39 @@ public class Sequence extends PipelineStage {
             if (this.pNext == null) {
                 this.pNext = new Sequence(p);
             } else {
-                this.pNext.add(p);
+                this.pNext.append(p);
             }
         } 
+        this.rgStages = null;
+    }
+    
+    /** Compiles the list of stages into an array which push can run
+     * without recursion. This is done automatically by push when the
+     * pipeline has changed, so calling it is only necessary to avoid
+     * doing the work during the first push.
+     *
+     * @throws jjil.core.Error if the pipeline is empty.
+     */
+    public void compile() throws jjil.core.Error
+    {
+        if (this.pFirst == null) {
+            throw new Error(
+                            Error.PACKAGE.CORE,
+                            ErrorCodes.PIPELINE_EMPTY_PUSH,
+                            this.toString(),
+                            null,
+                            null);
+        }
+        int nStages = 0;
+        for (Sequence s = this; s != null; s = s.pNext) {
+            nStages++;
+        }
+        PipelineStage[] rgStages = new PipelineStage[nStages];
+        int n = 0;
+        for (Sequence s = this; s != null; s = s.pNext) {
+            rgStages[n++] = s.pFirst;
+        }
+        this.rgStages = rgStages;
     }
     
     /** Returns true iff the pipeline has no image available
@@ -76,6 +129,9 @@ public class Sequence extends PipelineStage {
      */
     public boolean isEmpty()
     {
+        if (this.rgStages != null) {
+            return this.rgStages[this.rgStages.length-1].isEmpty();
+        }
         if (pNext == null) {
             return pFirst.isEmpty();
         } else {
@@ -91,6 +147,9 @@ public class Sequence extends PipelineStage {
      */
     public Image getFront() throws jjil.core.Error
     {
+        if (this.rgStages != null) {
+            return this.rgStages[this.rgStages.length-1].getFront();
+        }
         if (pNext == null) {
             return pFirst.getFront();
         } else {
@@ -98,6 +157,19 @@ public class Sequence extends PipelineStage {
         }
     }
     
+    /**
+     * Returns true iff the first stage of the pipeline may modify its input
+     * or pass it on. Later stages only see images produced within the
+     * pipeline. Overrides PipelineStage.modifiesInput().
+     * @return true iff the pipeline may modify its input image.
+     */
+    public boolean modifiesInput() {
+        if (this.pFirst == null) {
+            return false;
+        }
+        return this.pFirst.modifiesInput();
+    }
+    
     /**
      * Process an image by the pipeline.
      * The image is pushed onto the beginning of the pipeline,
@@ -109,28 +181,107 @@ public class Sequence extends PipelineStage {
      */
     public void push(Image i) throws jjil.core.Error
     {
-        if (pFirst == null) {
-            throw new Error(
-                            Error.PACKAGE.CORE,
-                            ErrorCodes.PIPELINE_EMPTY_PUSH,
-                            this.toString(),
-                            null,
-                            null);
+        push(i, null);
+    }
+    
+    /**
+     * Process an image by the pipeline, passing imageReuse to the last
+     * stage to be overwritten with the pipeline output.
+     * Overrides PipelineStage.push(Image, Image).
+     * @param i the image to be pushed.
+     * @param imageReuse image to hold the output of the last stage. May be null.
+     * @throws jjil.core.Error if the pipeline is empty.
+     */
+    public void push(Image i, Image imageReuse) throws jjil.core.Error
+    {
+        if (this.rgStages == null) {
+            compile();
+        }
+        PipelineStage[] rgStages = this.rgStages;
+        int nLast = rgStages.length - 1;
+        Image image = i;
+        for (int n=0; n<nLast; n++) {
+            PipelineStage p = rgStages[n];
+            pushStage(p, image, null);
+            if (p.isEmpty()) {
+                throw new Error(
+                                Error.PACKAGE.CORE,
+                                ErrorCodes.NO_RESULT_AVAILABLE,
+                                p.toString(),
+                                null,
+                                null);
+            }
+            image = p.getFront();
         }
-        pFirst.push(i);
-        if (pFirst.isEmpty()) {
+        PipelineStage pLast = rgStages[nLast];
+        pushStage(pLast, image, imageReuse);
+        if (pLast.isEmpty()) {
             throw new Error(
                             Error.PACKAGE.CORE,
                             ErrorCodes.NO_RESULT_AVAILABLE,
-                            pFirst.toString(),
+                            pLast.toString(),
                             null,
                             null);
         }
+    }
+    
+    /**
+     * Sets the executor used by every stage in the pipeline.
+     * Overrides PipelineStage.setParallel(ParallelExecutor).
+     * @param pe the executor, or null.
+     */
+    public void setParallel(ParallelExecutor pe) {
+        super.setParallel(pe);
+        if (pFirst != null) {
+            pFirst.setParallel(pe);
+        }
         if (pNext != null) {
-            pNext.push(pFirst.getFront());
+            pNext.setParallel(pe);
         }
     }
     
+    /**
+     * Turns output reuse on or off for every stage in the pipeline.
+     * Overrides PipelineStage.setReuseOutput(boolean).
+     * @param fReuseOutput true to reuse output images.
+     */
+    public void setReuseOutput(boolean fReuseOutput) {
+        super.setReuseOutput(fReuseOutput);
+        if (pFirst != null) {
+            pFirst.setReuseOutput(fReuseOutput);
+        }
+        if (pNext != null) {
+            pNext.setReuseOutput(fReuseOutput);
+        }
+    }
+    
+    /**
+     * Sets the TimeTracker for this pipeline and every stage in it. Each
+     * stage's pushes are reported under a name giving this pipeline's name
+     * and the stage's position and class.
+     * Overrides PipelineStage.setTimeTracker(TimeTracker, String).
+     * @param tt the TimeTracker, or null.
+     * @param szTaskName this pipeline's task name.
+     */
+    public void setTimeTracker(TimeTracker tt, String szTaskName) {
+        int n = 1;
+        for (Sequence s = this; s != null; s = s.pNext) {
+            s.setOwnTimeTracker(tt, szTaskName);
+            if (s.pFirst != null) {
+                s.pFirst.setTimeTracker(tt, 
+                        childTaskName(szTaskName, n++, s.pFirst));
+            }
+        }
+    }
+    
+    /**
+     * Sets the TimeTracker of this list element without changing the
+     * stages in the list.
+     */
+    private void setOwnTimeTracker(TimeTracker tt, String szTaskName) {
+        super.setTimeTracker(tt, szTaskName);
+    }
+    
     /** Return a string describing the pipeline
      * in fully parenthesized list notation. E.g., a pipeline
      * consisting of three stages A, B, and C will
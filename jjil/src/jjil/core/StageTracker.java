@@ -0,0 +1,39 @@
+/*
+ * StageTracker.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.core;
+
+/**
+ * A StageTracker is a TimeTracker which is also told how much work each
+ * pipeline stage push did. When a composite stage such as Sequence reports
+ * the push of one of its stages it calls endStage instead of endTask.
+ * @author webb
+ */
+public interface StageTracker extends TimeTracker {
+    /**
+     * Ends a task which was the push of a pipeline stage. This takes the
+     * place of endTask.
+     * @param szTaskName the name of the task, matching the name used in
+     * startTask.
+     * @param cPixels the number of pixels in the stage's input image.
+     * @param cBytesAllocated the number of bytes of output images the stage
+     * allocated during the push.
+     */
+    void endStage(String szTaskName, int cPixels, long cBytesAllocated);
+}
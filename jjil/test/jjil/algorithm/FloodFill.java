@@ -0,0 +1,162 @@
+/*
+ * FloodFill.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import jjil.core.Gray8Image;
+
+/**
+ * Labels the 8-connected components of a Gray8Image by flood fill and
+ * measures them, as the reference for the connected component tests.
+ * Pixels with value Byte.MIN_VALUE are background.
+ * @author webb
+ */
+class FloodFill
+{
+    /** Label of each pixel, 0 for background, from 1 in raster order. */
+    final int[] rnLabels;
+    final int cComponents;
+    // measurements by label
+    final int[] rnArea, rnMinX, rnMinY, rnMaxX, rnMaxY, rnPerimeter;
+    final long[] rlSumX, rlSumY;
+
+    FloodFill(Gray8Image image)
+    {
+        int cWidth = image.getWidth(), cHeight = image.getHeight();
+        byte[] rbData = image.getData();
+        int cPixels = cWidth * cHeight;
+        this.rnLabels = new int[cPixels];
+        this.rnArea = new int[cPixels + 1];
+        this.rnMinX = new int[cPixels + 1];
+        this.rnMinY = new int[cPixels + 1];
+        this.rnMaxX = new int[cPixels + 1];
+        this.rnMaxY = new int[cPixels + 1];
+        this.rnPerimeter = new int[cPixels + 1];
+        this.rlSumX = new long[cPixels + 1];
+        this.rlSumY = new long[cPixels + 1];
+        int[] rnStack = new int[cPixels];
+        int cLabels = 0;
+        for (int n=0; n<cPixels; n++)
+        {
+            if (rbData[n] == Byte.MIN_VALUE || this.rnLabels[n] != 0)
+            {
+                continue;
+            }
+            int nLabel = ++cLabels;
+            this.rnMinX[nLabel] = this.rnMinY[nLabel] = Integer.MAX_VALUE;
+            this.rnMaxX[nLabel] = this.rnMaxY[nLabel] = Integer.MIN_VALUE;
+            int cStack = 0;
+            rnStack[cStack++] = n;
+            this.rnLabels[n] = nLabel;
+            while (cStack > 0)
+            {
+                int m = rnStack[--cStack];
+                int x = m % cWidth, y = m / cWidth;
+                this.rnArea[nLabel]++;
+                this.rnMinX[nLabel] = Math.min(this.rnMinX[nLabel], x);
+                this.rnMinY[nLabel] = Math.min(this.rnMinY[nLabel], y);
+                this.rnMaxX[nLabel] = Math.max(this.rnMaxX[nLabel], x);
+                this.rnMaxY[nLabel] = Math.max(this.rnMaxY[nLabel], y);
+                this.rlSumX[nLabel] += x;
+                this.rlSumY[nLabel] += y;
+                for (int dy=-1; dy<=1; dy++)
+                {
+                    for (int dx=-1; dx<=1; dx++)
+                    {
+                        int x2 = x + dx, y2 = y + dy;
+                        boolean fInside = x2 >= 0 && x2 < cWidth &&
+                                y2 >= 0 && y2 < cHeight;
+                        boolean fForeground = fInside &&
+                                rbData[y2 * cWidth + x2] != Byte.MIN_VALUE;
+                        if ((dx == 0) != (dy == 0) && !fForeground)
+                        {
+                            // an edge with the background or the border
+                            this.rnPerimeter[nLabel]++;
+                        }
+                        if (fForeground && this.rnLabels[y2 * cWidth + x2] == 0)
+                        {
+                            this.rnLabels[y2 * cWidth + x2] = nLabel;
+                            rnStack[cStack++] = y2 * cWidth + x2;
+                        }
+                    }
+                }
+            }
+        }
+        this.cComponents = cLabels;
+    }
+
+    /**
+     * Describes the measurements of a component, for comparing them as a
+     * whole.
+     */
+    String describe(int nLabel)
+    {
+        return this.rnArea[nLabel] + " pixels, (" + this.rnMinX[nLabel] +
+                "," + this.rnMinY[nLabel] + ")-(" + this.rnMaxX[nLabel] +
+                "," + this.rnMaxY[nLabel] + "), centroid (" +
+                this.rlSumX[nLabel] / this.rnArea[nLabel] + "," +
+                this.rlSumY[nLabel] / this.rnArea[nLabel] + "), perimeter " +
+                this.rnPerimeter[nLabel];
+    }
+
+    /**
+     * Makes a random binary image.
+     * @param cWidth image width.
+     * @param cHeight image height.
+     * @param nPercent percentage of foreground pixels.
+     * @param r source of the pixels.
+     */
+    static Gray8Image randomImage(
+            int cWidth,
+            int cHeight,
+            int nPercent,
+            Random r)
+    {
+        Gray8Image image = new Gray8Image(cWidth, cHeight, Byte.MIN_VALUE);
+        byte[] rbData = image.getData();
+        for (int i=0; i<rbData.length; i++)
+        {
+            if (r.nextInt(100) < nPercent)
+            {
+                rbData[i] = (byte) r.nextInt(128);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Sorts strings in place, for comparing lists of descriptions.
+     */
+    static void sort(String[] rsz)
+    {
+        for (int i=1; i<rsz.length; i++)
+        {
+            String sz = rsz[i];
+            int j = i;
+            while (j > 0 && rsz[j-1].compareTo(sz) > 0)
+            {
+                rsz[j] = rsz[j-1];
+                j--;
+            }
+            rsz[j] = sz;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * TestEan13Scanner.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import jjil.bench.Ean13Frames;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.ParallelExecutor;
+import junit.framework.TestCase;
+
+/**
+ * Scans synthetic frames drawn by Ean13Frames.
+ * @author webb
+ */
+public class TestEan13Scanner extends TestCase
+{
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+    private static final int FRAMES = 10;
+
+    public TestEan13Scanner(String testName)
+    {
+        super(testName);
+    }
+
+    public void testStraight() throws Error
+    {
+        readAll(0, null);
+    }
+
+    public void testRotated() throws Error
+    {
+        readAll(30, null);
+    }
+
+    public void testReversed() throws Error
+    {
+        readAll(180, null);
+    }
+
+    public void testParallel() throws Error
+    {
+        ParallelExecutor pe = new ParallelExecutor(2);
+        try
+        {
+            readAll(-30, pe);
+        }
+        finally
+        {
+            pe.shutdown();
+        }
+    }
+
+    public void testBlank() throws Error
+    {
+        Random r = new Random(4);
+        Ean13Scanner scanner = new Ean13Scanner();
+        scanner.setRequiredVotes(1);
+        for (int i=0; i<FRAMES; i++)
+        {
+            byte[] rbFrame = Ean13Frames.render(null, 0, WIDTH, HEIGHT, r);
+            assertNull(scanner.scan(rbFrame, 0, WIDTH, WIDTH, HEIGHT));
+            assertNull(scanner.getStart());
+        }
+    }
+
+    /**
+     * A code with a wrong check digit is never returned.
+     */
+    public void testCheckDigit() throws Error
+    {
+        Random r = new Random(5);
+        Ean13Scanner scanner = new Ean13Scanner();
+        scanner.setRequiredVotes(1);
+        for (int i=0; i<FRAMES; i++)
+        {
+            String szCode = Ean13Frames.randomCode(r);
+            char cWrong = (char) ('0' + (szCode.charAt(12) - '0' + 1) % 10);
+            byte[] rbFrame = Ean13Frames.render(
+                    szCode.substring(0, 12) + cWrong, 0, WIDTH, HEIGHT, r);
+            assertNull(scanner.scan(rbFrame, 0, WIDTH, WIDTH, HEIGHT));
+        }
+    }
+
+    /**
+     * With one scanline a frame gives at most one vote, so a code needs to
+     * be read in as many frames as there are votes required. Frames where
+     * it is not read take votes away, and reset() forgets them all.
+     */
+    public void testVoting() throws Error
+    {
+        Random r = new Random(6);
+        String szCode = Ean13Frames.randomCode(r);
+        byte[] rbCode = Ean13Frames.render(szCode, 0, WIDTH, HEIGHT, r);
+        byte[] rbBlank = Ean13Frames.render(null, 0, WIDTH, HEIGHT, r);
+        Ean13Scanner scanner = new Ean13Scanner(1, new int[] {0});
+        scanner.setRequiredVotes(3);
+        assertNull(scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+        assertNull(scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+        assertEquals(szCode, scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+        assertNotNull(scanner.getStart());
+        assertNotNull(scanner.getEnd());
+        scanner.reset();
+        assertNull(scanner.getStart());
+        assertNull(scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+        // the vote from the first frame is lost in the blank frame
+        assertNull(scanner.scan(rbBlank, 0, WIDTH, WIDTH, HEIGHT));
+        assertNull(scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+        assertNull(scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+        assertEquals(szCode, scanner.scan(rbCode, 0, WIDTH, WIDTH, HEIGHT));
+    }
+
+    /**
+     * Scanning a Gray8Image view gives the same code as scanning the frame.
+     */
+    public void testGray8View() throws Error
+    {
+        Random r = new Random(7);
+        String szCode = Ean13Frames.randomCode(r);
+        byte[] rbFrame = Ean13Frames.render(szCode, 0, WIDTH, HEIGHT, r);
+        Gray8Image image = new Gray8Image(WIDTH, HEIGHT);
+        byte[] rbData = image.getData();
+        for (int i=0; i<rbFrame.length; i++)
+        {
+            rbData[i] = (byte) (rbFrame[i] + Byte.MIN_VALUE);
+        }
+        Gray8Crop crop = new Gray8Crop(20, 10, WIDTH - 40, HEIGHT - 20);
+        crop.push(image);
+        Ean13Scanner scanner = new Ean13Scanner();
+        scanner.setRequiredVotes(1);
+        assertEquals(szCode, scanner.scan((Gray8Image) crop.getFront()));
+    }
+
+    /**
+     * Reads a new code, with a reset, in each of FRAMES frames.
+     */
+    private void readAll(int nAngle, ParallelExecutor pe) throws Error
+    {
+        Random r = new Random(nAngle + 360);
+        Ean13Scanner scanner = new Ean13Scanner();
+        scanner.setParallel(pe);
+        scanner.setRequiredVotes(1);
+        for (int i=0; i<FRAMES; i++)
+        {
+            String szCode = Ean13Frames.randomCode(r);
+            byte[] rbFrame = Ean13Frames.render(szCode, nAngle, WIDTH, HEIGHT, r);
+            scanner.reset();
+            assertEquals("angle " + nAngle, szCode,
+                    scanner.scan(rbFrame, 0, WIDTH, WIDTH, HEIGHT));
+        }
+    }
+}
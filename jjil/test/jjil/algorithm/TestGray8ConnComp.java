@@ -0,0 +1,129 @@
+/*
+ * TestGray8ConnComp.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Rect;
+import junit.framework.TestCase;
+
+/**
+ * Compares Gray8ConnComp with a flood fill.
+ * @author webb
+ */
+public class TestGray8ConnComp extends TestCase
+{
+    public TestGray8ConnComp(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * A pixel at the right end of a row must not be joined to the pixel at
+     * the left end of the next row.
+     */
+    public void testRowEnds() throws Error
+    {
+        for (int cWidth=2; cWidth<=5; cWidth++)
+        {
+            Gray8Image image = new Gray8Image(cWidth, 3, Byte.MIN_VALUE);
+            byte[] rbData = image.getData();
+            rbData[cWidth + 0] = 0;
+            rbData[cWidth + cWidth - 1] = 0;
+            rbData[2 * cWidth + 0] = 0;
+            check(image);
+        }
+    }
+
+    public void testRandom() throws Error
+    {
+        Random r = new Random(10);
+        Gray8ConnComp gcc = new Gray8ConnComp();
+        for (int nTrial=0; nTrial<300; nTrial++)
+        {
+            Gray8Image image = FloodFill.randomImage(
+                    1 + r.nextInt(40), 1 + r.nextInt(40), r.nextInt(80), r);
+            // the same instance is reused, at different sizes
+            check(gcc, image);
+        }
+    }
+
+    private void check(Gray8Image image) throws Error
+    {
+        check(new Gray8ConnComp(), image);
+    }
+
+    private void check(Gray8ConnComp gcc, Gray8Image image) throws Error
+    {
+        FloodFill ff = new FloodFill(image);
+        gcc.push(image);
+        assertEquals(ff.cComponents, gcc.getComponentCount());
+        // the labeling must give the same partition as the flood fill, with
+        // labels 1 to the number of components
+        short[] rsLabels = gcc.getLabeledImage().getData();
+        int[] rnMap = new int[ff.cComponents + 1];
+        boolean[] rfUsed = new boolean[ff.cComponents + 1];
+        for (int i=0; i<rsLabels.length; i++)
+        {
+            int nFf = ff.rnLabels[i], nGcc = rsLabels[i];
+            if (nFf == 0)
+            {
+                assertEquals(0, nGcc);
+                continue;
+            }
+            assertTrue(nGcc >= 1 && nGcc <= ff.cComponents);
+            if (rnMap[nFf] == 0)
+            {
+                assertFalse(rfUsed[nGcc]);
+                rnMap[nFf] = nGcc;
+                rfUsed[nGcc] = true;
+            }
+            assertEquals(rnMap[nFf], nGcc);
+        }
+        // the components must be in order of decreasing pixel count and have
+        // the same measurements
+        String[] rszExpected = new String[ff.cComponents];
+        String[] rszActual = new String[ff.cComponents];
+        for (int i=0; i<ff.cComponents; i++)
+        {
+            rszExpected[i] = ff.rnArea[i+1] + " pixels, " +
+                    ff.rnMinX[i+1] + "," + ff.rnMinY[i+1] + "-" +
+                    ff.rnMaxX[i+1] + "," + ff.rnMaxY[i+1] + ", perimeter " +
+                    ff.rnPerimeter[i+1];
+            Rect rect = gcc.getComponent(i);
+            rszActual[i] = gcc.getPixelCount(i) + " pixels, " +
+                    rect.getLeft() + "," + rect.getTop() + "-" +
+                    rect.getRight() + "," + rect.getBottom() + ", perimeter " +
+                    gcc.getPerimeter(i);
+            if (i > 0)
+            {
+                assertTrue(gcc.getPixelCount(i-1) >= gcc.getPixelCount(i));
+            }
+        }
+        FloodFill.sort(rszExpected);
+        FloodFill.sort(rszActual);
+        for (int i=0; i<ff.cComponents; i++)
+        {
+            assertEquals(rszExpected[i], rszActual[i]);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * TestGray8Fft.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import jjil.core.Complex32Image;
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.ParallelExecutor;
+import junit.framework.TestCase;
+
+/**
+ * Checks the DC term of Gray8Fft and that Complex32IFft inverts it, at sizes
+ * where the transform would overflow if the input were shifted by SCALE.
+ * @author webb
+ */
+public class TestGray8Fft extends TestCase
+{
+    public TestGray8Fft(String testName)
+    {
+        super(testName);
+    }
+
+    public void testSmall() throws Error
+    {
+        roundTrip(64, 64, null);
+        roundTrip(128, 128, null);
+    }
+
+    public void testLarge() throws Error
+    {
+        roundTrip(256, 256, null);
+        roundTrip(512, 256, null);
+        roundTrip(512, 512, null);
+    }
+
+    public void testLargeParallel() throws Error
+    {
+        ParallelExecutor pe = new ParallelExecutor(2);
+        try
+        {
+            roundTrip(256, 256, pe);
+            roundTrip(1024, 512, pe);
+        }
+        finally
+        {
+            pe.shutdown();
+        }
+    }
+
+    /**
+     * A bright image is the worst case for the DC term.
+     */
+    public void testWhite() throws Error
+    {
+        Gray8Image im = new Gray8Image(512, 512, Byte.MAX_VALUE);
+        Gray8Fft fft = new Gray8Fft();
+        fft.push(im);
+        Complex32Image cxm = (Complex32Image) fft.getFront();
+        long lDc = 255L * 512 * 512 << Gray8Fft.getShift(512, 512);
+        assertEquals(lDc, cxm.getData()[0].real());
+        Complex32IFft ifft = new Complex32IFft(false);
+        ifft.push(cxm);
+        byte[] rbOut = ((Gray8Image) ifft.getFront()).getData();
+        for (int i=0; i<rbOut.length; i++)
+        {
+            assertEquals(Byte.MAX_VALUE, rbOut[i]);
+        }
+    }
+
+    public void testTooLarge() throws Error
+    {
+        assertEquals(Gray8Fft.SCALE, Gray8Fft.getShift(128, 128));
+        assertEquals(0, Gray8Fft.getShift(2048, 4096));
+        assertTrue(Gray8Fft.getShift(4096, 4096) < 0);
+    }
+
+    private void roundTrip(int nWidth, int nHeight, ParallelExecutor pe)
+        throws Error
+    {
+        Gray8Image im = new Gray8Image(nWidth, nHeight);
+        byte[] rbIn = im.getData();
+        new Random(nWidth + nHeight).nextBytes(rbIn);
+        long lSum = 0;
+        for (int i=0; i<rbIn.length; i++)
+        {
+            lSum += rbIn[i] - Byte.MIN_VALUE;
+        }
+        Gray8Fft fft = new Gray8Fft();
+        fft.setParallel(pe);
+        fft.push(im);
+        Complex32Image cxm = (Complex32Image) fft.getFront();
+        assertEquals(lSum << Gray8Fft.getShift(nWidth, nHeight),
+                cxm.getData()[0].real());
+        assertEquals(0, cxm.getData()[0].imag());
+        Complex32IFft ifft = new Complex32IFft(false);
+        ifft.setParallel(pe);
+        ifft.push(cxm);
+        byte[] rbOut = ((Gray8Image) ifft.getFront()).getData();
+        // the fixed point roots of unity leave a small error, which grows
+        // slowly with the size; an overflow makes it as large as the pixels
+        int nMaxDiff = 0;
+        long lTotalDiff = 0;
+        for (int i=0; i<rbIn.length; i++)
+        {
+            int nDiff = Math.abs(rbIn[i] - rbOut[i]);
+            nMaxDiff = Math.max(nMaxDiff, nDiff);
+            lTotalDiff += nDiff;
+        }
+        String sz = nWidth + "x" + nHeight;
+        assertTrue(sz + " differs by " + nMaxDiff, nMaxDiff <= 16);
+        assertTrue(sz + " differs by " + lTotalDiff + " in total",
+                lTotalDiff <= 2L * rbIn.length);
+    }
+}
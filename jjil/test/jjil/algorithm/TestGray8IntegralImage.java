@@ -0,0 +1,72 @@
+/*
+ * TestGray8IntegralImage.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import junit.framework.TestCase;
+
+/**
+ * Compares the rectangle sums of Gray8IntegralImage with sums of the pixels.
+ * @author webb
+ */
+public class TestGray8IntegralImage extends TestCase
+{
+    public TestGray8IntegralImage(String testName)
+    {
+        super(testName);
+    }
+
+    public void testSums() throws Error
+    {
+        Random r = new Random(18);
+        Gray8IntegralImage ii = new Gray8IntegralImage();
+        Gray8IntegralImage iiSums = new Gray8IntegralImage(false);
+        for (int nTrial=0; nTrial<20; nTrial++)
+        {
+            int cWidth = 1 + r.nextInt(30), cHeight = 1 + r.nextInt(30);
+            Gray8Image image = new Gray8Image(cWidth, cHeight);
+            r.nextBytes(image.getData());
+            ii.push(image);
+            iiSums.push(image);
+            for (int n=0; n<50; n++)
+            {
+                int nX = r.nextInt(cWidth), nY = r.nextInt(cHeight);
+                int cW = r.nextInt(cWidth - nX + 1);
+                int cH = r.nextInt(cHeight - nY + 1);
+                int nSum = 0, nSumSq = 0;
+                for (int i=nY; i<nY+cH; i++)
+                {
+                    for (int j=nX; j<nX+cW; j++)
+                    {
+                        int nPixel = image.getData()[i*cWidth+j] - Byte.MIN_VALUE;
+                        nSum += nPixel;
+                        nSumSq += nPixel * nPixel;
+                    }
+                }
+                assertEquals(nSum, ii.getSum(nX, nY, cW, cH));
+                assertEquals(nSumSq, ii.getSumSq(nX, nY, cW, cH));
+                assertEquals(nSum, iiSums.getSum(nX, nY, cW, cH));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * TestGray8OtsuThreshold.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import junit.framework.TestCase;
+
+/**
+ * Checks the running histogram of Gray8OtsuThreshold.
+ * @author webb
+ */
+public class TestGray8OtsuThreshold extends TestCase
+{
+    public TestGray8OtsuThreshold(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * After a scene change the running histogram must settle on the new
+     * scene, even when the bins are small enough that each frame moves them
+     * by less than one count.
+     */
+    public void testRunningHistogramSettles() throws Error
+    {
+        Gray8OtsuThreshold otsu = new Gray8OtsuThreshold(true, 256);
+        otsu.setTemporalWeight(16);
+        for (int n=0; n<20; n++)
+        {
+            otsu.push(makeImage(20, 100, 120));
+        }
+        for (int n=0; n<200; n++)
+        {
+            otsu.push(makeImage(60, 220, 120));
+        }
+        Gray8OtsuThreshold otsuAlone = new Gray8OtsuThreshold(true, 256);
+        Gray8Image imRunning = makeImage(60, 220, 120);
+        otsu.push(imRunning);
+        Gray8Image imAlone = makeImage(60, 220, 120);
+        otsuAlone.push(imAlone);
+        byte[] rbRunning = imRunning.getData(), rbAlone = imAlone.getData();
+        for (int i=0; i<rbRunning.length; i++)
+        {
+            assertEquals(rbAlone[i], rbRunning[i]);
+        }
+    }
+
+    /**
+     * Makes a 4x4 image whose pixels take three values: 8 at nLow, 6 at
+     * nHigh, and 2 at nMiddle.
+     */
+    private static Gray8Image makeImage(int nLow, int nHigh, int nMiddle)
+    {
+        Gray8Image image = new Gray8Image(4, 4);
+        byte[] rbData = image.getData();
+        for (int i=0; i<16; i++)
+        {
+            int nValue = i < 8 ? nLow : i < 14 ? nHigh : nMiddle;
+            rbData[i] = (byte) (nValue + Byte.MIN_VALUE);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * TestGray8RunConnComp.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import jjil.core.Error;
+import jjil.core.Gray8Image;
+import jjil.core.Point;
+import jjil.core.Rect;
+import junit.framework.TestCase;
+
+/**
+ * Compares Gray8RunConnComp with a flood fill, and with Gray8ConnComp.
+ * @author webb
+ */
+public class TestGray8RunConnComp extends TestCase
+{
+    public TestGray8RunConnComp(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * Runs which only touch diagonally, and a U shape whose arms are joined
+     * only at the bottom, after both have been labeled.
+     */
+    public void testShapes() throws Error
+    {
+        String[] rszRows = {
+            "#.#..#.#",
+            ".#..#..#",
+            "#.#.#..#",
+            "....####",
+        };
+        Gray8Image image = new Gray8Image(8, rszRows.length, Byte.MIN_VALUE);
+        for (int i=0; i<rszRows.length; i++)
+        {
+            for (int j=0; j<8; j++)
+            {
+                if (rszRows[i].charAt(j) == '#')
+                {
+                    image.getData()[i*8+j] = 0;
+                }
+            }
+        }
+        Gray8RunConnComp grcc = check(new Gray8RunConnComp(), image);
+        assertEquals(2, grcc.getComponentCount());
+        assertEquals(10, grcc.getPixelCount(0));
+        assertEquals(5, grcc.getPixelCount(1));
+    }
+
+    public void testEmpty() throws Error
+    {
+        Gray8RunConnComp grcc = new Gray8RunConnComp();
+        grcc.push(new Gray8Image(7, 5, Byte.MIN_VALUE));
+        assertEquals(0, grcc.getComponentCount());
+        try
+        {
+            grcc.getPixelCount(0);
+            fail();
+        }
+        catch (Error e)
+        {
+        }
+    }
+
+    public void testRandom() throws Error
+    {
+        Random r = new Random(11);
+        Gray8RunConnComp grcc = new Gray8RunConnComp();
+        for (int nTrial=0; nTrial<300; nTrial++)
+        {
+            Gray8Image image = FloodFill.randomImage(
+                    1 + r.nextInt(60), 1 + r.nextInt(60), r.nextInt(80), r);
+            // the same instance is reused, at different sizes
+            check(grcc, image);
+        }
+    }
+
+    /**
+     * Enough components that the label totals have to grow.
+     */
+    public void testManyComponents() throws Error
+    {
+        Gray8Image image = new Gray8Image(100, 100, Byte.MIN_VALUE);
+        for (int i=0; i<100; i+=2)
+        {
+            for (int j=0; j<100; j+=2)
+            {
+                image.getData()[i*100+j] = 0;
+            }
+        }
+        Gray8RunConnComp grcc = check(new Gray8RunConnComp(), image);
+        assertEquals(2500, grcc.getComponentCount());
+    }
+
+    /**
+     * Gray8RunConnComp and Gray8ConnComp measure the components the same
+     * way.
+     */
+    public void testSameAsConnComp() throws Error
+    {
+        Random r = new Random(12);
+        for (int nTrial=0; nTrial<50; nTrial++)
+        {
+            Gray8Image image = FloodFill.randomImage(
+                    1 + r.nextInt(40), 1 + r.nextInt(40), r.nextInt(80), r);
+            Gray8RunConnComp grcc = new Gray8RunConnComp();
+            grcc.push(image);
+            Gray8ConnComp gcc = new Gray8ConnComp();
+            gcc.push(image);
+            assertEquals(gcc.getComponentCount(), grcc.getComponentCount());
+            for (int i=0; i<grcc.getComponentCount(); i++)
+            {
+                assertEquals(gcc.getPixelCount(i), grcc.getPixelCount(i));
+            }
+        }
+    }
+
+    private Gray8RunConnComp check(Gray8RunConnComp grcc, Gray8Image image)
+        throws Error
+    {
+        FloodFill ff = new FloodFill(image);
+        grcc.push(image);
+        assertEquals(ff.cComponents, grcc.getComponentCount());
+        String[] rszExpected = new String[ff.cComponents];
+        String[] rszActual = new String[ff.cComponents];
+        for (int i=0; i<ff.cComponents; i++)
+        {
+            rszExpected[i] = ff.describe(i+1);
+            Rect rect = grcc.getComponent(i);
+            Point pCentroid = grcc.getCentroid(i);
+            rszActual[i] = grcc.getPixelCount(i) + " pixels, (" +
+                    rect.getLeft() + "," + rect.getTop() + ")-(" +
+                    rect.getRight() + "," + rect.getBottom() + "), centroid (" +
+                    pCentroid.getX() + "," + pCentroid.getY() + 
+                    "), perimeter " + grcc.getPerimeter(i);
+            if (i > 0)
+            {
+                assertTrue(grcc.getPixelCount(i-1) >= grcc.getPixelCount(i));
+            }
+        }
+        FloodFill.sort(rszExpected);
+        FloodFill.sort(rszActual);
+        for (int i=0; i<ff.cComponents; i++)
+        {
+            assertEquals(rszExpected[i], rszActual[i]);
+        }
+        return grcc;
+    }
+}
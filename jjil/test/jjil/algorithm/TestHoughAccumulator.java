@@ -0,0 +1,194 @@
+/*
+ * TestHoughAccumulator.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.algorithm;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares HoughAccumulator.getPeaks with a scan of an accumulator built
+ * from scratch.
+ * @author webb
+ */
+public class TestHoughAccumulator extends TestCase
+{
+    public TestHoughAccumulator(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * Points whose intercepts all lie above the accumulator's range at some
+     * slope steps, so the range at those steps is empty.
+     */
+    public void testInterceptRangeAbovePoints()
+    {
+        Random r = new Random(16);
+        int cMinInt = -39, cMaxInt = -36;
+        int cMinSlope = -484, cMaxSlope = 675, cSteps = 20;
+        for (int nTrial=0; nTrial<200; nTrial++)
+        {
+            int cPoints = 1 + r.nextInt(40);
+            int[] rnU = new int[cPoints], rnV = new int[cPoints];
+            for (int i=0; i<cPoints; i++)
+            {
+                rnU[i] = r.nextInt(64) - 8;
+                rnV[i] = r.nextInt(64) - 48;
+            }
+            check(cMinInt, cMaxInt, cMinSlope, cMaxSlope, cSteps,
+                    rnU, rnV, 5);
+        }
+    }
+
+    /**
+     * Random ranges and points, reusing one accumulator for several sets of
+     * points so that clearing is tested too.
+     */
+    public void testRandom()
+    {
+        Random r = new Random(1);
+        for (int nTrial=0; nTrial<100; nTrial++)
+        {
+            int cMinInt = r.nextInt(100) - 50;
+            int cMaxInt = cMinInt + r.nextInt(40);
+            int cMinSlope = r.nextInt(1024) - 512;
+            int cMaxSlope = cMinSlope + r.nextInt(1024);
+            int cSteps = 1 + r.nextInt(30);
+            HoughAccumulator accum = new HoughAccumulator(
+                    cMinInt, cMaxInt, cMinSlope, cMaxSlope, cSteps);
+            for (int nSet=0; nSet<5; nSet++)
+            {
+                int cPoints = r.nextInt(50);
+                int[] rnU = new int[cPoints], rnV = new int[cPoints];
+                for (int i=0; i<cPoints; i++)
+                {
+                    rnU[i] = r.nextInt(80) - 40;
+                    rnV[i] = r.nextInt(80) - 40;
+                }
+                check(accum, cMinInt, cMaxInt, cMinSlope, cMaxSlope, cSteps,
+                        rnU, rnV, 1 + r.nextInt(8));
+            }
+        }
+    }
+
+    private void check(
+            int cMinInt,
+            int cMaxInt,
+            int cMinSlope,
+            int cMaxSlope,
+            int cSteps,
+            int[] rnU,
+            int[] rnV,
+            int cMax)
+    {
+        check(new HoughAccumulator(cMinInt, cMaxInt, cMinSlope, cMaxSlope,
+                cSteps), cMinInt, cMaxInt, cMinSlope, cMaxSlope, cSteps,
+                rnU, rnV, cMax);
+    }
+
+    private void check(
+            HoughAccumulator accum,
+            int cMinInt,
+            int cMaxInt,
+            int cMinSlope,
+            int cMaxSlope,
+            int cSteps,
+            int[] rnU,
+            int[] rnV,
+            int cMax)
+    {
+        accum.vote(rnU, rnV, rnU.length);
+        int[] rnSlope = new int[cMax];
+        int[] rnInt = new int[cMax];
+        int[] rnCount = new int[cMax];
+        int cFound = accum.getPeaks(rnSlope, rnInt, rnCount);
+
+        // build the accumulator in full
+        int cRange = cMaxInt - cMinInt;
+        int[] rnStep = new int[cSteps];
+        int[] rnAccum = new int[cSteps * cRange];
+        for (int s=0; s<cSteps; s++)
+        {
+            rnStep[s] = s * (cMaxSlope - cMinSlope) / cSteps + cMinSlope;
+            for (int i=0; i<rnU.length; i++)
+            {
+                int nInt = (rnV[i] * 256 - rnU[i] * rnStep[s]) / 256;
+                if (nInt >= cMinInt && nInt < cMaxInt)
+                {
+                    rnAccum[s * cRange + nInt - cMinInt]++;
+                }
+            }
+        }
+        // take the local peaks in decreasing order of count, then index
+        boolean[] rfTaken = new boolean[rnAccum.length];
+        int cExpected = 0;
+        while (cExpected < cMax)
+        {
+            int nBest = -1;
+            for (int n=0; n<rnAccum.length; n++)
+            {
+                if (!rfTaken[n] && rnAccum[n] > 0 &&
+                        isLocalPeak(rnAccum, n, cSteps, cRange) &&
+                        (nBest < 0 || rnAccum[n] > rnAccum[nBest]))
+                {
+                    nBest = n;
+                }
+            }
+            if (nBest < 0)
+            {
+                break;
+            }
+            rfTaken[nBest] = true;
+            assertTrue(cExpected < cFound);
+            assertEquals(rnAccum[nBest], rnCount[cExpected]);
+            assertEquals(rnStep[nBest / cRange], rnSlope[cExpected]);
+            assertEquals(nBest % cRange + cMinInt, rnInt[cExpected]);
+            cExpected++;
+        }
+        assertEquals(cExpected, cFound);
+    }
+
+    private static boolean isLocalPeak(
+            int[] rnAccum,
+            int n,
+            int cSteps,
+            int cRange)
+    {
+        int nSlope = n / cRange, nInt = n % cRange;
+        for (int i=nSlope-1; i<=nSlope+1; i++)
+        {
+            for (int j=nInt-1; j<=nInt+1; j++)
+            {
+                if (i < 0 || i >= cSteps || j < 0 || j >= cRange)
+                {
+                    continue;
+                }
+                int m = i * cRange + j;
+                if (rnAccum[m] > rnAccum[n] ||
+                        (rnAccum[m] == rnAccum[n] && m < n))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
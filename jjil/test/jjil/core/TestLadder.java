@@ -0,0 +1,124 @@
+package jjil.core;
+
+import junit.framework.TestCase;
+import jjil.algorithm.Gray8Crop;
+import jjil.algorithm.Gray8Threshold;
+
+public class TestLadder extends TestCase
+{
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 8;
+
+    /**
+     * Keeps the two pipeline outputs so they can be checked.
+     */
+    private static class KeepJoin implements Ladder.Join
+    {
+        Image imageFirst;
+        Image imageSecond;
+
+        public Image doJoin(Image imageFirst, Image imageSecond)
+        {
+            this.imageFirst = imageFirst;
+            this.imageSecond = imageSecond;
+            return imageFirst;
+        }
+    }
+
+    private static Gray8Image makeInput()
+    {
+        Gray8Image image = new Gray8Image(WIDTH, HEIGHT);
+        byte[] data = image.getData();
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i * 3 - 100);
+        }
+        return image;
+    }
+
+    /**
+     * Checks that a crop of the input, taken by one pipeline, still holds
+     * the input's original pixels after the other pipeline has thresholded
+     * the input in place.
+     */
+    private static void checkCrop(Gray8Image crop)
+    {
+        byte[] expected = makeInput().getData();
+        byte[] data = crop.getData();
+        for (int i = 0; i < 4; i++)
+        {
+            for (int j = 0; j < 4; j++)
+            {
+                assertEquals(expected[(i + 2) * WIDTH + j + 2], data[i * 4 + j]);
+            }
+        }
+    }
+
+    public void testCropThenModify() throws Error
+    {
+        KeepJoin join = new KeepJoin();
+        Ladder ladder = new Ladder(
+                new Gray8Crop(2, 2, 4, 4),
+                new Gray8Threshold(0, false),
+                join);
+        ladder.push(makeInput());
+        checkCrop((Gray8Image) join.imageFirst);
+    }
+
+    public void testModifyThenCrop() throws Error
+    {
+        KeepJoin join = new KeepJoin();
+        Ladder ladder = new Ladder(
+                new Gray8Threshold(0, false),
+                new Gray8Crop(2, 2, 4, 4),
+                join);
+        ladder.push(makeInput());
+        checkCrop((Gray8Image) join.imageSecond);
+    }
+
+    public void testParallelCropThenModify() throws Error
+    {
+        ParallelExecutor pe = new ParallelExecutor(2);
+        try
+        {
+            KeepJoin join = new KeepJoin();
+            Ladder ladder = new ParallelLadder(
+                    new Gray8Crop(2, 2, 4, 4),
+                    new Gray8Threshold(0, false),
+                    join,
+                    pe);
+            ladder.push(makeInput());
+            checkCrop((Gray8Image) join.imageFirst);
+        }
+        finally
+        {
+            pe.shutdown();
+        }
+    }
+
+    public void testModifiesInputIfEitherPipelineDoes() throws Error
+    {
+        Gray8Crop crop = new Gray8Crop(2, 2, 4, 4);
+        crop.setCopy(true);
+        Gray8Crop cropOther = new Gray8Crop(2, 2, 4, 4);
+        cropOther.setCopy(true);
+        KeepJoin join = new KeepJoin();
+        assertFalse(new Ladder(crop, cropOther, join).modifiesInput());
+        Ladder ladder = new Ladder(crop, new Gray8Threshold(0, false), join);
+        assertTrue(ladder.modifiesInput());
+        // the second pipeline gets the caller's image, and changes it
+        Gray8Image input = makeInput();
+        ladder.push(input);
+        assertFalse(input.getData()[0] == makeInput().getData()[0]);
+        assertTrue(new Ladder(
+                new Gray8Threshold(0, false), crop, join).modifiesInput());
+    }
+
+    public void testCopyingCropDoesNotModify() throws Error
+    {
+        Gray8Crop crop = new Gray8Crop(2, 2, 4, 4);
+        assertTrue(crop.modifiesInput());
+        crop.setCopy(true);
+        assertFalse(crop.modifiesInput());
+    }
+}
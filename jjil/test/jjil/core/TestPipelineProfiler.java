@@ -0,0 +1,81 @@
+package jjil.core;
+
+import junit.framework.TestCase;
+import jjil.algorithm.Gray8Crop;
+import jjil.algorithm.Gray8Threshold;
+
+public class TestPipelineProfiler extends TestCase
+{
+    /**
+     * A profiler whose clock advances a microsecond each time it is read,
+     * so the times recorded do not depend on the machine.
+     */
+    private static class StepProfiler extends PipelineProfiler
+    {
+        private long lNow = 0;
+
+        StepProfiler(PipelineStage pipe)
+        {
+            super(pipe);
+        }
+
+        protected long getNanos()
+        {
+            this.lNow += 1000;
+            return this.lNow;
+        }
+    }
+
+    private static PipelineProfiler.Stats find(
+            PipelineProfiler profiler, 
+            String szName)
+    {
+        PipelineProfiler.Stats[] rgStats = profiler.getSnapshot();
+        for (int i = 0; i < rgStats.length; i++)
+        {
+            if (rgStats[i].getName().equals(szName))
+            {
+                return rgStats[i];
+            }
+        }
+        fail(szName + " was not reported");
+        return null;
+    }
+
+    public void testStagesReported() throws Error
+    {
+        Gray8Crop crop = new Gray8Crop(0, 0, 4, 4);
+        crop.setCopy(true);
+        Sequence seq = new Sequence(crop);
+        seq.add(new Gray8Threshold(0, false));
+        PipelineProfiler profiler = new StepProfiler(seq);
+        profiler.push(new Gray8Image(8, 8));
+        profiler.push(new Gray8Image(8, 8));
+        assertEquals(3, profiler.getSnapshot().length);
+        PipelineProfiler.Stats s = find(profiler, "Sequence/1:Gray8Crop");
+        assertEquals(2, s.getPushes());
+        assertEquals(128, s.getPixels());
+        // each push reads the clock once at its start and once at its end
+        assertEquals(2000, s.getTotalNanos());
+        assertEquals(32, find(profiler, "Sequence/2:Gray8Threshold").getPixels());
+        assertEquals(2, find(profiler, "Sequence").getPushes());
+    }
+
+    /**
+     * Stages added to a Sequence after the profiler was attached are
+     * reported too.
+     */
+    public void testStageAddedLater() throws Error
+    {
+        Gray8Crop crop = new Gray8Crop(0, 0, 4, 4);
+        crop.setCopy(true);
+        Sequence seq = new Sequence(crop);
+        PipelineProfiler profiler = new StepProfiler(seq);
+        seq.add(new Gray8Threshold(0, false));
+        seq.add(new Gray8Threshold(0, false));
+        profiler.push(new Gray8Image(8, 8));
+        assertEquals(1, find(profiler, "Sequence/2:Gray8Threshold").getPushes());
+        assertEquals(1, find(profiler, "Sequence/3:Gray8Threshold").getPushes());
+        assertEquals(4, profiler.getSnapshot().length);
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * BarcodeBatch.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Vector;
+
+import javax.imageio.ImageIO;
+
+import jjil.algorithm.Ean13Scanner;
+
+/**
+ * Decodes EAN-13 barcodes in a batch of images with Ean13Scanner and reports
+ * the latency of each decode and the success rate, so that changes to the
+ * decoder can be checked for regressions and timed on a PC.<p>
+ * The input is either a directory or a file of concatenated NV21 frames
+ * ("-" for standard input). In a directory every .png, .pgm (binary,
+ * P5), and .nv21 or .yuv (raw NV21) file is decoded; raw files need the
+ * frame size, given with -size. Only the luminance of each image is used.
+ * If a file name starts with 13 digits they are taken as the code it should
+ * read, and reads are also counted as correct or wrong.<p>
+ * Images are decoded by a pool of worker threads, each with its own
+ * scanner. Every image is decoded on its own, without votes from other
+ * images. One line is printed per image, in input order, followed by a
+ * summary:
+ * <pre>
+ *   name	code or -	ms	[ok|WRONG]
+ *   images	read	correct	wrong	mean ms	median ms	p95 ms	max ms	images/s
+ * </pre>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:tools jjil.tools.BarcodeBatch [options] &lt;dir | file | -&gt;
+ *     -threads n   worker threads (default: number of processors)
+ *     -size WxH    frame size of raw NV21 files and streams
+ *     -lines n     scanlines at each angle (default Ean13Scanner.DEFAULT_SCANLINES)
+ *     -angles a,b  angles to scan, in degrees (default 0,90,45,-45)
+ *     -votes n     scanlines that must agree (default 1)
+ *     -repeat n    decode each image n times, for timing (default 1)
+ *     -q           print only the summary
+ * </pre>
+ * @author webb
+ */
+public class BarcodeBatch {
+    /**
+     * One image to decode and, once decoded, the result.
+     */
+    private static class Item {
+        int nIndex;
+        String szName;
+        File file;
+        /** Luminance, one byte per pixel, 0 to 255 as unsigned. */
+        byte[] rbLuma;
+        int cWidth, cHeight;
+        String szCode;
+        String szError;
+        long lNanos;
+    }
+
+    private int cThreads = Runtime.getRuntime().availableProcessors();
+    private int cRawWidth = 0, cRawHeight = 0;
+    private int cScanlines = Ean13Scanner.DEFAULT_SCANLINES;
+    private int[] rnAngles = {0, 90, 45, -45};
+    private int nVotes = 1;
+    private int cRepeat = 1;
+    private boolean fQuiet = false;
+
+    /** Files of a directory still to be decoded, or null for a stream. */
+    private File[] rFiles;
+    private int nNextFile = 0;
+    /** Stream of NV21 frames, or null for a directory. */
+    private DataInputStream isFrames;
+    /** Where the chroma of stream frames is read, to be thrown away. */
+    private byte[] rbChroma;
+    private int cItems = 0;
+    private final Vector vItems = new Vector();
+
+    /**
+     * Decodes a batch of images.
+     * @param args options and the input; see the class description.
+     * @throws IOException if the input cannot be read.
+     * @throws InterruptedException if interrupted waiting for the workers.
+     */
+    public static void main(String[] args)
+        throws IOException, InterruptedException
+    {
+        BarcodeBatch batch = new BarcodeBatch();
+        String szInput = batch.parseArgs(args);
+        if (szInput == null) {
+            System.err.println(
+                "usage: BarcodeBatch [-threads n] [-size WxH] [-lines n] " +
+                "[-angles a,b,...] [-votes n] [-repeat n] [-q] " +
+                "<dir | nv21 file | ->");
+            System.exit(1);
+        }
+        batch.run(szInput);
+    }
+
+    /**
+     * Sets the options from the command line.
+     * @return the input, or null if the arguments are not valid.
+     */
+    private String parseArgs(String[] args) {
+        String szInput = null;
+        try {
+            for (int i=0; i<args.length; i++) {
+                String sz = args[i];
+                if (sz.equals("-q")) {
+                    this.fQuiet = true;
+                } else if (sz.equals("-threads") && i + 1 < args.length) {
+                    this.cThreads = Integer.parseInt(args[++i]);
+                } else if (sz.equals("-lines") && i + 1 < args.length) {
+                    this.cScanlines = Integer.parseInt(args[++i]);
+                } else if (sz.equals("-angles") && i + 1 < args.length) {
+                    this.rnAngles = parseInts(args[++i]);
+                } else if (sz.equals("-votes") && i + 1 < args.length) {
+                    this.nVotes = Integer.parseInt(args[++i]);
+                } else if (sz.equals("-repeat") && i + 1 < args.length) {
+                    this.cRepeat = Integer.parseInt(args[++i]);
+                } else if (sz.equals("-size") && i + 1 < args.length) {
+                    String szSize = args[++i];
+                    int nX = szSize.indexOf('x');
+                    this.cRawWidth = Integer.parseInt(szSize.substring(0, nX));
+                    this.cRawHeight = Integer.parseInt(szSize.substring(nX + 1));
+                } else if (szInput == null &&
+                        (sz.equals("-") || !sz.startsWith("-"))) {
+                    szInput = sz;
+                } else {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        } catch (StringIndexOutOfBoundsException e) {
+            return null;
+        }
+        if (this.cThreads < 1 || this.cScanlines < 1 || this.nVotes < 1 ||
+                this.cRepeat < 1) {
+            return null;
+        }
+        return szInput;
+    }
+
+    /**
+     * Parses a comma-separated list of integers.
+     * @throws NumberFormatException if an entry is not an integer.
+     */
+    private static int[] parseInts(String sz) {
+        Vector v = new Vector();
+        int nStart = 0;
+        for (;;) {
+            int nComma = sz.indexOf(',', nStart);
+            String szEntry = nComma < 0 ?
+                sz.substring(nStart) : sz.substring(nStart, nComma);
+            v.addElement(Integer.valueOf(szEntry.trim()));
+            if (nComma < 0) {
+                break;
+            }
+            nStart = nComma + 1;
+        }
+        int[] rn = new int[v.size()];
+        for (int i=0; i<rn.length; i++) {
+            rn[i] = ((Integer) v.elementAt(i)).intValue();
+        }
+        return rn;
+    }
+
+    /**
+     * Decodes every image of the input with the worker pool and prints the
+     * results.
+     */
+    private void run(String szInput) throws IOException, InterruptedException {
+        File fileInput = new File(szInput);
+        if (!szInput.equals("-") && fileInput.isDirectory()) {
+            this.rFiles = fileInput.listFiles();
+            Arrays.sort(this.rFiles);
+        } else {
+            if (this.cRawWidth <= 0 || this.cRawHeight <= 0) {
+                System.err.println("a stream of NV21 frames needs -size WxH");
+                System.exit(1);
+            }
+            InputStream is = szInput.equals("-") ?
+                System.in : new FileInputStream(fileInput);
+            this.isFrames = new DataInputStream(new BufferedInputStream(is));
+        }
+        Thread[] rThreads = new Thread[this.cThreads];
+        final IOException[] rException = new IOException[1];
+        long lStart = System.nanoTime();
+        for (int i=0; i<rThreads.length; i++) {
+            rThreads[i] = new Thread() {
+                public void run() {
+                    try {
+                        work();
+                    } catch (IOException e) {
+                        synchronized (rException) {
+                            rException[0] = e;
+                        }
+                    } catch (jjil.core.Error e) {
+                        synchronized (rException) {
+                            rException[0] = new IOException(e.toString());
+                        }
+                    }
+                }
+            };
+            rThreads[i].start();
+        }
+        for (int i=0; i<rThreads.length; i++) {
+            rThreads[i].join();
+        }
+        long lWall = System.nanoTime() - lStart;
+        if (this.isFrames != null) {
+            this.isFrames.close();
+        }
+        if (rException[0] != null) {
+            throw rException[0];
+        }
+        report(lWall);
+    }
+
+    /**
+     * Takes images from the input and decodes them until there are none
+     * left. Run by each worker thread.
+     */
+    private void work() throws IOException, jjil.core.Error {
+        Ean13Scanner scanner = new Ean13Scanner(this.cScanlines, this.rnAngles);
+        scanner.setRequiredVotes(this.nVotes);
+        byte[] rbFrame = null;
+        Item item;
+        while ((item = next(rbFrame)) != null) {
+            if (item.file != null) {
+                try {
+                    load(item);
+                } catch (IOException e) {
+                    item.szError = e.getMessage();
+                }
+            } else {
+                // the frame buffer came back with the luminance in it
+                rbFrame = item.rbLuma;
+            }
+            if (item.rbLuma != null) {
+                long lBest = Long.MAX_VALUE;
+                for (int i=0; i<this.cRepeat; i++) {
+                    scanner.reset();
+                    long lStart = System.nanoTime();
+                    item.szCode = scanner.scan(
+                        item.rbLuma, 0, item.cWidth, item.cWidth, item.cHeight);
+                    lBest = Math.min(lBest, System.nanoTime() - lStart);
+                }
+                item.lNanos = lBest;
+            }
+            // only the result is kept; a stream frame's buffer is reused
+            // for the next frame this worker reads
+            item.rbLuma = null;
+        }
+    }
+
+    /**
+     * Returns the next image of the input, or null if there are no more.
+     * A directory entry is returned with only its file set and is loaded by
+     * the worker; a stream frame is read here, since the stream is shared.
+     * @param rbFrame a buffer from an earlier frame to reuse, or null.
+     */
+    private synchronized Item next(byte[] rbFrame) throws IOException {
+        Item item = new Item();
+        if (this.rFiles != null) {
+            while (this.nNextFile < this.rFiles.length) {
+                File file = this.rFiles[this.nNextFile++];
+                if (file.isFile() && format(file.getName()) != null) {
+                    item.file = file;
+                    item.szName = file.getName();
+                    break;
+                }
+            }
+            if (item.file == null) {
+                return null;
+            }
+        } else {
+            int cLuma = this.cRawWidth * this.cRawHeight;
+            if (rbFrame == null || rbFrame.length != cLuma) {
+                rbFrame = new byte[cLuma];
+            }
+            try {
+                this.isFrames.readFully(rbFrame);
+            } catch (EOFException e) {
+                return null;
+            }
+            // the stream may be a pipe, which cannot skip
+            if (this.rbChroma == null) {
+                this.rbChroma = new byte[cLuma / 2];
+            }
+            int cRead = 0;
+            while (cRead < this.rbChroma.length) {
+                int n = this.isFrames.read(
+                    this.rbChroma, cRead, this.rbChroma.length - cRead);
+                if (n < 0) {
+                    break;
+                }
+                cRead += n;
+            }
+            item.rbLuma = rbFrame;
+            item.cWidth = this.cRawWidth;
+            item.cHeight = this.cRawHeight;
+            item.szName = "frame" + this.cItems;
+        }
+        item.nIndex = this.cItems++;
+        this.vItems.addElement(item);
+        return item;
+    }
+
+    /**
+     * Returns the format of a file from its extension: "png", "pgm",
+     * "nv21", or null if it is not an image this program reads.
+     */
+    private static String format(String szName) {
+        String sz = szName.toLowerCase();
+        if (sz.endsWith(".png")) {
+            return "png";
+        } else if (sz.endsWith(".pgm")) {
+            return "pgm";
+        } else if (sz.endsWith(".nv21") || sz.endsWith(".yuv")) {
+            return "nv21";
+        }
+        return null;
+    }
+
+    /**
+     * Reads the luminance of an image file.
+     */
+    private void load(Item item) throws IOException {
+        String szFormat = format(item.szName);
+        if (szFormat.equals("png")) {
+            BufferedImage bi = ImageIO.read(item.file);
+            if (bi == null) {
+                throw new IOException("not a readable PNG file");
+            }
+            int cWidth = bi.getWidth(), cHeight = bi.getHeight();
+            int[] rnRow = new int[cWidth];
+            byte[] rbLuma = new byte[cWidth * cHeight];
+            for (int i=0; i<cHeight; i++) {
+                bi.getRGB(0, i, cWidth, 1, rnRow, 0, cWidth);
+                for (int j=0; j<cWidth; j++) {
+                    int nRgb = rnRow[j];
+                    rbLuma[i*cWidth+j] = (byte)
+                        ((77 * ((nRgb >> 16) & 0xff) +
+                          150 * ((nRgb >> 8) & 0xff) +
+                          29 * (nRgb & 0xff)) >> 8);
+                }
+            }
+            item.rbLuma = rbLuma;
+            item.cWidth = cWidth;
+            item.cHeight = cHeight;
+            return;
+        }
+        DataInputStream is = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(item.file)));
+        try {
+            if (szFormat.equals("pgm")) {
+                readPgm(is, item);
+            } else {
+                if (this.cRawWidth <= 0 || this.cRawHeight <= 0) {
+                    throw new IOException("raw NV21 files need -size WxH");
+                }
+                if (item.file.length() <
+                        this.cRawWidth * this.cRawHeight * 3 / 2) {
+                    throw new IOException("shorter than one NV21 frame");
+                }
+                item.cWidth = this.cRawWidth;
+                item.cHeight = this.cRawHeight;
+                item.rbLuma = new byte[item.cWidth * item.cHeight];
+                is.readFully(item.rbLuma);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads a binary (P5) PGM image. Images with more than 8 bits per pixel
+     * keep the most significant byte.
+     */
+    private static void readPgm(DataInputStream is, Item item)
+        throws IOException
+    {
+        if (is.read() != 'P' || is.read() != '5') {
+            throw new IOException("not a binary PGM file");
+        }
+        int cWidth = readPgmInt(is);
+        int cHeight = readPgmInt(is);
+        int nMax = readPgmInt(is);
+        if (cWidth <= 0 || cHeight <= 0 || nMax <= 0 || nMax > 65535) {
+            throw new IOException("bad PGM header");
+        }
+        byte[] rbLuma = new byte[cWidth * cHeight];
+        if (nMax < 256) {
+            is.readFully(rbLuma);
+            if (nMax != 255) {
+                for (int i=0; i<rbLuma.length; i++) {
+                    rbLuma[i] = (byte) ((rbLuma[i] & 0xff) * 255 / nMax);
+                }
+            }
+        } else {
+            for (int i=0; i<rbLuma.length; i++) {
+                rbLuma[i] = (byte) (is.readUnsignedShort() * 255 / nMax);
+            }
+        }
+        item.rbLuma = rbLuma;
+        item.cWidth = cWidth;
+        item.cHeight = cHeight;
+    }
+
+    /**
+     * Reads a decimal number from a PGM header, skipping white space and
+     * comments before it and the single white space character after it.
+     */
+    private static int readPgmInt(InputStream is) throws IOException {
+        int c = is.read();
+        while (c == '#' || Character.isWhitespace((char) c)) {
+            if (c == '#') {
+                while (c != '\n' && c != -1) {
+                    c = is.read();
+                }
+            }
+            c = is.read();
+        }
+        if (c < '0' || c > '9') {
+            throw new IOException("bad PGM header");
+        }
+        int n = 0;
+        while (c >= '0' && c <= '9') {
+            n = n * 10 + (c - '0');
+            c = is.read();
+        }
+        return n;
+    }
+
+    /**
+     * Returns the code a file should read, from the 13 digits its name
+     * starts with, or null.
+     */
+    private static String expected(String szName) {
+        if (szName.length() < 13) {
+            return null;
+        }
+        for (int i=0; i<13; i++) {
+            if (!Character.isDigit(szName.charAt(i))) {
+                return null;
+            }
+        }
+        return szName.substring(0, 13);
+    }
+
+    /**
+     * Prints a line for each image, in input order, and the summary.
+     * @param lWall time taken by the whole batch, in nanoseconds.
+     */
+    private void report(long lWall) {
+        Item[] rItems = new Item[this.vItems.size()];
+        for (int i=0; i<rItems.length; i++) {
+            Item item = (Item) this.vItems.elementAt(i);
+            rItems[item.nIndex] = item;
+        }
+        long[] rlNanos = new long[rItems.length];
+        int cDecoded = 0, cRead = 0, cCorrect = 0, cWrong = 0;
+        long lTotal = 0;
+        for (int i=0; i<rItems.length; i++) {
+            Item item = rItems[i];
+            String szExpected = expected(item.szName);
+            String szCheck = "";
+            if (item.szCode != null) {
+                cRead++;
+                if (szExpected != null) {
+                    if (szExpected.equals(item.szCode)) {
+                        cCorrect++;
+                        szCheck = "\tok";
+                    } else {
+                        cWrong++;
+                        szCheck = "\tWRONG";
+                    }
+                }
+            }
+            if (item.szError == null) {
+                rlNanos[cDecoded++] = item.lNanos;
+                lTotal += item.lNanos;
+            }
+            if (!this.fQuiet) {
+                if (item.szError != null) {
+                    System.out.println(item.szName + "\terror: " + item.szError);
+                } else {
+                    System.out.println(item.szName + "\t" +
+                        (item.szCode == null ? "-" : item.szCode) + "\t" +
+                        ms(item.lNanos) + szCheck);
+                }
+            }
+        }
+        Arrays.sort(rlNanos, 0, cDecoded);
+        System.out.println("images\tread\tcorrect\twrong\t" +
+            "mean ms\tmedian ms\tp95 ms\tmax ms\timages/s");
+        System.out.println(cDecoded + "\t" + cRead + "\t" + cCorrect + "\t" +
+            cWrong + "\t" +
+            (cDecoded == 0 ? "-" : ms(lTotal / cDecoded)) + "\t" +
+            (cDecoded == 0 ? "-" : ms(rlNanos[cDecoded / 2])) + "\t" +
+            (cDecoded == 0 ? "-" : ms(rlNanos[(cDecoded * 95 - 1) / 100])) + "\t" +
+            (cDecoded == 0 ? "-" : ms(rlNanos[cDecoded - 1])) + "\t" +
+            Math.round(rItems.length * 1e10 / Math.max(1, lWall)) / 10.0);
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds with three decimals.
+     */
+    private static String ms(long lNanos) {
+        return Double.toString(Math.round(lNanos / 1e3) / 1e3);
+    }
+}
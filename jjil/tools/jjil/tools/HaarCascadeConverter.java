@@ -0,0 +1,79 @@
+/*
+ * HaarCascadeConverter.java
+ *
+ * Copyright 2011 by Jon A. Webb
+ *     This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the Lesser GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jjil.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import jjil.algorithm.HaarClassifierCascade;
+import jjil.algorithm.HaarClassifierCompiled;
+
+/**
+ * Converts a Haar cascade from the text form produced by haar2j2me to the
+ * binary form loaded by HaarClassifierCompiled.fromBinaryStream(). Loading
+ * the binary form is much faster, which matters for application startup on
+ * a phone, so the conversion should be done on a PC and the binary file
+ * shipped with the application.<p>
+ * This is a J2SE program; run it with the JJIL classes on the classpath:
+ * <pre>
+ *   java -cp jjil.jar:tools jjil.tools.HaarCascadeConverter in.txt out.hcc
+ * </pre>
+ * @author webb
+ */
+public class HaarCascadeConverter {
+    /**
+     * Converts one cascade.
+     * @param args the text cascade file and the binary file to write.
+     * @throws jjil.core.Error if the text cascade cannot be parsed.
+     * @throws IOException if either file cannot be read or written.
+     */
+    public static void main(String[] args)
+        throws jjil.core.Error, IOException {
+        if (args.length != 2) {
+            System.err.println(
+                    "usage: HaarCascadeConverter <text cascade> <binary cascade>");
+            System.exit(1);
+        }
+        InputStream is = new BufferedInputStream(new FileInputStream(args[0]));
+        HaarClassifierCascade hcc;
+        try {
+            hcc = HaarClassifierCascade.fromStream(new InputStreamReader(is));
+        } finally {
+            is.close();
+        }
+        HaarClassifierCascade hccCompiled = hcc.compile();
+        if (!(hccCompiled instanceof HaarClassifierCompiled)) {
+            System.err.println(args[0] + ": cascade cannot be compiled");
+            System.exit(1);
+        }
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(args[1]));
+        try {
+            ((HaarClassifierCompiled) hccCompiled).toBinaryStream(os);
+        } finally {
+            os.close();
+        }
+    }
+}